@@ -1,6 +1,7 @@
 package eu.daiad.web.controller.api;
 
 import java.util.List;
+import java.util.UUID;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
@@ -27,6 +28,9 @@ import eu.daiad.web.model.device.EnumDeviceType;
 import eu.daiad.web.model.device.WaterMeterDevice;
 import eu.daiad.web.model.error.DeviceErrorCode;
 import eu.daiad.web.model.error.QueryErrorCode;
+import eu.daiad.web.model.loader.DataStoreReceiptResponse;
+import eu.daiad.web.model.loader.DataStoreStatusRequest;
+import eu.daiad.web.model.loader.DataStoreStatusResponse;
 import eu.daiad.web.model.meter.WaterMeterMeasurementCollection;
 import eu.daiad.web.model.query.DataQuery;
 import eu.daiad.web.model.query.DataQueryCollectionResponse;
@@ -41,6 +45,7 @@ import eu.daiad.web.repository.application.IAmphiroTimeOrderedRepository;
 import eu.daiad.web.repository.application.IDeviceRepository;
 import eu.daiad.web.repository.application.IMeterDataRepository;
 import eu.daiad.web.service.IDataService;
+import eu.daiad.web.service.IDataStoreQueue;
 
 /**
  * Provides actions for storing Amphiro B1 data to the server and querying
@@ -90,6 +95,12 @@ public class DataController extends BaseRestController {
     @Autowired
     private IDataService dataService;
 
+    /**
+     * Queue for storing data uploads asynchronously.
+     */
+    @Autowired
+    private IDataStoreQueue dataStoreQueue;
+
     /**
      * General purpose method for querying data using a set of filtering
      * criteria. Depending on the given criteria, more than one data series may
@@ -291,6 +302,7 @@ public class DataController extends BaseRestController {
         Device device = null;
 
         boolean success = true;
+        boolean queued = false;
 
         try {
             switch (data.getType()) {
@@ -310,7 +322,13 @@ public class DataController extends BaseRestController {
                             throw createApplicationException(DeviceErrorCode.NOT_SUPPORTED).set("type",
                                             data.getType().toString());
                         }
-                        response = amphiroIndexOrderedRepository.store(authenticatedUser, (AmphiroDevice) device, (AmphiroMeasurementCollection) data);
+                        UUID receipt = dataStoreQueue.submit(authenticatedUser, data);
+                        if (receipt == null) {
+                            response = amphiroIndexOrderedRepository.store(authenticatedUser, (AmphiroDevice) device, (AmphiroMeasurementCollection) data);
+                        } else {
+                            response = new DataStoreReceiptResponse(receipt);
+                            queued = true;
+                        }
                     }
                     break;
                 case METER:
@@ -329,7 +347,13 @@ public class DataController extends BaseRestController {
                                             data.getType().toString());
                         }
 
-                        waterMeterMeasurementRepository.store(((WaterMeterDevice) device).getSerial(), (WaterMeterMeasurementCollection) data);
+                        UUID receipt = dataStoreQueue.submit(authenticatedUser, data);
+                        if (receipt == null) {
+                            waterMeterMeasurementRepository.store(((WaterMeterDevice) device).getSerial(), (WaterMeterMeasurementCollection) data);
+                        } else {
+                            response = new DataStoreReceiptResponse(receipt);
+                            queued = true;
+                        }
                     }
                     break;
                 default:
@@ -342,12 +366,35 @@ public class DataController extends BaseRestController {
 
             success = false;
         } finally {
-            logDataUploadSession(authenticatedUser, device, success);
+            // Queued uploads are logged when the data is stored
+            if (!queued) {
+                logDataUploadSession(authenticatedUser, device, success);
+            }
         }
 
         return response;
     }
 
+    /**
+     * Returns the status of data uploads that have been accepted for
+     * asynchronous storage by {@link #storeUsingAmphiroIndexOredering}.
+     *
+     * @param request the upload receipts.
+     * @return the controller's response.
+     */
+    @RequestMapping(value = "/api/v2/data/store/status", method = RequestMethod.POST, consumes = "application/json", produces = "application/json")
+    public RestResponse getStoreStatus(@RequestBody DataStoreStatusRequest request) {
+        try {
+            AuthenticatedUser user = authenticate(request.getCredentials(), EnumRole.ROLE_USER, EnumRole.ROLE_SYSTEM_ADMIN, EnumRole.ROLE_UTILITY_ADMIN);
+
+            return new DataStoreStatusResponse(dataStoreQueue.getStatus(user.getKey(), request.getReceipts()));
+        } catch (Exception ex) {
+            logger.error(ex.getMessage(), ex);
+
+            return new RestResponse(getError(ex));
+        }
+    }
+
     /**
      * Assigns household members to amphiro b1 sessions.
      *
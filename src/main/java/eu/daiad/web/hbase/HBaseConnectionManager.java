@@ -9,8 +9,11 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.BufferedMutator;
+import org.apache.hadoop.hbase.client.BufferedMutatorParams;
 import org.apache.hadoop.hbase.client.Connection;
 import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.HTable;
 import org.apache.hadoop.hbase.client.Table;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
@@ -87,6 +90,26 @@ public class HBaseConnectionManager implements InitializingBean, DisposableBean
 		return this.connection.getTable(TableName.valueOf(name));
 	}
 
+	public BufferedMutator getBufferedMutator(String name, long writeBufferSize) throws IOException {
+		BufferedMutatorParams params = new BufferedMutatorParams(TableName.valueOf(name));
+		if (writeBufferSize > 0) {
+			params.writeBufferSize(writeBufferSize);
+		}
+		return this.connection.getBufferedMutator(params);
+	}
+
+	public BufferedMutator getBufferedMutator(BufferedMutatorParams params) throws IOException {
+		return this.connection.getBufferedMutator(params);
+	}
+
+	public HTable getHTable(String name) throws IOException {
+		return new HTable(TableName.valueOf(name), this.connection);
+	}
+
+	public Configuration getConfiguration() {
+		return this.connection.getConfiguration();
+	}
+
 	public Admin getAdmin() throws IOException {
 		return this.connection.getAdmin();
 	}
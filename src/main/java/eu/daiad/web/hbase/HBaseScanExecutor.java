@@ -0,0 +1,104 @@
+package eu.daiad.web.hbase;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Bounded thread pool for executing HBase scans concurrently. When all threads
+ * are busy and the queue is full, new scans are rejected instead of running in
+ * the calling thread, where they could not be cancelled by a query timeout.
+ */
+@Component
+public class HBaseScanExecutor implements InitializingBean, DisposableBean {
+
+    /**
+     * Logger instance for writing events using the configured logging API.
+     */
+    private static final Log logger = LogFactory.getLog(HBaseScanExecutor.class);
+
+    /**
+     * Enables executing partition scans in parallel.
+     */
+    @Value("${hbase.data.query.parallel:false}")
+    private boolean enabled;
+
+    /**
+     * Maximum number of threads used for executing scans.
+     */
+    @Value("${hbase.data.query.parallel.threads:8}")
+    private int threads;
+
+    /**
+     * Maximum number of scans waiting for an available thread.
+     */
+    @Value("${hbase.data.query.parallel.queue-size:256}")
+    private int queueSize;
+
+    private ThreadPoolExecutor executor;
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        final AtomicInteger counter = new AtomicInteger();
+
+        executor = new ThreadPoolExecutor(threads,
+                                          threads,
+                                          60L,
+                                          TimeUnit.SECONDS,
+                                          new ArrayBlockingQueue<Runnable>(queueSize),
+                                          new ThreadFactory() {
+                                              @Override
+                                              public Thread newThread(Runnable r) {
+                                                  Thread thread = new Thread(r, "hbase-scan-" + counter.incrementAndGet());
+                                                  thread.setDaemon(true);
+                                                  return thread;
+                                              }
+                                          },
+                                          new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (executor != null) {
+            executor.shutdownNow();
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                logger.warn("HBase scan executor did not terminate in time.");
+            }
+            executor = null;
+        }
+    }
+
+    /**
+     * Returns true if scans should be executed in parallel.
+     *
+     * @return true if parallel execution is enabled.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Submits a task for execution.
+     *
+     * @param task the task to execute.
+     * @return a {@link Future} representing the pending result of the task.
+     * @throws RejectedExecutionException if all threads are busy and the queue is full.
+     */
+    public <T> Future<T> submit(Callable<T> task) throws RejectedExecutionException {
+        return executor.submit(task);
+    }
+
+}
@@ -0,0 +1,48 @@
+package eu.daiad.web.job.builder;
+
+import org.springframework.batch.core.Job;
+import org.springframework.batch.core.JobParametersIncrementer;
+import org.springframework.batch.core.Step;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import eu.daiad.web.job.task.ImportMeterDataTask;
+
+/**
+ * Job for back filling historical smart water meter data from files. Instead of
+ * storing every reading separately, data is written to HBase files which are
+ * bulk loaded to HBase. The job requires the {@code staging.dir} parameter.
+ */
+@Component
+public class WaterMeterDataBulkLoadJobBuilder extends BaseJobBuilder implements IJobBuilder {
+
+    /**
+     * Data bulk load step name.
+     */
+    private static final String STEP_BULK_LOAD_DATA = "bulk-load-data";
+
+    /**
+     * Task for importing meter data.
+     */
+    @Autowired
+    private ImportMeterDataTask importMeterDataTask;
+
+    /**
+     * Builds as step for bulk loading data.
+     *
+     * @return the configured step.
+     */
+    private Step bulkLoadData() {
+        return stepBuilderFactory.get(STEP_BULK_LOAD_DATA)
+                        .tasklet(importMeterDataTask)
+                        .build();
+    }
+
+    @Override
+    public Job build(String name, JobParametersIncrementer incrementer) throws Exception {
+        return jobBuilderFactory.get(name)
+                                .incrementer(incrementer)
+                                .start(bulkLoadData())
+                                .build();
+    }
+}
@@ -1,19 +1,37 @@
 package eu.daiad.web.job.builder;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
 import org.springframework.batch.core.ExitStatus;
 import org.springframework.batch.core.Job;
+import org.springframework.batch.core.JobExecution;
 import org.springframework.batch.core.JobParametersIncrementer;
 import org.springframework.batch.core.Step;
 import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.job.flow.FlowExecutionStatus;
+import org.springframework.batch.core.job.flow.JobExecutionDecider;
 import org.springframework.batch.core.listener.ExecutionContextPromotionListener;
+import org.springframework.batch.core.partition.support.DefaultStepExecutionAggregator;
+import org.springframework.batch.core.partition.support.Partitioner;
+import org.springframework.batch.core.partition.support.StepExecutionAggregator;
 import org.springframework.batch.item.ExecutionContext;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
 import org.springframework.stereotype.Component;
 
 import eu.daiad.web.job.task.CreateDirectoryTask;
 import eu.daiad.web.job.task.DeleteDirectoryTask;
+import eu.daiad.web.job.task.ImportMeterDataPartitionTask;
 import eu.daiad.web.job.task.ImportMeterDataTask;
+import eu.daiad.web.job.task.RegisterMeterDataUploadTask;
 import eu.daiad.web.job.task.SftpTransferTask;
+import eu.daiad.web.job.task.SplitMeterDataTask;
+import eu.daiad.web.model.loader.FileProcessingStatus;
 import eu.daiad.web.service.scheduling.Constants;
 
 /**
@@ -38,11 +56,47 @@ public class WaterMeterDataSftpLoadJobBuilder extends BaseJobBuilder implements
      */
     private static final String STEP_IMPORT_DATA = "import-data";
 
+    /**
+     * Name of the step that splits the data files into partitions when data is
+     * imported by multiple workers.
+     */
+    private static final String STEP_SPLIT_DATA = "split-data";
+
+    /**
+     * Name of the worker step that imports a single partition of the data.
+     */
+    private static final String STEP_IMPORT_DATA_PARTITION = "import-data-partition";
+
+    /**
+     * Name of the step that stores the imported files when data is imported
+     * by multiple workers.
+     */
+    private static final String STEP_REGISTER_UPLOADS = "register-uploads";
+
     /**
      * Name of the step that deletes the local working directory.
      */
     private static final String STEP_DELETE_WORK_DIR = "delete-work-dir";
 
+    /**
+     * Flow status for importing files sequentially by a single task.
+     */
+    private static final FlowExecutionStatus IMPORT_SEQUENTIAL = new FlowExecutionStatus("SEQUENTIAL");
+
+    /**
+     * Flow status for importing files using multiple concurrent workers.
+     */
+    private static final FlowExecutionStatus IMPORT_PARTITIONED = new FlowExecutionStatus("PARTITIONED");
+
+    /**
+     * Number of workers that import data concurrently. Rows are assigned to
+     * workers by the hash of the meter serial number. If less than 2, or if
+     * HBase bulk loading is enabled by setting a staging directory, files are
+     * imported sequentially by a single task.
+     */
+    @Value("${daiad.loader.meter.workers:1}")
+    private int workers;
+
     /**
      * Task for creating local working directory.
      */
@@ -61,6 +115,24 @@ public class WaterMeterDataSftpLoadJobBuilder extends BaseJobBuilder implements
     @Autowired
     private ImportMeterDataTask importMeterDataTask;
 
+    /**
+     * Task for splitting meter data files into partitions.
+     */
+    @Autowired
+    private SplitMeterDataTask splitMeterDataTask;
+
+    /**
+     * Task for importing a single partition of meter data.
+     */
+    @Autowired
+    private ImportMeterDataPartitionTask importMeterDataPartitionTask;
+
+    /**
+     * Task for storing the files imported by multiple workers.
+     */
+    @Autowired
+    private RegisterMeterDataUploadTask registerMeterDataUploadTask;
+
     /**
      * Task for deleting local working directory.
      */
@@ -142,6 +214,177 @@ public class WaterMeterDataSftpLoadJobBuilder extends BaseJobBuilder implements
                         .build();
 	}
 
+    /**
+     * Creates a decider that selects the sequential import step if HBase bulk
+     * loading is enabled, since bulk loading requires a single writer, and the
+     * partitioned step otherwise.
+     *
+     * @return the decider.
+     */
+    private JobExecutionDecider selectImportStep() {
+        return new JobExecutionDecider() {
+
+            @Override
+            public FlowExecutionStatus decide(JobExecution jobExecution, StepExecution stepExecution) {
+                String key = STEP_IMPORT_DATA +
+                             Constants.PARAMETER_NAME_DELIMITER +
+                             ImportMeterDataTask.EnumInParameter.STAGING_DIRECTORY.getValue();
+
+                String stagingDir = jobExecution.getJobParameters().getString(key);
+                if ((StringUtils.isBlank(stagingDir)) && (jobExecution.getExecutionContext().containsKey(key))) {
+                    stagingDir = jobExecution.getExecutionContext().getString(key);
+                }
+
+                return (StringUtils.isBlank(stagingDir) ? IMPORT_PARTITIONED : IMPORT_SEQUENTIAL);
+            }
+
+        };
+    }
+
+    /**
+     * Builds a step for splitting every data file into one file per worker.
+     * Every file is read once and its rows are assigned to workers by the hash
+     * of the meter serial number.
+     *
+     * @return the configured step.
+     */
+    private Step splitData() {
+        return stepBuilderFactory.get(STEP_SPLIT_DATA)
+                                 .tasklet(splitMeterDataTask)
+                                 .listener(new ExecutionContextPromotionListener() {
+
+                                     @Override
+                                     public void beforeStep(StepExecution stepExecution) {
+                                         ExecutionContext jobContext = stepExecution.getJobExecution().getExecutionContext();
+
+                                         String jobContextKey = STEP_SPLIT_DATA +
+                                                                Constants.PARAMETER_NAME_DELIMITER +
+                                                                SplitMeterDataTask.EnumInParameter.IMPORT_STEP.getValue();
+                                         jobContext.putString(jobContextKey, STEP_IMPORT_DATA);
+
+                                         jobContextKey = STEP_SPLIT_DATA +
+                                                         Constants.PARAMETER_NAME_DELIMITER +
+                                                         SplitMeterDataTask.EnumInParameter.PARTITIONS.getValue();
+                                         jobContext.putString(jobContextKey, Integer.toString(workers));
+                                     }
+
+                                 })
+                                 .build();
+    }
+
+    /**
+     * Builds a partitioned step for parsing data files and importing rows to
+     * HBASE using multiple concurrent workers. Every worker imports the rows of
+     * a distinct subset of meters from all files, as split by
+     * {@link #splitData()}. The processing status of every file is aggregated
+     * across workers and promoted to the job execution context.
+     *
+     * @return the configured step.
+     */
+    private Step importDataPartitioned() {
+        SimpleAsyncTaskExecutor taskExecutor = new SimpleAsyncTaskExecutor("meter-import-");
+        taskExecutor.setConcurrencyLimit(workers);
+
+        return stepBuilderFactory.get(STEP_IMPORT_DATA)
+                                 .partitioner(STEP_IMPORT_DATA_PARTITION, new Partitioner() {
+
+                                     @Override
+                                     public Map<String, ExecutionContext> partition(int gridSize) {
+                                         Map<String, ExecutionContext> partitions = new HashMap<String, ExecutionContext>();
+
+                                         for (int i = 0; i < gridSize; i++) {
+                                             ExecutionContext context = new ExecutionContext();
+
+                                             context.putString(ImportMeterDataPartitionTask.EnumPartitionParameter.PARENT_STEP.getValue(), STEP_IMPORT_DATA);
+                                             context.putInt(ImportMeterDataPartitionTask.EnumPartitionParameter.INDEX.getValue(), i);
+                                             context.putInt(ImportMeterDataPartitionTask.EnumPartitionParameter.COUNT.getValue(), gridSize);
+
+                                             partitions.put("partition" + i, context);
+                                         }
+
+                                         return partitions;
+                                     }
+
+                                 })
+                                 .step(stepBuilderFactory.get(STEP_IMPORT_DATA_PARTITION)
+                                                         .tasklet(importMeterDataPartitionTask)
+                                                         .build())
+                                 .gridSize(workers)
+                                 .taskExecutor(taskExecutor)
+                                 .aggregator(new StepExecutionAggregator() {
+
+                                     private final StepExecutionAggregator delegate = new DefaultStepExecutionAggregator();
+
+                                     @Override
+                                     @SuppressWarnings("unchecked")
+                                     public void aggregate(StepExecution result, Collection<StepExecution> executions) {
+                                         delegate.aggregate(result, executions);
+
+                                         String key = ImportMeterDataPartitionTask.EnumOutParameter.STATUS.getValue();
+
+                                         LinkedHashMap<String, FileProcessingStatus> total = new LinkedHashMap<String, FileProcessingStatus>();
+
+                                         for (StepExecution execution : executions) {
+                                             Map<String, FileProcessingStatus> statuses = (Map<String, FileProcessingStatus>) execution.getExecutionContext().get(key);
+                                             if (statuses == null) {
+                                                 continue;
+                                             }
+                                             for (Map.Entry<String, FileProcessingStatus> entry : statuses.entrySet()) {
+                                                 FileProcessingStatus status = total.get(entry.getKey());
+                                                 if (status == null) {
+                                                     status = new FileProcessingStatus();
+                                                     total.put(entry.getKey(), status);
+                                                 }
+                                                 status.merge(entry.getValue());
+                                             }
+                                         }
+
+                                         result.getExecutionContext().put(key, total);
+                                     }
+
+                                 })
+                                 .listener(new ExecutionContextPromotionListener() {
+
+                                     @Override
+                                     public ExitStatus afterStep(StepExecution stepExecution) {
+                                        ExecutionContext stepContext = stepExecution.getExecutionContext();
+                                        ExecutionContext jobContext = stepExecution.getJobExecution().getExecutionContext();
+
+                                        String prevStepKey = ImportMeterDataPartitionTask.EnumOutParameter.STATUS.getValue();
+
+                                        // Configure register uploads task
+                                        String nextStepKey = STEP_REGISTER_UPLOADS +
+                                                             Constants.PARAMETER_NAME_DELIMITER +
+                                                             RegisterMeterDataUploadTask.EnumInParameter.STATUS.getValue();
+
+                                        if (stepContext.containsKey(prevStepKey)) {
+                                            jobContext.put(nextStepKey, stepContext.get(prevStepKey));
+                                        }
+
+                                        nextStepKey = STEP_REGISTER_UPLOADS +
+                                                      Constants.PARAMETER_NAME_DELIMITER +
+                                                      RegisterMeterDataUploadTask.EnumInParameter.IMPORT_STEP.getValue();
+
+                                        jobContext.putString(nextStepKey, STEP_IMPORT_DATA);
+
+                                        return null;
+                                     }
+
+                                 })
+                                 .build();
+    }
+
+    /**
+     * Builds a step for storing the files imported by a partitioned step.
+     *
+     * @return the configured step.
+     */
+    private Step registerUploads() {
+        return stepBuilderFactory.get(STEP_REGISTER_UPLOADS)
+                                 .tasklet(registerMeterDataUploadTask)
+                                 .build();
+    }
+
     /**
      * Builds a step for deleting the local working directory.
      *
@@ -155,6 +398,21 @@ public class WaterMeterDataSftpLoadJobBuilder extends BaseJobBuilder implements
 
 	@Override
 	public Job build(String name, JobParametersIncrementer incrementer) throws Exception {
+		if (workers > 1) {
+			JobExecutionDecider decider = selectImportStep();
+			Step deleteLocalWorkingDir = deleteLocalWorkingDir();
+
+			return jobBuilderFactory.get(name)
+			                        .incrementer(incrementer)
+			                        .start(createLocalWorkingDir())
+			                        .next(transferData())
+			                        .next(decider)
+			                            .on(IMPORT_SEQUENTIAL.getName()).to(importData()).next(deleteLocalWorkingDir)
+			                        .from(decider)
+			                            .on(IMPORT_PARTITIONED.getName()).to(splitData()).next(importDataPartitioned()).next(registerUploads()).next(deleteLocalWorkingDir)
+			                        .end()
+			                        .build();
+		}
 		return jobBuilderFactory.get(name)
 		                        .incrementer(incrementer)
 		                        .start(createLocalWorkingDir())
@@ -85,10 +85,22 @@ public abstract class BaseTask {
      * @return a map of step parameters.
      */
     protected Map<String, String> getStepParameters(StepContext stepContext) {
+        return getStepParameters(stepContext, stepContext.getStepName());
+    }
+
+    /**
+     * Get job parameters specific to the given step. Used by steps that share
+     * the parameters of another step e.g. the workers of a partitioned step.
+     *
+     * @param stepContext step context.
+     * @param stepName the name of the step whose parameters are returned.
+     * @return a map of step parameters.
+     */
+    protected Map<String, String> getStepParameters(StepContext stepContext, String stepName) {
         Map<String, String> parameters = new HashMap<String, String>();
 
         for (String qualifiedParameterName : stepContext.getJobParameters().keySet()) {
-            String parameterName = getParameterName(stepContext.getStepName(), qualifiedParameterName);
+            String parameterName = getParameterName(stepName, qualifiedParameterName);
             if (StringUtils.isBlank(parameterName)) {
                 continue;
             }
@@ -98,7 +110,7 @@ public abstract class BaseTask {
             }
         }
 
-        mergeContextParameters(stepContext, parameters);
+        mergeContextParameters(stepContext, stepName, parameters);
 
         return parameters;
     }
@@ -107,13 +119,14 @@ public abstract class BaseTask {
      * Merge parameters from the job execution context to the step parameters.
      *
      * @param stepContext the current step context.
+     * @param stepName the name of the step whose parameters are merged.
      * @param parameters the existing parameters.
      */
-    private void mergeContextParameters(StepContext stepContext, Map<String, String> parameters) {
+    private void mergeContextParameters(StepContext stepContext, String stepName, Map<String, String> parameters) {
         Map<String, Object> context = stepContext.getJobExecutionContext();
 
         for (String qualifiedParameterName : context.keySet()) {
-            String parameterName = getParameterName(stepContext.getStepName(), qualifiedParameterName);
+            String parameterName = getParameterName(stepName, qualifiedParameterName);
             if (StringUtils.isBlank(parameterName)) {
                 continue;
             }
@@ -1,6 +1,7 @@
 package eu.daiad.web.job.task;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
@@ -38,20 +39,19 @@ import eu.daiad.web.model.error.SchedulerErrorCode;
 import eu.daiad.web.model.error.SharedErrorCode;
 import eu.daiad.web.model.group.Cluster;
 import eu.daiad.web.model.group.Segment;
+import eu.daiad.web.model.meter.MeterUserAggregateMatrix;
 import eu.daiad.web.model.profile.ComparisonRanking;
-import eu.daiad.web.model.query.DataPoint;
 import eu.daiad.web.model.query.DataQuery;
 import eu.daiad.web.model.query.DataQueryBuilder;
 import eu.daiad.web.model.query.DataQueryResponse;
 import eu.daiad.web.model.query.EnumMetric;
-import eu.daiad.web.model.query.GroupDataSeries;
-import eu.daiad.web.model.query.MeterDataPoint;
 import eu.daiad.web.model.query.MeterUserDataPoint;
 import eu.daiad.web.model.query.RankingDataPoint;
 import eu.daiad.web.model.query.UserDataPoint;
 import eu.daiad.web.model.utility.UtilityInfo;
 import eu.daiad.web.repository.application.IDeviceRepository;
 import eu.daiad.web.repository.application.IGroupRepository;
+import eu.daiad.web.repository.application.IMeterDataRepository;
 import eu.daiad.web.repository.application.ISpatialRepository;
 import eu.daiad.web.repository.application.IUserRepository;
 import eu.daiad.web.repository.application.IUtilityRepository;
@@ -117,6 +117,12 @@ public class ConsumptionClusterTask extends BaseTask implements StoppableTasklet
     @Autowired
     private IDataService dataService;
 
+    /**
+     * Repository for computing smart water meter consumption per user.
+     */
+    @Autowired
+    private IMeterDataRepository meterDataRepository;
+
     @Override
     public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) {
         try {
@@ -383,7 +389,52 @@ public class ConsumptionClusterTask extends BaseTask implements StoppableTasklet
     }
 
     /**
-     * Creates or updates a new/existing water IQ
+     * Loads the daily consumption of all users for the time interval. The
+     * smart water meter data is scanned once and the consumption of every user
+     * for every day is returned as a dense matrix.
+     *
+     * @param context job execution data.
+     * @param keys the user keys in the order of the matrix rows.
+     * @return the daily consumption of all users.
+     */
+    private MeterUserAggregateMatrix loadDailyConsumption(ExecutionContext context, List<UUID> keys) {
+        String[] serials = new String[keys.size()];
+        for (int i = 0, count = keys.size(); i < count; i++) {
+            serials[i] = context.comparisons.getUserByKey(keys.get(i)).getSerial();
+        }
+
+        return meterDataRepository.aggregatePerUser(serials,
+                                                    context.timezone,
+                                                    context.start.getMillis(),
+                                                    context.end.getMillis(),
+                                                    EnumTimeAggregation.DAY);
+    }
+
+    /**
+     * Sums the daily consumption of a group of users. Unknown users are
+     * ignored.
+     *
+     * @param matrix the daily consumption of all users.
+     * @param rows the matrix row of every user.
+     * @param keys the user keys.
+     * @return a matrix with a single row that holds the consumption of the group.
+     */
+    private MeterUserAggregateMatrix aggregate(MeterUserAggregateMatrix matrix, Map<UUID, Integer> rows, Collection<UUID> keys) {
+        int[] users = new int[keys.size()];
+
+        int i = 0;
+        for (UUID key : keys) {
+            Integer row = rows.get(key);
+            users[i++] = (row == null ? -1 : row);
+        }
+
+        return matrix.aggregate(users);
+    }
+
+    /**
+     * Creates or updates a new/existing water IQ. The consumption of all users
+     * is loaded once and the monthly and daily consumption of every user, its
+     * similar users, its neighbors and the utility are computed in memory.
      *
      * @param context job execution data.
      */
@@ -395,109 +446,65 @@ public class ConsumptionClusterTask extends BaseTask implements StoppableTasklet
 
         ComparisonRanking.WaterIq all = convertWaterIq(context, context.comparisons.getAll());
 
+        List<UUID> keys = new ArrayList<UUID>(context.comparisons.getUserKeys());
+
+        Map<UUID, Integer> rows = new HashMap<UUID, Integer>();
+        for (int i = 0, count = keys.size(); i < count; i++) {
+            rows.put(keys.get(i), i);
+        }
+
+        MeterUserAggregateMatrix matrix = loadDailyConsumption(context, keys);
+
+        MeterUserAggregateMatrix utility = aggregate(matrix, rows, keys);
+        int utilityTotalMembers = context.comparisons.getAllTotalMembers();
+
         for(UUID key : context.comparisons.getUserKeys()) {
             UserComparisonAndRanking user = context.comparisons.getUserByKey(key);
 
             // Override results for similar users from savings potential algorithm results
             overrideWaterIqWithSavingPotentialResult(context, user);
 
-            // Build data query for the last month total consumption
-            ComparisonRanking.MonthlyConsumtpion monthlyConsumtpion = new ComparisonRanking.MonthlyConsumtpion(context.start.getYear(), context.start.getMonthOfYear());
+            MeterUserAggregateMatrix self = aggregate(matrix, rows, Arrays.asList(user.getKey()));
+            MeterUserAggregateMatrix similar = aggregate(matrix, rows, Arrays.asList(user.getSimilarUsers()));
+            MeterUserAggregateMatrix neighbor = aggregate(matrix, rows, Arrays.asList(user.getNeighborUsers()));
 
-            DataQuery lastMonthQuery = DataQueryBuilder.create()
-                                                       .timezone(context.timezone)
-                                                       .absolute(context.start, context.end, EnumTimeAggregation.MONTH)
-                                                       .user("self", user.getKey())
-                                                       .users("similar", user.getSimilarUsers())
-                                                       .users("neighbor", user.getNeighborUsers())
-                                                       .users("utility", context.comparisons.getUserKeys().toArray(new UUID[] {}))
-                                                       .sum()
-                                                       .meter()
-                                                       .build();
-
-            DataQueryResponse result = dataService.execute(lastMonthQuery);
-
-            if (result.getSuccess()) {
-                for (GroupDataSeries series : result.getMeters()) {
-                    if ((!series.getPoints().isEmpty()) && (series.getPoints().size() != 1)) {
-                        throw new RuntimeException("Expected a single value for the series.");
-                    }
-                }
+            // Compute the last month total consumption
+            ComparisonRanking.MonthlyConsumtpion monthlyConsumtpion = new ComparisonRanking.MonthlyConsumtpion(context.start.getYear(), context.start.getMonthOfYear());
 
-                for (GroupDataSeries series : result.getMeters()) {
-                    switch (series.getLabel()) {
-                        case "self":
-                            if (!series.getPoints().isEmpty()) {
-                                monthlyConsumtpion.user = ((MeterDataPoint) series.getPoints().get(0)).getVolume().get(EnumMetric.SUM) / user.getHouseholdSize();
-                            }
-                            break;
-                        case "similar":
-                            if (!series.getPoints().isEmpty()) {
-                                monthlyConsumtpion.similar = ((MeterDataPoint) series.getPoints().get(0)).getVolume().get(EnumMetric.SUM) / user.getSimilarTotalMembers();
-                            }
-                            break;
-                        case "neighbor":
-                            if (!series.getPoints().isEmpty()) {
-                                monthlyConsumtpion.nearest = ((MeterDataPoint) series.getPoints().get(0)).getVolume().get(EnumMetric.SUM) / user.getNeighborTotalMembers();
-                            }
-                            break;
-                        case "utility":
-                            if (!series.getPoints().isEmpty()) {
-                                monthlyConsumtpion.all = ((MeterDataPoint) series.getPoints().get(0)).getVolume().get(EnumMetric.SUM) / context.comparisons.getAllTotalMembers();
-                            }
-                            break;
-                    }
-                }
+            if (!Double.isNaN(self.getTotal(0))) {
+                monthlyConsumtpion.user = self.getTotal(0) / user.getHouseholdSize();
+            }
+            if (!Double.isNaN(similar.getTotal(0))) {
+                monthlyConsumtpion.similar = similar.getTotal(0) / user.getSimilarTotalMembers();
+            }
+            if (!Double.isNaN(neighbor.getTotal(0))) {
+                monthlyConsumtpion.nearest = neighbor.getTotal(0) / user.getNeighborTotalMembers();
+            }
+            if (!Double.isNaN(utility.getTotal(0))) {
+                monthlyConsumtpion.all = utility.getTotal(0) / utilityTotalMembers;
             }
 
-            // Build data query for the last month total daily consumption
+            // Compute the last month total daily consumption
             Map<Integer, ComparisonRanking.DailyConsumption> dailyConsumption = new HashMap<Integer, ComparisonRanking.DailyConsumption>();
 
-            DataQuery dailyQuery = DataQueryBuilder.create()
-                                                   .timezone(context.timezone)
-                                                   .absolute(context.start, context.end, EnumTimeAggregation.DAY)
-                                                   .user("self", user.getKey())
-                                                   .users("similar", user.getSimilarUsers())
-                                                   .users("neighbor", user.getNeighborUsers())
-                                                   .users("utility", context.comparisons.getUserKeys().toArray(new UUID[] {}))
-                                                   .sum()
-                                                   .meter()
-                                                   .build();
-
-            result = dataService.execute(dailyQuery);
-
-            if (result.getSuccess()) {
-                for (GroupDataSeries series : result.getMeters()) {
-                    switch (series.getLabel()) {
-                        case "self":
-                            for(DataPoint point : series.getPoints()) {
-                                MeterDataPoint meter = (MeterDataPoint) point;
-
-                                getDailyConsumption(context, dailyConsumption, meter).user = meter.getVolume().get(EnumMetric.SUM) / user.getHouseholdSize();
-                            }
-                            break;
-                        case "similar":
-                            for(DataPoint point : series.getPoints()) {
-                                MeterDataPoint meter = (MeterDataPoint) point;
-
-                                getDailyConsumption(context, dailyConsumption, meter).similar = meter.getVolume().get(EnumMetric.SUM) / user.getSimilarTotalMembers();
-                            }
-                            break;
-                        case "neighbor":
-                            for(DataPoint point : series.getPoints()) {
-                                MeterDataPoint meter = (MeterDataPoint) point;
-
-                                getDailyConsumption(context, dailyConsumption, meter).nearest = meter.getVolume().get(EnumMetric.SUM) / user.getNeighborTotalMembers();
-                            }
-                            break;
-                        case "utility":
-                            for(DataPoint point : series.getPoints()) {
-                                MeterDataPoint meter = (MeterDataPoint) point;
-
-                                getDailyConsumption(context, dailyConsumption, meter).all = meter.getVolume().get(EnumMetric.SUM) / context.comparisons.getAllTotalMembers();
-                            }
-                            break;
-                    }
+            for (int day = 0, days = matrix.getBucketCount(); day < days; day++) {
+                if ((!self.hasValue(0, day)) && (!similar.hasValue(0, day)) && (!neighbor.hasValue(0, day)) && (!utility.hasValue(0, day))) {
+                    continue;
+                }
+
+                ComparisonRanking.DailyConsumption consumption = getDailyConsumption(context, dailyConsumption, matrix.getTimestamp(day));
+
+                if (self.hasValue(0, day)) {
+                    consumption.user = self.getValue(0, day) / user.getHouseholdSize();
+                }
+                if (similar.hasValue(0, day)) {
+                    consumption.similar = similar.getValue(0, day) / user.getSimilarTotalMembers();
+                }
+                if (neighbor.hasValue(0, day)) {
+                    consumption.nearest = neighbor.getValue(0, day) / user.getNeighborTotalMembers();
+                }
+                if (utility.hasValue(0, day)) {
+                    consumption.all = utility.getValue(0, day) / utilityTotalMembers;
                 }
             }
 
@@ -535,13 +542,13 @@ public class ConsumptionClusterTask extends BaseTask implements StoppableTasklet
      *
      * @param context the execution context.
      * @param dailyConsumption a map that holds an instance of {@link ComparisonRanking.DailyConsumption} for every day.
-     * @param point the data point to add.
+     * @param timestamp the timestamp of the day.
      * @return an existing or new {@link ComparisonRanking.DailyConsumption} object.
      */
     private ComparisonRanking.DailyConsumption getDailyConsumption(ExecutionContext context,
                                                                    Map<Integer, ComparisonRanking.DailyConsumption> dailyConsumption,
-                                                                   MeterDataPoint point) {
-        DateTime localDateTime = new DateTime(point.getTimestamp(), context.timezone);
+                                                                   long timestamp) {
+        DateTime localDateTime = new DateTime(timestamp, context.timezone);
 
         int year = localDateTime.getYear();
         int month = localDateTime.getMonthOfYear();
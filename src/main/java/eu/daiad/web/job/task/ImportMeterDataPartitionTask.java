@@ -0,0 +1,178 @@
+package eu.daiad.web.job.task;
+
+import java.io.File;
+import java.rmi.server.ExportException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.joda.time.DateTimeZone;
+import org.springframework.batch.core.StepContribution;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.core.step.tasklet.StoppableTasklet;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.repeat.RepeatStatus;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import eu.daiad.web.model.loader.FileProcessingStatus;
+import eu.daiad.web.service.IWaterMeterDataLoaderService;
+
+/**
+ * Task for importing a single partition of the smart water meter data files of
+ * a working directory. Every pending file is split once by
+ * {@link SplitMeterDataTask} into one file per partition by the hash of the
+ * meter serial number. Every worker imports its partition of all the files in
+ * the same order, hence no two workers update the same meter and the readings
+ * of every meter are imported in order. The task reads the parameters of the
+ * partitioned step and stores the processing status of the partition of every
+ * file in its step execution context. Files are neither copied nor renamed.
+ */
+@Component
+public class ImportMeterDataPartitionTask extends BaseTask implements StoppableTasklet {
+
+    /**
+     * Logger instance for writing events using the configured logging API.
+     */
+    private static final Log logger = LogFactory.getLog(ImportMeterDataPartitionTask.class);
+
+    /**
+     * Name of the working directory subdirectory that contains the partitions
+     * of the data files.
+     */
+    private static final String PARTITION_DIRECTORY = "partitions";
+
+    /**
+     * Selects the files to import.
+     */
+    @Autowired
+    private MeterDataUploadRegistry uploadRegistry;
+
+    /**
+     * Service for parsing and importing smart water meter data to HBase.
+     */
+    @Autowired
+    private IWaterMeterDataLoaderService waterMeterDataLoaderService;
+
+    @Override
+    public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) throws Exception {
+        ExecutionContext partitionContext = chunkContext.getStepContext().getStepExecution().getExecutionContext();
+
+        int partition = partitionContext.getInt(EnumPartitionParameter.INDEX.getValue());
+        int partitions = partitionContext.getInt(EnumPartitionParameter.COUNT.getValue());
+        String parentStep = partitionContext.getString(EnumPartitionParameter.PARENT_STEP.getValue());
+
+        try {
+            Map<String, String> parameters = getStepParameters(chunkContext.getStepContext(), parentStep);
+
+            String sourceDir = parameters.get(ImportMeterDataTask.EnumInParameter.WORKING_DIRECTORY.getValue());
+            if (StringUtils.isBlank(sourceDir)) {
+                throw new ExportException("Source directory is not set.");
+            }
+
+            // Set time zone
+            String timezone = parameters.get(ImportMeterDataTask.EnumInParameter.TIMEZONE.getValue());
+            if (StringUtils.isBlank(timezone)) {
+                throw new ExportException("Time zone is not set.");
+            }
+            Set<String> zones = DateTimeZone.getAvailableIDs();
+            if (!zones.contains(timezone)) {
+                throw new ExportException(String.format("Time zone [%s] is not supported.", timezone));
+            }
+
+            // All workers list the files in the same order which preserves
+            // the order of the readings of every meter.
+            LinkedHashMap<String, FileProcessingStatus> result = new LinkedHashMap<String, FileProcessingStatus>();
+
+            for (File file : uploadRegistry.getPendingFiles(sourceDir)) {
+                File partitionFile = getPartitionFile(file, partition, partitions);
+                if (!partitionFile.exists()) {
+                    throw new ExportException(String.format("Partition [%d] of file [%s] does not exist.", partition, file.getAbsolutePath()));
+                }
+
+                FileProcessingStatus status = waterMeterDataLoaderService.parse(partitionFile.getAbsolutePath(), timezone);
+
+                result.put(file.getAbsolutePath(), status);
+            }
+
+            partitionContext.put(EnumOutParameter.STATUS.getValue(), result);
+        } catch (Exception ex) {
+            logger.fatal(String.format("Failed to import partition [%d] of meter data to HBASE.", partition), ex);
+
+            throw ex;
+        }
+        return RepeatStatus.FINISHED;
+    }
+
+    @Override
+    public void stop() {
+
+    }
+
+    /**
+     * Returns the file that contains a single partition of a data file.
+     *
+     * @param file the data file.
+     * @param partition the partition index.
+     * @param partitions the number of partitions.
+     * @return the partition file.
+     */
+    public static File getPartitionFile(File file, int partition, int partitions) {
+        File directory = new File(new File(file.getParentFile(), PARTITION_DIRECTORY), String.format("%d-%d", partition, partitions));
+
+        return new File(directory, file.getName());
+    }
+
+    /**
+     * Enumeration of the partition parameters set in the step execution context
+     * by the partitioner.
+     */
+    public static enum EnumPartitionParameter {
+        /**
+         * Name of the partitioned step whose parameters are used
+         */
+        PARENT_STEP("partition.step"),
+        /**
+         * Partition index
+         */
+        INDEX("partition.index"),
+        /**
+         * Number of partitions
+         */
+        COUNT("partition.count");
+
+        private final String value;
+
+        public String getValue() {
+            return value;
+        }
+
+        private EnumPartitionParameter(String value) {
+            this.value = value;
+        }
+    }
+
+    /**
+     * Enumeration of task output parameters.
+     */
+    public static enum EnumOutParameter {
+        /**
+         * Map of processing status instances per file path
+         */
+        STATUS("import.status");
+
+        private final String value;
+
+        public String getValue() {
+            return value;
+        }
+
+        private EnumOutParameter(String value) {
+            this.value = value;
+        }
+    }
+
+}
@@ -2,20 +2,10 @@ package eu.daiad.web.job.task;
 
 import java.io.File;
 import java.rmi.server.ExportException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.UUID;
-
-import javax.persistence.EntityManager;
-import javax.persistence.PersistenceContext;
-import javax.persistence.TypedQuery;
 
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -29,9 +19,12 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import eu.daiad.web.domain.admin.UploadEntity;
+import eu.daiad.web.model.error.ApplicationException;
+import eu.daiad.web.model.error.DataErrorCode;
 import eu.daiad.web.model.loader.EnumUploadFileType;
 import eu.daiad.web.model.loader.FileProcessingStatus;
 import eu.daiad.web.service.IWaterMeterDataLoaderService;
+import eu.daiad.web.service.scheduling.Constants;
 
 /**
  * Task for exporting smart water meter data for a utility.
@@ -45,10 +38,10 @@ public class ImportMeterDataTask extends BaseTask implements StoppableTasklet {
     private static final Log logger = LogFactory.getLog(ImportMeterDataTask.class);
 
     /**
-     * Entity manager for persisting upload meta data.
+     * Selects the files to import and persists upload meta data.
      */
-    @PersistenceContext(unitName = "management")
-    EntityManager entityManager;
+    @Autowired
+    private MeterDataUploadRegistry uploadRegistry;
 
     /**
      * Service for downloading, parsing and importing smart water meter data to HBase.
@@ -56,33 +49,6 @@ public class ImportMeterDataTask extends BaseTask implements StoppableTasklet {
     @Autowired
     private IWaterMeterDataLoaderService waterMeterDataLoaderService;
 
-    /**
-     * Returns a set of all files in the given path.
-     *
-     * @param localPath the local path.
-     * @return a set of files.
-     * @throws IllegalArgumentException if {@code localPath} does not exist.
-     */
-    private List<File> collectFilesFromLocalDir(String localPath) throws IllegalArgumentException {
-        File path = new File(localPath);
-
-        if (!path.exists()) {
-            throw new IllegalArgumentException(String.format("Path %s does not exist.", localPath));
-        }
-
-        if (!path.isDirectory()) {
-            throw new IllegalArgumentException(String.format("Path points to file, not directory: %s", localPath));
-        }
-
-        List<File> files = new ArrayList<File>();
-        for (File file : path.listFiles()) {
-            if (file.exists() && !file.isDirectory()) {
-                files.add(file);
-            }
-        }
-        return files;
-    }
-
     @Override
     public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) throws Exception{
         try {
@@ -105,6 +71,9 @@ public class ImportMeterDataTask extends BaseTask implements StoppableTasklet {
             // Create target folder
             FileUtils.forceMkdir(new File(targetDir));
 
+            // Optional staging directory for HBase bulk loading
+            String stagingDir = parameters.get(EnumInParameter.STAGING_DIRECTORY.getValue());
+
             // Set time zone
             String timezone = parameters.get(EnumInParameter.TIMEZONE.getValue());
             if (StringUtils.isBlank(timezone)) {
@@ -116,90 +85,37 @@ public class ImportMeterDataTask extends BaseTask implements StoppableTasklet {
             }
 
             // Import every file in the working directory and store it permanently.
-            List<File> files = collectFilesFromLocalDir(sourceDir);
-            Collections.sort(files, new Comparator<File>() {
-
-                @Override
-                public int compare(File f1, File f2) {
-                    long result = f1.lastModified() - f2.lastModified();
-
-                    if (result < 0 ) {
-                        return -1;
-                    } else if (result > 0) {
-                        return 1;
-                    } else {
-                        return 0;
+            for (File tempFile : uploadRegistry.getPendingFiles(sourceDir)) {
+                UploadEntity upload = uploadRegistry.createUpload(tempFile, targetDir, uploadRegistry.getLastUpload(tempFile));
+
+                String target = uploadRegistry.getPath(upload);
+
+                // Process data and import records to HBASE
+                upload.setProcessingStartedOn(new DateTime());
+
+                FileProcessingStatus status;
+                if (StringUtils.isBlank(stagingDir)) {
+                    status = waterMeterDataLoaderService.parse(target, timezone, EnumUploadFileType.METER_DATA, null);
+                } else {
+                    try {
+                        status = waterMeterDataLoaderService.bulkLoad(target, timezone, stagingDir);
+                    } catch (ApplicationException ex) {
+                        if (ex.getCode() == DataErrorCode.BULK_LOAD_INCOMPLETE) {
+                            // Report the staging directory with the HBase files that have not been loaded
+                            String key = chunkContext.getStepContext().getStepName() +
+                                         Constants.PARAMETER_NAME_DELIMITER +
+                                         EnumOutParameter.INCOMPLETE_BULK_LOAD_DIRECTORY.getValue();
+
+                            chunkContext.getStepContext()
+                                        .getStepExecution()
+                                        .getExecutionContext()
+                                        .put(key, ex.get("directory"));
+                        }
+                        throw ex;
                     }
                 }
-            });
-
-            for (File tempFile : files) {
-                // Check if a file with the same path and name has already been imported
-                String sqlString = "select      u " +
-                                   "from        upload u " +
-                                   "where       u.localFolder = :localFolder and " +
-                                   "            u.localFilename = :localFilename " +
-                                   "order by    u.id desc";
-
-                TypedQuery<UploadEntity> uploadQuery = entityManager.createQuery(sqlString, UploadEntity.class).setFirstResult(0).setMaxResults(1);
-
-                uploadQuery.setParameter("localFolder", tempFile.getParent());
-                uploadQuery.setParameter("localFilename", tempFile.getName());
-
-                List<UploadEntity> uploads = uploadQuery.getResultList();
-
-                UploadEntity existingUpload = null;
-                if (uploads.size() != 0) {
-                    existingUpload = uploads.get(0);
-                }
-
-                if ((existingUpload == null) ||
-                    (existingUpload.getProccessedRows() == 0) ||
-                    ((existingUpload.getSkippedRows() + existingUpload.getProccessedRows()) != existingUpload.getTotalRows())) {
-
-                    // Create record if not one already exists
-                    UploadEntity upload = null;
-                    if (existingUpload == null) {
-                        upload =  new UploadEntity();
-                    } else {
-                        upload = existingUpload;
-                    }
-
-                    // Copy filename
-                    upload.setLocalFolder(targetDir);
-                    upload.setLocalFilename(UUID.randomUUID().toString() + "." + FilenameUtils.getExtension(tempFile.getName()));
-
-                    String target = FilenameUtils.concat(upload.getLocalFolder(), upload.getLocalFilename());
-                    File targetFile = new File(target);
-
-                    FileUtils.copyFile(tempFile, targetFile);
 
-                    if (existingUpload == null) {
-                        upload.setModifiedOn(new DateTime(targetFile.lastModified()));
-                        upload.setSize(targetFile.length());
-                    }
-
-
-                    // Process data and import records to HBASE
-                    upload.setProcessingStartedOn(new DateTime());
-
-                    FileProcessingStatus status = waterMeterDataLoaderService.parse(target, timezone, EnumUploadFileType.METER_DATA, null);
-
-                    upload.setTotalRows(status.getTotalRows());
-                    upload.setProccessedRows(status.getProcessedRows());
-                    upload.setSkippedRows(status.getSkippedRows());
-                    upload.setNegativeDifferenceRows(status.getNegativeDifference());
-                    upload.setProcessingCompletedOn(new DateTime());
-                    if (!StringUtils.isBlank(status.getFilename())) {
-                        upload.setLocalFilename(status.getFilename());
-                    }
-
-                    // Save record if this is a new file (not an uploaded file)
-                    if (existingUpload == null) {
-                        entityManager.persist(upload);
-                    }
-                    entityManager.flush();
-                }
+                uploadRegistry.completeUpload(upload, status);
             }
         } catch (Exception ex) {
             logger.fatal("Failed to import meter data to HBASE.", ex);
@@ -229,7 +145,11 @@ public class ImportMeterDataTask extends BaseTask implements StoppableTasklet {
         /**
          * Data time zone
          */
-        TIMEZONE("timezone");
+        TIMEZONE("timezone"),
+        /**
+         * Directory for staging HBase files. If set, data is imported using HBase bulk loading
+         */
+        STAGING_DIRECTORY("staging.dir");
 
         private final String value;
 
@@ -242,4 +162,25 @@ public class ImportMeterDataTask extends BaseTask implements StoppableTasklet {
         }
     }
 
+    /**
+     * Enumeration of task output parameters.
+     */
+    public static enum EnumOutParameter {
+        /**
+         * Staging directory with HBase files that have not been loaded because
+         * a bulk load has failed after a table has been loaded
+         */
+        INCOMPLETE_BULK_LOAD_DIRECTORY("bulk-load.incomplete.dir");
+
+        private final String value;
+
+        public String getValue() {
+            return value;
+        }
+
+        private EnumOutParameter(String value) {
+            this.value = value;
+        }
+    }
+
 }
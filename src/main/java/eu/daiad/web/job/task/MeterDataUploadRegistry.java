@@ -0,0 +1,187 @@
+package eu.daiad.web.job.task;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.TypedQuery;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang.StringUtils;
+import org.joda.time.DateTime;
+import org.springframework.stereotype.Component;
+
+import eu.daiad.web.domain.admin.UploadEntity;
+import eu.daiad.web.model.loader.FileProcessingStatus;
+
+/**
+ * Selects the smart water meter data files of a working directory that must be
+ * imported and records the results of their import. Shared by the sequential
+ * and the partitioned import tasks so that every worker selects exactly the
+ * same files in the same order.
+ */
+@Component
+public class MeterDataUploadRegistry {
+
+    /**
+     * Entity manager for persisting upload meta data.
+     */
+    @PersistenceContext(unitName = "management")
+    EntityManager entityManager;
+
+    /**
+     * Returns all files in the given path that have not been imported yet
+     * sorted by modification time.
+     *
+     * @param localPath the local path.
+     * @return a list of files.
+     * @throws IllegalArgumentException if {@code localPath} does not exist.
+     */
+    public List<File> getPendingFiles(String localPath) throws IllegalArgumentException {
+        File path = new File(localPath);
+
+        if (!path.exists()) {
+            throw new IllegalArgumentException(String.format("Path %s does not exist.", localPath));
+        }
+
+        if (!path.isDirectory()) {
+            throw new IllegalArgumentException(String.format("Path points to file, not directory: %s", localPath));
+        }
+
+        List<File> files = new ArrayList<File>();
+        for (File file : path.listFiles()) {
+            if (file.exists() && !file.isDirectory() && !isImported(getLastUpload(file))) {
+                files.add(file);
+            }
+        }
+
+        Collections.sort(files, new Comparator<File>() {
+
+            @Override
+            public int compare(File f1, File f2) {
+                int result = Long.compare(f1.lastModified(), f2.lastModified());
+                if (result == 0) {
+                    return f1.getName().compareTo(f2.getName());
+                }
+                return result;
+            }
+        });
+
+        return files;
+    }
+
+    /**
+     * Returns the most recent upload record of a file with the same path and
+     * name.
+     *
+     * @param file the file.
+     * @return the upload record or null if the file has never been uploaded.
+     */
+    public UploadEntity getLastUpload(File file) {
+        String sqlString = "select      u " +
+                           "from        upload u " +
+                           "where       u.localFolder = :localFolder and " +
+                           "            u.localFilename = :localFilename " +
+                           "order by    u.id desc";
+
+        TypedQuery<UploadEntity> uploadQuery = entityManager.createQuery(sqlString, UploadEntity.class).setFirstResult(0).setMaxResults(1);
+
+        uploadQuery.setParameter("localFolder", file.getParent());
+        uploadQuery.setParameter("localFilename", file.getName());
+
+        List<UploadEntity> uploads = uploadQuery.getResultList();
+
+        if (uploads.size() != 0) {
+            return uploads.get(0);
+        }
+        return null;
+    }
+
+    /**
+     * Copies a file to the storage directory using a unique name and
+     * initializes its upload record.
+     *
+     * @param file the file to copy.
+     * @param targetDir the storage directory.
+     * @param existingUpload the existing upload record or null.
+     * @return the new or existing upload record.
+     * @throws IOException if the file cannot be copied.
+     */
+    public UploadEntity createUpload(File file, String targetDir, UploadEntity existingUpload) throws IOException {
+        // Create record if not one already exists
+        UploadEntity upload = null;
+        if (existingUpload == null) {
+            upload =  new UploadEntity();
+        } else {
+            upload = existingUpload;
+        }
+
+        // Copy filename
+        upload.setLocalFolder(targetDir);
+        upload.setLocalFilename(UUID.randomUUID().toString() + "." + FilenameUtils.getExtension(file.getName()));
+
+        File targetFile = new File(getPath(upload));
+
+        FileUtils.copyFile(file, targetFile);
+
+        if (existingUpload == null) {
+            upload.setModifiedOn(new DateTime(targetFile.lastModified()));
+            upload.setSize(targetFile.length());
+        }
+
+        return upload;
+    }
+
+    /**
+     * Updates an upload record with the import results and saves it.
+     *
+     * @param upload the upload record.
+     * @param status the import results.
+     */
+    public void completeUpload(UploadEntity upload, FileProcessingStatus status) {
+        upload.setTotalRows(status.getTotalRows());
+        upload.setProccessedRows(status.getProcessedRows());
+        upload.setSkippedRows(status.getSkippedRows());
+        upload.setNegativeDifferenceRows(status.getNegativeDifference());
+        upload.setProcessingCompletedOn(new DateTime());
+        if (!StringUtils.isBlank(status.getFilename())) {
+            upload.setLocalFilename(status.getFilename());
+        }
+
+        // Save record if this is a new file (not an uploaded file)
+        if (upload.getId() == 0) {
+            entityManager.persist(upload);
+        }
+        entityManager.flush();
+    }
+
+    /**
+     * Returns the full path of the stored copy of an uploaded file.
+     *
+     * @param upload the upload record.
+     * @return the file path.
+     */
+    public String getPath(UploadEntity upload) {
+        return FilenameUtils.concat(upload.getLocalFolder(), upload.getLocalFilename());
+    }
+
+    /**
+     * Checks if all the rows of an uploaded file have been processed.
+     *
+     * @param upload the upload record.
+     * @return true if the file must not be imported again.
+     */
+    private boolean isImported(UploadEntity upload) {
+        return ((upload != null) &&
+                (upload.getProccessedRows() != 0) &&
+                ((upload.getSkippedRows() + upload.getProccessedRows()) == upload.getTotalRows()));
+    }
+
+}
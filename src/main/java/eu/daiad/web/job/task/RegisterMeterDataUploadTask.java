@@ -0,0 +1,165 @@
+package eu.daiad.web.job.task;
+
+import java.io.File;
+import java.rmi.server.ExportException;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.joda.time.DateTime;
+import org.springframework.batch.core.StepContribution;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.core.step.tasklet.StoppableTasklet;
+import org.springframework.batch.repeat.RepeatStatus;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import eu.daiad.web.domain.admin.UploadEntity;
+import eu.daiad.web.model.loader.FileProcessingStatus;
+import eu.daiad.web.service.IWaterMeterDataLoaderService;
+import eu.daiad.web.service.scheduling.Constants;
+
+/**
+ * Task for storing the smart water meter data files imported by a partitioned
+ * step. Every imported file is copied to the storage directory, renamed based
+ * on the time interval of its data and an upload record with the processing
+ * status aggregated across all partitions is saved.
+ */
+@Component
+public class RegisterMeterDataUploadTask extends BaseTask implements StoppableTasklet {
+
+    /**
+     * Logger instance for writing events using the configured logging API.
+     */
+    private static final Log logger = LogFactory.getLog(RegisterMeterDataUploadTask.class);
+
+    /**
+     * Selects the imported files and persists upload meta data.
+     */
+    @Autowired
+    private MeterDataUploadRegistry uploadRegistry;
+
+    /**
+     * Service for renaming smart water meter data files.
+     */
+    @Autowired
+    private IWaterMeterDataLoaderService waterMeterDataLoaderService;
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) throws Exception {
+        try {
+            String importStep = getStepParameters(chunkContext.getStepContext()).get(EnumInParameter.IMPORT_STEP.getValue());
+            if (StringUtils.isBlank(importStep)) {
+                throw new ExportException("Import step is not set.");
+            }
+
+            Map<String, String> parameters = getStepParameters(chunkContext.getStepContext(), importStep);
+
+            String sourceDir = parameters.get(ImportMeterDataTask.EnumInParameter.WORKING_DIRECTORY.getValue());
+            String targetDir = parameters.get(ImportMeterDataTask.EnumInParameter.STORAGE_DIRECTORY.getValue());
+            String timezone = parameters.get(ImportMeterDataTask.EnumInParameter.TIMEZONE.getValue());
+
+            if (StringUtils.isBlank(sourceDir)) {
+                throw new ExportException("Source directory is not set.");
+            }
+            if (StringUtils.isBlank(targetDir)) {
+                throw new ExportException("Target directory is not set.");
+            }
+            if (sourceDir.equals(targetDir)) {
+                throw new ExportException("Source and target directories cannot be the same.");
+            }
+
+            String key = chunkContext.getStepContext().getStepName() +
+                         Constants.PARAMETER_NAME_DELIMITER +
+                         EnumInParameter.STATUS.getValue();
+
+            Map<String, FileProcessingStatus> statuses = (Map<String, FileProcessingStatus>) chunkContext.getStepContext()
+                                                                                                         .getJobExecutionContext()
+                                                                                                         .get(key);
+            if (statuses == null) {
+                throw new ExportException("Import status is not set.");
+            }
+
+            // Create target folder
+            FileUtils.forceMkdir(new File(targetDir));
+
+            DateTime startedOn = getStartTime(chunkContext, importStep);
+
+            for (File tempFile : uploadRegistry.getPendingFiles(sourceDir)) {
+                FileProcessingStatus status = statuses.get(tempFile.getAbsolutePath());
+                if (status == null) {
+                    continue;
+                }
+
+                UploadEntity upload = uploadRegistry.createUpload(tempFile, targetDir, uploadRegistry.getLastUpload(tempFile));
+                upload.setProcessingStartedOn(startedOn);
+
+                waterMeterDataLoaderService.rename(uploadRegistry.getPath(upload), timezone, status);
+
+                uploadRegistry.completeUpload(upload, status);
+            }
+        } catch (Exception ex) {
+            logger.fatal("Failed to register imported meter data files.", ex);
+
+            throw ex;
+        }
+        return RepeatStatus.FINISHED;
+    }
+
+    /**
+     * Returns the start time of the most recent execution of the given step in
+     * the current job execution.
+     *
+     * @param chunkContext the chunk context.
+     * @param stepName the step name.
+     * @return the start time or the current time if the step is not found.
+     */
+    private DateTime getStartTime(ChunkContext chunkContext, String stepName) {
+        DateTime result = null;
+
+        for (StepExecution execution : chunkContext.getStepContext().getStepExecution().getJobExecution().getStepExecutions()) {
+            if ((execution.getStepName().equals(stepName)) && (execution.getStartTime() != null)) {
+                DateTime startTime = new DateTime(execution.getStartTime());
+                if ((result == null) || (result.isBefore(startTime))) {
+                    result = startTime;
+                }
+            }
+        }
+
+        return (result == null ? new DateTime() : result);
+    }
+
+    @Override
+    public void stop() {
+
+    }
+
+    /**
+     * Enumeration of task input parameters.
+     */
+    public static enum EnumInParameter {
+        /**
+         * Name of the partitioned import step whose parameters are used
+         */
+        IMPORT_STEP("import.step"),
+        /**
+         * Map of processing status instances per file path aggregated across all partitions
+         */
+        STATUS("import.status");
+
+        private final String value;
+
+        public String getValue() {
+            return value;
+        }
+
+        private EnumInParameter(String value) {
+            this.value = value;
+        }
+    }
+
+}
@@ -1,7 +1,11 @@
 package eu.daiad.web.job.task;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import org.apache.commons.lang.StringUtils;
@@ -12,20 +16,24 @@ import org.springframework.batch.core.scope.context.ChunkContext;
 import org.springframework.batch.core.step.tasklet.StoppableTasklet;
 import org.springframework.batch.repeat.RepeatStatus;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import eu.daiad.web.domain.application.AccountEntity;
 import eu.daiad.web.domain.application.SavingsPotentialResultEntity;
 import eu.daiad.web.model.EnumTimeAggregation;
 import eu.daiad.web.model.error.SchedulerErrorCode;
+import eu.daiad.web.model.meter.MeterUserAggregateMatrix;
 import eu.daiad.web.model.query.DataPoint;
 import eu.daiad.web.model.query.DataQuery;
 import eu.daiad.web.model.query.DataQueryBuilder;
 import eu.daiad.web.model.query.DataQueryResponse;
 import eu.daiad.web.model.query.EnumMetric;
 import eu.daiad.web.model.query.MeterDataPoint;
+import eu.daiad.web.model.query.PopulationMember;
 import eu.daiad.web.model.query.savings.SavingScenario;
 import eu.daiad.web.model.utility.UtilityInfo;
+import eu.daiad.web.repository.application.IMeterDataRepository;
 import eu.daiad.web.repository.application.ISavingsPotentialRepository;
 import eu.daiad.web.repository.application.IUserRepository;
 import eu.daiad.web.repository.application.IUtilityRepository;
@@ -68,6 +76,20 @@ public class SavingsPotentialComputeTask extends BaseTask implements StoppableTa
     @Autowired
     private IDataService dataService;
 
+    /**
+     * Repository for computing the monthly consumption of all scenario consumers at once.
+     */
+    @Autowired
+    private IMeterDataRepository meterDataRepository;
+
+    /**
+     * If true, user keys are resolved with a single query and the monthly
+     * consumption of all consumers is computed with a single smart water meter
+     * data scan.
+     */
+    @Value("${daiad.savings.potential.population-scan:true}")
+    private boolean populationScan;
+
     @Override
     public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) {
         try {
@@ -102,94 +124,199 @@ public class SavingsPotentialComputeTask extends BaseTask implements StoppableTa
                      .hourOfDay().setCopy(23).minuteOfHour().setCopy(59).secondOfMinute().setCopy(59).millisOfSecond().setCopy(999);
 
             // Compute savings per user
+            Map<UUID, AccountSavings> savingsStore;
+            if (populationScan) {
+                savingsStore = computeSavings(resultStore, timezone, begin, end);
+            } else {
+                savingsStore = computeSavingsPerConsumer(resultStore, timezone, begin, end);
+            }
+
+            // Update store
             double scenarioConsumption = 0;
             double scenarioSavings = 0;
 
-            Map<String, UUID> serialToUserMap = new HashMap<String, UUID>();
-            Map<UUID, AccountSavings> savingsStore = new HashMap<UUID, AccountSavings>();
+            for (AccountSavings s : savingsStore.values()) {
+                scenarioConsumption += s.totalConsumption;
+                scenarioSavings += s.totalSavings;
+
+                savingsPotentialRepository.updateSavingConsumer(scenarioKey,
+                                                                s.userKey,
+                                                                s.totalConsumption,
+                                                                s.totalSavings,
+                                                                DateTime.now());
+            }
+
+            savingsPotentialRepository.updateSavingScenario(scenarioKey,
+                                                            scenarioConsumption,
+                                                            scenarioSavings,
+                                                            DateTime.now(),
+                                                            savingsStore.size());
+
+        } catch (Throwable t) {
+            throw wrapApplicationException(t, SchedulerErrorCode.SCHEDULER_JOB_STEP_FAILED).set("step", chunkContext.getStepContext().getStepName());
+        }
+
+        return RepeatStatus.FINISHED;
+    }
+
+    /**
+     * Computes the consumption and savings of every user by resolving the
+     * owners of all serial numbers and their meters with batched queries and
+     * computing the monthly consumption for the whole scenario interval with
+     * a single data scan. As with the per consumer queries, which expand the
+     * user population, the consumption of a user is the consumption of the
+     * first registered meter of the user.
+     *
+     * @param resultStore the savings potential per month and meter.
+     * @param timezone the utility time zone.
+     * @param begin the scenario interval start.
+     * @param end the scenario interval end.
+     * @return the consumption and savings per user.
+     */
+    private Map<UUID, AccountSavings> computeSavings(SavingResultStore resultStore, DateTimeZone timezone, DateTime begin, DateTime end) {
+        Map<UUID, AccountSavings> savingsStore = new HashMap<UUID, AccountSavings>();
 
-            while(begin.isBefore(end)) {
-                int year = begin.getYear();
-                int month = begin.getMonthOfYear();
+        // Resolve user keys of all distinct meters
+        Set<String> distinctSerials = new HashSet<String>();
+        for (Map<String, SavingResult> monthlyResults : resultStore.results.values()) {
+            distinctSerials.addAll(monthlyResults.keySet());
+        }
 
-                Map<String, SavingResult> monthlyResults = resultStore.results.get(month);
+        Map<String, UUID> serialToUserMap = userRepository.getUserKeysByMeterSerial(new ArrayList<String>(distinctSerials));
 
-                if(monthlyResults == null) {
-                    begin = begin.plusMonths(1);
+        // Resolve the first registered meter of every user
+        Map<UUID, PopulationMember> members = userRepository.getPopulationMembers(new ArrayList<UUID>(new HashSet<UUID>(serialToUserMap.values())), true);
+
+        List<String> userSerials = new ArrayList<String>();
+        Map<UUID, Integer> userToRowMap = new HashMap<UUID, Integer>();
+        for (PopulationMember member : members.values()) {
+            if (member.getSerial() != null) {
+                userToRowMap.put(member.getKey(), userSerials.size());
+                userSerials.add(member.getSerial());
+            }
+        }
+
+        // Compute monthly consumption for the meter of every user
+        if (userSerials.isEmpty()) {
+            return savingsStore;
+        }
+
+        String[] serials = userSerials.toArray(new String[userSerials.size()]);
+
+        MeterUserAggregateMatrix matrix = meterDataRepository.aggregatePerUser(serials,
+                                                                               timezone,
+                                                                               begin.getMillis(),
+                                                                               end.getMillis(),
+                                                                               EnumTimeAggregation.MONTH);
+
+        while(begin.isBefore(end)) {
+            Map<String, SavingResult> monthlyResults = resultStore.results.get(begin.getMonthOfYear());
+
+            int bucket = matrix.indexOfBucket(begin.getMillis());
+
+            if ((monthlyResults == null) || (bucket < 0) || (matrix.getTimestamp(bucket) != begin.getMillis())) {
+                begin = begin.plusMonths(1);
+                continue;
+            }
+
+            for (SavingResult consumer : monthlyResults.values()) {
+                UUID userKey = serialToUserMap.get(consumer.serial);
+                Integer row = (userKey == null ? null : userToRowMap.get(userKey));
+                if ((row == null) || (!matrix.hasValue(row, bucket))) {
                     continue;
                 }
 
-                for (SavingResult consumer : monthlyResults.values()) {
-                    // Resolve user key and cache it
-                    UUID userKey = serialToUserMap.get(consumer.serial);
-                    if(userKey == null) {
-                        AccountEntity account = userRepository.getUserByMeterSerial(consumer.serial);
-                        if(account == null) {
-                            continue;
-                        }
-                        userKey = account.getKey();
-                        serialToUserMap.put(consumer.serial, userKey);
-                    }
+                AccountSavings s = savingsStore.get(userKey);
+                if (s == null) {
+                    s = new AccountSavings();
+                    s.userKey = userKey;
+                    savingsStore.put(userKey, s);
+                }
 
-                    DataQuery query = DataQueryBuilder.create()
-                                                      .timezone(timezone)
-                                                      .absolute(begin, begin.dayOfMonth().withMaximumValue(), EnumTimeAggregation.MONTH)
-                                                      .user(consumer.serial, userKey)
-                                                      .meter()
-                                                      .userAggregates()
-                                                      .sum()
-                                                      .build();
-                    DataQueryResponse result = dataService.execute(query);
-                    if(result.getMeters().isEmpty()) {
-                        continue;
-                    }
+                s.totalConsumption += matrix.getValue(row, bucket);
+                s.totalSavings += consumer.userMonthlyPotential;
+            }
 
-                    for (DataPoint point : result.getMeters().get(0).getPoints()) {
-                        MeterDataPoint meterPoint = (MeterDataPoint) point;
-                        DateTime instant = new DateTime(meterPoint.getTimestamp(), timezone);
+            begin = begin.plusMonths(1);
+        }
 
-                        if ((instant.getYear() == year) && (instant.getMonthOfYear() == month)) {
-                            AccountSavings s = savingsStore.get(userKey);
-                            if (s == null) {
-                                s = new AccountSavings();
-                                s.userKey = userKey;
-                                savingsStore.put(userKey, s);
-                            }
+        return savingsStore;
+    }
 
-                            s.totalConsumption += meterPoint.getVolume().get(EnumMetric.SUM);
-                            s.totalSavings += consumer.userMonthlyPotential;
+    /**
+     * Computes the consumption and savings of every user by executing a query
+     * per consumer and month.
+     *
+     * @param resultStore the savings potential per month and meter.
+     * @param timezone the utility time zone.
+     * @param begin the scenario interval start.
+     * @param end the scenario interval end.
+     * @return the consumption and savings per user.
+     */
+    private Map<UUID, AccountSavings> computeSavingsPerConsumer(SavingResultStore resultStore, DateTimeZone timezone, DateTime begin, DateTime end) {
+        Map<String, UUID> serialToUserMap = new HashMap<String, UUID>();
+        Map<UUID, AccountSavings> savingsStore = new HashMap<UUID, AccountSavings>();
 
-                            scenarioConsumption += meterPoint.getVolume().get(EnumMetric.SUM);
-                            scenarioSavings += consumer.userMonthlyPotential;
+        while(begin.isBefore(end)) {
+            int year = begin.getYear();
+            int month = begin.getMonthOfYear();
 
-                            continue;
-                        }
-                    }
-                }
+            Map<String, SavingResult> monthlyResults = resultStore.results.get(month);
 
+            if(monthlyResults == null) {
                 begin = begin.plusMonths(1);
+                continue;
             }
 
-            // Update store
-            for (AccountSavings s : savingsStore.values()) {
-                savingsPotentialRepository.updateSavingConsumer(scenarioKey,
-                                                                s.userKey,
-                                                                s.totalConsumption,
-                                                                s.totalSavings,
-                                                                DateTime.now());
-            }
+            for (SavingResult consumer : monthlyResults.values()) {
+                // Resolve user key and cache it
+                UUID userKey = serialToUserMap.get(consumer.serial);
+                if(userKey == null) {
+                    AccountEntity account = userRepository.getUserByMeterSerial(consumer.serial);
+                    if(account == null) {
+                        continue;
+                    }
+                    userKey = account.getKey();
+                    serialToUserMap.put(consumer.serial, userKey);
+                }
 
-            savingsPotentialRepository.updateSavingScenario(scenarioKey,
-                                                            scenarioConsumption,
-                                                            scenarioSavings,
-                                                            DateTime.now(),
-                                                            savingsStore.size());
+                DataQuery query = DataQueryBuilder.create()
+                                                  .timezone(timezone)
+                                                  .absolute(begin, begin.dayOfMonth().withMaximumValue(), EnumTimeAggregation.MONTH)
+                                                  .user(consumer.serial, userKey)
+                                                  .meter()
+                                                  .userAggregates()
+                                                  .sum()
+                                                  .build();
+                DataQueryResponse result = dataService.execute(query);
+                if(result.getMeters().isEmpty()) {
+                    continue;
+                }
 
-        } catch (Throwable t) {
-            throw wrapApplicationException(t, SchedulerErrorCode.SCHEDULER_JOB_STEP_FAILED).set("step", chunkContext.getStepContext().getStepName());
+                for (DataPoint point : result.getMeters().get(0).getPoints()) {
+                    MeterDataPoint meterPoint = (MeterDataPoint) point;
+                    DateTime instant = new DateTime(meterPoint.getTimestamp(), timezone);
+
+                    if ((instant.getYear() == year) && (instant.getMonthOfYear() == month)) {
+                        AccountSavings s = savingsStore.get(userKey);
+                        if (s == null) {
+                            s = new AccountSavings();
+                            s.userKey = userKey;
+                            savingsStore.put(userKey, s);
+                        }
+
+                        s.totalConsumption += meterPoint.getVolume().get(EnumMetric.SUM);
+                        s.totalSavings += consumer.userMonthlyPotential;
+
+                        continue;
+                    }
+                }
+            }
+
+            begin = begin.plusMonths(1);
         }
 
-        return RepeatStatus.FINISHED;
+        return savingsStore;
     }
 
     @Override
@@ -0,0 +1,121 @@
+package eu.daiad.web.job.task;
+
+import java.io.File;
+import java.rmi.server.ExportException;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.batch.core.StepContribution;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.core.step.tasklet.StoppableTasklet;
+import org.springframework.batch.repeat.RepeatStatus;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import eu.daiad.web.service.IWaterMeterDataLoaderService;
+
+/**
+ * Task for splitting the smart water meter data files of a working directory
+ * before they are imported by a partitioned step. Every pending file is read
+ * once and its rows are written to one file per partition by the hash of the
+ * meter serial number. The partition files are stored in a subdirectory of the
+ * working directory and are imported by {@link ImportMeterDataPartitionTask}.
+ */
+@Component
+public class SplitMeterDataTask extends BaseTask implements StoppableTasklet {
+
+    /**
+     * Logger instance for writing events using the configured logging API.
+     */
+    private static final Log logger = LogFactory.getLog(SplitMeterDataTask.class);
+
+    /**
+     * Selects the files to split.
+     */
+    @Autowired
+    private MeterDataUploadRegistry uploadRegistry;
+
+    /**
+     * Service for splitting smart water meter data files.
+     */
+    @Autowired
+    private IWaterMeterDataLoaderService waterMeterDataLoaderService;
+
+    @Override
+    public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) throws Exception {
+        try {
+            Map<String, String> stepParameters = getStepParameters(chunkContext.getStepContext());
+
+            String importStep = stepParameters.get(EnumInParameter.IMPORT_STEP.getValue());
+            if (StringUtils.isBlank(importStep)) {
+                throw new ExportException("Import step is not set.");
+            }
+
+            int partitions = getInteger(stepParameters, EnumInParameter.PARTITIONS.getValue());
+            if (partitions < 1) {
+                throw new ExportException(String.format("Number of partitions [%d] is not valid.", partitions));
+            }
+
+            Map<String, String> parameters = getStepParameters(chunkContext.getStepContext(), importStep);
+
+            String sourceDir = parameters.get(ImportMeterDataTask.EnumInParameter.WORKING_DIRECTORY.getValue());
+            if (StringUtils.isBlank(sourceDir)) {
+                throw new ExportException("Source directory is not set.");
+            }
+
+            for (File file : uploadRegistry.getPendingFiles(sourceDir)) {
+                String[] partitionFilenames = new String[partitions];
+                for (int i = 0; i < partitions; i++) {
+                    partitionFilenames[i] = ImportMeterDataPartitionTask.getPartitionFile(file, i, partitions).getAbsolutePath();
+                }
+
+                int[] rows = waterMeterDataLoaderService.partition(file.getAbsolutePath(), partitionFilenames);
+
+                if (logger.isDebugEnabled()) {
+                    int total = 0;
+                    for (int count : rows) {
+                        total += count;
+                    }
+                    logger.debug(String.format("Split [%d] rows of file [%s] into [%d] partitions.", total, file.getAbsolutePath(), partitions));
+                }
+            }
+        } catch (Exception ex) {
+            logger.fatal("Failed to split meter data files.", ex);
+
+            throw ex;
+        }
+        return RepeatStatus.FINISHED;
+    }
+
+    @Override
+    public void stop() {
+
+    }
+
+    /**
+     * Enumeration of task input parameters.
+     */
+    public static enum EnumInParameter {
+        /**
+         * Name of the partitioned import step whose parameters are used
+         */
+        IMPORT_STEP("import.step"),
+        /**
+         * Number of partitions
+         */
+        PARTITIONS("partition.count");
+
+        private final String value;
+
+        public String getValue() {
+            return value;
+        }
+
+        private EnumInParameter(String value) {
+            this.value = value;
+        }
+    }
+
+}
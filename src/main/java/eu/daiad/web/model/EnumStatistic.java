@@ -1,17 +1,63 @@
 package eu.daiad.web.model;
 
-public enum EnumStatistic 
-{        
+public enum EnumStatistic
+{
     AVERAGE_PER_USER, // Meaningful only for volume/duration
     AVERAGE_PER_SESSION,
     MIN,
     MAX,
     COUNT,
     SUM,
-    PERCENTILE_10P_OF_USERS,
-    PERCENTILE_25P_OF_USERS,
-    PERCENTILE_50P_OF_USERS,
-    PERCENTILE_75P_OF_USERS,
-    PERCENTILE_90P_OF_USERS
+    PERCENTILE_10P_OF_USERS(0.10, false),
+    PERCENTILE_25P_OF_USERS(0.25, false),
+    PERCENTILE_50P_OF_USERS(0.50, false),
+    PERCENTILE_75P_OF_USERS(0.75, false),
+    PERCENTILE_90P_OF_USERS(0.90, false),
+
+    // Estimated from a fixed-size sketch instead of the values of all users
+    PERCENTILE_10P_OF_USERS_APPROX(0.10, true),
+    PERCENTILE_25P_OF_USERS_APPROX(0.25, true),
+    PERCENTILE_50P_OF_USERS_APPROX(0.50, true),
+    PERCENTILE_75P_OF_USERS_APPROX(0.75, true),
+    PERCENTILE_90P_OF_USERS_APPROX(0.90, true),
     ;
-}
\ No newline at end of file
+
+    private final double ratio;
+
+    private final boolean approximate;
+
+    private EnumStatistic()
+    {
+        this(Double.NaN, false);
+    }
+
+    private EnumStatistic(double ratio, boolean approximate)
+    {
+        this.ratio = ratio;
+        this.approximate = approximate;
+    }
+
+    /**
+     * Test if this statistic is a percentile of the values of a population of users
+     */
+    public boolean isPercentileOfUsers()
+    {
+        return !Double.isNaN(ratio);
+    }
+
+    /**
+     * Get the percentile as a ratio in [0, 1), or NaN if not a percentile
+     */
+    public double getRatio()
+    {
+        return ratio;
+    }
+
+    /**
+     * Test if this statistic may be estimated instead of computed exactly
+     */
+    public boolean isApproximate()
+    {
+        return approximate;
+    }
+}
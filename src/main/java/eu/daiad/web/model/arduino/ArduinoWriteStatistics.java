@@ -0,0 +1,46 @@
+package eu.daiad.web.model.arduino;
+
+/**
+ * Throughput counters for storing arduino measurements.
+ */
+public class ArduinoWriteStatistics {
+
+	private long requests;
+
+	private long measurements;
+
+	private long rows;
+
+	private long flushes;
+
+	private long failures;
+
+	public ArduinoWriteStatistics(long requests, long measurements, long rows, long flushes, long failures) {
+		this.requests = requests;
+		this.measurements = measurements;
+		this.rows = rows;
+		this.flushes = flushes;
+		this.failures = failures;
+	}
+
+	public long getRequests() {
+		return requests;
+	}
+
+	public long getMeasurements() {
+		return measurements;
+	}
+
+	public long getRows() {
+		return rows;
+	}
+
+	public long getFlushes() {
+		return flushes;
+	}
+
+	public long getFailures() {
+		return failures;
+	}
+
+}
@@ -9,7 +9,8 @@ public enum DataErrorCode implements ErrorCode {
 	SESSION_NOT_FOUND,
 	DUPLICATE_SESSION_ID,
 	HBASE_INVALID_COLUMN,
-	REALTIME_ALREADY_EXISTS;
+	REALTIME_ALREADY_EXISTS,
+	BULK_LOAD_INCOMPLETE;
 
 	@Override
 	public String getMessageKey() {
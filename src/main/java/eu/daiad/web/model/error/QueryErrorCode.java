@@ -18,7 +18,9 @@ public enum QueryErrorCode implements ErrorCode {
     RANKING_INVALID_FIELD,
     RANKING_INVALID_METRIC,
     METRIC_INVALID,
-    SOURCE_INVALID;
+    SOURCE_INVALID,
+    TIMEOUT,
+    OVERLOADED;
 
 	@Override
 	public String getMessageKey() {
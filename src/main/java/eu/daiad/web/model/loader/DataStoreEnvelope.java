@@ -0,0 +1,53 @@
+package eu.daiad.web.model.loader;
+
+import java.util.UUID;
+
+import eu.daiad.web.model.DeviceMeasurementCollection;
+
+/**
+ * A data upload persisted to the local write-ahead queue. User credentials are
+ * never serialized.
+ */
+public class DataStoreEnvelope {
+
+    private UUID receipt;
+
+    private UUID userKey;
+
+    private long createdOn;
+
+    private DeviceMeasurementCollection data;
+
+    public UUID getReceipt() {
+        return receipt;
+    }
+
+    public void setReceipt(UUID receipt) {
+        this.receipt = receipt;
+    }
+
+    public UUID getUserKey() {
+        return userKey;
+    }
+
+    public void setUserKey(UUID userKey) {
+        this.userKey = userKey;
+    }
+
+    public long getCreatedOn() {
+        return createdOn;
+    }
+
+    public void setCreatedOn(long createdOn) {
+        this.createdOn = createdOn;
+    }
+
+    public DeviceMeasurementCollection getData() {
+        return data;
+    }
+
+    public void setData(DeviceMeasurementCollection data) {
+        this.data = data;
+    }
+
+}
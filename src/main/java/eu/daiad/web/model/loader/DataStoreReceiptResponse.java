@@ -0,0 +1,22 @@
+package eu.daiad.web.model.loader;
+
+import java.util.UUID;
+
+import eu.daiad.web.model.RestResponse;
+
+/**
+ * Response returned when a data upload is accepted for asynchronous storage.
+ */
+public class DataStoreReceiptResponse extends RestResponse {
+
+    private UUID receipt;
+
+    public DataStoreReceiptResponse(UUID receipt) {
+        this.receipt = receipt;
+    }
+
+    public UUID getReceipt() {
+        return receipt;
+    }
+
+}
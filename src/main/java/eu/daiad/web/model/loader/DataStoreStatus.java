@@ -0,0 +1,47 @@
+package eu.daiad.web.model.loader;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import eu.daiad.web.model.amphiro.AmphiroSessionUpdate;
+
+/**
+ * Status of a data upload accepted for asynchronous storage.
+ */
+public class DataStoreStatus {
+
+    private UUID receipt;
+
+    private EnumDataStoreStatus status;
+
+    private String error;
+
+    private List<AmphiroSessionUpdate> updates = new ArrayList<AmphiroSessionUpdate>();
+
+    public DataStoreStatus(UUID receipt, EnumDataStoreStatus status) {
+        this.receipt = receipt;
+        this.status = status;
+    }
+
+    public UUID getReceipt() {
+        return receipt;
+    }
+
+    public EnumDataStoreStatus getStatus() {
+        return status;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    public List<AmphiroSessionUpdate> getUpdates() {
+        return updates;
+    }
+
+}
@@ -0,0 +1,21 @@
+package eu.daiad.web.model.loader;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import eu.daiad.web.model.AuthenticatedRequest;
+
+public class DataStoreStatusRequest extends AuthenticatedRequest {
+
+    private List<UUID> receipts = new ArrayList<UUID>();
+
+    public List<UUID> getReceipts() {
+        return receipts;
+    }
+
+    public void setReceipts(List<UUID> receipts) {
+        this.receipts = receipts;
+    }
+
+}
@@ -0,0 +1,20 @@
+package eu.daiad.web.model.loader;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import eu.daiad.web.model.RestResponse;
+
+public class DataStoreStatusResponse extends RestResponse {
+
+    private List<DataStoreStatus> receipts = new ArrayList<DataStoreStatus>();
+
+    public DataStoreStatusResponse(List<DataStoreStatus> receipts) {
+        this.receipts = receipts;
+    }
+
+    public List<DataStoreStatus> getReceipts() {
+        return receipts;
+    }
+
+}
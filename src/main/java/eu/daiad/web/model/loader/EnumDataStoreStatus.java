@@ -0,0 +1,23 @@
+package eu.daiad.web.model.loader;
+
+/**
+ * Status of a data upload accepted for asynchronous storage.
+ */
+public enum EnumDataStoreStatus {
+    /**
+     * Data has been queued but not stored yet.
+     */
+    PENDING,
+    /**
+     * Data has been stored.
+     */
+    COMPLETED,
+    /**
+     * Data storage has failed.
+     */
+    FAILED,
+    /**
+     * No upload exists for the given receipt or its status has expired.
+     */
+    UNKNOWN;
+}
@@ -1,6 +1,10 @@
 package eu.daiad.web.model.loader;
 
-public class FileProcessingStatus {
+import java.io.Serializable;
+
+public class FileProcessingStatus implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     private String filename;
 
@@ -80,4 +84,24 @@ public class FileProcessingStatus {
         this.filename = filename;
     }
 
+    /**
+     * Adds the counters of another status e.g. the status of a partition of
+     * the same file.
+     *
+     * @param status the status to merge.
+     */
+    public void merge(FileProcessingStatus status) {
+        totalRows += status.totalRows;
+        processedRows += status.processedRows;
+        skippedRows += status.skippedRows;
+        negativeDifference += status.negativeDifference;
+
+        if ((status.minTimestamp != null) && ((minTimestamp == null) || (minTimestamp > status.minTimestamp))) {
+            minTimestamp = status.minTimestamp;
+        }
+        if ((status.maxTimestamp != null) && ((maxTimestamp == null) || (maxTimestamp < status.maxTimestamp))) {
+            maxTimestamp = status.maxTimestamp;
+        }
+    }
+
 }
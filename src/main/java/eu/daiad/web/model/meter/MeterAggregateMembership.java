@@ -0,0 +1,57 @@
+package eu.daiad.web.model.meter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.joda.time.DateTimeZone;
+
+/**
+ * The aggregate groups of a smart water meter. Every group is identified by a
+ * group key and an optional area key, as in the row keys of the smart water
+ * meter aggregate table.
+ */
+public class MeterAggregateMembership {
+
+    private DateTimeZone timezone;
+
+    private List<Group> groups = new ArrayList<Group>();
+
+    public MeterAggregateMembership(DateTimeZone timezone) {
+        this.timezone = timezone;
+    }
+
+    public DateTimeZone getTimezone() {
+        return timezone;
+    }
+
+    public List<Group> getGroups() {
+        return groups;
+    }
+
+    public void add(UUID groupKey, UUID areaKey) {
+        groups.add(new Group(groupKey, areaKey));
+    }
+
+    public static class Group {
+
+        private UUID groupKey;
+
+        private UUID areaKey;
+
+        public Group(UUID groupKey, UUID areaKey) {
+            this.groupKey = groupKey;
+            this.areaKey = areaKey;
+        }
+
+        public UUID getGroupKey() {
+            return groupKey;
+        }
+
+        public UUID getAreaKey() {
+            return areaKey;
+        }
+
+    }
+
+}
@@ -0,0 +1,193 @@
+package eu.daiad.web.model.meter;
+
+import java.util.Arrays;
+
+/**
+ * Dense matrix of smart water meter consumption per user and time bucket. Row
+ * {@code i} holds the consumption of the {@code i}-th meter of the population
+ * the matrix has been computed for. Values are stored in a single primitive
+ * array in user major order. A bucket without readings has the value
+ * {@link Double#NaN}.
+ */
+public class MeterUserAggregateMatrix {
+
+    /**
+     * Number of users.
+     */
+    private final int users;
+
+    /**
+     * The start timestamp of every time bucket in ascending order.
+     */
+    private final long[] timestamps;
+
+    /**
+     * Consumption values stored in user major order.
+     */
+    private final double[] values;
+
+    /**
+     * Creates a new matrix without values.
+     *
+     * @param users the number of users.
+     * @param timestamps the start timestamp of every time bucket in ascending order.
+     */
+    public MeterUserAggregateMatrix(int users, long[] timestamps) {
+        this.users = users;
+        this.timestamps = timestamps;
+
+        values = new double[users * timestamps.length];
+        Arrays.fill(values, Double.NaN);
+    }
+
+    /**
+     * Returns the number of users.
+     *
+     * @return the number of rows.
+     */
+    public int getUserCount() {
+        return users;
+    }
+
+    /**
+     * Returns the number of time buckets.
+     *
+     * @return the number of columns.
+     */
+    public int getBucketCount() {
+        return timestamps.length;
+    }
+
+    /**
+     * Returns the start timestamp of a time bucket.
+     *
+     * @param bucket the bucket index.
+     * @return the bucket start timestamp.
+     */
+    public long getTimestamp(int bucket) {
+        return timestamps[bucket];
+    }
+
+    /**
+     * Returns the index of the time bucket that contains the given timestamp.
+     *
+     * @param timestamp the timestamp.
+     * @return the bucket index or -1 if the timestamp is before the first bucket.
+     */
+    public int indexOfBucket(long timestamp) {
+        int index = Arrays.binarySearch(timestamps, timestamp);
+        if (index < 0) {
+            // Insertion point minus one is the bucket that starts before the timestamp
+            index = -index - 2;
+        }
+        return index;
+    }
+
+    /**
+     * Returns true if the user has readings in the given time bucket.
+     *
+     * @param user the user index.
+     * @param bucket the bucket index.
+     * @return true if a value exists.
+     */
+    public boolean hasValue(int user, int bucket) {
+        return !Double.isNaN(values[user * timestamps.length + bucket]);
+    }
+
+    /**
+     * Returns the consumption of a user for a time bucket.
+     *
+     * @param user the user index.
+     * @param bucket the bucket index.
+     * @return the consumption or {@link Double#NaN} if there are no readings.
+     */
+    public double getValue(int user, int bucket) {
+        return values[user * timestamps.length + bucket];
+    }
+
+    /**
+     * Returns the total consumption of a user for all time buckets.
+     *
+     * @param user the user index.
+     * @return the consumption or {@link Double#NaN} if there are no readings.
+     */
+    public double getTotal(int user) {
+        double total = Double.NaN;
+
+        for (int i = user * timestamps.length, end = i + timestamps.length; i < end; i++) {
+            if (!Double.isNaN(values[i])) {
+                total = (Double.isNaN(total) ? values[i] : total + values[i]);
+            }
+        }
+
+        return total;
+    }
+
+    /**
+     * Sums the consumption of a group of users per time bucket. Negative
+     * indexes are ignored and every user is counted only once. The given
+     * array is not modified.
+     *
+     * @param users the user indexes.
+     * @return a matrix with a single row that holds the consumption of the group.
+     */
+    public MeterUserAggregateMatrix aggregate(int... users) {
+        MeterUserAggregateMatrix result = new MeterUserAggregateMatrix(1, timestamps);
+
+        users = users.clone();
+        Arrays.sort(users);
+
+        for (int i = 0; i < users.length; i++) {
+            if ((users[i] < 0) || ((i > 0) && (users[i] == users[i - 1]))) {
+                continue;
+            }
+            for (int bucket = 0; bucket < timestamps.length; bucket++) {
+                double value = values[users[i] * timestamps.length + bucket];
+                if (!Double.isNaN(value)) {
+                    result.add(0, bucket, value);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the backing array. The value of user {@code u} for bucket
+     * {@code b} is stored at index {@code u * getBucketCount() + b}.
+     *
+     * @return the matrix values.
+     */
+    public double[] getValues() {
+        return values;
+    }
+
+    /**
+     * Adds consumption to a user for a time bucket.
+     *
+     * @param user the user index.
+     * @param bucket the bucket index.
+     * @param value the consumption to add.
+     */
+    public void add(int user, int bucket, double value) {
+        int index = user * timestamps.length + bucket;
+
+        values[index] = (Double.isNaN(values[index]) ? value : values[index] + value);
+    }
+
+    /**
+     * Adds the values of a matrix with the same dimensions.
+     *
+     * @param matrix the matrix to merge.
+     */
+    public void merge(MeterUserAggregateMatrix matrix) {
+        double[] other = matrix.values;
+
+        for (int i = 0; i < values.length; i++) {
+            if (!Double.isNaN(other[i])) {
+                values[i] = (Double.isNaN(values[i]) ? other[i] : values[i] + other[i]);
+            }
+        }
+    }
+
+}
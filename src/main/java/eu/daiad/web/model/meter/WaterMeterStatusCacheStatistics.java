@@ -0,0 +1,54 @@
+package eu.daiad.web.model.meter;
+
+/**
+ * Usage counters of the smart water meter status cache.
+ */
+public class WaterMeterStatusCacheStatistics {
+
+    private int size;
+
+    private long hits;
+
+    private long misses;
+
+    private long updates;
+
+    private long evictions;
+
+    public WaterMeterStatusCacheStatistics(int size, long hits, long misses, long updates, long evictions) {
+        this.size = size;
+        this.hits = hits;
+        this.misses = misses;
+        this.updates = updates;
+        this.evictions = evictions;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getUpdates() {
+        return updates;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public double getHitRatio() {
+        long total = hits + misses;
+        if (total == 0) {
+            return 0;
+        }
+        return ((double) hits) / total;
+    }
+
+}
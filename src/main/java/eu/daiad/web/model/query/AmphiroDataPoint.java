@@ -1,19 +1,18 @@
 package eu.daiad.web.model.query;
 
-import java.util.EnumMap;
 import java.util.Map;
 
 public class AmphiroDataPoint extends DataPoint {
 
-	private Map<EnumMetric, Double> volume = new EnumMap<EnumMetric, Double>(EnumMetric.class);
+	private MetricValues volume = new MetricValues();
 
-	private Map<EnumMetric, Double> duration = new EnumMap<EnumMetric, Double>(EnumMetric.class);
+	private MetricValues duration = new MetricValues();
 
-	private Map<EnumMetric, Double> temperature = new EnumMap<EnumMetric, Double>(EnumMetric.class);
+	private MetricValues temperature = new MetricValues();
 
-	private Map<EnumMetric, Double> energy = new EnumMap<EnumMetric, Double>(EnumMetric.class);
+	private MetricValues energy = new MetricValues();
 
-	private Map<EnumMetric, Double> flow = new EnumMap<EnumMetric, Double>(EnumMetric.class);
+	private MetricValues flow = new MetricValues();
 
 	public AmphiroDataPoint() {
 	    super(EnumDataPointType.AMPHIRO);
@@ -23,23 +22,23 @@ public class AmphiroDataPoint extends DataPoint {
 		super(EnumDataPointType.AMPHIRO, timestamp);
 	}
 
-	public Map<EnumMetric, Double> getDuration() {
+	public MetricValues getDuration() {
 		return duration;
 	}
 
-	public Map<EnumMetric, Double> getTemperature() {
+	public MetricValues getTemperature() {
 		return temperature;
 	}
 
-	public Map<EnumMetric, Double> getEnergy() {
+	public MetricValues getEnergy() {
 		return energy;
 	}
 
-	public Map<EnumMetric, Double> getFlow() {
+	public MetricValues getFlow() {
 		return flow;
 	}
 
-	public Map<EnumMetric, Double> getVolume() {
+	public MetricValues getVolume() {
 		return volume;
 	}
 
@@ -1,42 +1,40 @@
 package eu.daiad.web.model.query;
 
-import java.util.HashMap;
-import java.util.Map;
 import java.util.UUID;
 
 public class AmphiroUserDataPoint extends UserDataPoint {
 
-	private Map<EnumMetric, Double> volume = new HashMap<EnumMetric, Double>();
+	private MetricValues volume = new MetricValues();
 
-	private Map<EnumMetric, Double> duration = new HashMap<EnumMetric, Double>();
+	private MetricValues duration = new MetricValues();
 
-	private Map<EnumMetric, Double> temperature = new HashMap<EnumMetric, Double>();
+	private MetricValues temperature = new MetricValues();
 
-	private Map<EnumMetric, Double> energy = new HashMap<EnumMetric, Double>();
+	private MetricValues energy = new MetricValues();
 
-	private Map<EnumMetric, Double> flow = new HashMap<EnumMetric, Double>();
+	private MetricValues flow = new MetricValues();
 
 	public AmphiroUserDataPoint(UUID key, String label) {
 		super(key, label);
 	}
 
-	public Map<EnumMetric, Double> getDuration() {
+	public MetricValues getDuration() {
 		return duration;
 	}
 
-	public Map<EnumMetric, Double> getTemperature() {
+	public MetricValues getTemperature() {
 		return temperature;
 	}
 
-	public Map<EnumMetric, Double> getEnergy() {
+	public MetricValues getEnergy() {
 		return energy;
 	}
 
-	public Map<EnumMetric, Double> getFlow() {
+	public MetricValues getFlow() {
 		return flow;
 	}
 
-	public Map<EnumMetric, Double> getVolume() {
+	public MetricValues getVolume() {
 		return volume;
 	}
 }
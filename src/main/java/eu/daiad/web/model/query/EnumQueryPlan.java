@@ -0,0 +1,17 @@
+package eu.daiad.web.model.query;
+
+/**
+ * Strategies for reading time series data from HBase.
+ */
+public enum EnumQueryPlan {
+    /**
+     * Scans the time ordered table partitions for the query time interval and
+     * filters rows by population.
+     */
+    TIME_PARTITION_SCAN,
+    /**
+     * Executes a row prefix scan on the device ordered table for every device
+     * of the query population.
+     */
+    DEVICE_PREFIX_SCAN;
+}
@@ -1,6 +1,7 @@
 package eu.daiad.web.model.query;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import org.joda.time.DateTimeZone;
@@ -23,6 +24,10 @@ public class ExpandedDataQuery {
 
     private List<EnumMetric> metrics;
 
+    private List<PartitionScanInfo> partitionScans = Collections.synchronizedList(new ArrayList<PartitionScanInfo>());
+
+    private List<QueryPlanInfo> plans = Collections.synchronizedList(new ArrayList<QueryPlanInfo>());
+
     private ExpandedDataQuery() {
         metrics = new ArrayList<EnumMetric>();
         for (EnumMetric m : EnumMetric.values()) {
@@ -77,6 +82,14 @@ public class ExpandedDataQuery {
         return timezone;
     }
 
+    public List<PartitionScanInfo> getPartitionScans() {
+        return partitionScans;
+    }
+
+    public List<QueryPlanInfo> getPlans() {
+        return plans;
+    }
+
     public boolean isUsingPreAggregation() {
         return usingPreAggregation;
     }
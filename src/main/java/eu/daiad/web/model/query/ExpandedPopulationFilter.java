@@ -28,6 +28,10 @@ public class ExpandedPopulationFilter {
 
     private List<byte[]> serialHashes = new ArrayList<byte[]>();
 
+    private volatile HashIndex userKeyHashIndex;
+
+    private volatile HashIndex serialHashIndex;
+
     public ExpandedPopulationFilter(PopulationFilter filter, int size) {
         this.size = size;
 
@@ -119,4 +123,138 @@ public class ExpandedPopulationFilter {
         return size;
     }
 
+    /**
+     * Returns the position of a user key MD5 hash in the population.
+     *
+     * @param array the array that contains the hash.
+     * @param offset the hash offset in the array.
+     * @return the position of the hash or -1 if the hash is not found.
+     */
+    public int indexOfUserKeyHash(byte[] array, int offset) {
+        HashIndex index = userKeyHashIndex;
+        if ((index == null) || (index.size != userKeyHashes.size())) {
+            index = new HashIndex(userKeyHashes);
+            userKeyHashIndex = index;
+        }
+        return index.indexOf(array, offset);
+    }
+
+    /**
+     * Returns the position of a user key MD5 hash in the population.
+     *
+     * @param hash the hash to find.
+     * @return the position of the hash or -1 if the hash is not found.
+     */
+    public int indexOfUserKeyHash(byte[] hash) {
+        return indexOfUserKeyHash(hash, 0);
+    }
+
+    /**
+     * Returns the position of a smart water meter serial number MD5 hash in the
+     * population.
+     *
+     * @param array the array that contains the hash.
+     * @param offset the hash offset in the array.
+     * @return the position of the hash or -1 if the hash is not found.
+     */
+    public int indexOfSerialHash(byte[] array, int offset) {
+        HashIndex index = serialHashIndex;
+        if ((index == null) || (index.size != serialHashes.size())) {
+            index = new HashIndex(serialHashes);
+            serialHashIndex = index;
+        }
+        return index.indexOf(array, offset);
+    }
+
+    /**
+     * Returns the position of a smart water meter serial number MD5 hash in the
+     * population.
+     *
+     * @param hash the hash to find.
+     * @return the position of the hash or -1 if the hash is not found.
+     */
+    public int indexOfSerialHash(byte[] hash) {
+        return indexOfSerialHash(hash, 0);
+    }
+
+    /**
+     * Immutable index from MD5 hash to the position of the hash in a list. The
+     * index is rebuilt whenever the size of the indexed list changes.
+     */
+    private static class HashIndex {
+
+        private static final int HASH_LENGTH = 16;
+
+        private final int size;
+
+        private final List<byte[]> hashes;
+
+        /**
+         * Open addressing table with linear probing. Every slot holds the
+         * position of a hash increased by one, or zero if the slot is empty.
+         */
+        private final int[] slots;
+
+        private final int mask;
+
+        public HashIndex(List<byte[]> hashes) {
+            this.size = hashes.size();
+            this.hashes = hashes;
+
+            int capacity = 16;
+            while (capacity < size * 2) {
+                capacity <<= 1;
+            }
+            slots = new int[capacity];
+            mask = capacity - 1;
+
+            for (int i = 0; i < size; i++) {
+                byte[] hash = hashes.get(i);
+                if (hash == null) {
+                    continue;
+                }
+
+                int slot = hashCode(hash, 0) & mask;
+                while (slots[slot] != 0) {
+                    if (equals(hashes.get(slots[slot] - 1), hash, 0)) {
+                        break;
+                    }
+                    slot = (slot + 1) & mask;
+                }
+                // The first occurrence of a hash wins
+                if (slots[slot] == 0) {
+                    slots[slot] = i + 1;
+                }
+            }
+        }
+
+        public int indexOf(byte[] array, int offset) {
+            int slot = hashCode(array, offset) & mask;
+            while (slots[slot] != 0) {
+                if (equals(hashes.get(slots[slot] - 1), array, offset)) {
+                    return slots[slot] - 1;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        private static int hashCode(byte[] array, int offset) {
+            // MD5 hashes are uniformly distributed
+            return ((array[offset] & 0xff) << 24) |
+                   ((array[offset + 1] & 0xff) << 16) |
+                   ((array[offset + 2] & 0xff) << 8) |
+                   (array[offset + 3] & 0xff);
+        }
+
+        private static boolean equals(byte[] hash, byte[] array, int offset) {
+            for (int i = 0; i < HASH_LENGTH; i++) {
+                if (hash[i] != array[offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
 }
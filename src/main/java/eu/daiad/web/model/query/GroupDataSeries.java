@@ -1,6 +1,7 @@
 package eu.daiad.web.model.query;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -23,6 +24,34 @@ public class GroupDataSeries
 
     List<DataPoint> points = new ArrayList<DataPoint>();
 
+    /**
+     * Interval in milliseconds of the slots used for caching timestamp
+     * truncation. Time zone offsets are multiples of 15 minutes, hence all
+     * timestamps in a slot are truncated to the same time bucket.
+     */
+    private static final long TRUNCATION_SLOT_MILLIS = 15 * 60 * 1000L;
+
+    private static final EnumMetric[] METRICS = EnumMetric.values();
+
+    /**
+     * Maps time bucket timestamps to positions in the points list.
+     */
+    private LongIndex pointIndex = new LongIndex();
+
+    private List<DataPoint> indexedPoints;
+
+    private int indexedSize;
+
+    /**
+     * Maps truncation slots to time bucket timestamps for the current
+     * granularity and time zone.
+     */
+    private LongIndex truncationIndex = new LongIndex();
+
+    private EnumTimeAggregation truncationGranularity;
+
+    private DateTimeZone truncationTimezone;
+
     public GroupDataSeries(String label, int population, Long areaId) {
         this.label = label;
         this.population = population;
@@ -44,13 +73,13 @@ public class GroupDataSeries
 
                 for (EnumMetric m : metrics) {
                     if (m == EnumMetric.MIN) {
-                        mp.getVolume().put(m, Double.MAX_VALUE);
+                        mp.getVolume().setValue(m, Double.MAX_VALUE);
                     } else {
-                        mp.getVolume().put(m, 0.0);
+                        mp.getVolume().setValue(m, 0.0);
                     }
                 }
 
-                points.add(mp);
+                addDataPoint(mp);
 
                 return mp;
             case AMPHIRO:
@@ -58,21 +87,21 @@ public class GroupDataSeries
 
                 for (EnumMetric m : metrics) {
                     if (m == EnumMetric.MIN) {
-                        ap.getVolume().put(m, Double.MAX_VALUE);
-                        ap.getEnergy().put(m, Double.MAX_VALUE);
-                        ap.getTemperature().put(m, Double.MAX_VALUE);
-                        ap.getDuration().put(m, Double.MAX_VALUE);
-                        ap.getFlow().put(m, Double.MAX_VALUE);
+                        ap.getVolume().setValue(m, Double.MAX_VALUE);
+                        ap.getEnergy().setValue(m, Double.MAX_VALUE);
+                        ap.getTemperature().setValue(m, Double.MAX_VALUE);
+                        ap.getDuration().setValue(m, Double.MAX_VALUE);
+                        ap.getFlow().setValue(m, Double.MAX_VALUE);
                     } else {
-                        ap.getVolume().put(m, 0.0);
-                        ap.getEnergy().put(m, 0.0);
-                        ap.getTemperature().put(m, 0.0);
-                        ap.getDuration().put(m, 0.0);
-                        ap.getFlow().put(m, 0.0);
+                        ap.getVolume().setValue(m, 0.0);
+                        ap.getEnergy().setValue(m, 0.0);
+                        ap.getTemperature().setValue(m, 0.0);
+                        ap.getDuration().setValue(m, 0.0);
+                        ap.getFlow().setValue(m, 0.0);
                     }
                 }
 
-                points.add(ap);
+                addDataPoint(ap);
 
                 return ap;
             default:
@@ -81,11 +110,15 @@ public class GroupDataSeries
         }
     }
 
-    private DataPoint getDataPoint(EnumTimeAggregation granularity,
-                                   long timestamp,
-                                   List<EnumMetric> metrics,
-                                   DataPoint.EnumDataPointType type,
-                                   DateTimeZone timezone) {
+    /**
+     * Truncates a timestamp to the start of its time bucket.
+     *
+     * @param granularity the time bucket granularity.
+     * @param timestamp the timestamp to truncate.
+     * @param timezone the time zone.
+     * @return the time bucket timestamp.
+     */
+    private static long truncate(EnumTimeAggregation granularity, long timestamp, DateTimeZone timezone) {
         DateTime date = new DateTime(timestamp, timezone);
 
         switch (granularity) {
@@ -110,17 +143,95 @@ public class GroupDataSeries
                 throw new IllegalArgumentException("Granularity level not supported.");
         }
 
-        DataPoint p = null;
-        timestamp = date.getMillis();
+        return date.getMillis();
+    }
+
+    /**
+     * Returns the time bucket of a timestamp. Truncation results are cached
+     * per slot of {@link #TRUNCATION_SLOT_MILLIS} milliseconds, hence dates
+     * are computed only once for every slot of the query time interval.
+     *
+     * @param granularity the time bucket granularity.
+     * @param timestamp the timestamp to truncate.
+     * @param timezone the time zone.
+     * @return the time bucket timestamp.
+     */
+    private long getTimeBucket(EnumTimeAggregation granularity, long timestamp, DateTimeZone timezone) {
+        if ((granularity != truncationGranularity) || (!timezone.equals(truncationTimezone))) {
+            truncationIndex.clear();
+            truncationGranularity = granularity;
+            truncationTimezone = timezone;
+        }
+
+        long slot = (timestamp >= 0 ? timestamp / TRUNCATION_SLOT_MILLIS : ((timestamp + 1) / TRUNCATION_SLOT_MILLIS) - 1);
 
-        for (int i = 0, count = points.size(); i < count; i++) {
-            if (timestamp == points.get(i).getTimestamp()) {
-                p = points.get(i);
+        long bucket = truncationIndex.get(slot);
+        if (bucket != LongIndex.NOT_FOUND) {
+            return bucket;
+        }
 
-                break;
+        bucket = truncate(granularity, timestamp, timezone);
+
+        // Truncation is monotonic; if both slot bounds belong to the same time
+        // bucket, so does every timestamp in the slot
+        long slotStart = slot * TRUNCATION_SLOT_MILLIS;
+        if ((truncate(granularity, slotStart, timezone) == bucket) &&
+            (truncate(granularity, slotStart + TRUNCATION_SLOT_MILLIS - 1, timezone) == bucket)) {
+            truncationIndex.put(slot, bucket);
+        }
+
+        return bucket;
+    }
+
+    /**
+     * Returns the first data point with the given timestamp.
+     *
+     * @param timestamp the time bucket timestamp.
+     * @return the data point or null if no data point exists.
+     */
+    private DataPoint findDataPoint(long timestamp) {
+        if ((indexedPoints != points) || (indexedSize != points.size())) {
+            // Points have been replaced or modified externally
+            pointIndex.clear();
+            for (int i = 0, count = points.size(); i < count; i++) {
+                Long key = points.get(i).getTimestamp();
+                if ((key != null) && (pointIndex.get(key) == LongIndex.NOT_FOUND)) {
+                    pointIndex.put(key, i);
+                }
             }
+            indexedPoints = points;
+            indexedSize = points.size();
         }
 
+        long position = pointIndex.get(timestamp);
+        if (position == LongIndex.NOT_FOUND) {
+            return null;
+        }
+        return points.get((int) position);
+    }
+
+    /**
+     * Appends a data point and updates the timestamp index.
+     *
+     * @param point the data point to add.
+     */
+    private void addDataPoint(DataPoint point) {
+        if ((point.getTimestamp() != null) && (findDataPoint(point.getTimestamp()) == null)) {
+            pointIndex.put(point.getTimestamp(), points.size());
+        }
+        points.add(point);
+        indexedSize = points.size();
+    }
+
+    private DataPoint getDataPoint(EnumTimeAggregation granularity,
+                                   long timestamp,
+                                   List<EnumMetric> metrics,
+                                   DataPoint.EnumDataPointType type,
+                                   DateTimeZone timezone) {
+        timestamp = getTimeBucket(granularity, timestamp, timezone);
+
+        DataPoint p = findDataPoint(timestamp);
+
         if (p == null) {
             p = createDataPoint(metrics, type, timestamp);
         }
@@ -143,51 +254,51 @@ public class GroupDataSeries
         for (EnumMetric m : metrics) {
             switch (m) {
                 case COUNT:
-                    point.getVolume().put(m, point.getVolume().get(m) + 1);
-                    point.getEnergy().put(m, point.getEnergy().get(m) + 1);
-                    point.getDuration().put(m, point.getDuration().get(m) + 1);
-                    point.getTemperature().put(m, point.getTemperature().get(m) + 1);
-                    point.getFlow().put(m, point.getFlow().get(m) + 1);
+                    point.getVolume().setValue(m, point.getVolume().getValue(m) + 1);
+                    point.getEnergy().setValue(m, point.getEnergy().getValue(m) + 1);
+                    point.getDuration().setValue(m, point.getDuration().getValue(m) + 1);
+                    point.getTemperature().setValue(m, point.getTemperature().getValue(m) + 1);
+                    point.getFlow().setValue(m, point.getFlow().getValue(m) + 1);
                     break;
                 case SUM:
-                    point.getVolume().put(m, point.getVolume().get(m) + volume);
-                    point.getEnergy().put(m, point.getEnergy().get(m) + energy);
-                    point.getDuration().put(m, point.getDuration().get(m) + duration);
-                    point.getTemperature().put(m, point.getTemperature().get(m) + temperature);
-                    point.getFlow().put(m, point.getFlow().get(m) + flow);
+                    point.getVolume().setValue(m, point.getVolume().getValue(m) + volume);
+                    point.getEnergy().setValue(m, point.getEnergy().getValue(m) + energy);
+                    point.getDuration().setValue(m, point.getDuration().getValue(m) + duration);
+                    point.getTemperature().setValue(m, point.getTemperature().getValue(m) + temperature);
+                    point.getFlow().setValue(m, point.getFlow().getValue(m) + flow);
                     break;
                 case MIN:
-                    if (point.getVolume().get(m) > volume) {
-                        point.getVolume().put(m, volume);
+                    if (point.getVolume().getValue(m) > volume) {
+                        point.getVolume().setValue(m, volume);
                     }
-                    if (point.getEnergy().get(m) > energy) {
-                        point.getEnergy().put(m, energy);
+                    if (point.getEnergy().getValue(m) > energy) {
+                        point.getEnergy().setValue(m, energy);
                     }
-                    if (point.getDuration().get(m) > duration) {
-                        point.getDuration().put(m, duration);
+                    if (point.getDuration().getValue(m) > duration) {
+                        point.getDuration().setValue(m, duration);
                     }
-                    if (point.getTemperature().get(m) > temperature) {
-                        point.getTemperature().put(m, temperature);
+                    if (point.getTemperature().getValue(m) > temperature) {
+                        point.getTemperature().setValue(m, temperature);
                     }
-                    if (point.getFlow().get(m) > flow) {
-                        point.getFlow().put(m, flow);
+                    if (point.getFlow().getValue(m) > flow) {
+                        point.getFlow().setValue(m, flow);
                     }
                     break;
                 case MAX:
-                    if (point.getVolume().get(m) < volume) {
-                        point.getVolume().put(m, volume);
+                    if (point.getVolume().getValue(m) < volume) {
+                        point.getVolume().setValue(m, volume);
                     }
-                    if (point.getEnergy().get(m) < energy) {
-                        point.getEnergy().put(m, energy);
+                    if (point.getEnergy().getValue(m) < energy) {
+                        point.getEnergy().setValue(m, energy);
                     }
-                    if (point.getDuration().get(m) < duration) {
-                        point.getDuration().put(m, duration);
+                    if (point.getDuration().getValue(m) < duration) {
+                        point.getDuration().setValue(m, duration);
                     }
-                    if (point.getTemperature().get(m) < temperature) {
-                        point.getTemperature().put(m, temperature);
+                    if (point.getTemperature().getValue(m) < temperature) {
+                        point.getTemperature().setValue(m, temperature);
                     }
-                    if (point.getFlow().get(m) < flow) {
-                        point.getFlow().put(m, flow);
+                    if (point.getFlow().getValue(m) < flow) {
+                        point.getFlow().setValue(m, flow);
                     }
                     break;
                 case AVERAGE:
@@ -197,19 +308,19 @@ public class GroupDataSeries
             }
         }
         if (avg) {
-            double count = point.getVolume().get(EnumMetric.COUNT);
+            double count = point.getVolume().getValue(EnumMetric.COUNT);
             if (count == 0) {
-                point.getVolume().put(EnumMetric.AVERAGE, 0.0);
-                point.getEnergy().put(EnumMetric.AVERAGE, 0.0);
-                point.getDuration().put(EnumMetric.AVERAGE, 0.0);
-                point.getTemperature().put(EnumMetric.AVERAGE, 0.0);
-                point.getFlow().put(EnumMetric.AVERAGE, 0.0);
+                point.getVolume().setValue(EnumMetric.AVERAGE, 0.0);
+                point.getEnergy().setValue(EnumMetric.AVERAGE, 0.0);
+                point.getDuration().setValue(EnumMetric.AVERAGE, 0.0);
+                point.getTemperature().setValue(EnumMetric.AVERAGE, 0.0);
+                point.getFlow().setValue(EnumMetric.AVERAGE, 0.0);
             } else {
-                point.getVolume().put(EnumMetric.AVERAGE, point.getVolume().get(EnumMetric.SUM) / count);
-                point.getEnergy().put(EnumMetric.AVERAGE, point.getEnergy().get(EnumMetric.SUM) / count);
-                point.getDuration().put(EnumMetric.AVERAGE, point.getDuration().get(EnumMetric.SUM) / count);
-                point.getTemperature().put(EnumMetric.AVERAGE, point.getTemperature().get(EnumMetric.SUM) / count);
-                point.getFlow().put(EnumMetric.AVERAGE, point.getFlow().get(EnumMetric.SUM) / count);
+                point.getVolume().setValue(EnumMetric.AVERAGE, point.getVolume().getValue(EnumMetric.SUM) / count);
+                point.getEnergy().setValue(EnumMetric.AVERAGE, point.getEnergy().getValue(EnumMetric.SUM) / count);
+                point.getDuration().setValue(EnumMetric.AVERAGE, point.getDuration().getValue(EnumMetric.SUM) / count);
+                point.getTemperature().setValue(EnumMetric.AVERAGE, point.getTemperature().getValue(EnumMetric.SUM) / count);
+                point.getFlow().setValue(EnumMetric.AVERAGE, point.getFlow().getValue(EnumMetric.SUM) / count);
             }
         }
     }
@@ -233,19 +344,19 @@ public class GroupDataSeries
         for (EnumMetric m : metrics) {
             switch (m) {
                 case COUNT:
-                    point.getVolume().put(m, point.getVolume().get(m) + 1);
+                    point.getVolume().setValue(m, point.getVolume().getValue(m) + 1);
                     break;
                 case SUM:
-                    point.getVolume().put(m, point.getVolume().get(m) + difference);
+                    point.getVolume().setValue(m, point.getVolume().getValue(m) + difference);
                     break;
                 case MIN:
-                    if (point.getVolume().get(m) > (volume - difference)) {
-                        point.getVolume().put(m, (volume - difference));
+                    if (point.getVolume().getValue(m) > (volume - difference)) {
+                        point.getVolume().setValue(m, (volume - difference));
                     }
                     break;
                 case MAX:
-                    if (point.getVolume().get(m) < volume) {
-                        point.getVolume().put(m, volume);
+                    if (point.getVolume().getValue(m) < volume) {
+                        point.getVolume().setValue(m, volume);
                     }
                     break;
                 default:
@@ -277,51 +388,51 @@ public class GroupDataSeries
         for (EnumMetric m : metrics) {
             switch (m) {
                 case COUNT:
-                    point.getVolume().put(m, point.getVolume().get(m) + 1);
-                    point.getEnergy().put(m, point.getEnergy().get(m) + 1);
-                    point.getDuration().put(m, point.getDuration().get(m) + 1);
-                    point.getTemperature().put(m, point.getTemperature().get(m) + 1);
-                    point.getFlow().put(m, point.getFlow().get(m) + 1);
+                    point.getVolume().setValue(m, point.getVolume().getValue(m) + 1);
+                    point.getEnergy().setValue(m, point.getEnergy().getValue(m) + 1);
+                    point.getDuration().setValue(m, point.getDuration().getValue(m) + 1);
+                    point.getTemperature().setValue(m, point.getTemperature().getValue(m) + 1);
+                    point.getFlow().setValue(m, point.getFlow().getValue(m) + 1);
                     break;
                 case SUM:
-                    point.getVolume().put(m, point.getVolume().get(m) + volume);
-                    point.getEnergy().put(m, point.getEnergy().get(m) + energy);
-                    point.getDuration().put(m, point.getDuration().get(m) + duration);
-                    point.getTemperature().put(m, point.getTemperature().get(m) + temperature);
-                    point.getFlow().put(m, point.getFlow().get(m) + flow);
+                    point.getVolume().setValue(m, point.getVolume().getValue(m) + volume);
+                    point.getEnergy().setValue(m, point.getEnergy().getValue(m) + energy);
+                    point.getDuration().setValue(m, point.getDuration().getValue(m) + duration);
+                    point.getTemperature().setValue(m, point.getTemperature().getValue(m) + temperature);
+                    point.getFlow().setValue(m, point.getFlow().getValue(m) + flow);
                     break;
                 case MIN:
-                    if (point.getVolume().get(m) > volume) {
-                        point.getVolume().put(m, volume);
+                    if (point.getVolume().getValue(m) > volume) {
+                        point.getVolume().setValue(m, volume);
                     }
-                    if (point.getEnergy().get(m) > energy) {
-                        point.getEnergy().put(m, energy);
+                    if (point.getEnergy().getValue(m) > energy) {
+                        point.getEnergy().setValue(m, energy);
                     }
-                    if (point.getDuration().get(m) > duration) {
-                        point.getDuration().put(m, duration);
+                    if (point.getDuration().getValue(m) > duration) {
+                        point.getDuration().setValue(m, duration);
                     }
-                    if (point.getTemperature().get(m) > temperature) {
-                        point.getTemperature().put(m, temperature);
+                    if (point.getTemperature().getValue(m) > temperature) {
+                        point.getTemperature().setValue(m, temperature);
                     }
-                    if (point.getFlow().get(m) > flow) {
-                        point.getFlow().put(m, flow);
+                    if (point.getFlow().getValue(m) > flow) {
+                        point.getFlow().setValue(m, flow);
                     }
                     break;
                 case MAX:
-                    if (point.getVolume().get(m) < volume) {
-                        point.getVolume().put(m, volume);
+                    if (point.getVolume().getValue(m) < volume) {
+                        point.getVolume().setValue(m, volume);
                     }
-                    if (point.getEnergy().get(m) < energy) {
-                        point.getEnergy().put(m, energy);
+                    if (point.getEnergy().getValue(m) < energy) {
+                        point.getEnergy().setValue(m, energy);
                     }
-                    if (point.getDuration().get(m) < duration) {
-                        point.getDuration().put(m, duration);
+                    if (point.getDuration().getValue(m) < duration) {
+                        point.getDuration().setValue(m, duration);
                     }
-                    if (point.getTemperature().get(m) < temperature) {
-                        point.getTemperature().put(m, temperature);
+                    if (point.getTemperature().getValue(m) < temperature) {
+                        point.getTemperature().setValue(m, temperature);
                     }
-                    if (point.getFlow().get(m) < flow) {
-                        point.getFlow().put(m, flow);
+                    if (point.getFlow().getValue(m) < flow) {
+                        point.getFlow().setValue(m, flow);
                     }
                     break;
                 case AVERAGE:
@@ -331,58 +442,33 @@ public class GroupDataSeries
             }
         }
         if (avg) {
-            double count = point.getVolume().get(EnumMetric.COUNT);
+            double count = point.getVolume().getValue(EnumMetric.COUNT);
             if (count == 0) {
-                point.getVolume().put(EnumMetric.AVERAGE, 0.0);
-                point.getEnergy().put(EnumMetric.AVERAGE, 0.0);
-                point.getDuration().put(EnumMetric.AVERAGE, 0.0);
-                point.getTemperature().put(EnumMetric.AVERAGE, 0.0);
-                point.getFlow().put(EnumMetric.AVERAGE, 0.0);
+                point.getVolume().setValue(EnumMetric.AVERAGE, 0.0);
+                point.getEnergy().setValue(EnumMetric.AVERAGE, 0.0);
+                point.getDuration().setValue(EnumMetric.AVERAGE, 0.0);
+                point.getTemperature().setValue(EnumMetric.AVERAGE, 0.0);
+                point.getFlow().setValue(EnumMetric.AVERAGE, 0.0);
             } else {
-                point.getVolume().put(EnumMetric.AVERAGE, point.getVolume().get(EnumMetric.SUM) / count);
-                point.getEnergy().put(EnumMetric.AVERAGE, point.getEnergy().get(EnumMetric.SUM) / count);
-                point.getDuration().put(EnumMetric.AVERAGE, point.getDuration().get(EnumMetric.SUM) / count);
-                point.getTemperature().put(EnumMetric.AVERAGE, point.getTemperature().get(EnumMetric.SUM) / count);
-                point.getFlow().put(EnumMetric.AVERAGE, point.getFlow().get(EnumMetric.SUM) / count);
+                point.getVolume().setValue(EnumMetric.AVERAGE, point.getVolume().getValue(EnumMetric.SUM) / count);
+                point.getEnergy().setValue(EnumMetric.AVERAGE, point.getEnergy().getValue(EnumMetric.SUM) / count);
+                point.getDuration().setValue(EnumMetric.AVERAGE, point.getDuration().getValue(EnumMetric.SUM) / count);
+                point.getTemperature().setValue(EnumMetric.AVERAGE, point.getTemperature().getValue(EnumMetric.SUM) / count);
+                point.getFlow().setValue(EnumMetric.AVERAGE, point.getFlow().getValue(EnumMetric.SUM) / count);
             }
         }
     }
 
     private RankingDataPoint getRankingDataPoint(EnumTimeAggregation granularity, long timestamp, DateTimeZone timezone) {
-        DateTime date = new DateTime(timestamp, timezone);
+        timestamp = getTimeBucket(granularity, timestamp, timezone);
 
-        switch (granularity) {
-            case HOUR:
-                date = new DateTime(date.getYear(), date.getMonthOfYear(), date.getDayOfMonth(), date.getHourOfDay(), 0, 0, timezone);
-                break;
-            case DAY:
-                date = new DateTime(date.getYear(), date.getMonthOfYear(), date.getDayOfMonth(), 0, 0, 0, timezone);
-                break;
-            case WEEK:
-                DateTime sunday = date.withDayOfWeek(DateTimeConstants.SUNDAY);
-
-                date = new DateTime(sunday.getYear(), sunday.getMonthOfYear(), sunday.getDayOfMonth(), 0, 0, 0, timezone);
-                break;
-            case MONTH:
-                date = new DateTime(date.getYear(), date.getMonthOfYear(), 1, 0, 0, 0, timezone);
-                break;
-            case YEAR:
-                date = new DateTime(date.getYear(), 1, 1, 0, 0, 0, timezone);
-                break;
-            default:
-                throw new IllegalArgumentException("Granularity level not supported.");
-        }
-
-        timestamp = date.getMillis();
-
-        for (int i = 0, count = points.size(); i < count; i++) {
-            if (timestamp == points.get(i).getTimestamp()) {
-                return (RankingDataPoint) points.get(i);
-            }
+        DataPoint p = findDataPoint(timestamp);
+        if (p != null) {
+            return (RankingDataPoint) p;
         }
 
         RankingDataPoint point = new RankingDataPoint(timestamp);
-        points.add(point);
+        addDataPoint(point);
 
         return point;
 
@@ -410,9 +496,9 @@ public class GroupDataSeries
 
                 for (EnumMetric m : metrics) {
                     if (m == EnumMetric.MIN) {
-                        meterPoint.getVolume().put(m, Double.MAX_VALUE);
+                        meterPoint.getVolume().setValue(m, Double.MAX_VALUE);
                     } else {
-                        meterPoint.getVolume().put(m, 0.0);
+                        meterPoint.getVolume().setValue(m, 0.0);
                     }
 
                 }
@@ -424,17 +510,17 @@ public class GroupDataSeries
 
                 for (EnumMetric m : metrics) {
                     if (m == EnumMetric.MIN) {
-                        amphiroPoint.getVolume().put(m, Double.MAX_VALUE);
-                        amphiroPoint.getEnergy().put(m, Double.MAX_VALUE);
-                        amphiroPoint.getTemperature().put(m, Double.MAX_VALUE);
-                        amphiroPoint.getDuration().put(m, Double.MAX_VALUE);
-                        amphiroPoint.getFlow().put(m, Double.MAX_VALUE);
+                        amphiroPoint.getVolume().setValue(m, Double.MAX_VALUE);
+                        amphiroPoint.getEnergy().setValue(m, Double.MAX_VALUE);
+                        amphiroPoint.getTemperature().setValue(m, Double.MAX_VALUE);
+                        amphiroPoint.getDuration().setValue(m, Double.MAX_VALUE);
+                        amphiroPoint.getFlow().setValue(m, Double.MAX_VALUE);
                     } else {
-                        amphiroPoint.getVolume().put(m, 0.0);
-                        amphiroPoint.getEnergy().put(m, 0.0);
-                        amphiroPoint.getTemperature().put(m, 0.0);
-                        amphiroPoint.getDuration().put(m, 0.0);
-                        amphiroPoint.getFlow().put(m, 0.0);
+                        amphiroPoint.getVolume().setValue(m, 0.0);
+                        amphiroPoint.getEnergy().setValue(m, 0.0);
+                        amphiroPoint.getTemperature().setValue(m, 0.0);
+                        amphiroPoint.getDuration().setValue(m, 0.0);
+                        amphiroPoint.getFlow().setValue(m, 0.0);
                     }
                 }
 
@@ -444,6 +530,190 @@ public class GroupDataSeries
         }
     }
 
+    /**
+     * Merges the data points of a partial series computed for the same
+     * population into this series. Data points are matched by timestamp and
+     * user data points by user key. Points that exist only in the partial
+     * series are appended in their original order.
+     *
+     * @param partial the partial series to merge.
+     */
+    public void merge(GroupDataSeries partial) {
+        for (DataPoint source : partial.points) {
+            DataPoint target = (source.getTimestamp() == null ? null : findDataPoint(source.getTimestamp()));
+
+            if (target == null) {
+                addDataPoint(source);
+                continue;
+            }
+
+            switch (source.getType()) {
+                case AMPHIRO:
+                    mergeAmphiroDataPoint((AmphiroDataPoint) target, (AmphiroDataPoint) source);
+                    break;
+                case RANKING:
+                    mergeRankingDataPoint((RankingDataPoint) target, (RankingDataPoint) source);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Data point type is not supported.");
+            }
+        }
+    }
+
+    private void mergeAmphiroDataPoint(AmphiroDataPoint target, AmphiroDataPoint source) {
+        mergeMetrics(target.getVolume(), source.getVolume(), true);
+        mergeMetrics(target.getEnergy(), source.getEnergy(), true);
+        mergeMetrics(target.getDuration(), source.getDuration(), true);
+        mergeMetrics(target.getTemperature(), source.getTemperature(), true);
+        mergeMetrics(target.getFlow(), source.getFlow(), true);
+    }
+
+    private void mergeRankingDataPoint(RankingDataPoint target, RankingDataPoint source) {
+        Map<UUID, UserDataPoint> users = new HashMap<UUID, UserDataPoint>();
+        for (UserDataPoint user : target.getUsers()) {
+            users.put(user.getKey(), user);
+        }
+
+        for (UserDataPoint user : source.getUsers()) {
+            UserDataPoint existing = users.get(user.getKey());
+
+            if (existing == null) {
+                target.getUsers().add(user);
+            } else if (user instanceof MeterUserDataPoint) {
+                mergeMetrics(((MeterUserDataPoint) existing).getVolume(), ((MeterUserDataPoint) user).getVolume(), false);
+            } else if (user instanceof AmphiroUserDataPoint) {
+                AmphiroUserDataPoint targetUser = (AmphiroUserDataPoint) existing;
+                AmphiroUserDataPoint sourceUser = (AmphiroUserDataPoint) user;
+
+                mergeMetrics(targetUser.getVolume(), sourceUser.getVolume(), true);
+                mergeMetrics(targetUser.getEnergy(), sourceUser.getEnergy(), true);
+                mergeMetrics(targetUser.getDuration(), sourceUser.getDuration(), true);
+                mergeMetrics(targetUser.getTemperature(), sourceUser.getTemperature(), true);
+                mergeMetrics(targetUser.getFlow(), sourceUser.getFlow(), true);
+            } else {
+                throw new IllegalArgumentException("Data point type is not supported.");
+            }
+        }
+    }
+
+    private void mergeMetrics(MetricValues target, MetricValues source, boolean average) {
+        for (EnumMetric m : METRICS) {
+            if (!source.has(m)) {
+                continue;
+            }
+
+            double value = source.getValue(m);
+
+            if (!target.has(m)) {
+                target.setValue(m, value);
+                continue;
+            }
+
+            switch (m) {
+                case COUNT:
+                case SUM:
+                    target.setValue(m, target.getValue(m) + value);
+                    break;
+                case MIN:
+                    if (target.getValue(m) > value) {
+                        target.setValue(m, value);
+                    }
+                    break;
+                case MAX:
+                    if (target.getValue(m) < value) {
+                        target.setValue(m, value);
+                    }
+                    break;
+                default:
+                    // Ignore
+            }
+        }
+
+        // Average is computed incrementally and must be refreshed after merging
+        if ((average) && (target.has(EnumMetric.AVERAGE))) {
+            if ((!target.has(EnumMetric.COUNT)) || (!target.has(EnumMetric.SUM)) || (target.getValue(EnumMetric.COUNT) == 0)) {
+                target.setValue(EnumMetric.AVERAGE, 0.0);
+            } else {
+                target.setValue(EnumMetric.AVERAGE, target.getValue(EnumMetric.SUM) / target.getValue(EnumMetric.COUNT));
+            }
+        }
+    }
+
+    /**
+     * Open addressing hash map with primitive long keys and values.
+     */
+    private static class LongIndex {
+
+        public static final long NOT_FOUND = Long.MIN_VALUE;
+
+        private long[] keys;
+
+        private long[] values;
+
+        private boolean[] used;
+
+        private int size;
+
+        public LongIndex() {
+            allocate(16);
+        }
+
+        private void allocate(int capacity) {
+            keys = new long[capacity];
+            values = new long[capacity];
+            used = new boolean[capacity];
+            size = 0;
+        }
+
+        private int slot(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & (keys.length - 1);
+        }
+
+        public long get(long key) {
+            int mask = keys.length - 1;
+            for (int i = slot(key); used[i]; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return values[i];
+                }
+            }
+            return NOT_FOUND;
+        }
+
+        public void put(long key, long value) {
+            if ((size + 1) * 2 > keys.length) {
+                long[] oldKeys = keys;
+                long[] oldValues = values;
+                boolean[] oldUsed = used;
+
+                allocate(keys.length * 2);
+                for (int i = 0; i < oldKeys.length; i++) {
+                    if (oldUsed[i]) {
+                        put(oldKeys[i], oldValues[i]);
+                    }
+                }
+            }
+
+            int mask = keys.length - 1;
+            int i = slot(key);
+            while ((used[i]) && (keys[i] != key)) {
+                i = (i + 1) & mask;
+            }
+            if (!used[i]) {
+                used[i] = true;
+                keys[i] = key;
+                size++;
+            }
+            values[i] = value;
+        }
+
+        public void clear() {
+            if (size > 0) {
+                allocate(16);
+            }
+        }
+    }
+
     public int getPopulation() {
         return population;
     }
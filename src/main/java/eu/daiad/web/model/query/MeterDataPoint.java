@@ -1,11 +1,10 @@
 package eu.daiad.web.model.query;
 
-import java.util.EnumMap;
 import java.util.Map;
 
 public class MeterDataPoint extends DataPoint {
 
-    private Map<EnumMetric, Double> volume = new EnumMap<EnumMetric, Double>(EnumMetric.class);
+    private MetricValues volume = new MetricValues();
 
     public void merge(MeterDataPoint p) {
         for(EnumMetric m : volume.keySet()) {
@@ -36,7 +35,7 @@ public class MeterDataPoint extends DataPoint {
         super(EnumDataPointType.METER, timestamp);
     }
 
-    public Map<EnumMetric, Double> getVolume() {
+    public MetricValues getVolume() {
         return volume;
     }
 
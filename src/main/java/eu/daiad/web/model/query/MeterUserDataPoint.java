@@ -1,18 +1,16 @@
 package eu.daiad.web.model.query;
 
-import java.util.HashMap;
-import java.util.Map;
 import java.util.UUID;
 
 public class MeterUserDataPoint extends UserDataPoint {
 
-	private Map<EnumMetric, Double> volume = new HashMap<EnumMetric, Double>();
+	private MetricValues volume = new MetricValues();
 
 	public MeterUserDataPoint(UUID key, String label) {
 		super(key, label);
 	}
 
-	public Map<EnumMetric, Double> getVolume() {
+	public MetricValues getVolume() {
 		return volume;
 	}
 
@@ -0,0 +1,208 @@
+package eu.daiad.web.model.query;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Compact map of metric values. Values are stored in a primitive array indexed
+ * by the {@link EnumMetric} ordinal, hence updating a metric neither boxes the
+ * value nor allocates a map entry. The {@link Map} view, which is used for
+ * serialization, creates entries on demand.
+ */
+public class MetricValues extends AbstractMap<EnumMetric, Double> {
+
+    private static final EnumMetric[] METRICS = EnumMetric.values();
+
+    private final double[] values = new double[METRICS.length];
+
+    /**
+     * Bit mask of the metrics that have a value.
+     */
+    private int present;
+
+    /**
+     * Returns true if the given metric has a value.
+     *
+     * @param metric the metric.
+     * @return true if a value exists.
+     */
+    public boolean has(EnumMetric metric) {
+        return ((present & (1 << metric.ordinal())) != 0);
+    }
+
+    /**
+     * Returns the value of a metric without boxing.
+     *
+     * @param metric the metric.
+     * @return the metric value or 0 if the metric has no value.
+     */
+    public double getValue(EnumMetric metric) {
+        return values[metric.ordinal()];
+    }
+
+    /**
+     * Sets the value of a metric without boxing.
+     *
+     * @param metric the metric.
+     * @param value the new value.
+     */
+    public void setValue(EnumMetric metric, double value) {
+        values[metric.ordinal()] = value;
+        present |= (1 << metric.ordinal());
+    }
+
+    @Override
+    public int size() {
+        return Integer.bitCount(present);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return ((key instanceof EnumMetric) && (has((EnumMetric) key)));
+    }
+
+    @Override
+    public Double get(Object key) {
+        if (containsKey(key)) {
+            return values[((EnumMetric) key).ordinal()];
+        }
+        return null;
+    }
+
+    @Override
+    public Double put(EnumMetric key, Double value) {
+        if (value == null) {
+            throw new NullPointerException("Metric value cannot be null.");
+        }
+
+        Double previous = get(key);
+        setValue(key, value);
+
+        return previous;
+    }
+
+    @Override
+    public Double remove(Object key) {
+        Double previous = get(key);
+        if (previous != null) {
+            int ordinal = ((EnumMetric) key).ordinal();
+
+            present &= ~(1 << ordinal);
+            values[ordinal] = 0;
+        }
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        present = 0;
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 0;
+        }
+    }
+
+    @Override
+    public Set<Map.Entry<EnumMetric, Double>> entrySet() {
+        return new AbstractSet<Map.Entry<EnumMetric, Double>>() {
+
+            @Override
+            public int size() {
+                return MetricValues.this.size();
+            }
+
+            @Override
+            public Iterator<Map.Entry<EnumMetric, Double>> iterator() {
+                return new EntryIterator();
+            }
+        };
+    }
+
+    private class EntryIterator implements Iterator<Map.Entry<EnumMetric, Double>> {
+
+        private int next = nextOrdinal(0);
+
+        private int current = -1;
+
+        private int nextOrdinal(int from) {
+            for (int i = from; i < METRICS.length; i++) {
+                if ((present & (1 << i)) != 0) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return (next >= 0);
+        }
+
+        @Override
+        public Map.Entry<EnumMetric, Double> next() {
+            if (next < 0) {
+                throw new NoSuchElementException();
+            }
+            current = next;
+            next = nextOrdinal(current + 1);
+
+            return new Entry(METRICS[current]);
+        }
+
+        @Override
+        public void remove() {
+            if (current < 0) {
+                throw new IllegalStateException();
+            }
+            MetricValues.this.remove(METRICS[current]);
+            current = -1;
+        }
+    }
+
+    private class Entry implements Map.Entry<EnumMetric, Double> {
+
+        private final EnumMetric metric;
+
+        public Entry(EnumMetric metric) {
+            this.metric = metric;
+        }
+
+        @Override
+        public EnumMetric getKey() {
+            return metric;
+        }
+
+        @Override
+        public Double getValue() {
+            return values[metric.ordinal()];
+        }
+
+        @Override
+        public Double setValue(Double value) {
+            return put(metric, value);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+
+            return (metric.equals(e.getKey()) && getValue().equals(e.getValue()));
+        }
+
+        @Override
+        public int hashCode() {
+            return metric.hashCode() ^ getValue().hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return metric + "=" + getValue();
+        }
+    }
+}
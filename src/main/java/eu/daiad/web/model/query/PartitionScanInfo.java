@@ -0,0 +1,36 @@
+package eu.daiad.web.model.query;
+
+public class PartitionScanInfo {
+
+    private String table;
+
+    private short partition;
+
+    private long rows;
+
+    private long duration;
+
+    public PartitionScanInfo(String table, short partition, long rows, long duration) {
+        this.table = table;
+        this.partition = partition;
+        this.rows = rows;
+        this.duration = duration;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public short getPartition() {
+        return partition;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public long getDuration() {
+        return duration;
+    }
+
+}
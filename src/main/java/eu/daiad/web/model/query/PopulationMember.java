@@ -0,0 +1,62 @@
+package eu.daiad.web.model.query;
+
+import java.util.UUID;
+
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * Properties of a user required for expanding a population filter.
+ */
+public class PopulationMember {
+
+    private UUID key;
+
+    private String username;
+
+    private String serial;
+
+    private Geometry location;
+
+    public PopulationMember(UUID key, String username, Geometry location) {
+        this.key = key;
+        this.username = username;
+        this.location = location;
+    }
+
+    public UUID getKey() {
+        return key;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * Returns the serial number of the first registered smart water meter or
+     * null if the user has no meter or meters have not been resolved.
+     *
+     * @return the smart water meter serial number.
+     */
+    public String getSerial() {
+        return serial;
+    }
+
+    public void setSerial(String serial) {
+        this.serial = serial;
+    }
+
+    /**
+     * Returns the user location or, if not set, the location of the first
+     * registered smart water meter.
+     *
+     * @return the user location.
+     */
+    public Geometry getLocation() {
+        return location;
+    }
+
+    public void setLocation(Geometry location) {
+        this.location = location;
+    }
+
+}
@@ -0,0 +1,50 @@
+package eu.daiad.web.model.query;
+
+public class QueryPlanInfo {
+
+    private String table;
+
+    private EnumQueryPlan plan;
+
+    private int population;
+
+    private long timeBuckets;
+
+    private long deviceScanCost;
+
+    private long timeScanCost;
+
+    public QueryPlanInfo(String table, EnumQueryPlan plan, int population, long timeBuckets, long deviceScanCost, long timeScanCost) {
+        this.table = table;
+        this.plan = plan;
+        this.population = population;
+        this.timeBuckets = timeBuckets;
+        this.deviceScanCost = deviceScanCost;
+        this.timeScanCost = timeScanCost;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public EnumQueryPlan getPlan() {
+        return plan;
+    }
+
+    public int getPopulation() {
+        return population;
+    }
+
+    public long getTimeBuckets() {
+        return timeBuckets;
+    }
+
+    public long getDeviceScanCost() {
+        return deviceScanCost;
+    }
+
+    public long getTimeScanCost() {
+        return timeScanCost;
+    }
+
+}
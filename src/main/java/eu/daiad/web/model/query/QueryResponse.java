@@ -1,6 +1,8 @@
 package eu.daiad.web.model.query;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.joda.time.DateTimeZone;
@@ -44,6 +46,10 @@ public abstract class QueryResponse extends RestResponse {
 
         private long duration;
 
+        private List<PartitionScanInfo> partitions = new ArrayList<PartitionScanInfo>();
+
+        private List<QueryPlanInfo> plans = new ArrayList<QueryPlanInfo>();
+
         public long getDuration() {
             return duration;
         }
@@ -52,5 +58,13 @@ public abstract class QueryResponse extends RestResponse {
             this.duration = duration;
         }
 
+        public List<PartitionScanInfo> getPartitions() {
+            return partitions;
+        }
+
+        public List<QueryPlanInfo> getPlans() {
+            return plans;
+        }
+
     }
 }
@@ -26,9 +26,9 @@ public class RankingDataPoint extends DataPoint {
 
 				for (EnumMetric m : metrics) {
 					if (m == EnumMetric.MIN) {
-						p.getVolume().put(m, Double.MAX_VALUE);
+						p.getVolume().setValue(m, Double.MAX_VALUE);
 					} else {
-						p.getVolume().put(m, 0.0);
+						p.getVolume().setValue(m, 0.0);
 					}
 				}
 
@@ -41,23 +41,23 @@ public class RankingDataPoint extends DataPoint {
 					for (EnumMetric m : metrics) {
 						switch (m) {
 							case COUNT:
-								p.getVolume().put(m, (double) users.size());
+								p.getVolume().setValue(m, (double) users.size());
 								break;
 							case SUM:
-								p.getVolume().put(m, p.getVolume().get(m) + meterUser.getVolume().get(m));
+								p.getVolume().setValue(m, p.getVolume().getValue(m) + meterUser.getVolume().getValue(m));
 								break;
 							case MIN:
-								diff = meterUser.getVolume().get(EnumMetric.MAX) - meterUser.getVolume().get(EnumMetric.MIN);
+								diff = meterUser.getVolume().getValue(EnumMetric.MAX) - meterUser.getVolume().getValue(EnumMetric.MIN);
 
-								if (diff < p.getVolume().get(m)) {
-									p.getVolume().put(m, diff);
+								if (diff < p.getVolume().getValue(m)) {
+									p.getVolume().setValue(m, diff);
 								}
 								break;
 							case MAX:
-								diff = meterUser.getVolume().get(EnumMetric.MAX) - meterUser.getVolume().get(EnumMetric.MIN);
+								diff = meterUser.getVolume().getValue(EnumMetric.MAX) - meterUser.getVolume().getValue(EnumMetric.MIN);
 
-								if (diff > p.getVolume().get(m)) {
-									p.getVolume().put(m, diff);
+								if (diff > p.getVolume().getValue(m)) {
+									p.getVolume().setValue(m, diff);
 								}
 								break;
 							case AVERAGE:
@@ -70,9 +70,9 @@ public class RankingDataPoint extends DataPoint {
 				}
 				if (average) {
 					if (users.size() == 0) {
-						p.getVolume().put(EnumMetric.AVERAGE, 0.0);
+						p.getVolume().setValue(EnumMetric.AVERAGE, 0.0);
 					} else {
-						p.getVolume().put(EnumMetric.AVERAGE, p.getVolume().get(EnumMetric.SUM) / users.size());
+						p.getVolume().setValue(EnumMetric.AVERAGE, p.getVolume().getValue(EnumMetric.SUM) / users.size());
 					}
 				}
 				return p;
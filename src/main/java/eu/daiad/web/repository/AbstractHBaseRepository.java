@@ -1,17 +1,29 @@
 package eu.daiad.web.repository;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.filter.FuzzyRowFilter;
 import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Pair;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 
@@ -20,7 +32,11 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import eu.daiad.web.hbase.EnumHBaseColumnFamily;
 import eu.daiad.web.hbase.EnumHBaseTable;
 import eu.daiad.web.hbase.HBaseConnectionManager;
+import eu.daiad.web.hbase.HBaseScanExecutor;
+import eu.daiad.web.model.error.ApplicationException;
+import eu.daiad.web.model.error.QueryErrorCode;
 import eu.daiad.web.model.error.SharedErrorCode;
+import eu.daiad.web.model.query.PartitionScanInfo;
 
 /**
  * Base repository for deriving HBase specific repositories.
@@ -63,6 +79,12 @@ public abstract class AbstractHBaseRepository extends BaseRepository {
     @Autowired
     protected HBaseConnectionManager connection;
 
+    /**
+     * Executor for scanning time partitions in parallel.
+     */
+    @Autowired
+    protected HBaseScanExecutor scanExecutor;
+
     /**
      * Number of partitions used for distributing row keys that are ordered by
      * time.
@@ -76,6 +98,20 @@ public abstract class AbstractHBaseRepository extends BaseRepository {
     @Value("${scanner.cache.size}")
     protected int scanCacheSize = 1;
 
+    /**
+     * Maximum number of distinct hashes for which rows are filtered by the
+     * region servers when scanning tables ordered by time. For larger
+     * populations, rows are filtered by the client.
+     */
+    @Value("${hbase.data.query.filter.max-population:500}")
+    protected int maxFilterPopulationSize;
+
+    /**
+     * Size in bytes of the client side write buffer used for bulk inserts.
+     */
+    @Value("${hbase.data.store.write-buffer-size:8388608}")
+    protected long writeBufferSize;
+
     /**
      * Provides methods for serializing Java objects to JSON strings.
      */
@@ -114,6 +150,162 @@ public abstract class AbstractHBaseRepository extends BaseRepository {
         return newStopRow;
     }
 
+    /**
+     * Scans all partitions of a time partitioned table. If parallel execution
+     * is enabled, partitions are scanned concurrently, each one to a separate
+     * partial result, and the partial results are merged in partition order.
+     * Otherwise, partitions are scanned sequentially and accumulated directly
+     * to the final result.
+     *
+     * @param tableName the table to scan.
+     * @param scan the partition scan implementation.
+     * @param result the final result.
+     * @param statistics list for appending execution statistics per partition.
+     * @throws Exception if any partition scan fails.
+     */
+    protected <T> void scanPartitions(final String tableName,
+                                      final PartitionScan<T> scan,
+                                      T result,
+                                      List<PartitionScanInfo> statistics) throws Exception {
+        if ((!scanExecutor.isEnabled()) || (timePartitions < 2)) {
+            Table table = null;
+
+            try {
+                table = connection.getTable(tableName);
+
+                for (short p = 0; p < timePartitions; p++) {
+                    long startTime = System.currentTimeMillis();
+                    long rows = scan.scan(table, p, result);
+
+                    statistics.add(new PartitionScanInfo(tableName, p, rows, System.currentTimeMillis() - startTime));
+                }
+            } finally {
+                try {
+                    if (table != null) {
+                        table.close();
+                        table = null;
+                    }
+                } catch (Exception ex) {
+                    logger.error(getMessage(SharedErrorCode.RESOURCE_RELEASE_FAILED), ex);
+                }
+            }
+
+            return;
+        }
+
+        final PartitionScanInfo[] partitionStatistics = new PartitionScanInfo[timePartitions];
+        List<Future<T>> futures = new ArrayList<Future<T>>();
+
+        try {
+            for (short p = 0; p < timePartitions; p++) {
+                final short partition = p;
+
+                futures.add(submitScan(new Callable<T>() {
+
+                    @Override
+                    public T call() throws Exception {
+                        long startTime = System.currentTimeMillis();
+
+                        T partial = scan.createPartialResult();
+                        Table table = null;
+
+                        try {
+                            // Table instances are not thread safe
+                            table = connection.getTable(tableName);
+
+                            long rows = scan.scan(table, partition, partial);
+
+                            partitionStatistics[partition] = new PartitionScanInfo(tableName,
+                                                                                   partition,
+                                                                                   rows,
+                                                                                   System.currentTimeMillis() - startTime);
+                        } finally {
+                            try {
+                                if (table != null) {
+                                    table.close();
+                                    table = null;
+                                }
+                            } catch (Exception ex) {
+                                logger.error(getMessage(SharedErrorCode.RESOURCE_RELEASE_FAILED), ex);
+                            }
+                        }
+
+                        return partial;
+                    }
+                }));
+            }
+
+            for (int p = 0; p < futures.size(); p++) {
+                scan.merge(result, futures.get(p).get());
+
+                statistics.add(partitionStatistics[p]);
+            }
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof Exception) {
+                throw (Exception) ex.getCause();
+            }
+            throw ex;
+        } finally {
+            for (Future<T> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Submits a scan to the scan executor.
+     *
+     * @param task the scan to execute.
+     * @return a {@link Future} representing the pending result of the scan.
+     * @throws ApplicationException if the executor is overloaded.
+     */
+    protected <T> Future<T> submitScan(Callable<T> task) throws ApplicationException {
+        try {
+            return scanExecutor.submit(task);
+        } catch (RejectedExecutionException ex) {
+            throw createApplicationException(QueryErrorCode.OVERLOADED);
+        }
+    }
+
+    /**
+     * Creates a filter that accepts only rows whose key contains one of the
+     * given MD5 hashes at the given offset. The bytes before the offset e.g.
+     * partition and time bucket, are ignored.
+     *
+     * @param hashes the hashes to accept. Null entries are ignored.
+     * @param offset the offset of the hash in the row key.
+     * @return the filter or null if there are no hashes or the number of
+     *         distinct hashes exceeds the configured limit.
+     */
+    protected Filter createRowKeyHashFilter(Collection<byte[]> hashes, int offset) {
+        Set<ByteBuffer> distinctHashes = new HashSet<ByteBuffer>();
+        List<Pair<byte[], byte[]>> fuzzyKeys = new ArrayList<Pair<byte[], byte[]>>();
+
+        for (byte[] hash : hashes) {
+            if ((hash == null) || (!distinctHashes.add(ByteBuffer.wrap(hash)))) {
+                continue;
+            }
+            if (distinctHashes.size() > maxFilterPopulationSize) {
+                return null;
+            }
+
+            byte[] key = new byte[offset + hash.length];
+            System.arraycopy(hash, 0, key, offset, hash.length);
+
+            // Mask: 1 for bytes that can have any value, 0 for fixed bytes
+            byte[] mask = new byte[offset + hash.length];
+            Arrays.fill(mask, 0, offset, (byte) 1);
+
+            fuzzyKeys.add(new Pair<byte[], byte[]>(key, mask));
+        }
+
+        if (fuzzyKeys.isEmpty()) {
+            return null;
+        }
+
+        return new FuzzyRowFilter(fuzzyKeys);
+    }
+
     /**
      * Concatenates two byte arrays.
      *
@@ -147,23 +339,6 @@ public abstract class AbstractHBaseRepository extends BaseRepository {
         return concatenate(length, array);
     }
 
-    /**
-     * Checks if the a byte array is contained in a list of byte arrays.
-     * @param array the list of arrays to search.
-     * @param hash the array to find.
-     * @return if the array is contained in the list.
-     */
-    protected int inArray(List<byte[]> array, byte[] hash) {
-        int index = 0;
-        for (byte[] entry : array) {
-            if (Arrays.equals(entry, hash)) {
-                return index;
-            }
-            index++;
-        }
-        return -1;
-    }
-
     /**
      * Serializes an object to a JSON string.
      *
@@ -0,0 +1,41 @@
+package eu.daiad.web.repository;
+
+import org.apache.hadoop.hbase.client.Table;
+
+/**
+ * Scans a single partition of a time partitioned HBase table and accumulates
+ * the results. When partitions are scanned in parallel, every partition is
+ * accumulated to a separate partial result and all partial results are merged
+ * in partition order.
+ *
+ * @param <T> the type of the result.
+ */
+public abstract class PartitionScan<T> {
+
+    /**
+     * Creates a new empty partial result.
+     *
+     * @return the new result.
+     */
+    public abstract T createPartialResult();
+
+    /**
+     * Scans a single partition.
+     *
+     * @param table the table to scan.
+     * @param partition the partition index.
+     * @param result the result to update.
+     * @return the number of rows scanned.
+     * @throws Exception if the scan fails.
+     */
+    public abstract long scan(Table table, short partition, T result) throws Exception;
+
+    /**
+     * Merges a partial result into the final result.
+     *
+     * @param result the final result.
+     * @param partial the partial result to merge.
+     */
+    public abstract void merge(T result, T partial);
+
+}
@@ -124,10 +124,10 @@ public class AbstractHBaseMeterDataRepository  extends AbstractHBaseRepository {
                         MeterUserDataPoint m1 = (MeterUserDataPoint) u1;
                         MeterUserDataPoint m2 = (MeterUserDataPoint) u2;
 
-                        if (m1.getVolume().get(EnumMetric.SUM) < m2.getVolume().get(EnumMetric.SUM)) {
+                        if (m1.getVolume().getValue(EnumMetric.SUM) < m2.getVolume().getValue(EnumMetric.SUM)) {
                             return -1;
                         }
-                        if (m1.getVolume().get(EnumMetric.SUM) > m2.getVolume().get(EnumMetric.SUM)) {
+                        if (m1.getVolume().getValue(EnumMetric.SUM) > m2.getVolume().getValue(EnumMetric.SUM)) {
                             return 1;
                         }
                         return 0;
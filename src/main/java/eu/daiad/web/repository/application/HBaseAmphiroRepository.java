@@ -2539,7 +2539,7 @@ public class HBaseAmphiroRepository extends AbstractAmphiroHBaseRepository imple
                         for (ExpandedPopulationFilter filter : query.getGroups()) {
                             GroupDataSeries series = result.get(filterIndex);
 
-                            int index = inArray(filter.getUserKeyHashes(), userHash);
+                            int index = filter.indexOfUserKeyHash(userHash);
                             if ((timestamp != null) && (index >= 0)) {
                                 if (filter.getRanking() == null) {
                                     series.addAmhiroDataPoint(query.getGranularity(),
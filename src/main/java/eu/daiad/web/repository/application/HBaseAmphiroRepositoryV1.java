@@ -1335,7 +1335,7 @@ public class HBaseAmphiroRepositoryV1 extends AbstractAmphiroHBaseRepository imp
                         for (ExpandedPopulationFilter filter : query.getGroups()) {
                             GroupDataSeries series = result.get(filterIndex);
 
-                            int index = inArray(filter.getUserKeyHashes(), userHash);
+                            int index = filter.indexOfUserKeyHash(userHash);
                             if (index >= 0) {
                                 if (filter.getRanking() == null) {
                                     series.addAmhiroDataPoint(query.getGranularity(), timestamp, volume, energy,
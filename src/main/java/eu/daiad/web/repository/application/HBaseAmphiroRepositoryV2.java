@@ -14,6 +14,7 @@ import java.util.UUID;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.client.BufferedMutator;
 import org.apache.hadoop.hbase.client.Delete;
 import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.Put;
@@ -21,6 +22,7 @@ import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.ResultScanner;
 import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.filter.Filter;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeConstants;
@@ -65,6 +67,7 @@ import eu.daiad.web.model.query.GroupDataSeries;
 import eu.daiad.web.model.query.RankingDataPoint;
 import eu.daiad.web.model.query.UserDataPoint;
 import eu.daiad.web.model.security.AuthenticatedUser;
+import eu.daiad.web.repository.PartitionScan;
 
 @Repository("hBaseAmphiroRepositoryV2")
 public class HBaseAmphiroRepositoryV2 extends AbstractAmphiroHBaseRepository implements IAmphiroIndexOrderedRepository {
@@ -89,27 +92,33 @@ public class HBaseAmphiroRepositoryV2 extends AbstractAmphiroHBaseRepository imp
         return "v2";
     }
 
-    private void refreshSessionTimestampIndex(UUID userKey, AmphiroMeasurementCollection data) throws Exception {
+    /**
+     * Adds an index entry for every real-time session that has not been indexed
+     * yet. Existing entries are checked using a single batched request.
+     *
+     * @param userKeyHash the user key hash.
+     * @param deviceKeyHash the device key hash.
+     * @param data the uploaded data.
+     * @param mutator buffered mutator for the session index table.
+     * @throws Exception if an I/O error occurs.
+     */
+    private void refreshSessionTimestampIndex(byte[] userKeyHash,
+                                              byte[] deviceKeyHash,
+                                              AmphiroMeasurementCollection data,
+                                              BufferedMutator mutator) throws Exception {
         Table table = null;
 
         try {
-            MessageDigest md = MessageDigest.getInstance("MD5");
-
-            table = connection.getTable(amphiroTableSessionIndex);
-
             byte[] columnFamily = Bytes.toBytes(EnumHBaseColumnFamily.DEFAULT.getValue());
             byte[] columnQualifier = Bytes.toBytes("ts");
 
+            List<AmphiroSession> sessions = new ArrayList<AmphiroSession>();
+            List<Get> gets = new ArrayList<Get>();
+
             for (int i = 0, length = data.getSessions().size(); i < length; i++) {
                 AmphiroSession s = data.getSessions().get(i);
 
                 if (!s.isHistory()) {
-                    byte[] userKeyBytes = userKey.toString().getBytes("UTF-8");
-                    byte[] userKeyHash = md.digest(userKeyBytes);
-
-                    byte[] deviceKey = data.getDeviceKey().toString().getBytes("UTF-8");
-                    byte[] deviceKeyHash = md.digest(deviceKey);
-
                     byte[] sessionIdBytes = Bytes.toBytes(s.getId());
 
                     byte[] rowKey = new byte[userKeyHash.length + deviceKeyHash.length + sessionIdBytes.length];
@@ -119,16 +128,26 @@ public class HBaseAmphiroRepositoryV2 extends AbstractAmphiroHBaseRepository imp
                     System.arraycopy(sessionIdBytes, 0, rowKey, (userKeyHash.length + deviceKeyHash.length),
                                     sessionIdBytes.length);
 
-                    // Get index entry for the specific session Id
-                    Get get = new Get(rowKey);
-                    Result existingIndexEntry = table.get(get);
+                    sessions.add(s);
+                    gets.add(new Get(rowKey));
+                }
+            }
+
+            if (gets.isEmpty()) {
+                return;
+            }
+
+            // Check index entries for all session Ids
+            table = connection.getTable(amphiroTableSessionIndex);
 
-                    if (existingIndexEntry.getRow() == null) {
-                        Put put = new Put(rowKey);
-                        put.addColumn(columnFamily, columnQualifier, Bytes.toBytes(s.getTimestamp()));
+            boolean[] exists = table.existsAll(gets);
 
-                        table.put(put);
-                    }
+            for (int i = 0, length = gets.size(); i < length; i++) {
+                if (!exists[i]) {
+                    Put put = new Put(gets.get(i).getRow());
+                    put.addColumn(columnFamily, columnQualifier, Bytes.toBytes(sessions.get(i).getTimestamp()));
+
+                    mutator.mutate(put);
                 }
             }
         } finally {
@@ -143,46 +162,62 @@ public class HBaseAmphiroRepositoryV2 extends AbstractAmphiroHBaseRepository imp
         }
     }
 
-    private void storeSessionByUser(UUID userKey, AmphiroMeasurementCollection data,
-                    AmphiroSessionUpdateCollection updates) throws Exception {
+    /**
+     * Stores sessions indexed by user and device. Existing rows are fetched
+     * using a single batched request.
+     *
+     * @param userKeyHash the user key hash.
+     * @param deviceKeyHash the device key hash.
+     * @param data the uploaded data.
+     * @param updates the sessions that already exist.
+     * @param mutator buffered mutator for the sessions by user table.
+     * @throws Exception if an I/O error occurs.
+     */
+    private void storeSessionByUser(byte[] userKeyHash,
+                                    byte[] deviceKeyHash,
+                                    AmphiroMeasurementCollection data,
+                                    AmphiroSessionUpdateCollection updates,
+                                    BufferedMutator mutator) throws Exception {
         Table table = null;
 
         try {
-            MessageDigest md = MessageDigest.getInstance("MD5");
-
             table = connection.getTable(amphiroTableSessionByUser);
             byte[] columnFamily = Bytes.toBytes(EnumHBaseColumnFamily.DEFAULT.getValue());
 
-            for (int i = data.getSessions().size() - 1; i >= 0; i--) {
-                AmphiroSession s = data.getSessions().get(i);
-
-                // Ignore any delete operation from the client. We have to set
-                // this property to null since the client can always send an
-                // invalid delete operation. We set this property manually only
-                // when we want to replace a session explicitly.
-                s.setDelete(null);
-
-                byte[] rowKey;
-
-                byte[] userKeyBytes = userKey.toString().getBytes("UTF-8");
-                byte[] userKeyHash = md.digest(userKeyBytes);
+            // Get existing rows if any exist
+            List<Get> gets = new ArrayList<Get>();
 
-                byte[] deviceKey = data.getDeviceKey().toString().getBytes("UTF-8");
-                byte[] deviceKeyHash = md.digest(deviceKey);
+            for (int i = 0, count = data.getSessions().size(); i < count; i++) {
+                AmphiroSession s = data.getSessions().get(i);
 
                 byte[] sessionIdBytes = Bytes.toBytes(Long.MAX_VALUE - s.getId());
 
                 // Construct row key
-                rowKey = new byte[userKeyHash.length + deviceKeyHash.length + sessionIdBytes.length];
+                byte[] rowKey = new byte[userKeyHash.length + deviceKeyHash.length + sessionIdBytes.length];
 
                 System.arraycopy(userKeyHash, 0, rowKey, 0, userKeyHash.length);
                 System.arraycopy(deviceKeyHash, 0, rowKey, userKeyHash.length, deviceKeyHash.length);
                 System.arraycopy(sessionIdBytes, 0, rowKey, (userKeyHash.length + deviceKeyHash.length),
                                 sessionIdBytes.length);
 
-                // Get existing row if any exists and set update properties
-                Get get = new Get(rowKey);
-                Result existingRow = table.get(get);
+                gets.add(new Get(rowKey));
+            }
+
+            Result[] existingRows = table.get(gets);
+
+            for (int i = data.getSessions().size() - 1; i >= 0; i--) {
+                AmphiroSession s = data.getSessions().get(i);
+
+                // Ignore any delete operation from the client. We have to set
+                // this property to null since the client can always send an
+                // invalid delete operation. We set this property manually only
+                // when we want to replace a session explicitly.
+                s.setDelete(null);
+
+                byte[] rowKey = gets.get(i).getRow();
+
+                // Set update properties
+                Result existingRow = existingRows[i];
 
                 boolean isExistingRowHistorical = false;
                 Long existingRowTimestamp = null;
@@ -256,7 +291,7 @@ public class HBaseAmphiroRepositoryV2 extends AbstractAmphiroHBaseRepository imp
                                         StandardCharsets.UTF_8));
                     }
 
-                    table.put(put);
+                    mutator.mutate(put);
                 } else {
                     if (isExistingRowHistorical) {
                         if (s.isHistory()) {
@@ -265,7 +300,7 @@ public class HBaseAmphiroRepositoryV2 extends AbstractAmphiroHBaseRepository imp
                                 column = Bytes.toBytes("s:t");
                                 put.addColumn(columnFamily, column, Bytes.toBytes(s.getTimestamp()));
 
-                                table.put(put);
+                                mutator.mutate(put);
 
                                 // Propagate update to time indexed table
                                 s.setDelete(new AmphiroSessionDeleteAction(existingRowTimestamp));
@@ -291,7 +326,7 @@ public class HBaseAmphiroRepositoryV2 extends AbstractAmphiroHBaseRepository imp
                             column = Bytes.toBytes("h:t");
                             put.addColumn(columnFamily, column, Bytes.toBytes(existingRowTimestamp));
 
-                            table.put(put);
+                            mutator.mutate(put);
 
                             // Propagate update to time indexed table
                             s.setDelete(new AmphiroSessionDeleteAction(existingRowTimestamp));
@@ -319,15 +354,28 @@ public class HBaseAmphiroRepositoryV2 extends AbstractAmphiroHBaseRepository imp
         }
     }
 
-    private void storeSessionByTime(UUID userKey, AmphiroMeasurementCollection data) throws Exception {
+    /**
+     * Stores sessions partitioned by time. Rows of sessions whose time stamp
+     * has changed are deleted before any new rows are written.
+     *
+     * @param userKeyHash the user key hash.
+     * @param deviceKeyHash the device key hash.
+     * @param data the uploaded data.
+     * @param mutator buffered mutator for the sessions by time table.
+     * @throws Exception if an I/O error occurs.
+     */
+    private void storeSessionByTime(byte[] userKeyHash,
+                                    byte[] deviceKeyHash,
+                                    AmphiroMeasurementCollection data,
+                                    BufferedMutator mutator) throws Exception {
         Table table = null;
 
         try {
-            MessageDigest md = MessageDigest.getInstance("MD5");
-
-            table = connection.getTable(amphiroTableSessionByTime);
             byte[] columnFamily = Bytes.toBytes(EnumHBaseColumnFamily.DEFAULT.getValue());
 
+            List<Delete> deletes = new ArrayList<Delete>();
+            List<Put> puts = new ArrayList<Put>();
+
             for (int i = 0; i < data.getSessions().size(); i++) {
                 AmphiroSession s = data.getSessions().get(i);
 
@@ -335,12 +383,6 @@ public class HBaseAmphiroRepositoryV2 extends AbstractAmphiroHBaseRepository imp
 
                 byte[] partitionBytes, timeBucketBytes, rowKey;
 
-                byte[] userKeyBytes = userKey.toString().getBytes("UTF-8");
-                byte[] userKeyHash = md.digest(userKeyBytes);
-
-                byte[] deviceKey = data.getDeviceKey().toString().getBytes("UTF-8");
-                byte[] deviceKeyHash = md.digest(deviceKey);
-
                 byte[] sessionIdBytes = Bytes.toBytes(s.getId());
 
                 // Delete existing record
@@ -367,8 +409,7 @@ public class HBaseAmphiroRepositoryV2 extends AbstractAmphiroHBaseRepository imp
                         System.arraycopy(sessionIdBytes, 0, rowKey, (partitionBytes.length + timeBucketBytes.length
                                         + userKeyHash.length + deviceKeyHash.length), sessionIdBytes.length);
 
-                        Delete delete = new Delete(rowKey);
-                        table.delete(delete);
+                        deletes.add(new Delete(rowKey));
                     }
                 }
 
@@ -442,8 +483,16 @@ public class HBaseAmphiroRepositoryV2 extends AbstractAmphiroHBaseRepository imp
                                     StandardCharsets.UTF_8));
                 }
 
-                table.put(put);
+                puts.add(put);
             }
+
+            // Delete existing records before writing the new ones
+            if (!deletes.isEmpty()) {
+                table = connection.getTable(amphiroTableSessionByTime);
+                table.delete(deletes);
+            }
+
+            mutator.mutate(puts);
         } finally {
             try {
                 if (table != null) {
@@ -667,67 +716,57 @@ public class HBaseAmphiroRepositoryV2 extends AbstractAmphiroHBaseRepository imp
         }
     }
 
-    private void storeMeasurements(UUID userKey, AmphiroMeasurementCollection data) throws Exception {
-        Table table = null;
-
-        try {
-            MessageDigest md = MessageDigest.getInstance("MD5");
-
-            table = connection.getTable(amphiroTableMeasurements);
-            byte[] columnFamily = Bytes.toBytes(EnumHBaseColumnFamily.DEFAULT.getValue());
-
-            for (int i = 0; i < data.getMeasurements().size(); i++) {
-                AmphiroMeasurement m = data.getMeasurements().get(i);
-
-                if (m.getVolume() < 0) {
-                    continue;
-                }
+    /**
+     * Stores session measurements.
+     *
+     * @param userKeyHash the user key hash.
+     * @param deviceKeyHash the device key hash.
+     * @param data the uploaded data.
+     * @param mutator buffered mutator for the measurements table.
+     * @throws Exception if an I/O error occurs.
+     */
+    private void storeMeasurements(byte[] userKeyHash,
+                                   byte[] deviceKeyHash,
+                                   AmphiroMeasurementCollection data,
+                                   BufferedMutator mutator) throws Exception {
+        byte[] columnFamily = Bytes.toBytes(EnumHBaseColumnFamily.DEFAULT.getValue());
 
-                byte[] userKeyBytes = userKey.toString().getBytes("UTF-8");
-                byte[] userKeyHash = md.digest(userKeyBytes);
+        for (int i = 0; i < data.getMeasurements().size(); i++) {
+            AmphiroMeasurement m = data.getMeasurements().get(i);
 
-                byte[] deviceKey = data.getDeviceKey().toString().getBytes("UTF-8");
-                byte[] deviceKeyHash = md.digest(deviceKey);
+            if (m.getVolume() < 0) {
+                continue;
+            }
 
-                byte[] sessionIdBytes = Bytes.toBytes(Long.MAX_VALUE - m.getSessionId());
-                byte[] indexBytes = Bytes.toBytes(m.getIndex());
+            byte[] sessionIdBytes = Bytes.toBytes(Long.MAX_VALUE - m.getSessionId());
+            byte[] indexBytes = Bytes.toBytes(m.getIndex());
 
-                byte[] rowKey = new byte[userKeyHash.length + deviceKeyHash.length + sessionIdBytes.length];
-                byte[] column = null;
+            byte[] rowKey = new byte[userKeyHash.length + deviceKeyHash.length + sessionIdBytes.length];
+            byte[] column = null;
 
-                System.arraycopy(userKeyHash, 0, rowKey, 0, userKeyHash.length);
-                System.arraycopy(deviceKeyHash, 0, rowKey, userKeyHash.length, deviceKeyHash.length);
-                System.arraycopy(sessionIdBytes, 0, rowKey, (userKeyHash.length + deviceKeyHash.length),
-                                sessionIdBytes.length);
+            System.arraycopy(userKeyHash, 0, rowKey, 0, userKeyHash.length);
+            System.arraycopy(deviceKeyHash, 0, rowKey, userKeyHash.length, deviceKeyHash.length);
+            System.arraycopy(sessionIdBytes, 0, rowKey, (userKeyHash.length + deviceKeyHash.length),
+                            sessionIdBytes.length);
 
-                Put p = new Put(rowKey);
+            Put p = new Put(rowKey);
 
-                column = concatenate(indexBytes, appendLength(Bytes.toBytes("ts")));
-                p.addColumn(columnFamily, column, Bytes.toBytes(m.getTimestamp()));
+            column = concatenate(indexBytes, appendLength(Bytes.toBytes("ts")));
+            p.addColumn(columnFamily, column, Bytes.toBytes(m.getTimestamp()));
 
-                column = concatenate(indexBytes, appendLength(Bytes.toBytes("v")));
-                p.addColumn(columnFamily, column, Bytes.toBytes(m.getVolume()));
+            column = concatenate(indexBytes, appendLength(Bytes.toBytes("v")));
+            p.addColumn(columnFamily, column, Bytes.toBytes(m.getVolume()));
 
-                column = concatenate(indexBytes, appendLength(Bytes.toBytes("e")));
-                p.addColumn(columnFamily, column, Bytes.toBytes(m.getEnergy()));
+            column = concatenate(indexBytes, appendLength(Bytes.toBytes("e")));
+            p.addColumn(columnFamily, column, Bytes.toBytes(m.getEnergy()));
 
-                column = concatenate(indexBytes, appendLength(Bytes.toBytes("t")));
-                p.addColumn(columnFamily, column, Bytes.toBytes(m.getTemperature()));
+            column = concatenate(indexBytes, appendLength(Bytes.toBytes("t")));
+            p.addColumn(columnFamily, column, Bytes.toBytes(m.getTemperature()));
 
-                column = concatenate(indexBytes, appendLength(Bytes.toBytes("h")));
-                p.addColumn(columnFamily, column, Bytes.toBytes(m.isHistory()));
+            column = concatenate(indexBytes, appendLength(Bytes.toBytes("h")));
+            p.addColumn(columnFamily, column, Bytes.toBytes(m.isHistory()));
 
-                table.put(p);
-            }
-        } finally {
-            try {
-                if (table != null) {
-                    table.close();
-                    table = null;
-                }
-            } catch (Exception ex) {
-                logger.error(getMessage(SharedErrorCode.RESOURCE_RELEASE_FAILED), ex);
-            }
+            mutator.mutate(p);
         }
     }
 
@@ -736,23 +775,58 @@ public class HBaseAmphiroRepositoryV2 extends AbstractAmphiroHBaseRepository imp
                                                 AmphiroMeasurementCollection data) throws ApplicationException {
         AmphiroSessionUpdateCollection updates = new AmphiroSessionUpdateCollection();
 
+        BufferedMutator indexMutator = null;
+        BufferedMutator userMutator = null;
+        BufferedMutator timeMutator = null;
+        BufferedMutator measurementMutator = null;
+
         try {
             if ((data != null) && (data.getSessions() != null) && (data.getSessions().size() != 0)) {
                 logData(user, device, data);
 
                 preProcessData(data);
 
-                refreshSessionTimestampIndex(user.getKey(), data);
+                // Compute hashes once for all sessions and measurements
+                MessageDigest md = MessageDigest.getInstance("MD5");
+
+                byte[] userKeyHash = md.digest(user.getKey().toString().getBytes("UTF-8"));
+                byte[] deviceKeyHash = md.digest(data.getDeviceKey().toString().getBytes("UTF-8"));
+
+                indexMutator = connection.getBufferedMutator(amphiroTableSessionIndex, writeBufferSize);
+                userMutator = connection.getBufferedMutator(amphiroTableSessionByUser, writeBufferSize);
+                timeMutator = connection.getBufferedMutator(amphiroTableSessionByTime, writeBufferSize);
 
-                storeSessionByUser(user.getKey(), data, updates);
-                storeSessionByTime(user.getKey(), data);
+                refreshSessionTimestampIndex(userKeyHash, deviceKeyHash, data, indexMutator);
+
+                storeSessionByUser(userKeyHash, deviceKeyHash, data, updates, userMutator);
+                storeSessionByTime(userKeyHash, deviceKeyHash, data, timeMutator);
 
                 if ((data.getMeasurements() != null) && (data.getMeasurements().size() != 0)) {
-                    storeMeasurements(user.getKey(), data);
+                    measurementMutator = connection.getBufferedMutator(amphiroTableMeasurements, writeBufferSize);
+
+                    storeMeasurements(userKeyHash, deviceKeyHash, data, measurementMutator);
+                }
+
+                // Send all buffered mutations
+                indexMutator.flush();
+                userMutator.flush();
+                timeMutator.flush();
+                if (measurementMutator != null) {
+                    measurementMutator.flush();
                 }
             }
         } catch (Exception ex) {
             throw wrapApplicationException(ex, SharedErrorCode.UNKNOWN);
+        } finally {
+            for (BufferedMutator mutator : new BufferedMutator[] { indexMutator, userMutator, timeMutator, measurementMutator }) {
+                try {
+                    if (mutator != null) {
+                        mutator.close();
+                    }
+                } catch (Exception ex) {
+                    logger.error(getMessage(SharedErrorCode.RESOURCE_RELEASE_FAILED), ex);
+                }
+            }
         }
 
         return updates;
@@ -1353,17 +1427,9 @@ public class HBaseAmphiroRepositoryV2 extends AbstractAmphiroHBaseRepository imp
 
     @Override
     public ArrayList<GroupDataSeries> query(ExpandedDataQuery query) throws ApplicationException {
-        Table table = null;
-        ResultScanner scanner = null;
+        ArrayList<GroupDataSeries> result = createSeries(query);
 
-        ArrayList<GroupDataSeries> result = new ArrayList<GroupDataSeries>();
-        for (ExpandedPopulationFilter filter : query.getGroups()) {
-            result.add(new GroupDataSeries(filter.getLabel(), filter.getSize(), filter.getAreaId()));
-        }
         try {
-            table = connection.getTable(amphiroTableSessionByTime);
-            byte[] columnFamily = Bytes.toBytes(EnumHBaseColumnFamily.DEFAULT.getValue());
-
             DateTime startDate = new DateTime(query.getStartDateTime(), DateTimeZone.UTC);
             DateTime endDate = new DateTime(query.getEndDateTime(), DateTimeZone.UTC);
 
@@ -1403,118 +1469,12 @@ public class HBaseAmphiroRepositoryV2 extends AbstractAmphiroHBaseRepository imp
                                     query.getGranularity());
             }
 
-            for (short p = 0; p < timePartitions; p++) {
-                Scan scan = new Scan();
-                scan.setCaching(scanCacheSize);
-                scan.addFamily(columnFamily);
-
-                byte[] partitionBytes = Bytes.toBytes(p);
-
-                long from = startDate.getMillis() / 1000;
-                from = from - (from % EnumTimeInterval.DAY.getValue());
-                byte[] fromBytes = Bytes.toBytes(from);
-
-                long to = endDate.getMillis() / 1000;
-                to = to - (to % EnumTimeInterval.DAY.getValue());
-                byte[] toBytes = Bytes.toBytes(to);
-
-                // Scanner row key prefix start
-                byte[] rowKey = new byte[partitionBytes.length + fromBytes.length];
-
-                System.arraycopy(partitionBytes, 0, rowKey, 0, partitionBytes.length);
-                System.arraycopy(fromBytes, 0, rowKey, partitionBytes.length, fromBytes.length);
-
-                scan.setStartRow(rowKey);
-
-                // Scanner row key prefix end
-                rowKey = new byte[partitionBytes.length + toBytes.length];
-
-                System.arraycopy(partitionBytes, 0, rowKey, 0, partitionBytes.length);
-                System.arraycopy(toBytes, 0, rowKey, partitionBytes.length, toBytes.length);
-
-                scan.setStopRow(calculateTheClosestNextRowKeyForPrefix(rowKey));
-
-                scanner = table.getScanner(scan);
-
-                for (Result r = scanner.next(); r != null; r = scanner.next()) {
-                    NavigableMap<byte[], byte[]> map = r.getFamilyMap(columnFamily);
-
-                    if (map != null) {
-                        rowKey = r.getRow();
-
-                        long timeBucket = Bytes.toLong(Arrays.copyOfRange(r.getRow(), 2, 10));
-                        byte[] userHash = Arrays.copyOfRange(r.getRow(), 10, 26);
-
-                        long timestamp = 0;
-                        int duration = 0;
-                        float volume = 0, energy = 0, temperature = 0, flow = 0;
-
-                        for (Entry<byte[], byte[]> entry : map.entrySet()) {
-                            String qualifier = Bytes.toString(entry.getKey());
-
-                            switch (qualifier) {
-                                case "s:offset":
-                                    timestamp = (timeBucket + Bytes.toInt(entry.getValue())) * 1000L;
-                                    break;
-                                case "m:v":
-                                    volume = Bytes.toFloat(entry.getValue());
-                                    break;
-                                case "m:t":
-                                    temperature = Bytes.toFloat(entry.getValue());
-                                    break;
-                                case "m:e":
-                                    energy = Bytes.toFloat(entry.getValue());
-                                    break;
-                                case "m:f":
-                                    flow = Bytes.toFloat(entry.getValue());
-                                    break;
-                                case "m:d":
-                                    duration = Bytes.toInt(entry.getValue());
-                                    break;
-                                default:
-                                    // Ignore
-                                    break;
-                            }
-                        }
-
-                        int filterIndex = 0;
-                        for (ExpandedPopulationFilter filter : query.getGroups()) {
-                            GroupDataSeries series = result.get(filterIndex);
-
-                            int index = inArray(filter.getUserKeyHashes(), userHash);
-                            if (index >= 0) {
-                                if (filter.getRanking() == null) {
-                                    series.addAmhiroDataPoint(query.getGranularity(), timestamp, volume, energy,
-                                                    duration, temperature, flow, query.getMetrics(), query
-                                                                    .getTimezone());
-                                } else {
-                                    series.addAmphiroRankingDataPoint(query.getGranularity(), filter.getUserKeys().get(
-                                                    index), filter.getLabels().get(index), timestamp, volume, energy,
-                                                    duration, temperature, flow, query.getMetrics(), query
-                                                                    .getTimezone());
-                                }
-                            }
-
-                            filterIndex++;
-                        }
-                    }
-                }
-            }
+            scanPartitions(amphiroTableSessionByTime,
+                           new AmphiroPartitionScan(query, startDate.getMillis(), endDate.getMillis()),
+                           result,
+                           query.getPartitionScans());
         } catch (Exception ex) {
             throw wrapApplicationException(ex, SharedErrorCode.UNKNOWN);
-        } finally {
-            try {
-                if (scanner != null) {
-                    scanner.close();
-                    scanner = null;
-                }
-                if (table != null) {
-                    table.close();
-                    table = null;
-                }
-            } catch (Exception ex) {
-                logger.error(getMessage(SharedErrorCode.RESOURCE_RELEASE_FAILED), ex);
-            }
         }
 
         // Post process results
@@ -1625,6 +1585,180 @@ public class HBaseAmphiroRepositoryV2 extends AbstractAmphiroHBaseRepository imp
         return result;
     }
 
+    /**
+     * Creates an empty series for every population group of a query.
+     *
+     * @param query the query.
+     * @return a collection of {@link GroupDataSeries}.
+     */
+    private ArrayList<GroupDataSeries> createSeries(ExpandedDataQuery query) {
+        ArrayList<GroupDataSeries> result = new ArrayList<GroupDataSeries>();
+        for (ExpandedPopulationFilter filter : query.getGroups()) {
+            result.add(new GroupDataSeries(filter.getLabel(), filter.getSize(), filter.getAreaId()));
+        }
+        return result;
+    }
+
+    /**
+     * Scans a single partition of the time ordered amphiro b1 session table
+     * for the sessions of a query's population.
+     */
+    private class AmphiroPartitionScan extends PartitionScan<ArrayList<GroupDataSeries>> {
+
+        private final ExpandedDataQuery query;
+
+        private final long startDateTime;
+
+        private final long endDateTime;
+
+        private final List<byte[]> userKeyHashes = new ArrayList<byte[]>();
+
+        public AmphiroPartitionScan(ExpandedDataQuery query, long startDateTime, long endDateTime) {
+            this.query = query;
+            this.startDateTime = startDateTime;
+            this.endDateTime = endDateTime;
+
+            for (ExpandedPopulationFilter filter : query.getGroups()) {
+                userKeyHashes.addAll(filter.getUserKeyHashes());
+            }
+        }
+
+        @Override
+        public ArrayList<GroupDataSeries> createPartialResult() {
+            return createSeries(query);
+        }
+
+        @Override
+        public long scan(Table table, short partition, ArrayList<GroupDataSeries> result) throws Exception {
+            ResultScanner scanner = null;
+            long rows = 0;
+
+            try {
+                byte[] columnFamily = Bytes.toBytes(EnumHBaseColumnFamily.DEFAULT.getValue());
+
+                Scan scan = new Scan();
+                scan.setCaching(scanCacheSize);
+                scan.addFamily(columnFamily);
+
+                // Filter rows by user key hash on the region servers
+                Filter rowFilter = createRowKeyHashFilter(userKeyHashes, 10);
+                if (rowFilter != null) {
+                    scan.setFilter(rowFilter);
+                }
+
+                byte[] partitionBytes = Bytes.toBytes(partition);
+
+                long from = startDateTime / 1000;
+                from = from - (from % EnumTimeInterval.DAY.getValue());
+                byte[] fromBytes = Bytes.toBytes(from);
+
+                long to = endDateTime / 1000;
+                to = to - (to % EnumTimeInterval.DAY.getValue());
+                byte[] toBytes = Bytes.toBytes(to);
+
+                // Scanner row key prefix start
+                byte[] rowKey = new byte[partitionBytes.length + fromBytes.length];
+
+                System.arraycopy(partitionBytes, 0, rowKey, 0, partitionBytes.length);
+                System.arraycopy(fromBytes, 0, rowKey, partitionBytes.length, fromBytes.length);
+
+                scan.setStartRow(rowKey);
+
+                // Scanner row key prefix end
+                rowKey = new byte[partitionBytes.length + toBytes.length];
+
+                System.arraycopy(partitionBytes, 0, rowKey, 0, partitionBytes.length);
+                System.arraycopy(toBytes, 0, rowKey, partitionBytes.length, toBytes.length);
+
+                scan.setStopRow(calculateTheClosestNextRowKeyForPrefix(rowKey));
+
+                scanner = table.getScanner(scan);
+
+                for (Result r = scanner.next(); r != null; r = scanner.next()) {
+                    rows++;
+
+                    NavigableMap<byte[], byte[]> map = r.getFamilyMap(columnFamily);
+
+                    if (map != null) {
+                        long timeBucket = Bytes.toLong(Arrays.copyOfRange(r.getRow(), 2, 10));
+                        byte[] userHash = Arrays.copyOfRange(r.getRow(), 10, 26);
+
+                        long timestamp = 0;
+                        int duration = 0;
+                        float volume = 0, energy = 0, temperature = 0, flow = 0;
+
+                        for (Entry<byte[], byte[]> entry : map.entrySet()) {
+                            String qualifier = Bytes.toString(entry.getKey());
+
+                            switch (qualifier) {
+                                case "s:offset":
+                                    timestamp = (timeBucket + Bytes.toInt(entry.getValue())) * 1000L;
+                                    break;
+                                case "m:v":
+                                    volume = Bytes.toFloat(entry.getValue());
+                                    break;
+                                case "m:t":
+                                    temperature = Bytes.toFloat(entry.getValue());
+                                    break;
+                                case "m:e":
+                                    energy = Bytes.toFloat(entry.getValue());
+                                    break;
+                                case "m:f":
+                                    flow = Bytes.toFloat(entry.getValue());
+                                    break;
+                                case "m:d":
+                                    duration = Bytes.toInt(entry.getValue());
+                                    break;
+                                default:
+                                    // Ignore
+                                    break;
+                            }
+                        }
+
+                        int filterIndex = 0;
+                        for (ExpandedPopulationFilter filter : query.getGroups()) {
+                            GroupDataSeries series = result.get(filterIndex);
+
+                            int index = filter.indexOfUserKeyHash(userHash);
+                            if (index >= 0) {
+                                if (filter.getRanking() == null) {
+                                    series.addAmhiroDataPoint(query.getGranularity(), timestamp, volume, energy,
+                                                    duration, temperature, flow, query.getMetrics(), query
+                                                                    .getTimezone());
+                                } else {
+                                    series.addAmphiroRankingDataPoint(query.getGranularity(), filter.getUserKeys().get(
+                                                    index), filter.getLabels().get(index), timestamp, volume, energy,
+                                                    duration, temperature, flow, query.getMetrics(), query
+                                                                    .getTimezone());
+                                }
+                            }
+
+                            filterIndex++;
+                        }
+                    }
+                }
+            } finally {
+                try {
+                    if (scanner != null) {
+                        scanner.close();
+                        scanner = null;
+                    }
+                } catch (Exception ex) {
+                    logger.error(getMessage(SharedErrorCode.RESOURCE_RELEASE_FAILED), ex);
+                }
+            }
+
+            return rows;
+        }
+
+        @Override
+        public void merge(ArrayList<GroupDataSeries> result, ArrayList<GroupDataSeries> partial) {
+            for (int i = 0, count = result.size(); i < count; i++) {
+                result.get(i).merge(partial.get(i));
+            }
+        }
+    }
+
     @Override
     public void assignMember(AuthenticatedUser user, List<MemberAssignmentRequest.Assignment> assignments) throws Exception {
         if (assignments != null) {
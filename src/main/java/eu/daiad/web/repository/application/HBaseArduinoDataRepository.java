@@ -1,53 +1,207 @@
 package eu.daiad.web.repository.application;
 
+import java.io.IOException;
 import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NavigableMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.BufferedMutator;
+import org.apache.hadoop.hbase.client.BufferedMutatorParams;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.RetriesExhaustedWithDetailsException;
 import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.client.Table;
 import org.apache.hadoop.hbase.util.Bytes;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Repository;
 
 import eu.daiad.web.hbase.EnumHBaseColumnFamily;
 import eu.daiad.web.model.arduino.ArduinoIntervalQuery;
 import eu.daiad.web.model.arduino.ArduinoIntervalQueryResult;
 import eu.daiad.web.model.arduino.ArduinoMeasurement;
+import eu.daiad.web.model.arduino.ArduinoWriteStatistics;
 import eu.daiad.web.model.error.ApplicationException;
 import eu.daiad.web.model.error.SharedErrorCode;
 import eu.daiad.web.repository.AbstractHBaseRepository;
 
 @Repository()
-public class HBaseArduinoDataRepository extends AbstractHBaseRepository implements IArduinoDataRepository {
+public class HBaseArduinoDataRepository extends AbstractHBaseRepository implements IArduinoDataRepository, InitializingBean, DisposableBean {
 
     private final String arduinoTableMeasurements = "daiad:arduino-measurements";
 
     private static final Log logger = LogFactory.getLog(HBaseArduinoDataRepository.class);
 
 
-    @SuppressWarnings("resource")
+    /**
+     * Size in bytes of the shared write buffer. When the buffer is full,
+     * mutations are sent to the region servers.
+     */
+    @Value("${hbase.data.arduino.write-buffer-size:2097152}")
+    private long arduinoWriteBufferSize;
+
+    /**
+     * Maximum time in milliseconds that mutations are kept in the shared write
+     * buffer. If set to 0, the buffer is not used and every request is stored
+     * before returning.
+     */
+    @Value("${hbase.data.arduino.flush-interval:1000}")
+    private long arduinoFlushInterval;
+
+    /**
+     * Buffered mutator shared by all requests.
+     */
+    private BufferedMutator mutator;
+
+    private ScheduledExecutorService flushExecutor;
+
+    private final AtomicLong requestCounter = new AtomicLong();
+
+    private final AtomicLong measurementCounter = new AtomicLong();
+
+    private final AtomicLong rowCounter = new AtomicLong();
+
+    private final AtomicLong flushCounter = new AtomicLong();
+
+    private final AtomicLong failureCounter = new AtomicLong();
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        if (arduinoFlushInterval > 0) {
+            flushExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "arduino-flush");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+            flushExecutor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        flush();
+                    } catch (Exception ex) {
+                        logger.error("Failed to flush arduino measurements.", ex);
+                    }
+                }
+            }, arduinoFlushInterval, arduinoFlushInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (flushExecutor != null) {
+            flushExecutor.shutdownNow();
+            flushExecutor = null;
+        }
+
+        synchronized (this) {
+            if (mutator != null) {
+                try {
+                    mutator.close();
+                } catch (Exception ex) {
+                    logger.error(getMessage(SharedErrorCode.RESOURCE_RELEASE_FAILED), ex);
+                }
+                mutator = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the shared buffered mutator, creating it if needed.
+     *
+     * @return the buffered mutator.
+     * @throws IOException if the mutator cannot be created.
+     */
+    private synchronized BufferedMutator getMutator() throws IOException {
+        if (mutator == null) {
+            BufferedMutatorParams params = new BufferedMutatorParams(TableName.valueOf(arduinoTableMeasurements));
+            params.writeBufferSize(arduinoWriteBufferSize);
+            params.listener(new BufferedMutator.ExceptionListener() {
+                @Override
+                public void onException(RetriesExhaustedWithDetailsException ex, BufferedMutator mutator) {
+                    failureCounter.addAndGet(ex.getNumExceptions());
+
+                    logger.error("Failed to store arduino measurements.", ex);
+                }
+            });
+
+            mutator = connection.getBufferedMutator(params);
+        }
+        return mutator;
+    }
+
+    /**
+     * Sends all buffered mutations to the region servers.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    private void flush() throws IOException {
+        BufferedMutator current;
+        synchronized (this) {
+            current = mutator;
+        }
+        if (current != null) {
+            current.flush();
+            flushCounter.incrementAndGet();
+
+            logStatistics();
+        }
+    }
+
+    private void logStatistics() {
+        if (logger.isDebugEnabled()) {
+            ArduinoWriteStatistics stats = getWriteStatistics();
+            logger.debug(String.format("Arduino writes: requests [%d], measurements [%d], rows [%d], flushes [%d], failures [%d].",
+                                       stats.getRequests(), stats.getMeasurements(), stats.getRows(),
+                                       stats.getFlushes(), stats.getFailures()));
+        }
+    }
+
+    /**
+     * Stores arduino measurements. Measurements are grouped by row key and
+     * every row is written with a single put. If a flush interval is set, puts
+     * are sent through a buffered mutator that is shared by all requests and
+     * write failures are only logged; otherwise, puts are stored before
+     * returning and failures are reported to the caller.
+     *
+     * @param deviceKey the device key.
+     * @param data the measurements.
+     * @throws ApplicationException if an error occurs.
+     */
     @Override
     public void storeData(String deviceKey, ArrayList<ArduinoMeasurement> data) throws ApplicationException {
         Table table = null;
-
         try {
             MessageDigest md = MessageDigest.getInstance("MD5");
 
-            table = connection.getTable(arduinoTableMeasurements);
             byte[] columnFamily = Bytes.toBytes(EnumHBaseColumnFamily.DEFAULT.getValue());
 
             byte[] deviceKeyBytes = deviceKey.getBytes("UTF-8");
             byte[] deviceKeyHash = md.digest(deviceKeyBytes);
 
+            Map<Long, Put> rows = new LinkedHashMap<Long, Put>();
+            int measurements = 0;
+
             for (int i = 0; i < data.size(); i++) {
                 ArduinoMeasurement m = data.get(i);
 
@@ -65,21 +219,50 @@ public class HBaseArduinoDataRepository extends AbstractHBaseRepository implemen
 
                 long timeBucket = timestamp - timeSlice;
 
-                byte[] timeBucketBytes = Bytes.toBytes(timeBucket);
-                if (timeBucketBytes.length != 8) {
-                    throw new RuntimeException("Invalid byte array length!");
-                }
+                // All measurements share the device hash, hence rows are
+                // identified by the time bucket
+                Put p = rows.get(timeBucket);
+                if (p == null) {
+                    byte[] timeBucketBytes = Bytes.toBytes(timeBucket);
+                    if (timeBucketBytes.length != 8) {
+                        throw new RuntimeException("Invalid byte array length!");
+                    }
 
-                byte[] rowKey = new byte[deviceKeyHash.length + timeBucketBytes.length];
-                System.arraycopy(deviceKeyHash, 0, rowKey, 0, deviceKeyHash.length);
-                System.arraycopy(timeBucketBytes, 0, rowKey, (deviceKeyHash.length), timeBucketBytes.length);
+                    byte[] rowKey = new byte[deviceKeyHash.length + timeBucketBytes.length];
+                    System.arraycopy(deviceKeyHash, 0, rowKey, 0, deviceKeyHash.length);
+                    System.arraycopy(timeBucketBytes, 0, rowKey, (deviceKeyHash.length), timeBucketBytes.length);
 
-                Put p = new Put(rowKey);
+                    p = new Put(rowKey);
+                    rows.put(timeBucket, p);
+                }
 
                 byte[] column = concatenate(timeSliceBytes, appendLength(Bytes.toBytes("v")));
                 p.addColumn(columnFamily, column, Bytes.toBytes(m.getVolume()));
 
-                table.put(p);
+                measurements++;
+            }
+
+            requestCounter.incrementAndGet();
+
+            if (!rows.isEmpty()) {
+                if (arduinoFlushInterval > 0) {
+                    getMutator().mutate(new ArrayList<Put>(rows.values()));
+                } else {
+                    table = connection.getTable(arduinoTableMeasurements);
+
+                    try {
+                        table.put(new ArrayList<Put>(rows.values()));
+                    } catch (Exception ex) {
+                        failureCounter.addAndGet(rows.size());
+                        throw ex;
+                    }
+                    flushCounter.incrementAndGet();
+
+                    logStatistics();
+                }
+
+                measurementCounter.addAndGet(measurements);
+                rowCounter.addAndGet(rows.size());
             }
         } catch (Exception ex) {
             throw wrapApplicationException(ex, SharedErrorCode.UNKNOWN);
@@ -95,6 +278,15 @@ public class HBaseArduinoDataRepository extends AbstractHBaseRepository implemen
         }
     }
 
+    @Override
+    public ArduinoWriteStatistics getWriteStatistics() {
+        return new ArduinoWriteStatistics(requestCounter.get(),
+                                          measurementCounter.get(),
+                                          rowCounter.get(),
+                                          flushCounter.get(),
+                                          failureCounter.get());
+    }
+
     private byte[] getDeviceTimeRowKey(byte[] deviceKeyHash, long date, EnumTimeInterval interval) throws Exception {
 
         long intervalInSeconds = EnumTimeInterval.HOUR.getValue();
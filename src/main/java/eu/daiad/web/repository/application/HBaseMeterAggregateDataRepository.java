@@ -1,15 +1,21 @@
 package eu.daiad.web.repository.application;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NavigableMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.ResultScanner;
 import org.apache.hadoop.hbase.client.Scan;
@@ -17,13 +23,17 @@ import org.apache.hadoop.hbase.client.Table;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeConstants;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Repository;
 
 import eu.daiad.web.hbase.EnumHBaseColumnFamily;
 import eu.daiad.web.hbase.EnumHBaseTable;
+import eu.daiad.web.model.EnumTimeAggregation;
 import eu.daiad.web.model.error.ApplicationException;
 import eu.daiad.web.model.error.DataErrorCode;
 import eu.daiad.web.model.error.SharedErrorCode;
+import eu.daiad.web.model.meter.MeterAggregateMembership;
+import eu.daiad.web.model.meter.WaterMeterMeasurement;
 import eu.daiad.web.model.query.DataPoint;
 import eu.daiad.web.model.query.EnumMetric;
 import eu.daiad.web.model.query.EnumPopulationFilterType;
@@ -44,10 +54,178 @@ public class HBaseMeterAggregateDataRepository  extends AbstractHBaseMeterAggreg
      */
     private static final Log logger = LogFactory.getLog(HBaseMeterAggregateDataRepository.class);
 
+    /**
+     * Time granularities of the aggregates updated by incremental aggregation.
+     */
+    private static final EnumTimeAggregation[] INCREMENTAL_LEVELS = new EnumTimeAggregation[] {
+        EnumTimeAggregation.HOUR,
+        EnumTimeAggregation.DAY,
+        EnumTimeAggregation.WEEK,
+        EnumTimeAggregation.MONTH,
+        EnumTimeAggregation.YEAR
+    };
+
+    /**
+     * Column qualifier of the aggregate sum.
+     */
+    private static final byte[] COLUMN_SUM = Bytes.toBytes("sum");
+
+    /**
+     * Maximum number of attempts for updating the sum of a single aggregate
+     * row that is modified concurrently.
+     */
+    private static final int MAX_UPDATE_ATTEMPTS = 10;
+
+    /**
+     * Maximum number of aggregate rows read and written in a single batch
+     * during incremental aggregation.
+     */
+    @Value("${hbase.data.aggregate.increment.batch-size:1000}")
+    private int incrementBatchSize;
+
     public HBaseMeterAggregateDataRepository() {
         interval = EnumTimeInterval.HOUR;
     }
 
+    /**
+     * Adds the differences of new smart water meter readings to the sum of
+     * every aggregate group and time granularity the meters belong to. Deltas
+     * are first accumulated per row in memory; then the affected rows are
+     * read and written in batches. Only the sum is maintained; the remaining
+     * aggregates and the rankings are refreshed by the aggregation job.
+     *
+     * @param readings a map of new readings indexed by the smart water meter
+     *            unique serial number.
+     * @param memberships a map of aggregate groups indexed by the smart water
+     *            meter unique serial number.
+     * @throws ApplicationException if an error occurs.
+     */
+    @Override
+    public void increment(Map<String, List<WaterMeterMeasurement>> readings, Map<String, MeterAggregateMembership> memberships) throws ApplicationException {
+        try {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+
+            Map<ByteBuffer, Double> deltas = new LinkedHashMap<ByteBuffer, Double>();
+
+            for (Entry<String, List<WaterMeterMeasurement>> entry : readings.entrySet()) {
+                MeterAggregateMembership membership = memberships.get(entry.getKey());
+                if ((membership == null) || (membership.getGroups().isEmpty())) {
+                    continue;
+                }
+
+                for (WaterMeterMeasurement m : entry.getValue()) {
+                    if ((m.getVolume() < 0) || (m.getDifference() == 0)) {
+                        continue;
+                    }
+
+                    for (EnumTimeAggregation level : INCREMENTAL_LEVELS) {
+                        long time = unixTimestampToLong(m.getTimestamp(), membership.getTimezone(), level);
+
+                        for (MeterAggregateMembership.Group group : membership.getGroups()) {
+                            ByteBuffer rowKey = ByteBuffer.wrap(createAggregateRowKey(md, group.getGroupKey(), group.getAreaKey(), level, time));
+
+                            Double sum = deltas.get(rowKey);
+                            deltas.put(rowKey, (sum == null ? m.getDifference() : sum + m.getDifference()));
+                        }
+                    }
+                }
+            }
+
+            if (!deltas.isEmpty()) {
+                updateSums(deltas);
+            }
+        } catch (Exception ex) {
+            throw wrapApplicationException(ex, SharedErrorCode.UNKNOWN);
+        }
+    }
+
+    /**
+     * Adds deltas to the sum column of aggregate rows. Current values are read
+     * in batches and every row is updated with an atomic check-and-put that
+     * succeeds only if the sum has not changed since it was read. Rows
+     * modified concurrently, e.g. by another instance, are read again and
+     * the update is retried.
+     *
+     * @param deltas the deltas indexed by row key.
+     * @throws Exception if an I/O error occurs or a row cannot be updated
+     *             after the maximum number of attempts.
+     */
+    private void updateSums(Map<ByteBuffer, Double> deltas) throws Exception {
+        Table table = null;
+
+        try {
+            table = connection.getTable(EnumHBaseTable.SWM_AGGREGATE.getValue());
+
+            byte[] columnFamily = Bytes.toBytes(EnumHBaseColumnFamily.DEFAULT.getValue());
+
+            List<Entry<ByteBuffer, Double>> entries = new ArrayList<Entry<ByteBuffer, Double>>(deltas.entrySet());
+            int batchSize = Math.max(1, incrementBatchSize);
+
+            for (int start = 0, count = entries.size(); start < count; start += batchSize) {
+                List<Entry<ByteBuffer, Double>> batch = entries.subList(start, Math.min(start + batchSize, count));
+
+                List<Get> gets = new ArrayList<Get>(batch.size());
+                for (Entry<ByteBuffer, Double> entry : batch) {
+                    gets.add(createSumGet(entry.getKey().array(), columnFamily));
+                }
+
+                Result[] results = table.get(gets);
+
+                for (int i = 0; i < results.length; i++) {
+                    byte[] rowKey = batch.get(i).getKey().array();
+                    byte[] value = results[i].getValue(columnFamily, COLUMN_SUM);
+
+                    int attempt = 1;
+                    while (!addToSum(table, rowKey, columnFamily, value, batch.get(i).getValue())) {
+                        if (attempt == MAX_UPDATE_ATTEMPTS) {
+                            throw new IOException(String.format("Failed to update aggregate sum after %d attempts.", attempt));
+                        }
+                        attempt++;
+
+                        value = table.get(createSumGet(rowKey, columnFamily)).getValue(columnFamily, COLUMN_SUM);
+                    }
+                }
+            }
+        } finally {
+            try {
+                if (table != null) {
+                    table.close();
+                    table = null;
+                }
+            } catch (Exception ex) {
+                logger.error(getMessage(SharedErrorCode.RESOURCE_RELEASE_FAILED), ex);
+            }
+        }
+    }
+
+    private Get createSumGet(byte[] rowKey, byte[] columnFamily) {
+        Get get = new Get(rowKey);
+        get.addColumn(columnFamily, COLUMN_SUM);
+
+        return get;
+    }
+
+    /**
+     * Atomically replaces the sum of an aggregate row if it still has the
+     * expected value.
+     *
+     * @param table the aggregate table.
+     * @param rowKey the row key.
+     * @param columnFamily the column family.
+     * @param expected the expected current value or null if the sum does not exist.
+     * @param delta the delta to add.
+     * @return true if the row has been updated.
+     * @throws IOException if an I/O error occurs.
+     */
+    private boolean addToSum(Table table, byte[] rowKey, byte[] columnFamily, byte[] expected, double delta) throws IOException {
+        double sum = (expected == null ? 0 : Bytes.toFloat(expected)) + delta;
+
+        Put put = new Put(rowKey);
+        put.addColumn(columnFamily, COLUMN_SUM, Bytes.toBytes((float) sum));
+
+        return table.checkAndPut(rowKey, columnFamily, COLUMN_SUM, expected, put);
+    }
+
     /**
      * Executes a query for smart water meter data using aggregates.
      *
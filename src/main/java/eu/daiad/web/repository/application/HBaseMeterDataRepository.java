@@ -1,34 +1,66 @@
 package eu.daiad.web.repository.application;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NavigableMap;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
+import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.BufferedMutator;
+import org.apache.hadoop.hbase.client.HTable;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.ResultScanner;
 import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.io.compress.Compression;
+import org.apache.hadoop.hbase.io.hfile.CacheConfig;
+import org.apache.hadoop.hbase.io.hfile.HFileContext;
+import org.apache.hadoop.hbase.io.hfile.HFileContextBuilder;
+import org.apache.hadoop.hbase.mapreduce.LoadIncrementalHFiles;
+import org.apache.hadoop.hbase.regionserver.StoreFile;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeConstants;
 import org.joda.time.DateTimeZone;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Repository;
 
 import eu.daiad.web.hbase.EnumHBaseColumnFamily;
 import eu.daiad.web.hbase.EnumHBaseTable;
+import eu.daiad.web.model.EnumTimeAggregation;
 import eu.daiad.web.model.TemporalConstants;
 import eu.daiad.web.model.error.ApplicationException;
 import eu.daiad.web.model.error.DataErrorCode;
 import eu.daiad.web.model.error.SharedErrorCode;
 import eu.daiad.web.model.meter.MeterDataStoreStats;
+import eu.daiad.web.model.meter.MeterUserAggregateMatrix;
 import eu.daiad.web.model.meter.WaterMeterDataPoint;
 import eu.daiad.web.model.meter.WaterMeterDataSeries;
 import eu.daiad.web.model.meter.WaterMeterMeasurement;
@@ -36,14 +68,19 @@ import eu.daiad.web.model.meter.WaterMeterMeasurementCollection;
 import eu.daiad.web.model.meter.WaterMeterMeasurementQuery;
 import eu.daiad.web.model.meter.WaterMeterMeasurementQueryResult;
 import eu.daiad.web.model.meter.WaterMeterStatus;
+import eu.daiad.web.model.meter.WaterMeterStatusCacheStatistics;
 import eu.daiad.web.model.meter.WaterMeterStatusQueryResult;
 import eu.daiad.web.model.query.EnumMetric;
+import eu.daiad.web.model.query.EnumQueryPlan;
 import eu.daiad.web.model.query.ExpandedDataQuery;
 import eu.daiad.web.model.query.ExpandedPopulationFilter;
 import eu.daiad.web.model.query.GroupDataSeries;
 import eu.daiad.web.model.query.MeterUserDataPoint;
+import eu.daiad.web.model.query.PartitionScanInfo;
+import eu.daiad.web.model.query.QueryPlanInfo;
 import eu.daiad.web.model.query.RankingDataPoint;
 import eu.daiad.web.model.query.UserDataPoint;
+import eu.daiad.web.repository.PartitionScan;
 
 @Repository()
 public class HBaseMeterDataRepository extends AbstractHBaseMeterDataRepository implements IMeterDataRepository {
@@ -53,6 +90,52 @@ public class HBaseMeterDataRepository extends AbstractHBaseMeterDataRepository i
      */
     private static final Log logger = LogFactory.getLog(HBaseMeterDataRepository.class);
 
+    /**
+     * Enables selecting between the meter and time ordered tables based on the
+     * estimated query cost. If disabled, the time ordered table is always used.
+     */
+    @Value("${hbase.data.query.planner.enabled:true}")
+    private boolean plannerEnabled;
+
+    /**
+     * Estimated cost of opening a scanner, expressed in rows.
+     */
+    @Value("${hbase.data.query.planner.seek-cost:50}")
+    private long plannerSeekCost;
+
+    /**
+     * Estimated number of smart water meters with readings in a single time
+     * bucket of the time ordered table.
+     */
+    @Value("${hbase.data.query.planner.meter-count:1000}")
+    private long plannerMeterCount;
+
+    /**
+     * File system for staging HBase files before bulk loading. If not set, the
+     * default file system of the HBase configuration is used.
+     */
+    @Value("${hbase.data.bulk-load.filesystem:}")
+    private String bulkLoadFileSystem;
+
+    /**
+     * Number of smart water meters looked up by a single task when statuses
+     * are fetched concurrently.
+     */
+    @Value("${hbase.data.status.batch-size:50}")
+    private int statusBatchSize;
+
+    /**
+     * Cache of the most recent reading of every smart water meter.
+     */
+    @Autowired
+    private WaterMeterStatusCache statusCache;
+
+    /**
+     * Listeners notified when new readings are stored.
+     */
+    @Autowired(required = false)
+    private List<IMeterDataStoreListener> storeListeners;
+
     public HBaseMeterDataRepository() {
         interval = EnumTimeInterval.HOUR;
     }
@@ -73,55 +156,19 @@ public class HBaseMeterDataRepository extends AbstractHBaseMeterDataRepository i
                 return stats;
             }
 
-            // Sort measurements
-            Collections.sort(data.getMeasurements(), new Comparator<WaterMeterMeasurement>() {
-                @Override
-                public int compare(WaterMeterMeasurement o1, WaterMeterMeasurement o2) {
-                    if (o1.getTimestamp() <= o2.getTimestamp()) {
-                        return -1;
-                    } else {
-                        return 1;
-                    }
-                }
-            });
-
-            // Always sync difference for the first and last measurements from HBase
-            WaterMeterMeasurement first = data.getMeasurements().get(0);
-            WaterMeterStatusQueryResult statusBefore = getStatusBefore(new String[] { serial }, first.getTimestamp() - 1);
+            Synchronization sync = synchronizeDifferences(serial, data, stats);
 
-            if ((statusBefore != null) && (!statusBefore.getDevices().isEmpty())) {
-                float diff = first.getVolume() - statusBefore.getDevices().get(0).getVolume();
-                if (diff != first.getDifference()) {
-                    first.setDifference(diff);
-                    stats.update();
-                }
-            }
-
-            WaterMeterMeasurement last = data.getMeasurements().get(data.getMeasurements().size() - 1);
-            WaterMeterStatusQueryResult statusAfter = getStatusAfter(new String[] { serial }, last.getTimestamp() + 1);
+            storeDataByMeter(serial, data);
+            storeDataByTime(serial, data);
 
-            if ((statusAfter != null) && (!statusAfter.getDevices().isEmpty())) {
-                // Re-insert the next data point
-                WaterMeterMeasurement after = new WaterMeterMeasurement();
-                after.setVolume(statusAfter.getDevices().get(0).getVolume());
-                after.setDifference(statusAfter.getDevices().get(0).getVolume()  - last.getVolume());
-                after.setTimestamp(statusAfter.getDevices().get(0).getTimestamp());
+            updateStatus(serial, sync.status);
 
-                data.getMeasurements().add(after);
-                stats.create();
-            }
+            if (hasStoreListeners()) {
+                Map<String, List<WaterMeterMeasurement>> readings = new LinkedHashMap<String, List<WaterMeterMeasurement>>();
+                readings.put(serial, getNewReadings(data, sync.latestTimestamp));
 
-            // Update all intermediate readings
-            for (int i = 1, count = data.getMeasurements().size(); i < count; i++) {
-                float diff = data.getMeasurements().get(i).getVolume() - data.getMeasurements().get(i - 1).getVolume();
-                if (diff != data.getMeasurements().get(i).getDifference()) {
-                    data.getMeasurements().get(i).setDifference(diff);
-                    stats.update();
-                }
+                notifyStoreListeners(readings);
             }
-
-            storeDataByMeter(serial, data);
-            storeDataByTime(serial, data);
         } catch (Exception ex) {
             throw wrapApplicationException(ex, SharedErrorCode.UNKNOWN);
         }
@@ -130,229 +177,922 @@ public class HBaseMeterDataRepository extends AbstractHBaseMeterDataRepository i
     }
 
     /**
-     * Stores smart water meter data indexed by serial number.
+     * Stores smart water meter readings for several meters to HBase. Boundary
+     * readings are fetched once per meter and all rows are written through
+     * buffered mutators that send mutations to the region servers in batches.
      *
-     * @param serial the smart water meter data unique serial number.
-     * @param data a collection of {@link WaterMeterMeasurement}.
+     * @param data a map of {@link WaterMeterMeasurementCollection} objects
+     *            indexed by the smart water meter unique serial number.
+     * @return statistics for the insert operations.
      */
-    private void storeDataByMeter(String serial, WaterMeterMeasurementCollection data) {
-        Table table = null;
+    @Override
+    public MeterDataStoreStats store(Map<String, WaterMeterMeasurementCollection> data) {
+        MeterDataStoreStats stats = new MeterDataStoreStats();
+
+        BufferedMutator meterMutator = null;
+        BufferedMutator timeMutator = null;
+
         try {
-            table = connection.getTable(EnumHBaseTable.SWM_USER.getValue());
+            if ((data == null) || (data.isEmpty())) {
+                return stats;
+            }
 
             MessageDigest md = MessageDigest.getInstance("MD5");
 
             byte[] columnFamily = Bytes.toBytes(EnumHBaseColumnFamily.DEFAULT.getValue());
 
-            byte[] meterSerial = serial.getBytes("UTF-8");
-            byte[] meterSerialHash = md.digest(meterSerial);
+            meterMutator = connection.getBufferedMutator(EnumHBaseTable.SWM_USER.getValue(), writeBufferSize);
+            timeMutator = connection.getBufferedMutator(EnumHBaseTable.SWM_TIME.getValue(), writeBufferSize);
 
-            for (int i = 0; i < data.getMeasurements().size(); i++) {
-                WaterMeterMeasurement m = data.getMeasurements().get(i);
+            Map<String, List<WaterMeterMeasurement>> readings = new LinkedHashMap<String, List<WaterMeterMeasurement>>();
+            Map<String, WaterMeterStatus> statuses = new LinkedHashMap<String, WaterMeterStatus>();
 
-                if (m.getVolume() < 0) {
+            for (Entry<String, WaterMeterMeasurementCollection> entry : data.entrySet()) {
+                String serial = entry.getKey();
+                WaterMeterMeasurementCollection collection = entry.getValue();
+
+                if ((collection == null) || (collection.getMeasurements() == null) || (collection.getMeasurements().isEmpty())) {
                     continue;
                 }
 
-                RowKeyQualifierPrefix key = createMeterRowKeyQualifierPrefix(meterSerialHash, m.getTimestamp());
+                Synchronization sync = synchronizeDifferences(serial, collection, stats);
+
+                statuses.put(serial, sync.status);
+
+                if (hasStoreListeners()) {
+                    readings.put(serial, getNewReadings(collection, sync.latestTimestamp));
+                }
+
+                byte[] meterSerialHash = md.digest(serial.getBytes("UTF-8"));
+
+                for (WaterMeterMeasurement m : collection.getMeasurements()) {
+                    if (m.getVolume() < 0) {
+                        continue;
+                    }
 
-                Put p = new Put(key.rowKey);
+                    RowKeyQualifierPrefix key = createMeterRowKeyQualifierPrefix(meterSerialHash, m.getTimestamp());
+                    meterMutator.mutate(createPut(key, columnFamily, serial, m));
 
-                byte[] column = concatenate(key.qualifierPrefix, appendLength(Bytes.toBytes("v")));
-                p.addColumn(columnFamily, column, Bytes.toBytes(m.getVolume()));
+                    key = createPartitionedRowKeyQualifierPrefix(meterSerialHash, m.getTimestamp());
+                    timeMutator.mutate(createPut(key, columnFamily, serial, m));
+                }
+            }
 
-                column = concatenate(key.qualifierPrefix, appendLength(Bytes.toBytes("d")));
-                p.addColumn(columnFamily, column, Bytes.toBytes(m.getDifference()));
+            meterMutator.flush();
+            timeMutator.flush();
 
-                column = concatenate(key.qualifierPrefix, appendLength(Bytes.toBytes("s")));
-                p.addColumn(columnFamily, column, serial.getBytes(StandardCharsets.UTF_8));
+            for (Entry<String, WaterMeterStatus> entry : statuses.entrySet()) {
+                updateStatus(entry.getKey(), entry.getValue());
+            }
 
-                table.put(p);
+            if (!readings.isEmpty()) {
+                notifyStoreListeners(readings);
             }
         } catch (Exception ex) {
             throw wrapApplicationException(ex, SharedErrorCode.UNKNOWN);
         } finally {
             try {
-                if (table != null) {
-                    table.close();
-                    table = null;
+                if (meterMutator != null) {
+                    meterMutator.close();
+                    meterMutator = null;
+                }
+                if (timeMutator != null) {
+                    timeMutator.close();
+                    timeMutator = null;
                 }
             } catch (Exception ex) {
                 logger.error(getMessage(SharedErrorCode.RESOURCE_RELEASE_FAILED), ex);
             }
         }
+
+        return stats;
     }
 
     /**
-     * Stores smart water meter data partitioned by time.
+     * Writes smart water meter readings to HBase files in a staging directory
+     * for both the meter and time ordered tables. Differences must already be
+     * computed since no data is read from HBase. The files are loaded by
+     * {@link #bulkLoad(String)}.
      *
-     * @param serial the smart water meter data unique serial number.
-     * @param data a collection of {@link WaterMeterMeasurement}.
+     * @param data a map of {@link WaterMeterMeasurementCollection} objects
+     *            indexed by the smart water meter unique serial number.
+     * @param stagingDir the staging directory.
+     * @return the number of readings written.
      */
-    private void storeDataByTime(String serial, WaterMeterMeasurementCollection data) {
-        Table table = null;
+    @Override
+    public int createBulkLoadFiles(Map<String, WaterMeterMeasurementCollection> data, String stagingDir) {
+        int count = 0;
 
         try {
-            table = connection.getTable(EnumHBaseTable.SWM_TIME.getValue());
+            if ((data == null) || (data.isEmpty())) {
+                return count;
+            }
 
             MessageDigest md = MessageDigest.getInstance("MD5");
 
             byte[] columnFamily = Bytes.toBytes(EnumHBaseColumnFamily.DEFAULT.getValue());
 
-            byte[] meterSerial = serial.getBytes("UTF-8");
-            byte[] meterSerialHash = md.digest(meterSerial);
+            long timestamp = System.currentTimeMillis();
 
-            for (int i = 0; i < data.getMeasurements().size(); i++) {
-                WaterMeterMeasurement m = data.getMeasurements().get(i);
+            List<KeyValue> meterCells = new ArrayList<KeyValue>();
+            List<KeyValue> timeCells = new ArrayList<KeyValue>();
 
-                if (m.getVolume() < 0) {
+            for (Entry<String, WaterMeterMeasurementCollection> entry : data.entrySet()) {
+                String serial = entry.getKey();
+                WaterMeterMeasurementCollection collection = entry.getValue();
+
+                if ((collection == null) || (collection.getMeasurements() == null)) {
                     continue;
                 }
 
-                RowKeyQualifierPrefix key = createPartitionedRowKeyQualifierPrefix(meterSerialHash, m.getTimestamp());
+                byte[] meterSerialHash = md.digest(serial.getBytes("UTF-8"));
+
+                for (WaterMeterMeasurement m : collection.getMeasurements()) {
+                    if (m.getVolume() < 0) {
+                        continue;
+                    }
+
+                    RowKeyQualifierPrefix key = createMeterRowKeyQualifierPrefix(meterSerialHash, m.getTimestamp());
+                    createCells(meterCells, key, columnFamily, timestamp, serial, m);
+
+                    key = createPartitionedRowKeyQualifierPrefix(meterSerialHash, m.getTimestamp());
+                    createCells(timeCells, key, columnFamily, timestamp, serial, m);
+
+                    count++;
+                }
+            }
+
+            FileSystem fs = getBulkLoadFileSystem();
+
+            writeBulkLoadFile(fs, getBulkLoadPath(fs, stagingDir, EnumHBaseTable.SWM_USER), meterCells);
+            writeBulkLoadFile(fs, getBulkLoadPath(fs, stagingDir, EnumHBaseTable.SWM_TIME), timeCells);
+        } catch (Exception ex) {
+            throw wrapApplicationException(ex, SharedErrorCode.UNKNOWN);
+        }
 
-                Put p = new Put(key.rowKey);
+        return count;
+    }
+
+    /**
+     * Loads the HBase files created by
+     * {@link #createBulkLoadFiles(Map, String)} to the meter and time ordered
+     * tables. Files are moved to the region servers, hence only the tables
+     * whose files are still staged are loaded and a failed load can be
+     * repeated for the same staging directory.
+     * <p>
+     * The two tables are not loaded atomically. If loading a table fails after
+     * another table has been loaded, an exception with error code
+     * {@link DataErrorCode#BULK_LOAD_INCOMPLETE} is thrown and the tables are
+     * inconsistent until the remaining files are loaded. Loading the same
+     * readings again overwrites the existing cells.
+     *
+     * @param stagingDir the staging directory.
+     */
+    @Override
+    public void bulkLoad(String stagingDir) {
+        List<EnumHBaseTable> loaded = new ArrayList<EnumHBaseTable>();
+
+        try {
+            FileSystem fs = getBulkLoadFileSystem();
 
-                byte[] column = concatenate(key.qualifierPrefix, appendLength(Bytes.toBytes("v")));
-                p.addColumn(columnFamily, column, Bytes.toBytes(m.getVolume()));
+            LoadIncrementalHFiles loader = new LoadIncrementalHFiles(connection.getConfiguration());
 
-                column = concatenate(key.qualifierPrefix, appendLength(Bytes.toBytes("d")));
-                p.addColumn(columnFamily, column, Bytes.toBytes(m.getDifference()));
+            // Load the time ordered table first; Data queries use it by default
+            List<EnumHBaseTable> pending = new ArrayList<EnumHBaseTable>();
+            for (EnumHBaseTable tableName : new EnumHBaseTable[] { EnumHBaseTable.SWM_TIME, EnumHBaseTable.SWM_USER }) {
+                if (hasBulkLoadFiles(fs, fs.makeQualified(new Path(stagingDir, tableName.name())))) {
+                    pending.add(tableName);
+                }
+            }
+
+            for (EnumHBaseTable tableName : pending) {
+                Path tablePath = fs.makeQualified(new Path(stagingDir, tableName.name()));
+
+                HTable table = null;
 
-                column = concatenate(key.qualifierPrefix, appendLength(Bytes.toBytes("s")));
-                p.addColumn(columnFamily, column, serial.getBytes(StandardCharsets.UTF_8));
+                try {
+                    table = connection.getHTable(tableName.getValue());
 
-                table.put(p);
+                    loader.doBulkLoad(tablePath, table);
+
+                    loaded.add(tableName);
+                } catch (Exception ex) {
+                    if (!loaded.isEmpty()) {
+                        throw wrapApplicationException(ex, DataErrorCode.BULK_LOAD_INCOMPLETE).set("directory", stagingDir)
+                                                                                            .set("loaded", loaded.toString())
+                                                                                            .set("remaining", pending.subList(loaded.size(), pending.size()).toString());
+                    }
+                    throw ex;
+                } finally {
+                    try {
+                        if (table != null) {
+                            table.close();
+                            table = null;
+                        }
+                    } catch (Exception ex) {
+                        logger.error(getMessage(SharedErrorCode.RESOURCE_RELEASE_FAILED), ex);
+                    }
+                }
             }
         } catch (Exception ex) {
             throw wrapApplicationException(ex, SharedErrorCode.UNKNOWN);
         } finally {
-            try {
-                if (table != null) {
-                    table.close();
-                    table = null;
-                }
-            } catch (Exception ex) {
-                logger.error(getMessage(SharedErrorCode.RESOURCE_RELEASE_FAILED), ex);
+            if (!loaded.isEmpty()) {
+                statusCache.invalidateAll();
             }
         }
     }
 
     /**
-     * Returns the current status for a set of smart water meters.
+     * Checks if a directory contains any staged HBase files.
      *
-     * @param serials the unique smart water meter serial numbers to search.
-     * @return a collection of {@link WaterMeterStatus}.
+     * @param fs the staging file system.
+     * @param path the directory.
+     * @return true if at least one file exists.
+     * @throws IOException if an I/O error occurs.
      */
-    @Override
-    public WaterMeterStatusQueryResult getStatus(String serials[]) {
-        return getStatusBefore(serials, new DateTime(DateTimeZone.UTC).getMillis());
+    private boolean hasBulkLoadFiles(FileSystem fs, Path path) throws IOException {
+        if (!fs.exists(path)) {
+            return false;
+        }
+        return fs.listFiles(path, true).hasNext();
     }
 
     /**
-     * Returns the most recent status for a set of smart water meters before the specified timestamp.
+     * Deletes a staging directory and all the HBase files it contains.
      *
-     * @param serials the unique smart water meter serial numbers to search.
-     * @param maxDateTime time interval upper limit.
-     * @return a collection of {@link WaterMeterStatus}.
+     * @param stagingDir the staging directory.
      */
     @Override
-    public WaterMeterStatusQueryResult getStatusBefore(String serials[], long maxDateTime) {
-        return this.getStatus(serials, maxDateTime, true);
+    public void deleteBulkLoadFiles(String stagingDir) {
+        try {
+            FileSystem fs = getBulkLoadFileSystem();
+
+            Path path = fs.makeQualified(new Path(stagingDir));
+            if ((fs.exists(path)) && (!fs.delete(path, true))) {
+                logger.warn(String.format("Failed to delete staging directory [%s].", path));
+            }
+        } catch (Exception ex) {
+            throw wrapApplicationException(ex, SharedErrorCode.UNKNOWN);
+        }
     }
 
     /**
-     * Returns the most recent status for a set of smart water meters after the specified timestamp.
+     * Returns the file system used for staging HBase files before bulk loading.
      *
-     * @param serials the unique smart water meter serial numbers to search.
-     * @param minDateTime time interval upper limit.
-     * @return a collection of {@link WaterMeterStatus}.
+     * @return the file system.
+     * @throws IOException if the file system cannot be initialized.
      */
-    @Override
-    public WaterMeterStatusQueryResult getStatusAfter(String serials[], long minDateTime) {
-        return getStatus(serials, minDateTime, false);
+    private FileSystem getBulkLoadFileSystem() throws IOException {
+        Configuration config = new Configuration(connection.getConfiguration());
+        if (!StringUtils.isBlank(bulkLoadFileSystem)) {
+            config.set("fs.defaultFS", bulkLoadFileSystem);
+        }
+        return FileSystem.get(config);
     }
 
     /**
-     * Returns the most recent status for a set of smart water meters
-     * before/after the specified timestamp.
+     * Returns a new unique HBase file path in the staging directory. The
+     * directory layout is the one expected by {@link LoadIncrementalHFiles}.
      *
-     * @param serials the unique smart water meter serial numbers to search.
-     * @param timeThreshold time interval upper limit.
-     * @param descending true if true, the most recent status before the timestamp is returned; Otherwise, the most recent one after is returned.
-     * @return a collection of {@link WaterMeterStatus}.
+     * @param fs the staging file system.
+     * @param stagingDir the staging directory.
+     * @param table the table.
+     * @return the file path.
      */
-    private  WaterMeterStatusQueryResult getStatus(String serials[], long timeThreshold, boolean descending) {
-        WaterMeterStatusQueryResult data = new WaterMeterStatusQueryResult();
+    private Path getBulkLoadPath(FileSystem fs, String stagingDir, EnumHBaseTable table) {
+        Path familyPath = new Path(new Path(stagingDir, table.name()), EnumHBaseColumnFamily.DEFAULT.getValue());
 
-        Table table = null;
-        ResultScanner scanner = null;
+        return fs.makeQualified(new Path(familyPath, UUID.randomUUID().toString().replace("-", "")));
+    }
+
+    /**
+     * Sorts and writes cells to a new HBase file. If several cells have the
+     * same key, only the last one is written.
+     *
+     * @param fs the staging file system.
+     * @param path the file path.
+     * @param cells the cells to write.
+     * @throws IOException if the file cannot be written.
+     */
+    private void writeBulkLoadFile(FileSystem fs, Path path, List<KeyValue> cells) throws IOException {
+        if (cells.isEmpty()) {
+            return;
+        }
+
+        // Sorting is stable, hence the last cell of every key is the most recent one
+        Collections.sort(cells, KeyValue.COMPARATOR);
 
+        Configuration config = fs.getConf();
+        HFileContext context = new HFileContextBuilder().withCompression(Compression.Algorithm.NONE)
+                                                        .withBlockSize(HConstants.DEFAULT_BLOCKSIZE)
+                                                        .build();
+
+        StoreFile.Writer writer = null;
         try {
-            MessageDigest md = MessageDigest.getInstance("MD5");
+            writer = new StoreFile.WriterBuilder(config, new CacheConfig(config), fs).withFilePath(path)
+                                                                                     .withComparator(KeyValue.COMPARATOR)
+                                                                                     .withFileContext(context)
+                                                                                     .build();
+
+            for (int i = 0, count = cells.size(); i < count; i++) {
+                if ((i == count - 1) || (KeyValue.COMPARATOR.compare(cells.get(i), cells.get(i + 1)) != 0)) {
+                    writer.append(cells.get(i));
+                }
+            }
 
-            table = connection.getTable(EnumHBaseTable.SWM_USER.getValue());
-            byte[] columnFamily = Bytes.toBytes(EnumHBaseColumnFamily.DEFAULT.getValue());
+            writer.appendFileInfo(StoreFile.BULKLOAD_TIME_KEY, Bytes.toBytes(System.currentTimeMillis()));
+            writer.appendFileInfo(StoreFile.MAJOR_COMPACTION_KEY, Bytes.toBytes(false));
+            writer.appendTrackedTimestampsToMetadata();
+        } finally {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+    }
 
-            for (int deviceIndex = 0; deviceIndex < serials.length; deviceIndex++) {
-                byte[] meterSerial = serials[deviceIndex].getBytes("UTF-8");
-                byte[] meterSerialHash = md.digest(meterSerial);
+    /**
+     * Creates the cells for a single smart water meter reading.
+     *
+     * @param cells the list to add the cells to.
+     * @param key the row key and the column qualifier prefix.
+     * @param columnFamily the column family.
+     * @param timestamp the cell timestamp.
+     * @param serial the smart water meter unique serial number.
+     * @param m the smart water meter reading.
+     * @throws Exception if the column qualifiers cannot be created.
+     */
+    private void createCells(List<KeyValue> cells,
+                             RowKeyQualifierPrefix key,
+                             byte[] columnFamily,
+                             long timestamp,
+                             String serial,
+                             WaterMeterMeasurement m) throws Exception {
+        byte[] column = concatenate(key.qualifierPrefix, appendLength(Bytes.toBytes("v")));
+        cells.add(new KeyValue(key.rowKey, columnFamily, column, timestamp, Bytes.toBytes(m.getVolume())));
+
+        column = concatenate(key.qualifierPrefix, appendLength(Bytes.toBytes("d")));
+        cells.add(new KeyValue(key.rowKey, columnFamily, column, timestamp, Bytes.toBytes(m.getDifference())));
+
+        column = concatenate(key.qualifierPrefix, appendLength(Bytes.toBytes("s")));
+        cells.add(new KeyValue(key.rowKey, columnFamily, column, timestamp, serial.getBytes(StandardCharsets.UTF_8)));
+    }
 
-                Scan scan = new Scan();
-                scan.addFamily(columnFamily);
-                scan.setStartRow(createMeterRowKey(meterSerialHash, timeThreshold));
+    private boolean hasStoreListeners() {
+        if (storeListeners != null) {
+            for (IMeterDataStoreListener listener : storeListeners) {
+                if (listener.isEnabled()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
 
-                if(descending) {
-                    scan.setStopRow(calculateTheClosestNextRowKeyForPrefix(meterSerialHash));
+    /**
+     * Returns the readings that are newer than the most recent reading stored
+     * before the current operation.
+     *
+     * @param data a sorted collection of {@link WaterMeterMeasurement}.
+     * @param latestTimestamp the timestamp of the most recent stored reading.
+     * @return the new readings.
+     */
+    private List<WaterMeterMeasurement> getNewReadings(WaterMeterMeasurementCollection data, long latestTimestamp) {
+        List<WaterMeterMeasurement> readings = new ArrayList<WaterMeterMeasurement>();
+
+        for (WaterMeterMeasurement m : data.getMeasurements()) {
+            if ((m.getTimestamp() > latestTimestamp) && (m.getVolume() >= 0)) {
+                readings.add(m);
+            }
+        }
+
+        return readings;
+    }
+
+    /**
+     * Notifies store listeners. Listener errors are logged and do not fail the
+     * store operation since the readings are already persisted.
+     *
+     * @param readings a map of new readings indexed by the smart water meter
+     *            unique serial number.
+     */
+    private void notifyStoreListeners(Map<String, List<WaterMeterMeasurement>> readings) {
+        for (IMeterDataStoreListener listener : storeListeners) {
+            if (!listener.isEnabled()) {
+                continue;
+            }
+            try {
+                listener.onStore(readings);
+            } catch (Exception ex) {
+                logger.error(String.format("Store listener [%s] has failed.", listener.getClass().getName()), ex);
+            }
+        }
+    }
+
+    /**
+     * Sorts a collection of smart water meter readings and updates the
+     * difference of every reading. The differences of the first reading and
+     * the reading that follows the last one are synchronized with the data
+     * already stored in HBase.
+     * <p>
+     * When no reading follows the new ones, the most recent stored reading
+     * is looked up first. Unless the new readings overlap with the stored
+     * ones, it is also the reading that precedes them; hence, two lookups
+     * per meter are enough for computing the differences and detecting which
+     * readings are newer than any stored reading.
+     *
+     * @param serial the smart water meter unique serial number.
+     * @param data a collection of {@link WaterMeterMeasurement}.
+     * @param stats statistics for the insert operations.
+     * @return the status of the meter after storing the readings and the
+     *         timestamp of the most recent reading stored before.
+     */
+    private Synchronization synchronizeDifferences(String serial, WaterMeterMeasurementCollection data, MeterDataStoreStats stats) {
+        // Sort measurements
+        Collections.sort(data.getMeasurements(), new Comparator<WaterMeterMeasurement>() {
+            @Override
+            public int compare(WaterMeterMeasurement o1, WaterMeterMeasurement o2) {
+                if (o1.getTimestamp() <= o2.getTimestamp()) {
+                    return -1;
                 } else {
-                    scan.setReversed(true);
+                    return 1;
                 }
-                scan.setCaching(2);
-                scanner = table.getScanner(scan);
+            }
+        });
 
-                int valueCount = 0;
-                boolean stopScanner = false;
+        Synchronization result = new Synchronization();
 
-                WaterMeterStatus status = new WaterMeterStatus(serials[deviceIndex]);
-                WaterMeterDataPoint value1 = new WaterMeterDataPoint();
-                WaterMeterDataPoint value2 = new WaterMeterDataPoint();
+        // Always sync difference for the first and last measurements from HBase
+        WaterMeterMeasurement first = data.getMeasurements().get(0);
+        WaterMeterMeasurement last = data.getMeasurements().get(data.getMeasurements().size() - 1);
 
-                for (Result r = scanner.next(); r != null; r = scanner.next()) {
-                    byte[] currentSerialHash = Arrays.copyOfRange(r.getRow(), 0, 16);
-                    if (!Arrays.equals(currentSerialHash, meterSerialHash)) {
-                        break;
-                    }
+        WaterMeterStatusQueryResult statusAfter = getStatusAfter(new String[] { serial }, last.getTimestamp() + 1);
+        WaterMeterStatusQueryResult statusBefore = null;
 
-                    long timeBucket = Bytes.toLong(Arrays.copyOfRange(r.getRow(), 16, 24));
+        if ((statusAfter == null) || (statusAfter.getDevices().isEmpty())) {
+            WaterMeterStatusQueryResult statusLatest = getStatusBefore(new String[] { serial }, last.getTimestamp());
 
-                    NavigableMap<byte[], byte[]> map = r.getFamilyMap(columnFamily);
-                    for (Entry<byte[], byte[]> entry : map.entrySet()) {
-                        short offset = Bytes.toShort(Arrays.copyOfRange(entry.getKey(), 0, 2));
-                        long timestamp = ((Long.MAX_VALUE / 1000) - (timeBucket + (long) offset)) * 1000L;
+            if ((statusLatest == null) || (statusLatest.getDevices().isEmpty())) {
+                statusBefore = statusLatest;
+            } else {
+                result.latestTimestamp = statusLatest.getDevices().get(0).getTimestamp();
 
-                        if(descending) {
-                            if (timestamp <= timeThreshold) {
-                                int length = (int) Arrays.copyOfRange(entry.getKey(), 2, 3)[0];
-                                byte[] slice = Arrays.copyOfRange(entry.getKey(), 3, 3 + length);
-                                String columnQualifier = Bytes.toString(slice);
+                if (result.latestTimestamp < first.getTimestamp()) {
+                    statusBefore = statusLatest;
+                }
+            }
+        } else {
+            // A more recent reading exists; none of the new readings is the latest
+            result.latestTimestamp = Long.MAX_VALUE;
+        }
 
-                                if (columnQualifier.equals("v")) {
-                                    valueCount++;
-                                    if (value2.getTimestamp() < timestamp) {
-                                        value1.setTimestamp(value2.getTimestamp());
-                                        value1.setVolume(value2.getVolume());
+        if (statusBefore == null) {
+            statusBefore = getStatusBefore(new String[] { serial }, first.getTimestamp() - 1);
+        }
 
-                                        value2.setTimestamp(timestamp);
-                                        value2.setVolume(Bytes.toFloat(entry.getValue()));
-                                    } else if (value1.getTimestamp() < timestamp) {
-                                        value1.setTimestamp(timestamp);
-                                        value1.setVolume(Bytes.toFloat(entry.getValue()));
-                                    }
-                                }
-                            }
-                            if (valueCount == 2) {
-                                stopScanner = true;
-                                break;
+        if ((statusBefore != null) && (!statusBefore.getDevices().isEmpty())) {
+            float diff = first.getVolume() - statusBefore.getDevices().get(0).getVolume();
+            if ((first.getDifference() == null) || (diff != first.getDifference())) {
+                first.setDifference(diff);
+                stats.update();
+            }
+        } else if (first.getDifference() == null) {
+            // Callers may leave the difference of the first reading unset and
+            // rely on this method for computing it
+            first.setDifference(0f);
+        }
+
+        if ((statusAfter != null) && (!statusAfter.getDevices().isEmpty())) {
+            // Re-insert the next data point
+            WaterMeterMeasurement after = new WaterMeterMeasurement();
+            after.setVolume(statusAfter.getDevices().get(0).getVolume());
+            after.setDifference(statusAfter.getDevices().get(0).getVolume()  - last.getVolume());
+            after.setTimestamp(statusAfter.getDevices().get(0).getTimestamp());
+
+            data.getMeasurements().add(after);
+            stats.create();
+        }
+
+        // Update all intermediate readings
+        for (int i = 1, count = data.getMeasurements().size(); i < count; i++) {
+            float diff = data.getMeasurements().get(i).getVolume() - data.getMeasurements().get(i - 1).getVolume();
+            if ((data.getMeasurements().get(i).getDifference() == null) || (diff != data.getMeasurements().get(i).getDifference())) {
+                data.getMeasurements().get(i).setDifference(diff);
+                stats.update();
+            }
+        }
+
+        // The last reading is the most recent one only if no later reading exists
+        if (((statusAfter != null) && (!statusAfter.getDevices().isEmpty())) || (last.getVolume() < 0)) {
+            return result;
+        }
+
+        WaterMeterStatus status = new WaterMeterStatus(serial);
+        status.setTimestamp(last.getTimestamp());
+        status.setVolume(last.getVolume());
+        if ((data.getMeasurements().size() > 1) || ((statusBefore != null) && (!statusBefore.getDevices().isEmpty()))) {
+            status.setVariation(last.getDifference());
+        } else {
+            status.setVariation(0);
+        }
+
+        result.status = status;
+
+        return result;
+    }
+
+    /**
+     * Result of synchronizing new readings with the readings stored in HBase.
+     */
+    private static class Synchronization {
+
+        /**
+         * The status of the meter after storing the readings or null if a
+         * more recent reading is already stored.
+         */
+        WaterMeterStatus status;
+
+        /**
+         * The timestamp of the most recent reading stored before the new
+         * readings or {@link Long#MIN_VALUE} if no reading exists.
+         */
+        long latestTimestamp = Long.MIN_VALUE;
+
+    }
+
+    /**
+     * Updates the cached status of a smart water meter after storing readings.
+     *
+     * @param serial the smart water meter unique serial number.
+     * @param status the most recent reading or null if it is unknown.
+     */
+    private void updateStatus(String serial, WaterMeterStatus status) {
+        if (status == null) {
+            statusCache.invalidate(Collections.singletonList(serial));
+        } else {
+            statusCache.update(serial, status);
+        }
+    }
+
+    /**
+     * Creates a {@link Put} operation for a single smart water meter reading.
+     *
+     * @param key the row key and the column qualifier prefix.
+     * @param columnFamily the column family.
+     * @param serial the smart water meter unique serial number.
+     * @param m the smart water meter reading.
+     * @return the new {@link Put} operation.
+     * @throws Exception if the column qualifiers cannot be created.
+     */
+    private Put createPut(RowKeyQualifierPrefix key, byte[] columnFamily, String serial, WaterMeterMeasurement m) throws Exception {
+        Put p = new Put(key.rowKey);
+
+        byte[] column = concatenate(key.qualifierPrefix, appendLength(Bytes.toBytes("v")));
+        p.addColumn(columnFamily, column, Bytes.toBytes(m.getVolume()));
+
+        column = concatenate(key.qualifierPrefix, appendLength(Bytes.toBytes("d")));
+        p.addColumn(columnFamily, column, Bytes.toBytes(m.getDifference()));
+
+        column = concatenate(key.qualifierPrefix, appendLength(Bytes.toBytes("s")));
+        p.addColumn(columnFamily, column, serial.getBytes(StandardCharsets.UTF_8));
+
+        return p;
+    }
+
+    /**
+     * Stores smart water meter data indexed by serial number.
+     *
+     * @param serial the smart water meter data unique serial number.
+     * @param data a collection of {@link WaterMeterMeasurement}.
+     */
+    private void storeDataByMeter(String serial, WaterMeterMeasurementCollection data) {
+        Table table = null;
+        try {
+            table = connection.getTable(EnumHBaseTable.SWM_USER.getValue());
+
+            MessageDigest md = MessageDigest.getInstance("MD5");
+
+            byte[] columnFamily = Bytes.toBytes(EnumHBaseColumnFamily.DEFAULT.getValue());
+
+            byte[] meterSerial = serial.getBytes("UTF-8");
+            byte[] meterSerialHash = md.digest(meterSerial);
+
+            for (int i = 0; i < data.getMeasurements().size(); i++) {
+                WaterMeterMeasurement m = data.getMeasurements().get(i);
+
+                if (m.getVolume() < 0) {
+                    continue;
+                }
+
+                RowKeyQualifierPrefix key = createMeterRowKeyQualifierPrefix(meterSerialHash, m.getTimestamp());
+
+                table.put(createPut(key, columnFamily, serial, m));
+            }
+        } catch (Exception ex) {
+            throw wrapApplicationException(ex, SharedErrorCode.UNKNOWN);
+        } finally {
+            try {
+                if (table != null) {
+                    table.close();
+                    table = null;
+                }
+            } catch (Exception ex) {
+                logger.error(getMessage(SharedErrorCode.RESOURCE_RELEASE_FAILED), ex);
+            }
+        }
+    }
+
+    /**
+     * Stores smart water meter data partitioned by time.
+     *
+     * @param serial the smart water meter data unique serial number.
+     * @param data a collection of {@link WaterMeterMeasurement}.
+     */
+    private void storeDataByTime(String serial, WaterMeterMeasurementCollection data) {
+        Table table = null;
+
+        try {
+            table = connection.getTable(EnumHBaseTable.SWM_TIME.getValue());
+
+            MessageDigest md = MessageDigest.getInstance("MD5");
+
+            byte[] columnFamily = Bytes.toBytes(EnumHBaseColumnFamily.DEFAULT.getValue());
+
+            byte[] meterSerial = serial.getBytes("UTF-8");
+            byte[] meterSerialHash = md.digest(meterSerial);
+
+            for (int i = 0; i < data.getMeasurements().size(); i++) {
+                WaterMeterMeasurement m = data.getMeasurements().get(i);
+
+                if (m.getVolume() < 0) {
+                    continue;
+                }
+
+                RowKeyQualifierPrefix key = createPartitionedRowKeyQualifierPrefix(meterSerialHash, m.getTimestamp());
+
+                table.put(createPut(key, columnFamily, serial, m));
+            }
+        } catch (Exception ex) {
+            throw wrapApplicationException(ex, SharedErrorCode.UNKNOWN);
+        } finally {
+            try {
+                if (table != null) {
+                    table.close();
+                    table = null;
+                }
+            } catch (Exception ex) {
+                logger.error(getMessage(SharedErrorCode.RESOURCE_RELEASE_FAILED), ex);
+            }
+        }
+    }
+
+    /**
+     * Returns the current status for a set of smart water meters.
+     *
+     * @param serials the unique smart water meter serial numbers to search.
+     * @return a collection of {@link WaterMeterStatus}.
+     */
+    @Override
+    public WaterMeterStatusQueryResult getStatus(String serials[]) {
+        return getCachedStatus(serials);
+    }
+
+    /**
+     * Returns the most recent status for a set of smart water meters before the specified timestamp.
+     * The status is always read from HBase since it is used for computing differences.
+     *
+     * @param serials the unique smart water meter serial numbers to search.
+     * @param maxDateTime time interval upper limit.
+     * @return a collection of {@link WaterMeterStatus}.
+     */
+    @Override
+    public WaterMeterStatusQueryResult getStatusBefore(String serials[], long maxDateTime) {
+        return getStatus(serials, maxDateTime, true);
+    }
+
+    /**
+     * Returns the most recent status for a set of smart water meters after the specified timestamp.
+     * The status is always read from HBase since it is used for computing differences.
+     *
+     * @param serials the unique smart water meter serial numbers to search.
+     * @param minDateTime time interval upper limit.
+     * @return a collection of {@link WaterMeterStatus}.
+     */
+    @Override
+    public WaterMeterStatusQueryResult getStatusAfter(String serials[], long minDateTime) {
+        return getStatus(serials, minDateTime, false);
+    }
+
+    /**
+     * Returns statistics about the smart water meter status cache.
+     *
+     * @return the cache statistics.
+     */
+    @Override
+    public WaterMeterStatusCacheStatistics getStatusCacheStatistics() {
+        return statusCache.getStatistics();
+    }
+
+    /**
+     * Returns the current status for a set of smart water meters. Statuses
+     * are served from the cache when possible and the remaining meters are
+     * fetched from HBase and added to the cache.
+     *
+     * @param serials the unique smart water meter serial numbers to search.
+     * @return a collection of {@link WaterMeterStatus}.
+     */
+    private WaterMeterStatusQueryResult getCachedStatus(String serials[]) {
+        long timeThreshold = new DateTime(DateTimeZone.UTC).getMillis();
+
+        if (!statusCache.isEnabled()) {
+            return getStatus(serials, timeThreshold, true);
+        }
+
+        Map<String, WaterMeterStatus> statuses = new HashMap<String, WaterMeterStatus>();
+        List<String> missing = new ArrayList<String>();
+
+        for (String serial : serials) {
+            WaterMeterStatusCache.CachedStatus entry = statusCache.getLatest(serial);
+
+            if (entry == null) {
+                missing.add(serial);
+            } else if (entry.getStatus() != null) {
+                statuses.put(serial, entry.getStatus());
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            long generation = statusCache.getGeneration();
+
+            WaterMeterStatusQueryResult fetched = getStatus(missing.toArray(new String[missing.size()]), timeThreshold, true);
+            for (WaterMeterStatus status : fetched.getDevices()) {
+                statuses.put(status.getSerial(), status);
+            }
+
+            for (String serial : missing) {
+                statusCache.put(serial, statuses.get(serial), generation);
+            }
+        }
+
+        WaterMeterStatusQueryResult data = new WaterMeterStatusQueryResult();
+        for (String serial : serials) {
+            WaterMeterStatus status = statuses.get(serial);
+            if (status != null) {
+                data.getDevices().add(status);
+            }
+        }
+
+        return data;
+    }
+
+    /**
+     * Returns the most recent status for a set of smart water meters
+     * before/after the specified timestamp. If parallel scans are enabled and
+     * the number of meters exceeds the batch size, meters are split into
+     * batches that are looked up concurrently. The order of the results
+     * follows the order of the serial numbers.
+     *
+     * @param serials the unique smart water meter serial numbers to search.
+     * @param timeThreshold time interval upper limit.
+     * @param descending true if true, the most recent status before the timestamp is returned; Otherwise, the most recent one after is returned.
+     * @return a collection of {@link WaterMeterStatus}.
+     */
+    private WaterMeterStatusQueryResult getStatus(final String serials[], final long timeThreshold, final boolean descending) {
+        WaterMeterStatusQueryResult data = new WaterMeterStatusQueryResult();
+
+        try {
+            int batchSize = Math.max(1, statusBatchSize);
+
+            if ((!scanExecutor.isEnabled()) || (serials.length <= batchSize)) {
+                getStatus(serials, 0, serials.length, timeThreshold, descending, data.getDevices());
+
+                return data;
+            }
+
+            List<Future<List<WaterMeterStatus>>> futures = new ArrayList<Future<List<WaterMeterStatus>>>();
+
+            try {
+                for (int start = 0; start < serials.length; start += batchSize) {
+                    final int from = start;
+                    final int to = Math.min(start + batchSize, serials.length);
+
+                    futures.add(submitScan(new Callable<List<WaterMeterStatus>>() {
+
+                        @Override
+                        public List<WaterMeterStatus> call() throws Exception {
+                            List<WaterMeterStatus> result = new ArrayList<WaterMeterStatus>();
+
+                            getStatus(serials, from, to, timeThreshold, descending, result);
+
+                            return result;
+                        }
+                    }));
+                }
+
+                for (Future<List<WaterMeterStatus>> future : futures) {
+                    data.getDevices().addAll(future.get());
+                }
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof Exception) {
+                    throw (Exception) ex.getCause();
+                }
+                throw ex;
+            } finally {
+                for (Future<List<WaterMeterStatus>> future : futures) {
+                    future.cancel(true);
+                }
+            }
+
+            return data;
+        } catch (Exception ex) {
+            throw wrapApplicationException(ex, SharedErrorCode.UNKNOWN);
+        }
+    }
+
+    /**
+     * Returns the most recent status for a range of smart water meters
+     * before/after the specified timestamp. Every meter is looked up with a
+     * small scan that stops after the first two readings.
+     *
+     * @param serials the unique smart water meter serial numbers to search.
+     * @param from the index of the first serial number.
+     * @param to the index after the last serial number.
+     * @param timeThreshold time interval upper limit.
+     * @param descending true if true, the most recent status before the timestamp is returned; Otherwise, the most recent one after is returned.
+     * @param result the list to append the statuses to.
+     * @throws Exception if an I/O error occurs.
+     */
+    private void getStatus(String serials[], int from, int to, long timeThreshold, boolean descending, List<WaterMeterStatus> result) throws Exception {
+        Table table = null;
+        ResultScanner scanner = null;
+
+        try {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+
+            // Table instances are not thread safe
+            table = connection.getTable(EnumHBaseTable.SWM_USER.getValue());
+            byte[] columnFamily = Bytes.toBytes(EnumHBaseColumnFamily.DEFAULT.getValue());
+
+            for (int deviceIndex = from; deviceIndex < to; deviceIndex++) {
+                byte[] meterSerial = serials[deviceIndex].getBytes("UTF-8");
+                byte[] meterSerialHash = md.digest(meterSerial);
+
+                Scan scan = new Scan();
+                scan.addFamily(columnFamily);
+                scan.setStartRow(createMeterRowKey(meterSerialHash, timeThreshold));
+
+                if(descending) {
+                    scan.setStopRow(calculateTheClosestNextRowKeyForPrefix(meterSerialHash));
+                } else {
+                    scan.setReversed(true);
+                }
+                scan.setCaching(2);
+                scan.setSmall(true);
+                scanner = table.getScanner(scan);
+
+                int valueCount = 0;
+                boolean stopScanner = false;
+
+                WaterMeterStatus status = new WaterMeterStatus(serials[deviceIndex]);
+                WaterMeterDataPoint value1 = new WaterMeterDataPoint();
+                WaterMeterDataPoint value2 = new WaterMeterDataPoint();
+
+                for (Result r = scanner.next(); r != null; r = scanner.next()) {
+                    byte[] currentSerialHash = Arrays.copyOfRange(r.getRow(), 0, 16);
+                    if (!Arrays.equals(currentSerialHash, meterSerialHash)) {
+                        break;
+                    }
+
+                    long timeBucket = Bytes.toLong(Arrays.copyOfRange(r.getRow(), 16, 24));
+
+                    NavigableMap<byte[], byte[]> map = r.getFamilyMap(columnFamily);
+                    for (Entry<byte[], byte[]> entry : map.entrySet()) {
+                        short offset = Bytes.toShort(Arrays.copyOfRange(entry.getKey(), 0, 2));
+                        long timestamp = ((Long.MAX_VALUE / 1000) - (timeBucket + (long) offset)) * 1000L;
+
+                        if(descending) {
+                            if (timestamp <= timeThreshold) {
+                                int length = (int) Arrays.copyOfRange(entry.getKey(), 2, 3)[0];
+                                byte[] slice = Arrays.copyOfRange(entry.getKey(), 3, 3 + length);
+                                String columnQualifier = Bytes.toString(slice);
+
+                                if (columnQualifier.equals("v")) {
+                                    valueCount++;
+                                    if (value2.getTimestamp() < timestamp) {
+                                        value1.setTimestamp(value2.getTimestamp());
+                                        value1.setVolume(value2.getVolume());
+
+                                        value2.setTimestamp(timestamp);
+                                        value2.setVolume(Bytes.toFloat(entry.getValue()));
+                                    } else if (value1.getTimestamp() < timestamp) {
+                                        value1.setTimestamp(timestamp);
+                                        value1.setVolume(Bytes.toFloat(entry.getValue()));
+                                    }
+                                }
+                            }
+                            if (valueCount == 2) {
+                                stopScanner = true;
+                                break;
                             }
                         } else {
                             if (timestamp >= timeThreshold) {
@@ -373,6 +1113,10 @@ public class HBaseMeterDataRepository extends AbstractHBaseMeterDataRepository i
                         break;
                     }
                 }
+
+                scanner.close();
+                scanner = null;
+
                 switch (valueCount) {
                     case 0:
                         // No value found
@@ -382,19 +1126,16 @@ public class HBaseMeterDataRepository extends AbstractHBaseMeterDataRepository i
                         status.setVolume(value2.getVolume());
                         status.setVariation(0);
 
-                        data.getDevices().add(status);
+                        result.add(status);
+                        break;
                     default:
                         status.setTimestamp(value2.getTimestamp());
                         status.setVolume(value2.getVolume());
                         status.setVariation(value2.getVolume() - value1.getVolume());
 
-                        data.getDevices().add(status);
+                        result.add(status);
                 }
             }
-
-            return data;
-        } catch (Exception ex) {
-            throw wrapApplicationException(ex, SharedErrorCode.UNKNOWN);
         } finally {
             try {
                 if (scanner != null) {
@@ -476,227 +1217,686 @@ public class HBaseMeterDataRepository extends AbstractHBaseMeterDataRepository i
                                 query.getGranularity());
         }
 
-        DateTime queryEndDate = endDate;
+        DateTime queryEndDate = endDate;
+
+        DateTime maxDate = new DateTime(DateTimeZone.UTC);
+        if (maxDate.getMillis() < endDate.getMillis()) {
+            endDate = maxDate;
+        }
+
+        WaterMeterMeasurementQueryResult data = new WaterMeterMeasurementQueryResult();
+
+        try {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+
+            table = connection.getTable(EnumHBaseTable.SWM_USER.getValue());
+            byte[] columnFamily = Bytes.toBytes(EnumHBaseColumnFamily.DEFAULT.getValue());
+
+            for (int deviceIndex = 0; deviceIndex < serials.length; deviceIndex++) {
+                byte[] meterSerial = serials[deviceIndex].getBytes("UTF-8");
+                byte[] meterSerialHash = md.digest(meterSerial);
+
+                Scan scan = new Scan();
+                scan.addFamily(columnFamily);
+
+                scan.setStartRow(createMeterRowKey(meterSerialHash, endDate.getMillis()));
+
+                scan.setStopRow(calculateTheClosestNextRowKeyForPrefix(createMeterRowKey(meterSerialHash, startDate.getMillis())));
+
+                scanner = table.getScanner(scan);
+
+                WaterMeterDataSeries series = new WaterMeterDataSeries(
+                    query.getDeviceKey()[deviceIndex],
+                    serials[deviceIndex],
+                    startDate.getMillis(),
+                    queryEndDate.getMillis(),
+                    query.getGranularity());
+
+                data.getSeries().add(series);
+
+                for (Result r = scanner.next(); r != null; r = scanner.next()) {
+                    NavigableMap<byte[], byte[]> map = r.getFamilyMap(columnFamily);
+
+                    long timeBucket = Bytes.toLong(Arrays.copyOfRange(r.getRow(), 16, 24));
+
+                    Float volume = null, difference = null;
+
+                    for (Entry<byte[], byte[]> entry : map.entrySet()) {
+                        short offset = Bytes.toShort(Arrays.copyOfRange(entry.getKey(), 0, 2));
+                        long timestamp = ((Long.MAX_VALUE / 1000L) - (timeBucket + (long) offset)) * 1000L;
+
+                        if ((startDate.getMillis() <= timestamp) && (timestamp <= endDate.getMillis())) {
+                            int length = (int) Arrays.copyOfRange(entry.getKey(), 2, 3)[0];
+                            byte[] slice = Arrays.copyOfRange(entry.getKey(), 3, 3 + length);
+
+                            String columnQualifier = Bytes.toString(slice);
+                            if (columnQualifier.equals("v")) {
+                                volume = Bytes.toFloat(entry.getValue());
+                            }
+                            if (columnQualifier.equals("d")) {
+                                difference = Bytes.toFloat(entry.getValue());
+                            }
+
+                            if ((volume != null) && (difference != null)) {
+                                series.add(timestamp, volume, difference, timezone);
+
+                                volume = null;
+                                difference = null;
+                            }
+                        }
+                    }
+                }
+
+                series.sort();
+            }
+
+            return data;
+        } catch (Exception ex) {
+            throw wrapApplicationException(ex, SharedErrorCode.UNKNOWN);
+        } finally {
+            try {
+                if (scanner != null) {
+                    scanner.close();
+                    scanner = null;
+                }
+                if (table != null) {
+                    table.close();
+                    table = null;
+                }
+            } catch (Exception ex) {
+                logger.error(getMessage(SharedErrorCode.RESOURCE_RELEASE_FAILED), ex);
+            }
+        }
+    }
+
+    /**
+     * Executes a query for smart water meter data.
+     *
+     * @param query the query for filtering data.
+     * @return a collection of {@link GroupDataSeries}.
+     * @throws ApplicationException if an error occurs or query validation fails.
+     */
+    @Override
+    public ArrayList<GroupDataSeries> query(ExpandedDataQuery query) throws ApplicationException {
+        ArrayList<GroupDataSeries> result = createSeries(query);
+
+        try {
+            DateTime[] interval = alignInterval(query.getTimezone(), query.getStartDateTime(), query.getEndDateTime(), query.getGranularity());
+
+            DateTime startDate = interval[0];
+            DateTime endDate = interval[1];
+
+            QueryPlanInfo plan = createQueryPlan(query, startDate.getMillis(), endDate.getMillis());
+            query.getPlans().add(plan);
+
+            switch (plan.getPlan()) {
+                case DEVICE_PREFIX_SCAN:
+                    scanByMeter(query, startDate.getMillis(), endDate.getMillis(), result);
+                    break;
+                default:
+                    scanPartitions(EnumHBaseTable.SWM_TIME.getValue(),
+                                   new MeterPartitionScan(query, startDate.getMillis(), endDate.getMillis()),
+                                   result,
+                                   query.getPartitionScans());
+                    break;
+            }
+        } catch (Exception ex) {
+            throw wrapApplicationException(ex, SharedErrorCode.UNKNOWN);
+        }
+
+        // Post process results
+        int filterIndex = 0;
+        for (final ExpandedPopulationFilter filter : query.getGroups()) {
+            flatProjectSeries(query, filter, result.get(filterIndex));
+            filterIndex++;
+        }
+
+        cleanSeries(query, result);
+
+        return result;
+    }
+
+    /**
+     * Extends a time interval to the boundaries of the time buckets of the
+     * given granularity.
+     *
+     * @param timezone the time zone.
+     * @param startDateTime the interval start timestamp.
+     * @param endDateTime the interval end timestamp.
+     * @param granularity the time bucket size.
+     * @return the aligned interval start and end.
+     * @throws ApplicationException if the granularity is not supported.
+     */
+    private DateTime[] alignInterval(DateTimeZone timezone, long startDateTime, long endDateTime, EnumTimeAggregation granularity) throws ApplicationException {
+        DateTime startDate = new DateTime(startDateTime, timezone);
+        DateTime endDate = new DateTime(endDateTime, timezone);
+
+        switch (granularity) {
+            case HOUR:
+                startDate = new DateTime(startDate.getYear(), startDate.getMonthOfYear(),
+                                startDate.getDayOfMonth(), startDate.getHourOfDay(), 0, 0, timezone);
+                endDate = new DateTime(endDate.getYear(), endDate.getMonthOfYear(), endDate.getDayOfMonth(),
+                                endDate.getHourOfDay(), 59, 59, timezone);
+                break;
+            case DAY:
+                startDate = new DateTime(startDate.getYear(), startDate.getMonthOfYear(),
+                                startDate.getDayOfMonth(), 0, 0, 0, timezone);
+                endDate = new DateTime(endDate.getYear(), endDate.getMonthOfYear(), endDate.getDayOfMonth(), 23,
+                                59, 59, timezone);
+                break;
+            case WEEK:
+                DateTime monday = startDate.withDayOfWeek(DateTimeConstants.MONDAY);
+                DateTime sunday = endDate.withDayOfWeek(DateTimeConstants.SUNDAY);
+                startDate = new DateTime(monday.getYear(), monday.getMonthOfYear(), monday.getDayOfMonth(), 0, 0,
+                                0, timezone);
+                endDate = new DateTime(sunday.getYear(), sunday.getMonthOfYear(), sunday.getDayOfMonth(), 23, 59,
+                                59, timezone);
+                break;
+            case MONTH:
+                startDate = new DateTime(startDate.getYear(), startDate.getMonthOfYear(), 1, 0, 0, 0,
+                                timezone);
+                endDate = new DateTime(endDate.getYear(), endDate.getMonthOfYear(), endDate.dayOfMonth()
+                                .getMaximumValue(), 23, 59, 59, timezone);
+                break;
+            case YEAR:
+                startDate = new DateTime(startDate.getYear(), 1, 1, 0, 0, 0, timezone);
+                endDate = new DateTime(endDate.getYear(), 12, 31, 23, 59, 59, timezone);
+                break;
+            default:
+                throw createApplicationException(DataErrorCode.TIME_GRANULARITY_NOT_SUPPORTED).set("level", granularity);
+        }
+
+        return new DateTime[] { startDate, endDate };
+    }
+
+    /**
+     * Creates an empty series for every population group of a query.
+     *
+     * @param query the query.
+     * @return a collection of {@link GroupDataSeries}.
+     */
+    private ArrayList<GroupDataSeries> createSeries(ExpandedDataQuery query) {
+        ArrayList<GroupDataSeries> result = new ArrayList<GroupDataSeries>();
+        for (ExpandedPopulationFilter filter : query.getGroups()) {
+            result.add(new GroupDataSeries(filter.getLabel(), filter.getSize(), filter.getAreaId()));
+        }
+        return result;
+    }
+
+    /**
+     * Selects the cheapest strategy for reading the data of a query. The cost
+     * of each strategy is estimated as the number of rows read plus a fixed
+     * cost for every scanner opened. Scanning the meter ordered table
+     * requires a scanner per meter that reads only the rows of the meter. The
+     * time ordered table requires a scanner per partition that reads the rows
+     * of all meters in the query time interval.
+     *
+     * @param query the query.
+     * @param startDateTime the query start timestamp.
+     * @param endDateTime the query end timestamp.
+     * @return the selected plan.
+     */
+    private QueryPlanInfo createQueryPlan(ExpandedDataQuery query, long startDateTime, long endDateTime) {
+        return createQueryPlan(getSerialHashes(query).size(), startDateTime, endDateTime);
+    }
+
+    /**
+     * Selects the cheapest strategy for reading the data of a population of
+     * meters.
+     *
+     * @param population the number of distinct meters.
+     * @param startDateTime the query start timestamp.
+     * @param endDateTime the query end timestamp.
+     * @return the selected plan.
+     */
+    private QueryPlanInfo createQueryPlan(int population, long startDateTime, long endDateTime) {
+        long timeBuckets = ((endDateTime - startDateTime) / (interval.getValue() * 1000L)) + 1;
+
+        long deviceScanCost = population * (plannerSeekCost + timeBuckets);
+        long timeScanCost = (timePartitions * plannerSeekCost) + (timeBuckets * Math.max(plannerMeterCount, population));
+
+        EnumQueryPlan plan = EnumQueryPlan.TIME_PARTITION_SCAN;
+        if ((plannerEnabled) && (deviceScanCost < timeScanCost)) {
+            plan = EnumQueryPlan.DEVICE_PREFIX_SCAN;
+        }
+
+        return new QueryPlanInfo((plan == EnumQueryPlan.DEVICE_PREFIX_SCAN ? EnumHBaseTable.SWM_USER.getValue()
+                                                                           : EnumHBaseTable.SWM_TIME.getValue()),
+                                 plan,
+                                 population,
+                                 timeBuckets,
+                                 deviceScanCost,
+                                 timeScanCost);
+    }
+
+    /**
+     * Returns the distinct serial number hashes of all population groups of a
+     * query.
+     *
+     * @param query the query.
+     * @return a collection of MD5 hashes.
+     */
+    private Collection<byte[]> getSerialHashes(ExpandedDataQuery query) {
+        Map<ByteBuffer, byte[]> hashes = new LinkedHashMap<ByteBuffer, byte[]>();
+
+        for (ExpandedPopulationFilter filter : query.getGroups()) {
+            for (byte[] hash : filter.getSerialHashes()) {
+                if (hash != null) {
+                    hashes.put(ByteBuffer.wrap(hash), hash);
+                }
+            }
+        }
+
+        return hashes.values();
+    }
+
+    /**
+     * Executes a row prefix scan on the meter ordered smart water meter data
+     * table for every meter of a query's population.
+     *
+     * @param query the query.
+     * @param startDateTime the query start timestamp.
+     * @param endDateTime the query end timestamp.
+     * @param result the series to update.
+     * @throws Exception if a scan fails.
+     */
+    private void scanByMeter(ExpandedDataQuery query,
+                             long startDateTime,
+                             long endDateTime,
+                             ArrayList<GroupDataSeries> result) throws Exception {
+        Table table = null;
+        ResultScanner scanner = null;
+
+        try {
+            table = connection.getTable(EnumHBaseTable.SWM_USER.getValue());
+
+            byte[] columnFamily = Bytes.toBytes(EnumHBaseColumnFamily.DEFAULT.getValue());
+
+            for (byte[] serialHash : getSerialHashes(query)) {
+                Scan scan = new Scan();
+                scan.setCaching(scanCacheSize);
+                scan.addFamily(columnFamily);
+
+                scan.setStartRow(createMeterRowKey(serialHash, endDateTime));
+                scan.setStopRow(calculateTheClosestNextRowKeyForPrefix(createMeterRowKey(serialHash, startDateTime)));
+
+                scanner = table.getScanner(scan);
+
+                for (Result r = scanner.next(); r != null; r = scanner.next()) {
+                    Cell[] cells = r.rawCells();
+                    if ((cells == null) || (cells.length == 0)) {
+                        continue;
+                    }
+
+                    long timeBucket = Bytes.toLong(cells[0].getRowArray(), cells[0].getRowOffset() + 16);
+
+                    decodeRow(query, result, cells, columnFamily, timeBucket, serialHash, 0, startDateTime, endDateTime);
+                }
+
+                scanner.close();
+                scanner = null;
+            }
+        } finally {
+            try {
+                if (scanner != null) {
+                    scanner.close();
+                    scanner = null;
+                }
+                if (table != null) {
+                    table.close();
+                    table = null;
+                }
+            } catch (Exception ex) {
+                logger.error(getMessage(SharedErrorCode.RESOURCE_RELEASE_FAILED), ex);
+            }
+        }
+    }
+
+    /**
+     * Scans a single partition of the time ordered smart water meter data
+     * table for the readings of a query's population.
+     */
+    private class MeterPartitionScan extends PartitionScan<ArrayList<GroupDataSeries>> {
 
-        DateTime maxDate = new DateTime(DateTimeZone.UTC);
-        if (maxDate.getMillis() < endDate.getMillis()) {
-            endDate = maxDate;
-        }
+        private final ExpandedDataQuery query;
 
-        WaterMeterMeasurementQueryResult data = new WaterMeterMeasurementQueryResult();
+        private final long startDateTime;
 
-        try {
-            MessageDigest md = MessageDigest.getInstance("MD5");
+        private final long endDateTime;
 
-            table = connection.getTable(EnumHBaseTable.SWM_USER.getValue());
-            byte[] columnFamily = Bytes.toBytes(EnumHBaseColumnFamily.DEFAULT.getValue());
+        private final Collection<byte[]> serialHashes;
 
-            for (int deviceIndex = 0; deviceIndex < serials.length; deviceIndex++) {
-                byte[] meterSerial = serials[deviceIndex].getBytes("UTF-8");
-                byte[] meterSerialHash = md.digest(meterSerial);
+        public MeterPartitionScan(ExpandedDataQuery query, long startDateTime, long endDateTime) {
+            this.query = query;
+            this.startDateTime = startDateTime;
+            this.endDateTime = endDateTime;
+            this.serialHashes = getSerialHashes(query);
+        }
+
+        @Override
+        public ArrayList<GroupDataSeries> createPartialResult() {
+            return createSeries(query);
+        }
+
+        @Override
+        public long scan(Table table, short partition, ArrayList<GroupDataSeries> result) throws Exception {
+            ResultScanner scanner = null;
+            long rows = 0;
+
+            try {
+                byte[] columnFamily = Bytes.toBytes(EnumHBaseColumnFamily.DEFAULT.getValue());
 
                 Scan scan = new Scan();
+                scan.setCaching(scanCacheSize);
                 scan.addFamily(columnFamily);
 
-                scan.setStartRow(createMeterRowKey(meterSerialHash, endDate.getMillis()));
+                // Filter rows by smart water meter serial number hash on the region servers
+                Filter filter = createRowKeyHashFilter(serialHashes, 10);
+                if (filter != null) {
+                    scan.setFilter(filter);
+                }
 
-                scan.setStopRow(calculateTheClosestNextRowKeyForPrefix(createMeterRowKey(meterSerialHash, startDate.getMillis())));
+                byte[] rowKey = createPartitionedRowKey(partition, endDateTime);
+                scan.setStartRow(rowKey);
+
+                rowKey = createPartitionedRowKey(partition, startDateTime);
+                scan.setStopRow(calculateTheClosestNextRowKeyForPrefix(rowKey));
 
                 scanner = table.getScanner(scan);
 
-                WaterMeterDataSeries series = new WaterMeterDataSeries(
-                    query.getDeviceKey()[deviceIndex],
-                    serials[deviceIndex],
-                    startDate.getMillis(),
-                    queryEndDate.getMillis(),
-                    query.getGranularity());
+                for (Result r = scanner.next(); r != null; r = scanner.next()) {
+                    rows++;
 
-                data.getSeries().add(series);
+                    Cell[] cells = r.rawCells();
+                    if ((cells == null) || (cells.length == 0)) {
+                        continue;
+                    }
 
-                for (Result r = scanner.next(); r != null; r = scanner.next()) {
-                    NavigableMap<byte[], byte[]> map = r.getFamilyMap(columnFamily);
+                    // Read the time bucket and serial hash in place from the row key
+                    byte[] row = cells[0].getRowArray();
+                    int rowOffset = cells[0].getRowOffset();
 
-                    long timeBucket = Bytes.toLong(Arrays.copyOfRange(r.getRow(), 16, 24));
+                    long timeBucket = Bytes.toLong(row, rowOffset + 2);
 
-                    Float volume = null, difference = null;
+                    decodeRow(query, result, cells, columnFamily, timeBucket, row, rowOffset + 10, startDateTime, endDateTime);
+                }
+            } finally {
+                try {
+                    if (scanner != null) {
+                        scanner.close();
+                        scanner = null;
+                    }
+                } catch (Exception ex) {
+                    logger.error(getMessage(SharedErrorCode.RESOURCE_RELEASE_FAILED), ex);
+                }
+            }
 
-                    for (Entry<byte[], byte[]> entry : map.entrySet()) {
-                        short offset = Bytes.toShort(Arrays.copyOfRange(entry.getKey(), 0, 2));
-                        long timestamp = ((Long.MAX_VALUE / 1000L) - (timeBucket + (long) offset)) * 1000L;
+            return rows;
+        }
 
-                        if ((startDate.getMillis() <= timestamp) && (timestamp <= endDate.getMillis())) {
-                            int length = (int) Arrays.copyOfRange(entry.getKey(), 2, 3)[0];
-                            byte[] slice = Arrays.copyOfRange(entry.getKey(), 3, 3 + length);
+        @Override
+        public void merge(ArrayList<GroupDataSeries> result, ArrayList<GroupDataSeries> partial) {
+            for (int i = 0, count = result.size(); i < count; i++) {
+                result.get(i).merge(partial.get(i));
+            }
+        }
+    }
 
-                            String columnQualifier = Bytes.toString(slice);
-                            if (columnQualifier.equals("v")) {
-                                volume = Bytes.toFloat(entry.getValue());
-                            }
-                            if (columnQualifier.equals("d")) {
-                                difference = Bytes.toFloat(entry.getValue());
-                            }
+    /**
+     * Decodes the readings of a single smart water meter data row and adds
+     * them to the series of every population group that contains the meter.
+     * Qualifiers and values are read in place from the cell backing arrays
+     * in order to avoid allocating objects for every cell.
+     *
+     * @param query the query.
+     * @param result the series to update.
+     * @param cells the row cells sorted by qualifier.
+     * @param columnFamily the column family to decode.
+     * @param timeBucket the row time bucket.
+     * @param serialHash array containing the MD5 hash of the meter serial number.
+     * @param serialHashOffset the offset of the hash in the array.
+     * @param startDateTime the query start timestamp.
+     * @param endDateTime the query end timestamp.
+     */
+    private void decodeRow(ExpandedDataQuery query,
+                           ArrayList<GroupDataSeries> result,
+                           Cell[] cells,
+                           byte[] columnFamily,
+                           long timeBucket,
+                           byte[] serialHash,
+                           int serialHashOffset,
+                           long startDateTime,
+                           long endDateTime) {
+        float volume = 0, difference = 0;
+        boolean hasVolume = false, hasDifference = false;
+        long lastTimestamp = 0;
+
+        for (Cell cell : cells) {
+            if (!CellUtil.matchingFamily(cell, columnFamily)) {
+                continue;
+            }
 
-                            if ((volume != null) && (difference != null)) {
-                                series.add(timestamp, volume, difference, timezone);
+            byte[] qualifier = cell.getQualifierArray();
+            int qualifierOffset = cell.getQualifierOffset();
+
+            short offset = Bytes.toShort(qualifier, qualifierOffset);
+            long timestamp = ((Long.MAX_VALUE / 1000) - (timeBucket + (long) offset)) * 1000L;
+
+            if ((startDateTime <= timestamp) && (timestamp <= endDateTime)) {
+                // Column qualifier: [offset (2 bytes)][tag length (1 byte)][tag]
+                if (qualifier[qualifierOffset + 2] == 1) {
+                    switch (qualifier[qualifierOffset + 3]) {
+                        case 'v':
+                            volume = Bytes.toFloat(cell.getValueArray(), cell.getValueOffset());
+                            hasVolume = true;
+                            break;
+                        case 'd':
+                            difference = Bytes.toFloat(cell.getValueArray(), cell.getValueOffset());
+                            hasDifference = true;
+                            break;
+                        default:
+                            // Ignore
+                            break;
+                    }
+                }
+
+                if (lastTimestamp == timestamp) {
+                    if ((hasDifference) && (hasVolume)) {
+                        int filterIndex = 0;
+                        for (ExpandedPopulationFilter filter : query.getGroups()) {
+                            GroupDataSeries series = result.get(filterIndex);
+
+                            int index = filter.indexOfSerialHash(serialHash, serialHashOffset);
+                            if (index >= 0) {
+                                series.addMeterRankingDataPoint(
+                                    query.getGranularity(),
+                                    filter.getUserKeys().get(index),
+                                    filter.getLabels().get(index),
+                                    timestamp,
+                                    difference,
+                                    volume,
+                                    query.getMetrics(),
+                                    query.getTimezone());
 
-                                volume = null;
-                                difference = null;
                             }
+
+                            filterIndex++;
                         }
+                        hasVolume = hasDifference = false;
                     }
+                } else {
+                    lastTimestamp = timestamp;
                 }
-
-                series.sort();
             }
+        }
+    }
 
-            return data;
-        } catch (Exception ex) {
-            throw wrapApplicationException(ex, SharedErrorCode.UNKNOWN);
-        } finally {
-            try {
-                if (scanner != null) {
-                    scanner.close();
-                    scanner = null;
+    /**
+     * Computes the consumption of every meter of a population per time bucket
+     * by reading the smart water meter data once. The meter or the time ordered
+     * table is scanned depending on the estimated cost, exactly as for
+     * {@link #query(ExpandedDataQuery)}, but readings are accumulated directly to
+     * a dense matrix instead of data point objects.
+     *
+     * @param serials the meter serial numbers. Null entries are ignored.
+     * @param timezone the time zone used for computing time buckets.
+     * @param startDateTime the interval start timestamp.
+     * @param endDateTime the interval end timestamp.
+     * @param granularity the time bucket size.
+     * @return the consumption matrix.
+     * @throws ApplicationException if an error occurs or the granularity is not supported.
+     */
+    @Override
+    public MeterUserAggregateMatrix aggregatePerUser(String[] serials,
+                                                     DateTimeZone timezone,
+                                                     long startDateTime,
+                                                     long endDateTime,
+                                                     EnumTimeAggregation granularity) throws ApplicationException {
+        try {
+            DateTime[] interval = alignInterval(timezone, startDateTime, endDateTime, granularity);
+
+            MeterUserAggregateMatrix result = new MeterUserAggregateMatrix(serials.length,
+                                                                           getBucketTimestamps(interval[0], interval[1], granularity));
+
+            // Map every distinct serial number hash to the matrix rows of the meter
+            MessageDigest md = MessageDigest.getInstance("MD5");
+
+            Map<ByteBuffer, int[]> rows = new LinkedHashMap<ByteBuffer, int[]>();
+            for (int i = 0; i < serials.length; i++) {
+                if (StringUtils.isBlank(serials[i])) {
+                    continue;
                 }
-                if (table != null) {
-                    table.close();
-                    table = null;
+
+                ByteBuffer hash = ByteBuffer.wrap(md.digest(serials[i].getBytes(StandardCharsets.UTF_8)));
+
+                int[] existing = rows.get(hash);
+                if (existing == null) {
+                    rows.put(hash, new int[] { i });
+                } else {
+                    int[] indexes = Arrays.copyOf(existing, existing.length + 1);
+                    indexes[existing.length] = i;
+                    rows.put(hash, indexes);
                 }
-            } catch (Exception ex) {
-                logger.error(getMessage(SharedErrorCode.RESOURCE_RELEASE_FAILED), ex);
             }
+
+            if (rows.isEmpty()) {
+                return result;
+            }
+
+            long start = interval[0].getMillis();
+            long end = interval[1].getMillis();
+
+            QueryPlanInfo plan = createQueryPlan(rows.size(), start, end);
+
+            switch (plan.getPlan()) {
+                case DEVICE_PREFIX_SCAN:
+                    scanByMeter(rows, start, end, result);
+                    break;
+                default:
+                    scanPartitions(EnumHBaseTable.SWM_TIME.getValue(),
+                                   new MatrixPartitionScan(rows, start, end, result),
+                                   result,
+                                   new ArrayList<PartitionScanInfo>());
+                    break;
+            }
+
+            return result;
+        } catch (ApplicationException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw wrapApplicationException(ex, SharedErrorCode.UNKNOWN);
         }
     }
 
     /**
-     * Executes a query for smart water meter data.
+     * Returns the start timestamp of every time bucket of an aligned interval.
      *
-     * @param query the query for filtering data.
-     * @return a collection of {@link GroupDataSeries}.
-     * @throws ApplicationException if an error occurs or query validation fails.
+     * @param start the aligned interval start.
+     * @param end the aligned interval end.
+     * @param granularity the time bucket size.
+     * @return the bucket start timestamps in ascending order.
      */
-    @Override
-    public ArrayList<GroupDataSeries> query(ExpandedDataQuery query) throws ApplicationException {
-        Table table = null;
-        ResultScanner scanner = null;
-
-        ArrayList<GroupDataSeries> result = new ArrayList<GroupDataSeries>();
-        for (ExpandedPopulationFilter filter : query.getGroups()) {
-            result.add(new GroupDataSeries(filter.getLabel(), filter.getSize(), filter.getAreaId()));
-        }
-        try {
-            table = connection.getTable(EnumHBaseTable.SWM_TIME.getValue());
-            byte[] columnFamily = Bytes.toBytes(EnumHBaseColumnFamily.DEFAULT.getValue());
+    private long[] getBucketTimestamps(DateTime start, DateTime end, EnumTimeAggregation granularity) {
+        List<Long> timestamps = new ArrayList<Long>();
 
-            DateTime startDate = new DateTime(query.getStartDateTime(), query.getTimezone());
-            DateTime endDate = new DateTime(query.getEndDateTime(), query.getTimezone());
+        for (DateTime bucket = start; !bucket.isAfter(end); ) {
+            timestamps.add(bucket.getMillis());
 
-            switch (query.getGranularity()) {
+            switch (granularity) {
                 case HOUR:
-                    startDate = new DateTime(startDate.getYear(), startDate.getMonthOfYear(),
-                                    startDate.getDayOfMonth(), startDate.getHourOfDay(), 0, 0, query.getTimezone());
-                    endDate = new DateTime(endDate.getYear(), endDate.getMonthOfYear(), endDate.getDayOfMonth(),
-                                    endDate.getHourOfDay(), 59, 59, query.getTimezone());
+                    bucket = bucket.plusHours(1);
                     break;
                 case DAY:
-                    startDate = new DateTime(startDate.getYear(), startDate.getMonthOfYear(),
-                                    startDate.getDayOfMonth(), 0, 0, 0, query.getTimezone());
-                    endDate = new DateTime(endDate.getYear(), endDate.getMonthOfYear(), endDate.getDayOfMonth(), 23,
-                                    59, 59, query.getTimezone());
+                    bucket = bucket.plusDays(1);
                     break;
                 case WEEK:
-                    DateTime monday = startDate.withDayOfWeek(DateTimeConstants.MONDAY);
-                    DateTime sunday = endDate.withDayOfWeek(DateTimeConstants.SUNDAY);
-                    startDate = new DateTime(monday.getYear(), monday.getMonthOfYear(), monday.getDayOfMonth(), 0, 0,
-                                    0, query.getTimezone());
-                    endDate = new DateTime(sunday.getYear(), sunday.getMonthOfYear(), sunday.getDayOfMonth(), 23, 59,
-                                    59, query.getTimezone());
+                    bucket = bucket.plusWeeks(1);
                     break;
                 case MONTH:
-                    startDate = new DateTime(startDate.getYear(), startDate.getMonthOfYear(), 1, 0, 0, 0,
-                                    query.getTimezone());
-                    endDate = new DateTime(endDate.getYear(), endDate.getMonthOfYear(), endDate.dayOfMonth()
-                                    .getMaximumValue(), 23, 59, 59, query.getTimezone());
-                    break;
-                case YEAR:
-                    startDate = new DateTime(startDate.getYear(), 1, 1, 0, 0, 0, query.getTimezone());
-                    endDate = new DateTime(endDate.getYear(), 12, 31, 23, 59, 59, query.getTimezone());
+                    bucket = bucket.plusMonths(1);
                     break;
                 default:
-                    throw createApplicationException(DataErrorCode.TIME_GRANULARITY_NOT_SUPPORTED).set("level", query.getGranularity());
+                    bucket = bucket.plusYears(1);
+                    break;
             }
+        }
 
-            for (short p = 0; p < timePartitions; p++) {
-                Scan scan = new Scan();
-                scan.setCaching(scanCacheSize);
-                scan.addFamily(columnFamily);
+        long[] result = new long[timestamps.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = timestamps.get(i);
+        }
+        return result;
+    }
 
-                byte[] rowKey = createPartitionedRowKey(p, endDate.getMillis());
-                scan.setStartRow(rowKey);
+    /**
+     * Executes a row prefix scan on the meter ordered smart water meter data
+     * table for every meter of a population and accumulates the readings to a
+     * consumption matrix.
+     *
+     * @param rows the matrix rows of every serial number hash.
+     * @param startDateTime the interval start timestamp.
+     * @param endDateTime the interval end timestamp.
+     * @param result the matrix to update.
+     * @throws Exception if a scan fails.
+     */
+    private void scanByMeter(Map<ByteBuffer, int[]> rows,
+                             long startDateTime,
+                             long endDateTime,
+                             MeterUserAggregateMatrix result) throws Exception {
+        Table table = null;
+        ResultScanner scanner = null;
 
-                rowKey = createPartitionedRowKey(p, startDate.getMillis());
-                scan.setStopRow(calculateTheClosestNextRowKeyForPrefix(rowKey));
+        try {
+            table = connection.getTable(EnumHBaseTable.SWM_USER.getValue());
 
-                scanner = table.getScanner(scan);
+            byte[] columnFamily = Bytes.toBytes(EnumHBaseColumnFamily.DEFAULT.getValue());
 
-                for (Result r = scanner.next(); r != null; r = scanner.next()) {
-                    NavigableMap<byte[], byte[]> map = r.getFamilyMap(columnFamily);
+            for (Map.Entry<ByteBuffer, int[]> entry : rows.entrySet()) {
+                byte[] serialHash = entry.getKey().array();
 
-                    long timeBucket = Bytes.toLong(Arrays.copyOfRange(r.getRow(), 2, 10));
-                    byte[] serialHash = Arrays.copyOfRange(r.getRow(), 10, 26);
+                Scan scan = new Scan();
+                scan.setCaching(scanCacheSize);
+                scan.addFamily(columnFamily);
 
-                    Float volume = null, difference = null;
-                    long lastTimestamp = 0;
+                scan.setStartRow(createMeterRowKey(serialHash, endDateTime));
+                scan.setStopRow(calculateTheClosestNextRowKeyForPrefix(createMeterRowKey(serialHash, startDateTime)));
 
-                    for (Entry<byte[], byte[]> entry : map.entrySet()) {
-                        short offset = Bytes.toShort(Arrays.copyOfRange(entry.getKey(), 0, 2));
-                        long timestamp = ((Long.MAX_VALUE / 1000) - (timeBucket + (long) offset)) * 1000L;
+                scanner = table.getScanner(scan);
 
-                        if ((startDate.getMillis() <= timestamp) && (timestamp <= endDate.getMillis())) {
-                            int length = (int) Arrays.copyOfRange(entry.getKey(), 2, 3)[0];
-                            byte[] slice = Arrays.copyOfRange(entry.getKey(), 3, 3 + length);
+                for (Result r = scanner.next(); r != null; r = scanner.next()) {
+                    Cell[] cells = r.rawCells();
+                    if ((cells == null) || (cells.length == 0)) {
+                        continue;
+                    }
 
-                            String columnQualifier = Bytes.toString(slice);
-                            if (columnQualifier.equals("v")) {
-                                volume = Bytes.toFloat(entry.getValue());
-                            }
-                            if (columnQualifier.equals("d")) {
-                                difference = Bytes.toFloat(entry.getValue());
-                            }
+                    long timeBucket = Bytes.toLong(cells[0].getRowArray(), cells[0].getRowOffset() + 16);
 
-                            if (lastTimestamp == timestamp) {
-                                if ((difference != null) && (volume != null)) {
-                                    int filterIndex = 0;
-                                    for (ExpandedPopulationFilter filter : query.getGroups()) {
-                                        GroupDataSeries series = result.get(filterIndex);
-
-                                        int index = inArray(filter.getSerialHashes(), serialHash);
-                                        if (index >= 0) {
-                                            series.addMeterRankingDataPoint(
-                                                query.getGranularity(),
-                                                filter.getUserKeys().get(index),
-                                                filter.getLabels().get(index),
-                                                timestamp,
-                                                difference,
-                                                volume,
-                                                query.getMetrics(),
-                                                query.getTimezone());
-
-                                        }
-
-                                        filterIndex++;
-                                    }
-                                    volume = difference = null;
-                                }
-                            } else {
-                                lastTimestamp = timestamp;
-                            }
-                        }
-                    }
+                    decodeRow(result, entry.getValue(), cells, columnFamily, timeBucket, startDateTime, endDateTime);
                 }
+
+                scanner.close();
+                scanner = null;
             }
-        } catch (Exception ex) {
-            throw wrapApplicationException(ex, SharedErrorCode.UNKNOWN);
         } finally {
             try {
                 if (scanner != null) {
@@ -711,17 +1911,157 @@ public class HBaseMeterDataRepository extends AbstractHBaseMeterDataRepository i
                 logger.error(getMessage(SharedErrorCode.RESOURCE_RELEASE_FAILED), ex);
             }
         }
+    }
 
-        // Post process results
-        int filterIndex = 0;
-        for (final ExpandedPopulationFilter filter : query.getGroups()) {
-            flatProjectSeries(query, filter, result.get(filterIndex));
-            filterIndex++;
+    /**
+     * Scans a single partition of the time ordered smart water meter data
+     * table and accumulates the readings of a population to a consumption
+     * matrix.
+     */
+    private class MatrixPartitionScan extends PartitionScan<MeterUserAggregateMatrix> {
+
+        private final Map<ByteBuffer, int[]> rows;
+
+        private final long startDateTime;
+
+        private final long endDateTime;
+
+        private final MeterUserAggregateMatrix template;
+
+        private final List<byte[]> serialHashes = new ArrayList<byte[]>();
+
+        public MatrixPartitionScan(Map<ByteBuffer, int[]> rows, long startDateTime, long endDateTime, MeterUserAggregateMatrix template) {
+            this.rows = rows;
+            this.startDateTime = startDateTime;
+            this.endDateTime = endDateTime;
+            this.template = template;
+
+            for (ByteBuffer hash : rows.keySet()) {
+                serialHashes.add(hash.array());
+            }
         }
 
-        cleanSeries(query, result);
+        @Override
+        public MeterUserAggregateMatrix createPartialResult() {
+            long[] timestamps = new long[template.getBucketCount()];
+            for (int i = 0; i < timestamps.length; i++) {
+                timestamps[i] = template.getTimestamp(i);
+            }
+            return new MeterUserAggregateMatrix(template.getUserCount(), timestamps);
+        }
 
-        return result;
+        @Override
+        public long scan(Table table, short partition, MeterUserAggregateMatrix result) throws Exception {
+            ResultScanner scanner = null;
+            long count = 0;
+
+            try {
+                byte[] columnFamily = Bytes.toBytes(EnumHBaseColumnFamily.DEFAULT.getValue());
+
+                Scan scan = new Scan();
+                scan.setCaching(scanCacheSize);
+                scan.addFamily(columnFamily);
+
+                // Filter rows by smart water meter serial number hash on the region servers
+                Filter filter = createRowKeyHashFilter(serialHashes, 10);
+                if (filter != null) {
+                    scan.setFilter(filter);
+                }
+
+                scan.setStartRow(createPartitionedRowKey(partition, endDateTime));
+                scan.setStopRow(calculateTheClosestNextRowKeyForPrefix(createPartitionedRowKey(partition, startDateTime)));
+
+                scanner = table.getScanner(scan);
+
+                for (Result r = scanner.next(); r != null; r = scanner.next()) {
+                    count++;
+
+                    Cell[] cells = r.rawCells();
+                    if ((cells == null) || (cells.length == 0)) {
+                        continue;
+                    }
+
+                    // Read the time bucket and serial hash in place from the row key
+                    byte[] row = cells[0].getRowArray();
+                    int rowOffset = cells[0].getRowOffset();
+
+                    int[] indexes = rows.get(ByteBuffer.wrap(row, rowOffset + 10, 16));
+                    if (indexes == null) {
+                        continue;
+                    }
+
+                    long timeBucket = Bytes.toLong(row, rowOffset + 2);
+
+                    decodeRow(result, indexes, cells, columnFamily, timeBucket, startDateTime, endDateTime);
+                }
+            } finally {
+                try {
+                    if (scanner != null) {
+                        scanner.close();
+                        scanner = null;
+                    }
+                } catch (Exception ex) {
+                    logger.error(getMessage(SharedErrorCode.RESOURCE_RELEASE_FAILED), ex);
+                }
+            }
+
+            return count;
+        }
+
+        @Override
+        public void merge(MeterUserAggregateMatrix result, MeterUserAggregateMatrix partial) {
+            result.merge(partial);
+        }
+    }
+
+    /**
+     * Decodes the differences of a single smart water meter data row and adds
+     * them to the matrix rows of the meter.
+     *
+     * @param result the matrix to update.
+     * @param indexes the matrix rows of the meter.
+     * @param cells the row cells sorted by qualifier.
+     * @param columnFamily the column family to decode.
+     * @param timeBucket the row time bucket.
+     * @param startDateTime the interval start timestamp.
+     * @param endDateTime the interval end timestamp.
+     */
+    private void decodeRow(MeterUserAggregateMatrix result,
+                           int[] indexes,
+                           Cell[] cells,
+                           byte[] columnFamily,
+                           long timeBucket,
+                           long startDateTime,
+                           long endDateTime) {
+        for (Cell cell : cells) {
+            if (!CellUtil.matchingFamily(cell, columnFamily)) {
+                continue;
+            }
+
+            byte[] qualifier = cell.getQualifierArray();
+            int qualifierOffset = cell.getQualifierOffset();
+
+            // Column qualifier: [offset (2 bytes)][tag length (1 byte)][tag]
+            if ((qualifier[qualifierOffset + 2] != 1) || (qualifier[qualifierOffset + 3] != 'd')) {
+                continue;
+            }
+
+            short offset = Bytes.toShort(qualifier, qualifierOffset);
+            long timestamp = ((Long.MAX_VALUE / 1000) - (timeBucket + (long) offset)) * 1000L;
+
+            if ((startDateTime <= timestamp) && (timestamp <= endDateTime)) {
+                int bucket = result.indexOfBucket(timestamp);
+                if (bucket < 0) {
+                    continue;
+                }
+
+                float difference = Bytes.toFloat(cell.getValueArray(), cell.getValueOffset());
+
+                for (int index : indexes) {
+                    result.add(index, bucket, difference);
+                }
+            }
+        }
     }
 
     /**
@@ -280,7 +280,7 @@ public class HBaseMeterForecastingDataRepository extends AbstractHBaseMeterDataR
                                 for (ExpandedPopulationFilter filter : query.getGroups()) {
                                     GroupDataSeries series = result.get(filterIndex);
 
-                                    int index = inArray(filter.getSerialHashes(), serialHash);
+                                    int index = filter.indexOfSerialHash(serialHash);
                                     if (index >= 0) {
                                         series.addMeterRankingDataPoint(
                                             query.getGranularity(),
@@ -344,10 +344,10 @@ public class HBaseMeterForecastingDataRepository extends AbstractHBaseMeterDataR
                             MeterUserDataPoint m1 = (MeterUserDataPoint) u1;
                             MeterUserDataPoint m2 = (MeterUserDataPoint) u2;
 
-                            if (m1.getVolume().get(EnumMetric.SUM) < m2.getVolume().get(EnumMetric.SUM)) {
+                            if (m1.getVolume().getValue(EnumMetric.SUM) < m2.getVolume().getValue(EnumMetric.SUM)) {
                                 return -1;
                             }
-                            if (m1.getVolume().get(EnumMetric.SUM) > m2.getVolume().get(EnumMetric.SUM)) {
+                            if (m1.getVolume().getValue(EnumMetric.SUM) > m2.getVolume().getValue(EnumMetric.SUM)) {
                                 return 1;
                             }
                             return 0;
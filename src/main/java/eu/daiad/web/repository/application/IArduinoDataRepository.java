@@ -5,6 +5,7 @@ import java.util.ArrayList;
 import eu.daiad.web.model.arduino.ArduinoIntervalQuery;
 import eu.daiad.web.model.arduino.ArduinoIntervalQueryResult;
 import eu.daiad.web.model.arduino.ArduinoMeasurement;
+import eu.daiad.web.model.arduino.ArduinoWriteStatistics;
 import eu.daiad.web.model.error.ApplicationException;
 
 public interface IArduinoDataRepository {
@@ -13,4 +14,6 @@ public interface IArduinoDataRepository {
 
 	public abstract ArduinoIntervalQueryResult searchData(ArduinoIntervalQuery query) throws ApplicationException;
 
+	public abstract ArduinoWriteStatistics getWriteStatistics();
+
 }
\ No newline at end of file
@@ -149,6 +149,19 @@ public interface IBudgetRepository {
      */
     void updateConsumer(UUID budgetKey, long snapshotId, UUID userKey, double consumptionBefore, double consumptionAfter, DateTime updatedOn);
 
+    /**
+     * Creates the consumption values of all the users of a budget snapshot
+     * using batched inserts.
+     *
+     * @param budgetKey the budget key.
+     * @param snapshotId the snapshot id.
+     * @param userKeys the user keys.
+     * @param consumptionBefore previous consumption volume per user.
+     * @param consumptionAfter current consumption volume per user.
+     * @param updatedOn update timestamp.
+     */
+    void createConsumers(UUID budgetKey, long snapshotId, List<UUID> userKeys, double[] consumptionBefore, double[] consumptionAfter, DateTime updatedOn);
+
     /**
      * Compute consumption per cluster segment for a given budget and cluster.
      *
@@ -5,6 +5,7 @@ import java.util.UUID;
 
 import eu.daiad.web.domain.application.ClusterEntity;
 import eu.daiad.web.model.group.Cluster;
+import eu.daiad.web.model.group.EnumGroupType;
 import eu.daiad.web.model.group.Group;
 import eu.daiad.web.model.group.GroupInfo;
 import eu.daiad.web.model.group.GroupMember;
@@ -48,6 +49,8 @@ public interface IGroupRepository {
 
     List<GroupInfo> getMemberGroups(UUID userKey);
 
+    List<Group> getMemberGroupsByType(UUID userKey, EnumGroupType... types);
+
     List<UUID> getGroupMemberKeys(UUID groupKey);
 
     List<UUID> getUtilityByIdMemberKeys(int utilityId);
@@ -1,8 +1,11 @@
 package eu.daiad.web.repository.application;
 
 import java.util.List;
+import java.util.Map;
 
 import eu.daiad.web.model.error.ApplicationException;
+import eu.daiad.web.model.meter.MeterAggregateMembership;
+import eu.daiad.web.model.meter.WaterMeterMeasurement;
 import eu.daiad.web.model.query.ExpandedDataQuery;
 import eu.daiad.web.model.query.GroupDataSeries;
 
@@ -17,4 +20,16 @@ public interface IMeterAggregateDataRepository {
      */
     List<GroupDataSeries> query(ExpandedDataQuery query) throws ApplicationException;
 
+    /**
+     * Adds the differences of new smart water meter readings to the sum of
+     * every aggregate group and time granularity the meters belong to.
+     *
+     * @param readings a map of new readings indexed by the smart water meter
+     *            unique serial number.
+     * @param memberships a map of aggregate groups indexed by the smart water
+     *            meter unique serial number.
+     * @throws ApplicationException if an error occurs.
+     */
+    void increment(Map<String, List<WaterMeterMeasurement>> readings, Map<String, MeterAggregateMembership> memberships) throws ApplicationException;
+
 }
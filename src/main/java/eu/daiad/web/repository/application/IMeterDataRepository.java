@@ -1,17 +1,22 @@
 package eu.daiad.web.repository.application;
 
 import java.util.List;
+import java.util.Map;
 
 import org.joda.time.DateTimeZone;
 
+import eu.daiad.web.model.EnumTimeAggregation;
 import eu.daiad.web.model.error.ApplicationException;
+import eu.daiad.web.model.error.DataErrorCode;
 import eu.daiad.web.model.meter.MeterDataStoreStats;
+import eu.daiad.web.model.meter.MeterUserAggregateMatrix;
 import eu.daiad.web.model.meter.WaterMeterDataSeries;
 import eu.daiad.web.model.meter.WaterMeterMeasurement;
 import eu.daiad.web.model.meter.WaterMeterMeasurementCollection;
 import eu.daiad.web.model.meter.WaterMeterMeasurementQuery;
 import eu.daiad.web.model.meter.WaterMeterMeasurementQueryResult;
 import eu.daiad.web.model.meter.WaterMeterStatus;
+import eu.daiad.web.model.meter.WaterMeterStatusCacheStatistics;
 import eu.daiad.web.model.meter.WaterMeterStatusQueryResult;
 import eu.daiad.web.model.query.ExpandedDataQuery;
 import eu.daiad.web.model.query.GroupDataSeries;
@@ -27,6 +32,41 @@ public interface IMeterDataRepository {
      */
     MeterDataStoreStats store(String serial, WaterMeterMeasurementCollection data);
 
+    /**
+     * Stores smart water meter data for several meters using batched writes.
+     *
+     * @param data a map of {@link WaterMeterMeasurementCollection} objects indexed by the smart water meter unique serial number.
+     * @return statistics for the insert operations.
+     */
+    MeterDataStoreStats store(Map<String, WaterMeterMeasurementCollection> data);
+
+    /**
+     * Writes smart water meter data to HBase files in a staging directory. Differences are not synchronized with
+     * the data already stored.
+     *
+     * @param data a map of {@link WaterMeterMeasurementCollection} objects indexed by the smart water meter unique serial number.
+     * @param stagingDir the staging directory.
+     * @return the number of readings written.
+     */
+    int createBulkLoadFiles(Map<String, WaterMeterMeasurementCollection> data, String stagingDir);
+
+    /**
+     * Loads all HBase files from a staging directory. The meter and time ordered tables are not loaded atomically;
+     * if a table fails to load after another table has been loaded, an exception with error code
+     * {@link DataErrorCode#BULK_LOAD_INCOMPLETE} is thrown and the remaining files can be loaded by invoking this
+     * method again for the same directory.
+     *
+     * @param stagingDir the staging directory.
+     */
+    void bulkLoad(String stagingDir);
+
+    /**
+     * Deletes a staging directory and all the HBase files it contains.
+     *
+     * @param stagingDir the staging directory.
+     */
+    void deleteBulkLoadFiles(String stagingDir);
+
     /**
      * Returns the current status for a set of smart water meters.
      *
@@ -53,6 +93,14 @@ public interface IMeterDataRepository {
      */
     WaterMeterStatusQueryResult getStatusAfter(String serials[], long minDateTime);
 
+    /**
+     * Returns statistics about the cache of the most recent smart water meter
+     * readings.
+     *
+     * @return the cache statistics.
+     */
+    WaterMeterStatusCacheStatistics getStatusCacheStatistics();
+
     /**
      * Searches for smart water meter readings.
      *
@@ -72,4 +120,25 @@ public interface IMeterDataRepository {
      */
     List<GroupDataSeries> query(ExpandedDataQuery query) throws ApplicationException;
 
+    /**
+     * Computes the consumption of every meter of a population per time bucket
+     * by reading the smart water meter data once. Row {@code i} of the result
+     * holds the consumption of {@code serials[i]}; hence, callers that keep the
+     * users of a population in the same order as the serial numbers get a
+     * matrix indexed by user.
+     *
+     * @param serials the meter serial numbers. Null entries are ignored.
+     * @param timezone the time zone used for computing time buckets.
+     * @param startDateTime the interval start timestamp.
+     * @param endDateTime the interval end timestamp.
+     * @param granularity the time bucket size.
+     * @return the consumption matrix.
+     * @throws ApplicationException if an error occurs or the granularity is not supported.
+     */
+    MeterUserAggregateMatrix aggregatePerUser(String[] serials,
+                                              DateTimeZone timezone,
+                                              long startDateTime,
+                                              long endDateTime,
+                                              EnumTimeAggregation granularity) throws ApplicationException;
+
 }
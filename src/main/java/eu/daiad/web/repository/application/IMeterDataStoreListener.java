@@ -0,0 +1,33 @@
+package eu.daiad.web.repository.application;
+
+import java.util.List;
+import java.util.Map;
+
+import eu.daiad.web.model.meter.WaterMeterMeasurement;
+
+/**
+ * Receives smart water meter readings after they are stored by
+ * {@link IMeterDataRepository}.
+ */
+public interface IMeterDataStoreListener {
+
+    /**
+     * Returns true if the listener should be notified. If no listener is
+     * enabled, the repository skips computing new readings.
+     *
+     * @return true if the listener is enabled.
+     */
+    boolean isEnabled();
+
+    /**
+     * Invoked after smart water meter readings are stored. Only readings newer
+     * than the most recent reading already stored for each meter are included.
+     * Readings that overwrite or precede existing data are not reported.
+     *
+     * @param readings a map of readings indexed by the smart water meter
+     *            unique serial number. Readings are sorted by timestamp and
+     *            their differences are already computed.
+     */
+    void onStore(Map<String, List<WaterMeterMeasurement>> readings);
+
+}
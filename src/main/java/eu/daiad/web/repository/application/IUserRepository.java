@@ -1,6 +1,7 @@
 package eu.daiad.web.repository.application;
 
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import eu.daiad.web.domain.application.AccountEntity;
@@ -10,6 +11,7 @@ import eu.daiad.web.model.admin.AccountActivity;
 import eu.daiad.web.model.admin.AccountWhiteListEntry;
 import eu.daiad.web.model.admin.AccountWhiteListInfo;
 import eu.daiad.web.model.error.ApplicationException;
+import eu.daiad.web.model.query.PopulationMember;
 import eu.daiad.web.model.security.AuthenticatedUser;
 import eu.daiad.web.model.security.EnumRole;
 import eu.daiad.web.model.security.PasswordResetToken;
@@ -76,4 +78,8 @@ public interface IUserRepository {
 
     AccountEntity getUserByMeterSerial(String serial);
 
+    Map<UUID, PopulationMember> getPopulationMembers(List<UUID> keys, boolean includeMeters);
+
+    Map<String, UUID> getUserKeysByMeterSerial(List<String> serials);
+
 }
@@ -1,20 +1,29 @@
 package eu.daiad.web.repository.application;
 
 import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 import javax.persistence.Query;
 import javax.persistence.TypedQuery;
+import javax.sql.DataSource;
 
 import org.apache.commons.lang.StringUtils;
 import org.joda.time.DateTime;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -34,6 +43,7 @@ import eu.daiad.web.domain.application.mappings.BudgetSegmentEntity;
 import eu.daiad.web.job.builder.BudgetProcessingJobBuilder;
 import eu.daiad.web.model.error.BudgetErrorCode;
 import eu.daiad.web.model.error.SavingsPotentialErrorCode;
+import eu.daiad.web.model.error.SharedErrorCode;
 import eu.daiad.web.model.query.savings.Budget;
 import eu.daiad.web.model.query.savings.BudgetExploreConsumerResult;
 import eu.daiad.web.model.query.savings.BudgetParameters;
@@ -49,6 +59,12 @@ import eu.daiad.web.service.scheduling.ISchedulerService;
 @Transactional("applicationTransactionManager")
 public class JpaBudgetRepository extends BaseRepository implements IBudgetRepository, InitializingBean {
 
+    /**
+     * Maximum number of keys in a single IN clause and of rows in a single
+     * batch insert.
+     */
+    private static final int BATCH_SIZE = 1000;
+
     /**
      * Java Persistence entity manager.
      */
@@ -78,9 +94,22 @@ public class JpaBudgetRepository extends BaseRepository implements IBudgetReposi
     @Autowired
     private ConsumerSelectionUtils consumerSelectionUtils;
 
+    /**
+     * Data source for executing batched SQL commands.
+     */
+    @Autowired
+    @Qualifier("applicationDataSource")
+    private DataSource dataSource;
+
+    /**
+     * Spring JDBC template.
+     */
+    private JdbcTemplate jdbcTemplate;
+
     @Override
     public void afterPropertiesSet() throws Exception {
         objectMapper = jackson2ObjectMapperBuilder.build();
+        jdbcTemplate = new JdbcTemplate(dataSource);
     }
 
     /**
@@ -534,6 +563,89 @@ public class JpaBudgetRepository extends BaseRepository implements IBudgetReposi
         entityManager.persist(entity);
     }
 
+    /**
+     * Creates the consumption values of all the users of a budget snapshot.
+     * Account ids and expected savings are loaded with a query per batch of
+     * users instead of a query per user and rows are written using JDBC batch
+     * inserts.
+     *
+     * @param budgetKey the budget key.
+     * @param snapshotId the snapshot id.
+     * @param userKeys the user keys.
+     * @param consumptionBefore previous consumption volume per user.
+     * @param consumptionAfter current consumption volume per user.
+     * @param updatedOn update timestamp.
+     */
+    @Override
+    public void createConsumers(UUID budgetKey, long snapshotId, List<UUID> userKeys, double[] consumptionBefore, double[] consumptionAfter, DateTime updatedOn) {
+        BudgetEntity budget = getBudgetByKey(budgetKey);
+
+        BudgetSnapshotEntity snapshot = null;
+        for (BudgetSnapshotEntity s : budget.getSnapshots()) {
+            if (s.getId() == snapshotId) {
+                snapshot = s;
+                break;
+            }
+        }
+        if(snapshot == null ) {
+            throw createApplicationException(BudgetErrorCode.BUDGET_SNAPSHOT_NOT_FOUND);
+        }
+
+        Map<UUID, Integer> accounts = getAccountIdsByKey(userKeys);
+        Map<UUID, Double> expectedPercent = computeConsumerExpectedPercent(budget, userKeys);
+
+        List<Object[]> rows = new ArrayList<Object[]>(userKeys.size());
+        Timestamp createdOn = new Timestamp(updatedOn.getMillis());
+
+        for (int i = 0, count = userKeys.size(); i < count; i++) {
+            Integer accountId = accounts.get(userKeys.get(i));
+            if (accountId == null) {
+                throw createApplicationException(SharedErrorCode.RESOURCE_NOT_FOUND).set("resource", userKeys.get(i));
+            }
+
+            double before = consumptionBefore[i];
+            double after = consumptionAfter[i];
+
+            Double expected = expectedPercent.get(userKeys.get(i));
+            if (expected == null) {
+                expected = 0D;
+            }
+
+            rows.add(new Object[] {
+                snapshot.getId(),
+                accountId,
+                createdOn,
+                before,
+                after,
+                (before > 0 ? (before - after) / before : 0D),
+                expected
+            });
+        }
+
+        String sqlString = "insert into public.budget_account_snapshot " +
+                           "(budget_snapshot_id, account_id, created_on, consumption_volume_before, " +
+                           " consumption_volume_after, savings_percent, expected_savings_percent) " +
+                           "values (?, ?, ?, ?, ?, ?, ?)";
+
+        // Write any pending changes before executing SQL commands
+        entityManager.flush();
+
+        jdbcTemplate.batchUpdate(sqlString, rows, BATCH_SIZE, new ParameterizedPreparedStatementSetter<Object[]>() {
+
+            @Override
+            public void setValues(PreparedStatement ps, Object[] row) throws SQLException {
+                ps.setLong(1, (Long) row[0]);
+                ps.setInt(2, (Integer) row[1]);
+                ps.setTimestamp(3, (Timestamp) row[2]);
+                ps.setDouble(4, (Double) row[3]);
+                ps.setDouble(5, (Double) row[4]);
+                ps.setDouble(6, (Double) row[5]);
+                ps.setDouble(7, (Double) row[6]);
+            }
+
+        });
+    }
+
     /**
      * Compute consumption per cluster segment for a given budget and cluster.
      *
@@ -638,6 +750,32 @@ public class JpaBudgetRepository extends BaseRepository implements IBudgetReposi
                             .getSingleResult();
     }
 
+    /**
+     * Gets the account ids of a list of users.
+     *
+     * @param keys the user keys.
+     * @return a map with the account id of every user.
+     */
+    private Map<UUID, Integer> getAccountIdsByKey(List<UUID> keys) {
+        Map<UUID, Integer> result = new HashMap<UUID, Integer>();
+
+        for (int start = 0; start < keys.size(); start += BATCH_SIZE) {
+            List<UUID> batch = keys.subList(start, Math.min(keys.size(), start + BATCH_SIZE));
+
+            String queryString = "SELECT a.key, a.id FROM account a where a.key in :keys";
+
+            List<Object[]> rows = entityManager.createQuery(queryString, Object[].class)
+                                               .setParameter("keys", batch)
+                                               .getResultList();
+
+            for (Object[] row : rows) {
+                result.put((UUID) row[0], (Integer) row[1]);
+            }
+        }
+
+        return result;
+    }
+
     private AccountEntity getAccountByKey(UUID key) {
         String queryString = "SELECT a FROM account a where a.key = :key";
 
@@ -743,6 +881,47 @@ public class JpaBudgetRepository extends BaseRepository implements IBudgetReposi
         }
     }
 
+    /**
+     * Computes the expected savings percent for all the consumers of a budget
+     * with a single query.
+     *
+     * @param budget the budget.
+     * @param userKeys the consumer user keys.
+     * @return a map with the percent value of every user.
+     */
+    private Map<UUID, Double> computeConsumerExpectedPercent(BudgetEntity budget, List<UUID> userKeys) {
+        Map<UUID, Double> result = new HashMap<UUID, Double>();
+
+        if(budget.getScenario() == null) {
+            Double goal = budget.getGoal().doubleValue() / 100D;
+            for (UUID userKey : userKeys) {
+                result.put(userKey, goal);
+            }
+            return result;
+        }
+
+        String queryString = "SELECT a.account.key, a.consumption, a.savingsVolume FROM savings_potential_account a where a.scenario.key = :scenarioKey";
+
+        List<Object[]> rows = entityManager.createQuery(queryString, Object[].class)
+                                           .setParameter("scenarioKey", budget.getScenario().getKey())
+                                           .getResultList();
+
+        double scenarioPercent = budget.getScenarioPercent().doubleValue() / 100D;
+
+        for (Object[] row : rows) {
+            double consumption = (Double) row[1];
+            double savings = (Double) row[2];
+
+            if ((consumption > 0) && (savings < consumption)) {
+                result.put((UUID) row[0], (savings / consumption) * scenarioPercent);
+            } else {
+                result.put((UUID) row[0], 0D);
+            }
+        }
+
+        return result;
+    }
+
     /**
      * Computes the expected savings percent for a budget.
      *
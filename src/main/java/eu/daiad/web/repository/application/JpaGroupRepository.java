@@ -30,6 +30,7 @@ import eu.daiad.web.domain.application.UtilityEntity;
 import eu.daiad.web.model.error.SharedErrorCode;
 import eu.daiad.web.model.group.Cluster;
 import eu.daiad.web.model.group.Commons;
+import eu.daiad.web.model.group.EnumGroupType;
 import eu.daiad.web.model.group.Group;
 import eu.daiad.web.model.group.GroupInfo;
 import eu.daiad.web.model.group.GroupMember;
@@ -199,6 +200,27 @@ public class JpaGroupRepository extends BaseRepository implements IGroupReposito
         return groupsInfo;
     }
 
+    @Override
+    public List<Group> getMemberGroupsByType(UUID userKey, EnumGroupType... types) {
+        String groupQueryString = "SELECT g FROM group_member m JOIN m.group g JOIN m.account a WHERE a.key = :userKey";
+
+        TypedQuery<GroupEntity> userGroupQuery = entityManager.createQuery(groupQueryString, GroupEntity.class)
+                                                              .setFirstResult(0);
+        userGroupQuery.setParameter("userKey", userKey);
+
+        List<GroupEntity> groups = new ArrayList<GroupEntity>();
+        for (GroupEntity group : userGroupQuery.getResultList()) {
+            for (EnumGroupType type : types) {
+                if (group.getType() == type) {
+                    groups.add(group);
+                    break;
+                }
+            }
+        }
+
+        return groupEntityToGroupObject(groups);
+    }
+
     @Override
     public List<Group> getGroupsByUtilityKey(UUID utilityKey) {
         TypedQuery<GroupEntity> entityQuery = entityManager.createQuery(
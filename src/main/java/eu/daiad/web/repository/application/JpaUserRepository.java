@@ -2,8 +2,10 @@ package eu.daiad.web.repository.application;
 
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.UUID;
 
 import javax.persistence.EntityManager;
@@ -57,6 +59,7 @@ import eu.daiad.web.model.error.UserErrorCode;
 import eu.daiad.web.model.profile.EnumMobileMode;
 import eu.daiad.web.model.profile.EnumUtilityMode;
 import eu.daiad.web.model.profile.EnumWebMode;
+import eu.daiad.web.model.query.PopulationMember;
 import eu.daiad.web.model.security.AuthenticatedUser;
 import eu.daiad.web.model.security.EnumRole;
 import eu.daiad.web.model.security.PasswordResetToken;
@@ -84,6 +87,11 @@ public class JpaUserRepository extends BaseRepository implements IUserRepository
      */
     private static final String DEFAULT_UTILITY_NAME = "DAIAD";
 
+    /**
+     * Maximum number of user keys per query when resolving population members.
+     */
+    private static final int POPULATION_BATCH_SIZE = 1000;
+
     /**
      * Enables/Disables white list functionality.
      */
@@ -1435,6 +1443,94 @@ public class JpaUserRepository extends BaseRepository implements IUserRepository
         return accounts.get(0);
     }
 
+    /**
+     * Resolves the username, location and, optionally, the first registered
+     * smart water meter for a collection of users. Users are loaded in batches
+     * using a constant number of queries per batch.
+     *
+     * @param keys the user keys.
+     * @param includeMeters true if smart water meter serial numbers should be resolved.
+     * @return a map of population members indexed by user key. Unknown users are omitted.
+     */
+    @Override
+    public Map<UUID, PopulationMember> getPopulationMembers(List<UUID> keys, boolean includeMeters) {
+        Map<UUID, PopulationMember> members = new HashMap<UUID, PopulationMember>();
+
+        for (int start = 0; start < keys.size(); start += POPULATION_BATCH_SIZE) {
+            List<UUID> batch = keys.subList(start, Math.min(keys.size(), start + POPULATION_BATCH_SIZE));
+
+            String accountQueryString = "select a.key, a.username, a.location from account a where a.key in :keys";
+
+            List<Object[]> accounts = entityManager.createQuery(accountQueryString, Object[].class)
+                                                   .setParameter("keys", batch)
+                                                   .getResultList();
+
+            for (Object[] row : accounts) {
+                members.put((UUID) row[0], new PopulationMember((UUID) row[0], (String) row[1], (Geometry) row[2]));
+            }
+
+            if (!includeMeters) {
+                continue;
+            }
+
+            for (Object[] row : getMeters("account.key", batch)) {
+                PopulationMember member = members.get(row[0]);
+
+                // Keep the first registered meter
+                if ((member != null) && (member.getSerial() == null)) {
+                    member.setSerial((String) row[1]);
+                    if (member.getLocation() == null) {
+                        member.setLocation((Geometry) row[2]);
+                    }
+                }
+            }
+        }
+
+        return members;
+    }
+
+    /**
+     * Resolves the owners of a collection of smart water meters. Meters are
+     * loaded in batches using a single query per batch.
+     *
+     * @param serials the smart water meter serial numbers.
+     * @return a map of user keys indexed by serial number. Unknown meters are omitted.
+     */
+    @Override
+    public Map<String, UUID> getUserKeysByMeterSerial(List<String> serials) {
+        Map<String, UUID> owners = new HashMap<String, UUID>();
+
+        for (int start = 0; start < serials.size(); start += POPULATION_BATCH_SIZE) {
+            List<String> batch = serials.subList(start, Math.min(serials.size(), start + POPULATION_BATCH_SIZE));
+
+            for (Object[] row : getMeters("serial", batch)) {
+                if (!owners.containsKey(row[1])) {
+                    owners.put((String) row[1], (UUID) row[0]);
+                }
+            }
+        }
+
+        return owners;
+    }
+
+    /**
+     * Loads the owner key, serial number and location of the smart water
+     * meters whose attribute matches any of the given values, in registration
+     * order. Used by all batched meter lookups.
+     *
+     * @param attribute the meter attribute to filter.
+     * @param values the attribute values.
+     * @return a list of rows of user key, serial number and location.
+     */
+    private List<Object[]> getMeters(String attribute, List<?> values) {
+        String queryString = "select d.account.key, d.serial, d.location from device_meter d " +
+                             "where d." + attribute + " in :values order by d.registeredOn";
+
+        return entityManager.createQuery(queryString, Object[].class)
+                            .setParameter("values", values)
+                            .getResultList();
+    }
+
     private RoleEntity getRole(EnumRole role) {
         String queryString = "select r from role r where r.name = :name";
 
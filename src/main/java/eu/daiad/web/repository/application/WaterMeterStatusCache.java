@@ -0,0 +1,230 @@
+package eu.daiad.web.repository.application;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import eu.daiad.web.model.meter.WaterMeterStatus;
+import eu.daiad.web.model.meter.WaterMeterStatusCacheStatistics;
+
+/**
+ * Bounded in-process cache of the most recent reading of every smart water
+ * meter. An entry is either the latest stored reading of a meter or a marker
+ * that the meter has no readings. Entries are updated when readings are
+ * stored and the least recently used entries are evicted when the cache is
+ * full. Since only writes of this instance update the cache, entries also
+ * expire after a configurable time. Hence, the cache is only suitable for
+ * answering status queries and must never be used for computing the
+ * differences of stored readings.
+ */
+@Component
+public class WaterMeterStatusCache implements InitializingBean {
+
+    /**
+     * Maximum number of smart water meters whose status is cached. If set to
+     * 0, the cache is disabled.
+     */
+    @Value("${hbase.data.status.cache-size:10000}")
+    private int size;
+
+    /**
+     * Time in milliseconds after which a cached status expires.
+     */
+    @Value("${hbase.data.status.cache-ttl:60000}")
+    private long ttl;
+
+    private Map<String, CachedStatus> cache;
+
+    /**
+     * Incremented whenever readings are stored.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong updates = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        cache = new LinkedHashMap<String, CachedStatus>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedStatus> eldest) {
+                if (size() > size) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public boolean isEnabled() {
+        return (size > 0);
+    }
+
+    /**
+     * Returns the most recent reading of a smart water meter.
+     *
+     * @param serial the smart water meter unique serial number.
+     * @return the cached entry or null if the status is not cached.
+     */
+    public CachedStatus getLatest(String serial) {
+        return count(get(serial));
+    }
+
+    private CachedStatus get(String serial) {
+        if (!isEnabled()) {
+            return null;
+        }
+
+        synchronized (cache) {
+            CachedStatus entry = cache.get(serial);
+            if ((entry != null) && (System.currentTimeMillis() - entry.createdOn >= ttl)) {
+                cache.remove(serial);
+                entry = null;
+            }
+            return entry;
+        }
+    }
+
+    private CachedStatus count(CachedStatus entry) {
+        if (isEnabled()) {
+            if (entry == null) {
+                misses.incrementAndGet();
+            } else {
+                hits.incrementAndGet();
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Returns the current generation. The generation must be read before
+     * fetching a status that is later added with {@link #put}.
+     *
+     * @return the generation.
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Adds the most recent reading of a smart water meter fetched from HBase.
+     * The status is ignored if readings have been stored after the specified
+     * generation.
+     *
+     * @param serial the smart water meter unique serial number.
+     * @param status the most recent reading or null if the meter has no
+     *            readings.
+     * @param generation the generation before fetching the status.
+     */
+    public void put(String serial, WaterMeterStatus status, long generation) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        synchronized (cache) {
+            if (this.generation.get() == generation) {
+                cache.put(serial, new CachedStatus(status, System.currentTimeMillis()));
+            }
+        }
+    }
+
+    /**
+     * Replaces the most recent reading of a smart water meter after new
+     * readings have been stored.
+     *
+     * @param serial the smart water meter unique serial number.
+     * @param status the most recent stored reading.
+     */
+    public void update(String serial, WaterMeterStatus status) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        synchronized (cache) {
+            generation.incrementAndGet();
+            cache.put(serial, new CachedStatus(status, System.currentTimeMillis()));
+        }
+
+        updates.incrementAndGet();
+    }
+
+    /**
+     * Removes the status of smart water meters.
+     *
+     * @param serials the unique smart water meter serial numbers.
+     */
+    public void invalidate(Collection<String> serials) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        synchronized (cache) {
+            generation.incrementAndGet();
+
+            for (String serial : serials) {
+                cache.remove(serial);
+            }
+        }
+    }
+
+    /**
+     * Removes the status of all smart water meters.
+     */
+    public void invalidateAll() {
+        if (!isEnabled()) {
+            return;
+        }
+
+        synchronized (cache) {
+            generation.incrementAndGet();
+            cache.clear();
+        }
+    }
+
+    public WaterMeterStatusCacheStatistics getStatistics() {
+        int count = 0;
+        if (isEnabled()) {
+            synchronized (cache) {
+                count = cache.size();
+            }
+        }
+
+        return new WaterMeterStatusCacheStatistics(count, hits.get(), misses.get(), updates.get(), evictions.get());
+    }
+
+    public static class CachedStatus {
+
+        private final WaterMeterStatus status;
+
+        private final long createdOn;
+
+        private CachedStatus(WaterMeterStatus status, long createdOn) {
+            this.status = status;
+            this.createdOn = createdOn;
+        }
+
+        /**
+         * Returns the cached reading.
+         *
+         * @return the reading or null if no reading exists.
+         */
+        public WaterMeterStatus getStatus() {
+            return status;
+        }
+    }
+
+}
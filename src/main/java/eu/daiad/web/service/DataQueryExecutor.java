@@ -0,0 +1,123 @@
+package eu.daiad.web.service;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Bounded thread pool for executing the independent sub-queries of a data
+ * query concurrently e.g. the amphiro and smart water meter sub-queries of a
+ * query for both data sources. When all threads are busy and the queue is
+ * full, new sub-queries are rejected. Sub-queries never run in the calling
+ * thread, hence the query timeout is always enforced.
+ */
+@Component
+public class DataQueryExecutor implements InitializingBean, DisposableBean {
+
+    /**
+     * Logger instance for writing events using the configured logging API.
+     */
+    private static final Log logger = LogFactory.getLog(DataQueryExecutor.class);
+
+    /**
+     * Enables executing sub-queries concurrently.
+     */
+    @Value("${daiad.data.query.async:false}")
+    private boolean enabled;
+
+    /**
+     * Maximum number of threads used for executing sub-queries.
+     */
+    @Value("${daiad.data.query.async.threads:16}")
+    private int threads;
+
+    /**
+     * Maximum number of sub-queries waiting for an available thread.
+     */
+    @Value("${daiad.data.query.async.queue-size:64}")
+    private int queueSize;
+
+    /**
+     * Maximum time in milliseconds for waiting the sub-queries of a single
+     * query to complete.
+     */
+    @Value("${daiad.data.query.async.timeout:60000}")
+    private long timeout;
+
+    private ThreadPoolExecutor executor;
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        final AtomicInteger counter = new AtomicInteger();
+
+        executor = new ThreadPoolExecutor(threads,
+                                          threads,
+                                          60L,
+                                          TimeUnit.SECONDS,
+                                          new ArrayBlockingQueue<Runnable>(queueSize),
+                                          new ThreadFactory() {
+                                              @Override
+                                              public Thread newThread(Runnable r) {
+                                                  Thread thread = new Thread(r, "data-query-" + counter.incrementAndGet());
+                                                  thread.setDaemon(true);
+                                                  return thread;
+                                              }
+                                          },
+                                          new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (executor != null) {
+            executor.shutdownNow();
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                logger.warn("Data query executor did not terminate in time.");
+            }
+            executor = null;
+        }
+    }
+
+    /**
+     * Returns true if sub-queries should be executed concurrently.
+     *
+     * @return true if asynchronous execution is enabled.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the maximum time in milliseconds for waiting the sub-queries of
+     * a single query to complete.
+     *
+     * @return the timeout in milliseconds.
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Submits a task for execution.
+     *
+     * @param task the task to execute.
+     * @return a {@link Future} representing the pending result of the task.
+     * @throws RejectedExecutionException if all threads are busy and the queue is full.
+     */
+    public <T> Future<T> submit(Callable<T> task) throws RejectedExecutionException {
+        return executor.submit(task);
+    }
+
+}
@@ -7,6 +7,12 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.commons.lang.StringUtils;
 import org.joda.time.DateTime;
@@ -22,10 +28,6 @@ import com.vividsolutions.jts.geom.Geometry;
 
 import eu.daiad.web.domain.application.AccountEntity;
 import eu.daiad.web.domain.application.AreaGroupMemberEntity;
-import eu.daiad.web.model.device.Device;
-import eu.daiad.web.model.device.DeviceRegistrationQuery;
-import eu.daiad.web.model.device.EnumDeviceType;
-import eu.daiad.web.model.device.WaterMeterDevice;
 import eu.daiad.web.model.error.ApplicationException;
 import eu.daiad.web.model.error.Error;
 import eu.daiad.web.model.error.ErrorCode;
@@ -55,6 +57,7 @@ import eu.daiad.web.model.query.GroupPopulationFilter;
 import eu.daiad.web.model.query.GroupSpatialFilter;
 import eu.daiad.web.model.query.NamedDataQuery;
 import eu.daiad.web.model.query.PopulationFilter;
+import eu.daiad.web.model.query.PopulationMember;
 import eu.daiad.web.model.query.SpatialFilter;
 import eu.daiad.web.model.query.UserPopulationFilter;
 import eu.daiad.web.model.query.UtilityPopulationFilter;
@@ -63,7 +66,6 @@ import eu.daiad.web.model.security.EnumRole;
 import eu.daiad.web.model.spatial.LabeledGeometry;
 import eu.daiad.web.repository.application.IAmphiroIndexOrderedRepository;
 import eu.daiad.web.repository.application.ICommonsRepository;
-import eu.daiad.web.repository.application.IDeviceRepository;
 import eu.daiad.web.repository.application.IFavouriteRepository;
 import eu.daiad.web.repository.application.IGroupRepository;
 import eu.daiad.web.repository.application.IMeterAggregateDataRepository;
@@ -89,9 +91,6 @@ public class DataService extends BaseService implements IDataService {
     @Autowired
     private ICommonsRepository commonsRepository;
 
-    @Autowired
-    private IDeviceRepository deviceRepository;
-
     @Autowired
     private ISpatialRepository spatialRepository;
 
@@ -113,6 +112,9 @@ public class DataService extends BaseService implements IDataService {
     @Autowired
     IFavouriteRepository favouriteRepository;
 
+    @Autowired
+    private DataQueryExecutor queryExecutor;
+
     protected Error getError(ErrorCode error) {
         return new Error(error.getMessageKey(), this.getMessage(error));
     }
@@ -555,36 +557,11 @@ public class DataService extends BaseService implements IDataService {
                     ExpandedPopulationFilter expandedPopulationFilter = new ExpandedPopulationFilter(filter, filterUsers.size());
 
                     if ((filter.getType() == EnumPopulationFilterType.USER) && (filterUsers.size() > 0)) {
-                        for (UUID userKey : filterUsers) {
-                            AuthenticatedUser user = userRepository.getUserByKey(userKey);
-                            if (user == null) {
-                                throw createApplicationException(UserErrorCode.USERNANE_NOT_FOUND).set("username", userKey);
-                            }
-
+                        // Fetch meters only if they are needed
+                        boolean includeMeters = ((query.getSource() == EnumMeasurementDataSource.BOTH) ||
+                                                 (query.getSource() == EnumMeasurementDataSource.METER));
 
-                            // Decide if the user must be included in the group
-                            boolean includeUser = true;
-                            WaterMeterDevice userMeter = null;
-
-                            // Fetch meter only if it is needed
-                            if ((query.getSource() == EnumMeasurementDataSource.BOTH) || (query.getSource() == EnumMeasurementDataSource.METER)) {
-                                userMeter = getUserWaterMeter(userKey);
-                                includeUser = userMeter != null;
-                            }
-
-                            // Decide if user should be included in the query
-                            if (includeUser) {
-                                expandedPopulationFilter.getUserKeys().add(userKey);
-                                expandedPopulationFilter.getLabels().add(user.getUsername());
-                                expandedPopulationFilter.getUserKeyHashes().add(md.digest(userKey.toString().getBytes("UTF-8")));
-                                if (userMeter != null) {
-                                    expandedPopulationFilter.getSerialHashes().add(md.digest(userMeter.getSerial().getBytes("UTF-8")));
-                                } else {
-                                    expandedPopulationFilter.getSerialHashes().add(null);
-                                }
-                            }
-
-                        }
+                        expandPopulation(expandedPopulationFilter, filterUsers, includeMeters, userLocations, md);
                     }
 
                     // Include population groups that either are not of type
@@ -806,36 +783,11 @@ public class DataService extends BaseService implements IDataService {
                     ExpandedPopulationFilter expandedPopulationFilter = new ExpandedPopulationFilter(filter, filterUsers.size());
 
                     if (filterUsers.size() > 0) {
-                        for (UUID userKey : filterUsers) {
-                            AuthenticatedUser user = userRepository.getUserByKey(userKey);
-                            if (user == null) {
-                                throw createApplicationException(UserErrorCode.USERNANE_NOT_FOUND).set("username", userKey);
-                            }
-
-                            // Decide if the user must be included in the group
-                            boolean includeUser = true;
-                            WaterMeterDevice userMeter = null;
+                        // Fetch meters only if they are needed
+                        boolean includeMeters = ((query.getSource() == EnumMeasurementDataSource.BOTH) ||
+                                                 (query.getSource() == EnumMeasurementDataSource.METER));
 
-                            // Fetch meter only if it is needed
-                            if ((query.getSource() == EnumMeasurementDataSource.BOTH) || (query.getSource() == EnumMeasurementDataSource.METER)) {
-                                userMeter = getUserWaterMeter(userKey);
-                                if (userMeter == null) {
-                                    includeUser = false;
-                                }
-                            }
-
-                            // Decide if user should be included in the query
-                            if (includeUser) {
-                                expandedPopulationFilter.getUserKeys().add(userKey);
-                                expandedPopulationFilter.getLabels().add(user.getUsername());
-                                expandedPopulationFilter.getUserKeyHashes().add(md.digest(userKey.toString().getBytes("UTF-8")));
-                                if (userMeter != null) {
-                                    expandedPopulationFilter.getSerialHashes().add(md.digest(userMeter.getSerial().getBytes("UTF-8")));
-                                } else {
-                                    expandedPopulationFilter.getSerialHashes().add(null);
-                                }
-                            }
-                        }
+                        expandPopulation(expandedPopulationFilter, filterUsers, includeMeters, userLocations, md);
                     }
 
                     // Add group only if it has at least one user
@@ -922,8 +874,12 @@ public class DataService extends BaseService implements IDataService {
 
             switch (query.getSource()) {
                 case BOTH:
-                    response.setDevices(amphiroIndexOrderedRepository.query(expandedQuery));
-                    response.setMeters(meterDataRepository.query(expandedQuery));
+                    if (queryExecutor.isEnabled()) {
+                        executeConcurrently(expandedQuery, response);
+                    } else {
+                        response.setDevices(amphiroIndexOrderedRepository.query(expandedQuery));
+                        response.setMeters(meterDataRepository.query(expandedQuery));
+                    }
                     break;
                 case AMPHIRO: case DEVICE:
                     response.setDevices(amphiroIndexOrderedRepository.query(expandedQuery));
@@ -935,11 +891,67 @@ public class DataService extends BaseService implements IDataService {
                     // Ignore
                     break;
             }
+
+            response.getExecution().getPartitions().addAll(expandedQuery.getPartitionScans());
+            response.getExecution().getPlans().addAll(expandedQuery.getPlans());
         } catch (Exception ex) {
             throw wrapApplicationException(ex);
         }
     }
 
+    /**
+     * Executes the amphiro and smart water meter sub-queries of an expanded
+     * query concurrently. If both sub-queries do not complete within the
+     * configured timeout, they are cancelled and the query fails. If the
+     * executor is overloaded, the query fails immediately.
+     *
+     * @param expandedQuery the query to execute.
+     * @param response the response to update.
+     * @throws Exception if a sub-query fails or the timeout expires.
+     */
+    private void executeConcurrently(final ExpandedDataQuery expandedQuery, DataQueryResponse response) throws Exception {
+        long deadline = System.currentTimeMillis() + queryExecutor.getTimeout();
+
+        Future<List<GroupDataSeries>> devices = null;
+        Future<List<GroupDataSeries>> meters = null;
+
+        try {
+            devices = queryExecutor.submit(new Callable<List<GroupDataSeries>>() {
+
+                @Override
+                public List<GroupDataSeries> call() throws Exception {
+                    return amphiroIndexOrderedRepository.query(expandedQuery);
+                }
+            });
+            meters = queryExecutor.submit(new Callable<List<GroupDataSeries>>() {
+
+                @Override
+                public List<GroupDataSeries> call() throws Exception {
+                    return meterDataRepository.query(expandedQuery);
+                }
+            });
+
+            response.setDevices(devices.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS));
+            response.setMeters(meters.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS));
+        } catch (TimeoutException ex) {
+            throw createApplicationException(QueryErrorCode.TIMEOUT).set("timeout", queryExecutor.getTimeout());
+        } catch (RejectedExecutionException ex) {
+            throw createApplicationException(QueryErrorCode.OVERLOADED);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof Exception) {
+                throw (Exception) ex.getCause();
+            }
+            throw ex;
+        } finally {
+            if (devices != null) {
+                devices.cancel(true);
+            }
+            if (meters != null) {
+                meters.cancel(true);
+            }
+        }
+    }
+
     /**
      * Executes a generic query for smart water meter forecasting data.
      *
@@ -1096,31 +1108,7 @@ public class DataService extends BaseService implements IDataService {
                     ExpandedPopulationFilter expandedPopulationFilter = new ExpandedPopulationFilter(filter, filterUsers.size());
 
                     if ((filter.getType() == EnumPopulationFilterType.USER) && (filterUsers.size() > 0)) {
-                        for (UUID userKey : filterUsers) {
-                            AuthenticatedUser user = userRepository.getUserByKey(userKey);
-                            if (user == null) {
-                                throw createApplicationException(UserErrorCode.USERNANE_NOT_FOUND).set("username", userKey);
-                            }
-
-
-                            // Decide if the user must be included in the group
-                            boolean includeUser = true;
-
-                            WaterMeterDevice userMeter = getUserWaterMeter(userKey);
-                            if (userMeter == null) {
-                                includeUser = false;
-                            }
-
-                            // Decide if user should be added to the final
-                            // result
-                            if (includeUser) {
-                                expandedPopulationFilter.getUserKeys().add(userKey);
-                                expandedPopulationFilter.getLabels().add(user.getUsername());
-                                expandedPopulationFilter.getUserKeyHashes().add(md.digest(userKey.toString().getBytes("UTF-8")));
-                                expandedPopulationFilter.getSerialHashes().add(md.digest(userMeter.getSerial().getBytes("UTF-8")));
-                            }
-
-                        }
+                        expandPopulation(expandedPopulationFilter, filterUsers, true, userLocations, md);
                     }
 
                     // Include population groups that either are not of type
@@ -1342,33 +1330,7 @@ public class DataService extends BaseService implements IDataService {
                     ExpandedPopulationFilter expandedPopulationFilter = new ExpandedPopulationFilter(filter, filterUsers.size());
 
                     if (filterUsers.size() > 0) {
-                        for (UUID userKey : filterUsers) {
-                            AuthenticatedUser user = userRepository.getUserByKey(userKey);
-                            if (user == null) {
-                                throw createApplicationException(UserErrorCode.USERNANE_NOT_FOUND).set("username", userKey);
-                            }
-
-                            // Decide if the user must be included in the group
-                            boolean includeUser = true;
-
-                            WaterMeterDevice userMeter = getUserWaterMeter(userKey);
-                            if (userMeter == null) {
-                                includeUser = false;
-                            }
-
-                            // Decide if user should be added to the final
-                            // result
-                            if (includeUser) {
-                                expandedPopulationFilter.getUserKeys().add(userKey);
-                                expandedPopulationFilter.getLabels().add(user.getUsername());
-                                expandedPopulationFilter.getUserKeyHashes().add(md.digest(userKey.toString().getBytes("UTF-8")));
-                                if (userMeter != null) {
-                                    expandedPopulationFilter.getSerialHashes().add(md.digest(userMeter.getSerial().getBytes("UTF-8")));
-                                } else {
-                                    expandedPopulationFilter.getSerialHashes().add(null);
-                                }
-                            }
-                        }
+                        expandPopulation(expandedPopulationFilter, filterUsers, true, userLocations, md);
                     }
 
                     // Add group only if it has at least one user
@@ -1459,6 +1421,53 @@ public class DataService extends BaseService implements IDataService {
         }
     }
 
+    /**
+     * Adds the users of a population filter to an expanded population filter.
+     * User names, smart water meters and locations are resolved in bulk.
+     *
+     * @param expandedPopulationFilter the expanded filter to update.
+     * @param userKeys the keys of the population users.
+     * @param includeMeters if true, smart water meter serial number hashes are
+     *            computed and users without a meter are excluded.
+     * @param userLocations helper store for caching user locations.
+     * @param md MD5 message digest.
+     * @throws Exception if a user is not found or hashing fails.
+     */
+    private void expandPopulation(ExpandedPopulationFilter expandedPopulationFilter,
+                                  List<UUID> userKeys,
+                                  boolean includeMeters,
+                                  Map<UUID, Geometry> userLocations,
+                                  MessageDigest md) throws Exception {
+        Map<UUID, PopulationMember> members = userRepository.getPopulationMembers(userKeys, includeMeters);
+
+        for (UUID userKey : userKeys) {
+            PopulationMember member = members.get(userKey);
+            if (member == null) {
+                throw createApplicationException(UserErrorCode.USERNANE_NOT_FOUND).set("username", userKey);
+            }
+
+            // The location is final if it is set for the account or meters
+            // have already been resolved
+            if ((member.getLocation() != null) || (includeMeters)) {
+                userLocations.put(userKey, member.getLocation());
+            }
+
+            // Decide if the user must be included in the group
+            if ((includeMeters) && (member.getSerial() == null)) {
+                continue;
+            }
+
+            expandedPopulationFilter.getUserKeys().add(userKey);
+            expandedPopulationFilter.getLabels().add(member.getUsername());
+            expandedPopulationFilter.getUserKeyHashes().add(md.digest(userKey.toString().getBytes("UTF-8")));
+            if (member.getSerial() != null) {
+                expandedPopulationFilter.getSerialHashes().add(md.digest(member.getSerial().getBytes("UTF-8")));
+            } else {
+                expandedPopulationFilter.getSerialHashes().add(null);
+            }
+        }
+    }
+
     private Geometry getUserLocation(Map<UUID, Geometry> userLocations, UUID userKey) {
         if (userLocations.containsKey(userKey)) {
             return userLocations.get(userKey);
@@ -1471,19 +1480,6 @@ public class DataService extends BaseService implements IDataService {
         return location;
     }
 
-    private WaterMeterDevice getUserWaterMeter(UUID userKey) {
-        DeviceRegistrationQuery meterQuery = new DeviceRegistrationQuery();
-        meterQuery.setType(EnumDeviceType.METER);
-
-        List<Device> devices = deviceRepository.getUserDevices(userKey, meterQuery);
-
-        if (devices.isEmpty()) {
-            return null;
-        }
-
-        return (WaterMeterDevice) devices.get(0);
-    }
-
     private double distance(Geometry g1, Geometry g2) {
         double distance = g1.distance(g2);
 
@@ -0,0 +1,581 @@
+package eu.daiad.web.service;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.joda.time.DateTime;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import eu.daiad.web.model.DeviceMeasurementCollection;
+import eu.daiad.web.model.amphiro.AmphiroMeasurementCollection;
+import eu.daiad.web.model.amphiro.AmphiroSessionUpdateCollection;
+import eu.daiad.web.model.device.AmphiroDevice;
+import eu.daiad.web.model.device.Device;
+import eu.daiad.web.model.device.EnumDeviceType;
+import eu.daiad.web.model.device.WaterMeterDevice;
+import eu.daiad.web.model.error.ApplicationException;
+import eu.daiad.web.model.error.DeviceErrorCode;
+import eu.daiad.web.model.error.SharedErrorCode;
+import eu.daiad.web.model.error.UserErrorCode;
+import eu.daiad.web.model.loader.DataStoreEnvelope;
+import eu.daiad.web.model.loader.DataStoreStatus;
+import eu.daiad.web.model.loader.EnumDataStoreStatus;
+import eu.daiad.web.model.meter.WaterMeterMeasurementCollection;
+import eu.daiad.web.model.security.AuthenticatedUser;
+import eu.daiad.web.repository.application.IAmphiroIndexOrderedRepository;
+import eu.daiad.web.repository.application.IDeviceRepository;
+import eu.daiad.web.repository.application.IMeterDataRepository;
+import eu.daiad.web.repository.application.IUserRepository;
+
+/**
+ * Durable queue for storing data uploads asynchronously. Every accepted upload
+ * is written to a file in a local directory before it is acknowledged. A pool
+ * of writers stores the queued uploads to HBase and deletes the files. Files
+ * that have not been processed when the application stops are queued again on
+ * startup. When the queue is full, uploads are rejected and the caller stores
+ * the data synchronously.
+ * <p>
+ * Uploads that fail because of a transient error, e.g. HBase being
+ * unavailable, are retried with an exponential backoff and remain pending.
+ * Only uploads that can never be stored, e.g. malformed data or unknown
+ * devices, are marked as failed.
+ */
+@Service
+public class DataStoreQueue extends BaseService implements IDataStoreQueue, InitializingBean, DisposableBean {
+
+    /**
+     * Logger instance for writing events using the configured logging API.
+     */
+    private static final Log logger = LogFactory.getLog(DataStoreQueue.class);
+
+    /**
+     * Extension of queued upload files.
+     */
+    private static final String EXTENSION_PENDING = ".json";
+
+    /**
+     * Extension of upload files that could not be stored.
+     */
+    private static final String EXTENSION_FAILED = ".failed";
+
+    /**
+     * Extension of upload files being written.
+     */
+    private static final String EXTENSION_TEMP = ".tmp";
+
+    /**
+     * Enables storing data uploads asynchronously.
+     */
+    @Value("${daiad.data.store.async:false}")
+    private boolean enabled;
+
+    /**
+     * Directory for persisting queued data uploads.
+     */
+    @Value("${daiad.data.store.async.directory:${tmp.folder}/data-store-queue}")
+    private String directory;
+
+    /**
+     * Number of threads storing queued data uploads.
+     */
+    @Value("${daiad.data.store.async.threads:4}")
+    private int threads;
+
+    /**
+     * Maximum number of queued data uploads.
+     */
+    @Value("${daiad.data.store.async.queue-size:10000}")
+    private int queueSize;
+
+    /**
+     * Maximum number of completed data uploads whose status is kept in memory.
+     */
+    @Value("${daiad.data.store.async.status-cache-size:100000}")
+    private int statusCacheSize;
+
+    /**
+     * Maximum number of consecutive attempts for storing an upload before it
+     * is moved to the end of the queue.
+     */
+    @Value("${daiad.data.store.async.retry.max-attempts:5}")
+    private int retryMaxAttempts;
+
+    /**
+     * Delay in milliseconds before retrying to store an upload. The delay is
+     * doubled after every failed attempt.
+     */
+    @Value("${daiad.data.store.async.retry.delay:1000}")
+    private long retryDelay;
+
+    /**
+     * Provides methods for serializing Java objects to JSON strings.
+     */
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /**
+     * Repository for accessing user data.
+     */
+    @Autowired
+    private IUserRepository userRepository;
+
+    /**
+     * Repository for accessing device data.
+     */
+    @Autowired
+    private IDeviceRepository deviceRepository;
+
+    /**
+     * Repository for accessing amphiro b1 data indexed by shower id.
+     */
+    @Autowired
+    private IAmphiroIndexOrderedRepository amphiroIndexOrderedRepository;
+
+    /**
+     * Repository for accessing smart water meter data.
+     */
+    @Autowired
+    private IMeterDataRepository waterMeterMeasurementRepository;
+
+    /**
+     * Names of the queued upload files.
+     */
+    private final BlockingQueue<String> queue = new LinkedBlockingQueue<String>();
+
+    /**
+     * Number of queued or in-progress uploads.
+     */
+    private final AtomicInteger pending = new AtomicInteger();
+
+    /**
+     * Status of the most recently processed uploads indexed by file name.
+     */
+    private Map<String, DataStoreStatus> statusCache;
+
+    private List<Thread> writers = new ArrayList<Thread>();
+
+    private File queueDirectory;
+
+    private volatile boolean stopping = false;
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        if (!enabled) {
+            return;
+        }
+
+        statusCache = new LinkedHashMap<String, DataStoreStatus>() {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, DataStoreStatus> eldest) {
+                return (size() > statusCacheSize);
+            }
+        };
+
+        queueDirectory = new File(directory);
+        if ((!queueDirectory.exists()) && (!queueDirectory.mkdirs())) {
+            throw createApplicationException(SharedErrorCode.DIR_CREATION_FAILED).set("path", directory);
+        }
+
+        recover();
+
+        for (int i = 0; i < threads; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    drain();
+                }
+            }, "data-store-" + (i + 1));
+
+            thread.setDaemon(true);
+            thread.start();
+
+            writers.add(thread);
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        // Uploads that are not stored remain in the queue directory
+        stopping = true;
+
+        for (Thread thread : writers) {
+            thread.interrupt();
+        }
+        for (Thread thread : writers) {
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+            if (thread.isAlive()) {
+                logger.warn(String.format("Data store writer [%s] did not terminate in time.", thread.getName()));
+            }
+        }
+        writers.clear();
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public UUID submit(AuthenticatedUser user, DeviceMeasurementCollection data) {
+        if ((!enabled) || (pending.incrementAndGet() > queueSize)) {
+            if (enabled) {
+                pending.decrementAndGet();
+            }
+            return null;
+        }
+
+        UUID receipt = UUID.randomUUID();
+
+        try {
+            DataStoreEnvelope envelope = new DataStoreEnvelope();
+            envelope.setReceipt(receipt);
+            envelope.setUserKey(user.getKey());
+            envelope.setCreatedOn(new DateTime().getMillis());
+            envelope.setData(data);
+
+            String name = getFilename(user.getKey(), receipt);
+
+            File temp = new File(queueDirectory, name + EXTENSION_TEMP);
+            FileOutputStream out = new FileOutputStream(temp);
+            try {
+                out.write(objectMapper.writeValueAsBytes(envelope));
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+            Files.move(temp.toPath(), new File(queueDirectory, name + EXTENSION_PENDING).toPath(), StandardCopyOption.ATOMIC_MOVE);
+
+            queue.add(name);
+        } catch (Exception ex) {
+            pending.decrementAndGet();
+
+            throw wrapApplicationException(ex, SharedErrorCode.UNKNOWN);
+        }
+
+        return receipt;
+    }
+
+    @Override
+    public List<DataStoreStatus> getStatus(UUID userKey, List<UUID> receipts) {
+        List<DataStoreStatus> result = new ArrayList<DataStoreStatus>();
+
+        if (receipts == null) {
+            return result;
+        }
+
+        for (UUID receipt : receipts) {
+            String name = getFilename(userKey, receipt);
+
+            DataStoreStatus status = null;
+            if (statusCache != null) {
+                synchronized (statusCache) {
+                    status = statusCache.get(name);
+                }
+            }
+
+            if (status == null) {
+                if ((queueDirectory != null) && (new File(queueDirectory, name + EXTENSION_PENDING).exists())) {
+                    status = new DataStoreStatus(receipt, EnumDataStoreStatus.PENDING);
+                } else if ((queueDirectory != null) && (new File(queueDirectory, name + EXTENSION_FAILED).exists())) {
+                    status = new DataStoreStatus(receipt, EnumDataStoreStatus.FAILED);
+                } else {
+                    status = new DataStoreStatus(receipt, EnumDataStoreStatus.UNKNOWN);
+                }
+            }
+
+            result.add(status);
+        }
+
+        return result;
+    }
+
+    /**
+     * Queues all upload files that have not been processed.
+     */
+    private void recover() {
+        File[] files = queueDirectory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(EXTENSION_PENDING) || name.endsWith(EXTENSION_TEMP);
+            }
+        });
+
+        if (files == null) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                return Long.compare(f1.lastModified(), f2.lastModified());
+            }
+        });
+
+        for (File file : files) {
+            String name = file.getName();
+
+            if (name.endsWith(EXTENSION_TEMP)) {
+                // Uploads that were not completely written have never been acknowledged
+                if (!file.delete()) {
+                    logger.warn(String.format("Failed to delete incomplete data upload [%s].", name));
+                }
+            } else {
+                queue.add(name.substring(0, name.length() - EXTENSION_PENDING.length()));
+                pending.incrementAndGet();
+            }
+        }
+
+        if (!queue.isEmpty()) {
+            logger.info(String.format("Recovered [%d] queued data uploads.", queue.size()));
+        }
+    }
+
+    /**
+     * Stores queued uploads until the thread is interrupted.
+     */
+    private void drain() {
+        while (!Thread.currentThread().isInterrupted()) {
+            String name;
+            try {
+                name = queue.take();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+
+            try {
+                process(name);
+            } finally {
+                pending.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Stores a single queued upload. Transient failures are retried with an
+     * exponential backoff; if all attempts fail, the upload is queued again.
+     * If the writer is stopped, the upload remains pending and is recovered on
+     * startup. Only permanent failures mark the upload as failed.
+     *
+     * @param name the upload file name without extension.
+     */
+    private void process(String name) {
+        File file = new File(queueDirectory, name + EXTENSION_PENDING);
+        UUID receipt = UUID.fromString(name.substring(name.indexOf('.') + 1));
+
+        if (!file.exists()) {
+            logger.warn(String.format("Data upload [%s] does not exist.", file.getName()));
+            return;
+        }
+
+        long delay = retryDelay;
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                DataStoreEnvelope envelope = objectMapper.readValue(file, DataStoreEnvelope.class);
+
+                DataStoreStatus status = store(envelope);
+
+                cacheStatus(name, status);
+
+                if (!file.delete()) {
+                    logger.warn(String.format("Failed to delete stored data upload [%s].", file.getName()));
+                }
+                return;
+            } catch (Exception ex) {
+                if (isInterruption(ex)) {
+                    logger.info(String.format("Data upload [%s] remains pending since the writer is stopped.", file.getName()));
+
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+
+                if (isPermanentFailure(ex)) {
+                    logger.error(String.format("Failed to store data upload [%s].", file.getName()), ex);
+
+                    DataStoreStatus status = new DataStoreStatus(receipt, EnumDataStoreStatus.FAILED);
+                    status.setError(ex.getMessage());
+
+                    cacheStatus(name, status);
+
+                    try {
+                        Files.move(file.toPath(), new File(queueDirectory, name + EXTENSION_FAILED).toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    } catch (Exception moveEx) {
+                        logger.error(String.format("Failed to move data upload [%s].", file.getName()), moveEx);
+                    }
+                    return;
+                }
+
+                logger.warn(String.format("Failed to store data upload [%s]. Attempt [%d] of [%d].",
+                                          file.getName(), attempt, retryMaxAttempts), ex);
+            }
+
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            delay *= 2;
+
+            if (attempt >= retryMaxAttempts) {
+                // Give the remaining uploads a chance before trying again
+                pending.incrementAndGet();
+                queue.add(name);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Checks if a failure is caused by stopping the writer.
+     *
+     * @param ex the failure.
+     * @return true if the writer is stopped.
+     */
+    private boolean isInterruption(Throwable ex) {
+        if ((stopping) || (Thread.currentThread().isInterrupted())) {
+            return true;
+        }
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if ((cause instanceof InterruptedException) || (cause instanceof ClosedByInterruptException)) {
+                return true;
+            }
+            if ((cause instanceof InterruptedIOException) && (!(cause instanceof SocketTimeoutException))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if a failure will recur no matter how many times storing an
+     * upload is attempted, i.e. the upload is malformed or refers to data that
+     * does not exist. All other failures are considered transient.
+     *
+     * @param ex the failure.
+     * @return true if the failure is permanent.
+     */
+    private boolean isPermanentFailure(Throwable ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if ((cause instanceof JsonProcessingException) ||
+                (cause instanceof ClassCastException) ||
+                (cause instanceof IllegalArgumentException)) {
+                return true;
+            }
+            if ((cause instanceof ApplicationException) &&
+                (cause.getCause() == null) &&
+                (((ApplicationException) cause).getCode() != SharedErrorCode.UNKNOWN)) {
+                // Raised by validating the upload
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stores the data of an upload to HBase.
+     *
+     * @param envelope the upload.
+     * @return the upload status.
+     */
+    private DataStoreStatus store(DataStoreEnvelope envelope) {
+        DataStoreStatus status = new DataStoreStatus(envelope.getReceipt(), EnumDataStoreStatus.COMPLETED);
+
+        AuthenticatedUser user = userRepository.getUserByKey(envelope.getUserKey());
+        if (user == null) {
+            throw createApplicationException(UserErrorCode.USER_KEY_NOT_FOUND).set("key", envelope.getUserKey().toString());
+        }
+
+        DeviceMeasurementCollection data = envelope.getData();
+
+        Device device = null;
+        boolean success = false;
+
+        try {
+            if (data.getType() == EnumDeviceType.AMPHIRO) {
+                device = deviceRepository.getUserDeviceByKey(user.getKey(), data.getDeviceKey());
+                if (device == null) {
+                    throw createApplicationException(DeviceErrorCode.NOT_FOUND).set("key", data.getDeviceKey().toString());
+                }
+
+                AmphiroSessionUpdateCollection updates = amphiroIndexOrderedRepository.store(user,
+                                                                                             (AmphiroDevice) device,
+                                                                                             (AmphiroMeasurementCollection) data);
+                status.getUpdates().addAll(updates.getUpdates());
+            } else if (data.getType() == EnumDeviceType.METER) {
+                device = deviceRepository.getDeviceByKey(data.getDeviceKey());
+                if (device == null) {
+                    throw createApplicationException(DeviceErrorCode.NOT_FOUND).set("key", data.getDeviceKey().toString());
+                }
+
+                waterMeterMeasurementRepository.store(((WaterMeterDevice) device).getSerial(), (WaterMeterMeasurementCollection) data);
+            }
+
+            success = true;
+        } finally {
+            try {
+                if (device != null) {
+                    deviceRepository.setLastDataUploadDate(user.getKey(), device.getKey(), new DateTime(), success);
+                }
+            } catch (Exception ex) {
+                // Ignore exceptions
+            }
+        }
+
+        return status;
+    }
+
+    /**
+     * Keeps the status of a processed upload in memory.
+     *
+     * @param name the upload file name without extension.
+     * @param status the status.
+     */
+    private void cacheStatus(String name, DataStoreStatus status) {
+        synchronized (statusCache) {
+            statusCache.put(name, status);
+        }
+    }
+
+    /**
+     * Returns the file name of an upload without extension.
+     *
+     * @param userKey the key of the user that submitted the upload.
+     * @param receipt the upload receipt.
+     * @return the file name.
+     */
+    private String getFilename(UUID userKey, UUID receipt) {
+        return userKey.toString() + "." + receipt.toString();
+    }
+
+}
@@ -7,8 +7,7 @@ import static eu.daiad.web.model.query.EnumDataField.FLOW;
 import static eu.daiad.web.model.query.EnumDataField.TEMPERATURE;
 import static eu.daiad.web.model.query.EnumDataField.VOLUME;
 
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -36,6 +35,7 @@ import eu.daiad.web.model.EnumStatistic;
 import eu.daiad.web.model.EnumTimeAggregation;
 import eu.daiad.web.model.EnumTimeUnit;
 import eu.daiad.web.model.device.EnumDeviceType;
+import eu.daiad.web.model.meter.MeterUserAggregateMatrix;
 import eu.daiad.web.model.query.AmphiroDataPoint;
 import eu.daiad.web.model.query.DataQuery;
 import eu.daiad.web.model.query.DataQueryBuilder;
@@ -47,11 +47,16 @@ import eu.daiad.web.model.query.EnumMetric;
 import eu.daiad.web.model.query.GroupDataSeries;
 import eu.daiad.web.model.query.MeterDataPoint;
 import eu.daiad.web.model.query.Point;
+import eu.daiad.web.model.query.PopulationMember;
 import eu.daiad.web.model.query.SeriesFacade;
+import eu.daiad.web.model.query.TimeFilter;
 import eu.daiad.web.model.utility.UtilityInfo;
 import eu.daiad.web.repository.application.IGroupRepository;
+import eu.daiad.web.repository.application.IMeterDataRepository;
 import eu.daiad.web.repository.application.IUserRepository;
 import eu.daiad.web.repository.application.IUtilityRepository;
+import eu.daiad.web.util.QuantileSketch;
+import eu.daiad.web.util.Quantiles;
 
 
 @Service
@@ -70,6 +75,15 @@ public class DefaultConsumptionAggregationService
 	@Autowired
 	IDataService dataService;
 
+	@Autowired
+	IUserRepository userRepository;
+
+	@Autowired
+	IMeterDataRepository meterDataRepository;
+
+	@Value("${daiad.services.consumption-aggregation.percentile-sketch-size:200}")
+	private int percentileSketchSize;
+
 	private DateTimeZone defaultTimezone;
 
 	@Value("${daiad.default-timezone:Europe/Athens}")
@@ -278,27 +292,9 @@ public class DefaultConsumptionAggregationService
             
             // Check statistic and map it to a ratio
             
-            switch (statistic) {
-            case PERCENTILE_10P_OF_USERS:
-                ratio = 0.10;
-                break;
-            case PERCENTILE_25P_OF_USERS:
-                ratio = 0.25;
-                break;
-            case PERCENTILE_50P_OF_USERS:
-                ratio = 0.50;
-                break;
-            case PERCENTILE_75P_OF_USERS:
-                ratio = 0.75;
-                break;
-            case PERCENTILE_90P_OF_USERS:
-                ratio = 0.90;
-                break;
-            default:
-                ratio = Double.NaN;
-                Assert.isTrue(false, 
-                    "This aggregator cannot handle statistic " + statistic);
-            }
+            Assert.isTrue(statistic.isPercentileOfUsers(), 
+                "This aggregator cannot handle statistic " + statistic);
+            ratio = statistic.getRatio();
             
             // Check if meaningful for this (field, statistic)
             
@@ -316,6 +312,67 @@ public class DefaultConsumptionAggregationService
 	    
         @Override
         public ComputedNumber compute(UtilityInfo utility, DateTime refDate, Period period)
+        {
+            EnumDeviceType deviceType = measurementField.getDeviceType();
+            
+            // Collect values (e.g. consumption) for each user on given interval
+            
+            ValueCollector values = statistic.isApproximate()? 
+                new SketchValueCollector(percentileSketchSize) : new ArrayValueCollector();
+            
+            List<UUID> accountKeys = getAccountKeys(utility);
+            if (deviceType == EnumDeviceType.METER)
+                collectMeterValues(utility, refDate, period, accountKeys, values);
+            else
+                collectValues(utility, refDate, period, accountKeys, values);
+            
+            if (values.isEmpty())
+                return ComputedNumber.UNDEFINED;
+            
+            // Find percentile on values (select k-th based on ratio)
+            
+            double percentileValue = values.percentile(ratio);
+            
+            return ComputedNumber.valueOf(percentileValue);
+        }
+        
+        /**
+         * Collect the total of each user from a single scan over the meter data of 
+         * the entire population.
+         */
+        private void collectMeterValues(
+            UtilityInfo utility, DateTime refDate, Period period, List<UUID> accountKeys, ValueCollector values)
+        {
+            DataQuery query = newQueryBuilder(utility, refDate, period).build();
+            TimeFilter time = query.getTime();
+            DateTimeZone tz = DateTimeZone.forID(utility.getTimezone());
+            
+            Map<UUID, PopulationMember> members = userRepository.getPopulationMembers(accountKeys, true);
+            String[] serials = new String[accountKeys.size()];
+            for (int i = 0; i < serials.length; i++) {
+                PopulationMember member = members.get(accountKeys.get(i));
+                serials[i] = (member == null)? null : member.getSerial();
+            }
+            
+            // The interval end is exclusive
+            MeterUserAggregateMatrix matrix = meterDataRepository.aggregatePerUser(
+                serials, tz, time.getStart(), time.getEnd() - 1, time.getGranularity());
+            
+            for (int i = 0; i < serials.length; i++) {
+                if (serials[i] == null)
+                    continue; // no meter; skip
+                double value = matrix.getTotal(i);
+                if (Double.isNaN(value))
+                    continue; // no consumption; skip
+                values.add(value);
+            }
+        }
+        
+        /**
+         * Collect the total of each user by querying the data of every user separately. 
+         */
+        private void collectValues(
+            UtilityInfo utility, DateTime refDate, Period period, List<UUID> accountKeys, ValueCollector values)
         {
             EnumDeviceType deviceType = measurementField.getDeviceType();
             EnumDataField field = measurementField.getField();
@@ -328,10 +385,6 @@ public class DefaultConsumptionAggregationService
                 .sum()
                 .average();
             
-            // Collect values (e.g. consumption) for each user on given interval
-            
-            List<UUID> accountKeys = getAccountKeys(utility);
-            List<Double> values = new ArrayList<>(accountKeys.size());
             for (UUID accountKey: accountKeys) {
                 querybuilder.removePopulationFilter();
                 querybuilder.user("user", accountKey);
@@ -347,17 +400,76 @@ public class DefaultConsumptionAggregationService
                     field, EnumMetric.SUM, Point.betweenTime(interval), new Sum());
                 values.add(value);
             }
-            
-            if (values.isEmpty())
-                return ComputedNumber.UNDEFINED;
-            
-            // Find percentile on values (select k-th based on ratio)
+        }
+	}
+	
+	private interface ValueCollector
+	{
+	    void add(double value);
+	    
+	    boolean isEmpty();
+	    
+	    double percentile(double ratio);
+	}
+	
+	/**
+	 * Collect all values in a primitive array and select the exact percentile
+	 */
+	private static class ArrayValueCollector implements ValueCollector
+	{
+	    private double[] values = new double[1024];
+	    
+	    private int size = 0;
+	    
+        @Override
+        public void add(double value)
+        {
+            if (size == values.length)
+                values = Arrays.copyOf(values, values.length * 2);
+            values[size++] = value;
+        }
 
-            Collections.sort(values);
-            int k = Double.valueOf(ratio * values.size()).intValue();
-            double percentileValue = values.get(k);
-            
-            return ComputedNumber.valueOf(percentileValue);
+        @Override
+        public boolean isEmpty()
+        {
+            return size == 0;
+        }
+
+        @Override
+        public double percentile(double ratio)
+        {
+            return Quantiles.percentile(values, size, ratio);
+        }
+	}
+	
+	/**
+	 * Summarize values in a fixed-size sketch and estimate the percentile
+	 */
+	private static class SketchValueCollector implements ValueCollector
+	{
+	    private final QuantileSketch sketch;
+	    
+	    public SketchValueCollector(int k)
+	    {
+	        sketch = new QuantileSketch(k);
+	    }
+	    
+        @Override
+        public void add(double value)
+        {
+            sketch.add(value);
+        }
+
+        @Override
+        public boolean isEmpty()
+        {
+            return sketch.isEmpty();
+        }
+
+        @Override
+        public double percentile(double ratio)
+        {
+            return sketch.quantile(ratio);
         }
 	}
 	
@@ -433,6 +545,11 @@ public class DefaultConsumptionAggregationService
 	    case PERCENTILE_50P_OF_USERS:
 	    case PERCENTILE_75P_OF_USERS:
 	    case PERCENTILE_90P_OF_USERS:
+	    case PERCENTILE_10P_OF_USERS_APPROX:
+	    case PERCENTILE_25P_OF_USERS_APPROX:
+	    case PERCENTILE_50P_OF_USERS_APPROX:
+	    case PERCENTILE_75P_OF_USERS_APPROX:
+	    case PERCENTILE_90P_OF_USERS_APPROX:
 	        {
 	            switch (field) {
                 case VOLUME:
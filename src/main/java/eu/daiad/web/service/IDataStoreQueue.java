@@ -0,0 +1,43 @@
+package eu.daiad.web.service;
+
+import java.util.List;
+import java.util.UUID;
+
+import eu.daiad.web.model.DeviceMeasurementCollection;
+import eu.daiad.web.model.loader.DataStoreStatus;
+import eu.daiad.web.model.security.AuthenticatedUser;
+
+/**
+ * Durable queue for storing amphiro b1 and smart water meter data uploads
+ * asynchronously.
+ */
+public interface IDataStoreQueue {
+
+    /**
+     * Returns true if data uploads should be stored asynchronously.
+     *
+     * @return true if the queue is enabled.
+     */
+    boolean isEnabled();
+
+    /**
+     * Persists a data upload to the local write-ahead queue. The data is stored
+     * to HBase by a background writer.
+     *
+     * @param user the authenticated user.
+     * @param data the data to store.
+     * @return a receipt for querying the upload status or null if the queue is
+     *         full and the data must be stored by the caller.
+     */
+    UUID submit(AuthenticatedUser user, DeviceMeasurementCollection data);
+
+    /**
+     * Returns the status of data uploads.
+     *
+     * @param userKey the key of the user that submitted the data.
+     * @param receipts the receipts returned by {@link #submit}.
+     * @return the status of every upload.
+     */
+    List<DataStoreStatus> getStatus(UUID userKey, List<UUID> receipts);
+
+}
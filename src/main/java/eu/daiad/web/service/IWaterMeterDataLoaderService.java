@@ -24,4 +24,54 @@ public interface IWaterMeterDataLoaderService {
 	 */
 	FileProcessingStatus parse(String filename, String timezone, EnumUploadFileType type, String hdfsPath) throws ApplicationException, IOException;
 
+	/**
+	 * Loads historical smart water meter readings data from a file into HBASE using HBase bulk loading.
+	 *
+	 * @param filename the file name.
+	 * @param timezone the time stamp time zone.
+	 * @param stagingDir the directory for staging HBase files before loading them.
+	 * @return statistics about the process execution.
+	 *
+	 * @throws ApplicationException if the file or the time zone is not found.
+	 */
+	FileProcessingStatus bulkLoad(String filename, String timezone, String stagingDir) throws ApplicationException, IOException;
+
+	/**
+	 * Loads smart water meter readings from a file into HBASE without renaming
+	 * the file.
+	 *
+	 * @param filename the file name.
+	 * @param timezone the time stamp time zone.
+	 * @return statistics about the process execution.
+	 *
+	 * @throws ApplicationException if the file or the time zone is not found.
+	 */
+	FileProcessingStatus parse(String filename, String timezone) throws ApplicationException;
+
+	/**
+	 * Splits a smart water meter data file into one file per partition. Rows
+	 * are assigned to partitions by the hash of the meter serial number, hence
+	 * all the readings of a meter are written to the same partition in their
+	 * original order.
+	 *
+	 * @param filename the file name.
+	 * @param partitionFilenames the file names of the partitions.
+	 * @return the number of rows written to every partition.
+	 *
+	 * @throws ApplicationException if the file is not found or an I/O exception occurs.
+	 */
+	int[] partition(String filename, String[] partitionFilenames) throws ApplicationException;
+
+	/**
+	 * Renames a file based on the time interval its data refer to and updates
+	 * the file name of the given status.
+	 *
+	 * @param filename the file name.
+	 * @param timezone the time stamp time zone.
+	 * @param status the file processing status.
+	 * @return the new file name or null if the file has not been renamed.
+	 * @throws IOException in case an I/O exception occurs.
+	 */
+	String rename(String filename, String timezone, FileProcessingStatus status) throws IOException;
+
 }
@@ -0,0 +1,283 @@
+package eu.daiad.web.service;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.UUID;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.joda.time.DateTimeZone;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import eu.daiad.web.domain.application.AccountEntity;
+import eu.daiad.web.domain.application.AreaGroupMemberEntity;
+import eu.daiad.web.domain.application.UtilityEntity;
+import eu.daiad.web.model.device.WaterMeterDevice;
+import eu.daiad.web.model.group.EnumGroupType;
+import eu.daiad.web.model.group.Group;
+import eu.daiad.web.model.meter.MeterAggregateMembership;
+import eu.daiad.web.model.meter.WaterMeterMeasurement;
+import eu.daiad.web.repository.application.IDeviceRepository;
+import eu.daiad.web.repository.application.IGroupRepository;
+import eu.daiad.web.repository.application.IMeterAggregateDataRepository;
+import eu.daiad.web.repository.application.IMeterDataStoreListener;
+import eu.daiad.web.repository.application.ISpatialRepository;
+import eu.daiad.web.repository.application.IUserRepository;
+
+/**
+ * Keeps smart water meter aggregates up to date between executions of the
+ * aggregation job. Whenever new readings are stored, their differences are
+ * added to the sums of the utility, group and area aggregates of every meter.
+ * Aggregate groups are resolved the same way as the group members exported for
+ * the aggregation job and are cached per meter.
+ */
+@Service
+public class MeterAggregateMaintenanceService extends BaseService implements IMeterDataStoreListener, InitializingBean {
+
+    /**
+     * Logger instance for writing events using the configured logging API.
+     */
+    private static final Log logger = LogFactory.getLog(MeterAggregateMaintenanceService.class);
+
+    /**
+     * Enables incremental aggregation of new smart water meter readings.
+     */
+    @Value("${daiad.meter.aggregate.incremental:false}")
+    private boolean enabled;
+
+    /**
+     * Maximum number of smart water meters whose aggregate groups are cached.
+     */
+    @Value("${daiad.meter.aggregate.incremental.membership-cache-size:100000}")
+    private int membershipCacheSize;
+
+    /**
+     * Time in milliseconds after which the cached aggregate groups of a smart
+     * water meter are resolved again.
+     */
+    @Value("${daiad.meter.aggregate.incremental.membership-cache-ttl:3600000}")
+    private long membershipCacheTtl;
+
+    /**
+     * Repository for accessing user data.
+     */
+    @Autowired
+    private IUserRepository userRepository;
+
+    /**
+     * Repository for accessing device data.
+     */
+    @Autowired
+    private IDeviceRepository deviceRepository;
+
+    /**
+     * Repository for accessing group data.
+     */
+    @Autowired
+    private IGroupRepository groupRepository;
+
+    /**
+     * Repository for accessing spatial data.
+     */
+    @Autowired
+    private ISpatialRepository spatialRepository;
+
+    /**
+     * Repository for accessing smart water meter aggregates.
+     */
+    @Autowired
+    private IMeterAggregateDataRepository meterAggregateDataRepository;
+
+    /**
+     * Cached aggregate groups indexed by smart water meter serial number.
+     */
+    private Map<String, CachedMembership> membershipCache;
+
+    /**
+     * Cached areas indexed by utility key.
+     */
+    private Map<UUID, CachedAreas> areaCache = new LinkedHashMap<UUID, CachedAreas>();
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        membershipCache = new LinkedHashMap<String, CachedMembership>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedMembership> eldest) {
+                return (size() > membershipCacheSize);
+            }
+        };
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Adds the differences of new readings to the aggregates of the meters.
+     *
+     * @param readings a map of new readings indexed by the smart water meter
+     *            unique serial number.
+     */
+    @Override
+    public void onStore(Map<String, List<WaterMeterMeasurement>> readings) {
+        if ((!enabled) || (readings.isEmpty())) {
+            return;
+        }
+
+        Map<String, MeterAggregateMembership> memberships = new LinkedHashMap<String, MeterAggregateMembership>();
+
+        for (Entry<String, List<WaterMeterMeasurement>> entry : readings.entrySet()) {
+            if (entry.getValue().isEmpty()) {
+                continue;
+            }
+
+            MeterAggregateMembership membership = getMembership(entry.getKey());
+            if (membership != null) {
+                memberships.put(entry.getKey(), membership);
+            }
+        }
+
+        if (!memberships.isEmpty()) {
+            meterAggregateDataRepository.increment(readings, memberships);
+        }
+    }
+
+    /**
+     * Returns the aggregate groups of a smart water meter.
+     *
+     * @param serial the smart water meter unique serial number.
+     * @return the aggregate groups or null if the meter is not assigned to a
+     *         user or the utility has no time zone.
+     */
+    private MeterAggregateMembership getMembership(String serial) {
+        long now = System.currentTimeMillis();
+
+        synchronized (membershipCache) {
+            CachedMembership cached = membershipCache.get(serial);
+            if ((cached != null) && (now - cached.createdOn < membershipCacheTtl)) {
+                return cached.membership;
+            }
+        }
+
+        MeterAggregateMembership membership = resolveMembership(serial);
+
+        synchronized (membershipCache) {
+            membershipCache.put(serial, new CachedMembership(membership, now));
+        }
+
+        return membership;
+    }
+
+    /**
+     * Resolves the aggregate groups of a smart water meter. A meter belongs to
+     * its utility and to every segment, commons and set its owner is a member
+     * of. For every group, the meter also belongs to the areas that contain
+     * its location.
+     *
+     * @param serial the smart water meter unique serial number.
+     * @return the aggregate groups or null if the meter is not assigned to a
+     *         user or the utility has no time zone.
+     */
+    private MeterAggregateMembership resolveMembership(String serial) {
+        AccountEntity account = userRepository.getUserByMeterSerial(serial);
+        if (account == null) {
+            return null;
+        }
+
+        UtilityEntity utility = account.getUtility();
+        if (StringUtils.isBlank(utility.getTimezone())) {
+            return null;
+        }
+
+        WaterMeterDevice meter = (WaterMeterDevice) deviceRepository.getWaterMeterDeviceBySerial(serial);
+
+        List<AreaGroupMemberEntity> areas = getAreas(utility.getKey());
+
+        MeterAggregateMembership membership = new MeterAggregateMembership(DateTimeZone.forID(utility.getTimezone()));
+
+        addGroup(membership, utility.getKey(), meter, areas);
+
+        for (Group group : groupRepository.getMemberGroupsByType(account.getKey(),
+                                                                 EnumGroupType.SEGMENT,
+                                                                 EnumGroupType.COMMONS,
+                                                                 EnumGroupType.SET)) {
+            addGroup(membership, group.getKey(), meter, areas);
+        }
+
+        return membership;
+    }
+
+    private void addGroup(MeterAggregateMembership membership, UUID groupKey, WaterMeterDevice meter, List<AreaGroupMemberEntity> areas) {
+        membership.add(groupKey, null);
+
+        if ((meter != null) && (meter.getLocation() != null)) {
+            for (AreaGroupMemberEntity area : areas) {
+                if (area.getGeometry().contains(meter.getLocation())) {
+                    membership.add(groupKey, area.getKey());
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the areas of a utility.
+     *
+     * @param utilityKey the utility key.
+     * @return a list of {@link AreaGroupMemberEntity} entities.
+     */
+    private List<AreaGroupMemberEntity> getAreas(UUID utilityKey) {
+        long now = System.currentTimeMillis();
+
+        synchronized (areaCache) {
+            CachedAreas cached = areaCache.get(utilityKey);
+            if ((cached != null) && (now - cached.createdOn < membershipCacheTtl)) {
+                return cached.areas;
+            }
+        }
+
+        List<AreaGroupMemberEntity> areas = spatialRepository.getAreasByUtilityId(utilityKey);
+
+        synchronized (areaCache) {
+            areaCache.put(utilityKey, new CachedAreas(areas, now));
+        }
+
+        logger.debug(String.format("Loaded [%d] areas for utility [%s].", areas.size(), utilityKey));
+
+        return areas;
+    }
+
+    private static class CachedMembership {
+
+        private final MeterAggregateMembership membership;
+
+        private final long createdOn;
+
+        public CachedMembership(MeterAggregateMembership membership, long createdOn) {
+            this.membership = membership;
+            this.createdOn = createdOn;
+        }
+    }
+
+    private static class CachedAreas {
+
+        private final List<AreaGroupMemberEntity> areas;
+
+        private final long createdOn;
+
+        public CachedAreas(List<AreaGroupMemberEntity> areas, long createdOn) {
+            this.areas = areas;
+            this.createdOn = createdOn;
+        }
+    }
+
+}
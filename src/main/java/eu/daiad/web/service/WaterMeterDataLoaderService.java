@@ -1,16 +1,28 @@
 package eu.daiad.web.service;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 import java.util.Set;
+import java.util.UUID;
 
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
@@ -27,17 +39,20 @@ import org.joda.time.DateTimeZone;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import eu.daiad.web.model.error.ActionErrorCode;
 import eu.daiad.web.model.error.ApplicationException;
+import eu.daiad.web.model.error.DataErrorCode;
 import eu.daiad.web.model.error.SharedErrorCode;
 import eu.daiad.web.model.loader.EnumUploadFileType;
 import eu.daiad.web.model.loader.FileProcessingStatus;
 import eu.daiad.web.model.meter.WaterMeterForecast;
 import eu.daiad.web.model.meter.WaterMeterForecastCollection;
 import eu.daiad.web.model.meter.WaterMeterMeasurementCollection;
+import eu.daiad.web.model.meter.WaterMeterStatusCacheStatistics;
 import eu.daiad.web.model.meter.WaterMeterStatusQueryResult;
 import eu.daiad.web.repository.application.IMeterDataRepository;
 import eu.daiad.web.repository.application.IMeterForecastingDataRepository;
@@ -54,6 +69,21 @@ public class WaterMeterDataLoaderService extends BaseService implements IWaterMe
      */
     private static final int CHUNK_SIZE = 100000;
 
+    /**
+     * Size of the character buffers used for reading smart water meter data files.
+     */
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Maximum number of tokens in a smart water meter data file line.
+     */
+    private static final int MAX_TOKENS = 6;
+
+    /**
+     * Smart water meter data file token delimiter.
+     */
+    private static final char DELIMITER = ';';
+
     /**
      * Logger instance for writing events using the configured logging API.
      */
@@ -82,6 +112,32 @@ public class WaterMeterDataLoaderService extends BaseService implements IWaterMe
     @Autowired
     IMeterForecastingDataRepository waterMeterForecastRepository;
 
+    /**
+     * Enables storing smart water meter readings using batched writes.
+     */
+    @Value("${daiad.loader.meter.bulk:true}")
+    private boolean bulkEnabled;
+
+    /**
+     * Maximum number of smart water meter readings stored in a single batch.
+     */
+    @Value("${daiad.loader.meter.bulk.batch-size:10000}")
+    private int bulkBatchSize;
+
+    /**
+     * Maximum number of attempts for loading the HBase files of an imported
+     * file to the region servers.
+     */
+    @Value("${daiad.loader.meter.bulk-load.retry.max-attempts:3}")
+    private int bulkLoadMaxAttempts;
+
+    /**
+     * Delay in milliseconds before retrying to load HBase files. The delay is
+     * doubled after every failed attempt.
+     */
+    @Value("${daiad.loader.meter.bulk-load.retry.delay:1000}")
+    private long bulkLoadRetryDelay;
+
     /**
      * Loads smart water meter readings data from a file into HBASE.
      *
@@ -102,7 +158,7 @@ public class WaterMeterDataLoaderService extends BaseService implements IWaterMe
                 if (!StringUtils.isBlank(hdfsPath)) {
                     throw createApplicationException(SharedErrorCode.FILESYSTEM_NOT_SUPPORTED).set("filesystem", "hdfs");
                 }
-                FileProcessingStatus status = parseMeterData(filename, timezone);
+                FileProcessingStatus status = parseMeterData(filename, timezone, null, new HashMap<String, MeterDataRow>());
 
                 String newFilename = renameFile(filename, timezone, status.getMinTimestamp(), status.getMaxTimestamp());
                 if (!StringUtils.isBlank(newFilename)) {
@@ -117,6 +173,243 @@ public class WaterMeterDataLoaderService extends BaseService implements IWaterMe
         }
     }
 
+    /**
+     * Loads historical smart water meter readings from a file into HBASE. The
+     * readings are written to HBase files in a new subdirectory of the staging
+     * directory which are loaded to the region servers only after the whole
+     * file is parsed. Then the reading that follows the last loaded reading of
+     * every meter is updated.
+     * <p>
+     * The meter and time ordered tables are not loaded atomically. Loaded files
+     * are moved to the region servers, hence a failed load is retried using
+     * only the files that remain staged. If all attempts fail after a table has
+     * been loaded, the subdirectory is kept and an exception with error code
+     * {@link DataErrorCode#BULK_LOAD_INCOMPLETE} reports its path; the
+     * remaining files can be loaded with
+     * {@link IMeterDataRepository#bulkLoad(String)}. In any other case the
+     * subdirectory is deleted, hence files of failed or concurrent executions
+     * are never loaded later.
+     *
+     * @param filename the file name.
+     * @param timezone the time stamp time zone.
+     * @param stagingDir the directory for staging HBase files.
+     * @return statistics about the process execution.
+     * @throws IOException in case an I/O exception occurs.
+     *
+     * @throws ApplicationException if the file or the time zone is not found.
+     */
+    @Override
+    public FileProcessingStatus bulkLoad(String filename, String timezone, String stagingDir) throws ApplicationException, IOException {
+        if (StringUtils.isBlank(stagingDir)) {
+            throw createApplicationException(SharedErrorCode.REQUIRED_FIELD).set("name", "stagingDir");
+        }
+
+        Map<String, MeterDataRow> tail = new HashMap<String, MeterDataRow>();
+
+        String executionDir = StringUtils.removeEnd(stagingDir, "/") + "/" + UUID.randomUUID().toString();
+
+        FileProcessingStatus status;
+        boolean keepFiles = false;
+        try {
+            status = parseMeterData(filename, timezone, executionDir, tail);
+
+            ApplicationException incomplete = null;
+            long delay = bulkLoadRetryDelay;
+
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    waterMeterMeasurementRepository.bulkLoad(executionDir);
+                    break;
+                } catch (ApplicationException ex) {
+                    if (ex.getCode() == DataErrorCode.BULK_LOAD_INCOMPLETE) {
+                        incomplete = ex;
+                    }
+                    if (attempt >= bulkLoadMaxAttempts) {
+                        if (incomplete == null) {
+                            throw ex;
+                        }
+                        keepFiles = true;
+                        if (incomplete != ex) {
+                            incomplete.addSuppressed(ex);
+                        }
+                        throw incomplete;
+                    }
+
+                    logger.warn(String.format("Attempt [%d] to load HBase files from [%s] has failed.", attempt, executionDir), ex);
+                }
+
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw wrapApplicationException(ex, SharedErrorCode.UNKNOWN);
+                }
+                delay *= 2;
+            }
+        } finally {
+            if (keepFiles) {
+                logger.error(String.format("HBase files in [%s] have not been loaded completely and are kept.", executionDir));
+            } else {
+                try {
+                    waterMeterMeasurementRepository.deleteBulkLoadFiles(executionDir);
+                } catch (Exception ex) {
+                    logger.error(getMessage(SharedErrorCode.RESOURCE_RELEASE_FAILED), ex);
+                }
+            }
+        }
+
+        // Synchronize differences with the readings that follow the loaded data
+        Map<String, WaterMeterMeasurementCollection> boundaries = new HashMap<String, WaterMeterMeasurementCollection>();
+        for (MeterDataRow row : tail.values()) {
+            WaterMeterMeasurementCollection data = new WaterMeterMeasurementCollection();
+            data.add(row.timestamp, row.volume, row.difference);
+
+            boundaries.put(row.serial, data);
+        }
+        waterMeterMeasurementRepository.store(boundaries);
+
+        String newFilename = renameFile(filename, timezone, status.getMinTimestamp(), status.getMaxTimestamp());
+        if (!StringUtils.isBlank(newFilename)) {
+            status.setFilename(FilenameUtils.getName(newFilename));
+        }
+
+        return status;
+    }
+
+    /**
+     * Loads smart water meter readings from a file into HBASE without renaming
+     * the file. Used by workers that import the partitions created by
+     * {@link #partition(String, String[])} concurrently.
+     *
+     * @param filename the file name.
+     * @param timezone the time stamp time zone.
+     * @return statistics about the process execution.
+     *
+     * @throws ApplicationException if the file or the time zone is not found.
+     */
+    @Override
+    public FileProcessingStatus parse(String filename, String timezone) throws ApplicationException {
+        return parseMeterData(filename, timezone, null, new HashMap<String, MeterDataRow>());
+    }
+
+    /**
+     * Splits a smart water meter data file into one file per partition. A row
+     * is written to the partition whose index equals the hash of its meter
+     * serial number modulo the number of partitions. Rows are only tokenized
+     * and are written unchanged, hence every partition keeps the readings of
+     * its meters in the original order and concurrent workers that import
+     * different partitions never update the same meter. Rows of unsupported
+     * format are written to the first partition.
+     *
+     * @param filename the file name.
+     * @param partitionFilenames the file names of the partitions.
+     * @return the number of rows written to every partition.
+     *
+     * @throws ApplicationException if the file is not found or an I/O exception occurs.
+     */
+    @Override
+    public int[] partition(String filename, String[] partitionFilenames) throws ApplicationException {
+        String line = "";
+        String[] tokens = new String[MAX_TOKENS + 1];
+
+        File file = new File(filename);
+        if (!file.exists()) {
+            throw createApplicationException(SharedErrorCode.RESOURCE_DOES_NOT_EXIST).set("resource", filename);
+        }
+
+        int partitions = partitionFilenames.length;
+        int[] counters = new int[partitions];
+
+        BufferedReader reader = null;
+        BufferedWriter[] writers = new BufferedWriter[partitions];
+
+        try {
+            for (int i = 0; i < partitions; i++) {
+                File partitionFile = new File(partitionFilenames[i]);
+                FileUtils.forceMkdir(partitionFile.getParentFile());
+
+                writers[i] = Files.newBufferedWriter(partitionFile.toPath(), StandardCharsets.UTF_8);
+            }
+
+            CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                                                           .onMalformedInput(CodingErrorAction.REPLACE)
+                                                           .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+            reader = new BufferedReader(Channels.newReader(FileChannel.open(file.toPath(), StandardOpenOption.READ), decoder, READ_BUFFER_SIZE),
+                                        READ_BUFFER_SIZE);
+
+            while ((line = reader.readLine()) != null) {
+                int partition;
+
+                switch (split(line, tokens)) {
+                    case 3:
+                        partition = getPartition(tokens[0], partitions);
+                        break;
+                    case 6:
+                        partition = getPartition(tokens[2], partitions);
+                        break;
+                    default:
+                        partition = 0;
+                }
+
+                writers[partition].write(line);
+                writers[partition].newLine();
+
+                counters[partition]++;
+            }
+        } catch (IOException ex) {
+            throw wrapApplicationException(ex, SharedErrorCode.UNKNOWN).set("file", filename);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException ex) {
+                    logger.error(getMessage(SharedErrorCode.RESOURCE_RELEASE_FAILED), ex);
+                }
+            }
+            for (BufferedWriter writer : writers) {
+                if (writer != null) {
+                    try {
+                        writer.close();
+                    } catch (IOException ex) {
+                        logger.error(getMessage(SharedErrorCode.RESOURCE_RELEASE_FAILED), ex);
+                    }
+                }
+            }
+        }
+
+        return counters;
+    }
+
+    /**
+     * Returns the partition of a smart water meter.
+     *
+     * @param serial the meter serial number.
+     * @param partitions the number of partitions.
+     * @return the partition index.
+     */
+    private static int getPartition(String serial, int partitions) {
+        return ((serial.hashCode() & Integer.MAX_VALUE) % partitions);
+    }
+
+    /**
+     * Renames a file based on the time interval its data refer to.
+     *
+     * @param filename the file name.
+     * @param timezone the time zone.
+     * @param status the file processing status.
+     * @return the new file name or null if the file has not been renamed.
+     * @throws IOException in case an I/O exception occurs.
+     */
+    @Override
+    public String rename(String filename, String timezone, FileProcessingStatus status) throws IOException {
+        String newFilename = renameFile(filename, timezone, status.getMinTimestamp(), status.getMaxTimestamp());
+        if (!StringUtils.isBlank(newFilename)) {
+            status.setFilename(FilenameUtils.getName(newFilename));
+        }
+        return newFilename;
+    }
+
     /**
      * Renames a file based on the time interval its data refer to.
      *
@@ -168,16 +461,19 @@ public class WaterMeterDataLoaderService extends BaseService implements IWaterMe
      *
      * @param filename the filename to parse.
      * @param timezone the time zone the dates refer to.
-     * @param type the type of the uploaded file.
+     * @param stagingDir the directory for staging HBase files. If not set, the data is stored directly.
+     * @param tail the last reading of every meter imported by the previous chunk.
      * @return statistics about the process execution.
      * @throws ApplicationException in case validation fails or an I/O exception occurs.
      */
-    private FileProcessingStatus parseMeterData(String filename, String timezone) throws ApplicationException {
+    private FileProcessingStatus parseMeterData(String filename,
+                                                String timezone,
+                                                String stagingDir,
+                                                Map<String, MeterDataRow> tail) throws ApplicationException {
         MeterDataRow row;
         String line = "";
         int lineIndex = 0;
-        int chunkSize = 0;
-        String lastSerial = null;
+        String[] tokens = new String[MAX_TOKENS + 1];
 
         // Check if file exists
         File file = new File(filename);
@@ -185,7 +481,7 @@ public class WaterMeterDataLoaderService extends BaseService implements IWaterMe
             throw createApplicationException(SharedErrorCode.RESOURCE_DOES_NOT_EXIST).set("resource", filename);
         }
 
-        Scanner scan = null;
+        BufferedReader reader = null;
 
         FileProcessingStatus status = new FileProcessingStatus();
 
@@ -198,40 +494,23 @@ public class WaterMeterDataLoaderService extends BaseService implements IWaterMe
         DateTimeFormatter formatter = DateTimeFormat.forPattern(dateFormatPattern).withZone(DateTimeZone.forID(timezone));
 
         try {
-            List<MeterDataRow> rows = new ArrayList<MeterDataRow>();
+            // Rows are imported in fixed size chunks. The last reading of every
+            // meter in the previous chunk is kept for computing differences.
+            List<MeterDataRow> rows = new ArrayList<MeterDataRow>(CHUNK_SIZE);
+
+            CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                                                           .onMalformedInput(CodingErrorAction.REPLACE)
+                                                           .onUnmappableCharacter(CodingErrorAction.REPLACE);
 
-            // Count rows
-            scan = new Scanner(new File(filename));
+            reader = new BufferedReader(Channels.newReader(FileChannel.open(file.toPath(), StandardOpenOption.READ), decoder, READ_BUFFER_SIZE),
+                                        READ_BUFFER_SIZE);
 
-            while (scan.hasNextLine()) {
+            while ((line = reader.readLine()) != null) {
                 lineIndex++;
-                line = scan.nextLine();
-
-                String[] tokens = StringUtils.split(line, ";");
-
-                if(chunkSize > CHUNK_SIZE) {
-                    // Decide if all rows for the current serial have been parsed
-                    boolean doImport = false;
-                    switch (tokens.length) {
-                        case 3:
-                            doImport = !tokens[0].equals(lastSerial);
-                            break;
-                        case 6:
-                            doImport = !tokens[2].equals(lastSerial);
-                            break;
-                        default:
-                            break;
-                    }
-                    // Update and import row data
-                    if(doImport) {
-                        importMeterDataToHBase(status, rows);
 
-                        rows = new ArrayList<MeterDataRow>();
-                        chunkSize = 0;
-                    }
-                }
+                int tokenCount = split(line, tokens);
 
-                switch (tokens.length) {
+                switch (tokenCount) {
                     case 3:
                         row = new MeterDataRow();
                         row.serial = tokens[0];
@@ -255,8 +534,6 @@ public class WaterMeterDataLoaderService extends BaseService implements IWaterMe
                         }
 
                         rows.add(row);
-                        chunkSize++;
-                        lastSerial = row.serial;
                         break;
                     case 6:
                         row = new MeterDataRow();
@@ -290,41 +567,89 @@ public class WaterMeterDataLoaderService extends BaseService implements IWaterMe
                         }
 
                         rows.add(row);
-                        chunkSize++;
-                        lastSerial = row.serial;
                         break;
                     default:
                         // Row format is not supported
                         status.skipRow();
                 }
-            }
 
-            scan.close();
-            scan = null;
+                if (rows.size() >= CHUNK_SIZE) {
+                    importMeterDataToHBase(status, rows, tail, stagingDir);
+
+                    rows.clear();
+                }
+            }
 
             status.setTotalRows(lineIndex);
 
             // Update and import row data
-            importMeterDataToHBase(status, rows);
+            importMeterDataToHBase(status, rows, tail, stagingDir);
 
-        } catch (FileNotFoundException fileEx) {
-            logger.error(String.format("File [%s] was not found.", filename), fileEx);
+            if (logger.isDebugEnabled()) {
+                WaterMeterStatusCacheStatistics cacheStats = waterMeterMeasurementRepository.getStatusCacheStatistics();
+
+                logger.debug(String.format("Meter status cache after importing file [%s]: size [%d], hits [%d], misses [%d], updates [%d], evictions [%d].",
+                                           filename, cacheStats.getSize(), cacheStats.getHits(), cacheStats.getMisses(),
+                                           cacheStats.getUpdates(), cacheStats.getEvictions()));
+            }
+        } catch (IOException ex) {
+            throw wrapApplicationException(ex, SharedErrorCode.UNKNOWN).set("file", filename);
         } finally {
-            if (scan != null) {
-                scan.close();
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException ex) {
+                    logger.error(getMessage(SharedErrorCode.RESOURCE_RELEASE_FAILED), ex);
+                }
             }
         }
 
         return status;
     }
 
+    /**
+     * Splits a line into tokens separated by {@link #DELIMITER} without using
+     * regular expressions. Adjacent separators are treated as one separator.
+     * If the line has more tokens than the array length, the array length is
+     * returned.
+     *
+     * @param line the line to split.
+     * @param tokens the array to fill with tokens.
+     * @return the number of tokens.
+     */
+    private static int split(String line, String[] tokens) {
+        int count = 0;
+        int start = 0;
+        int length = line.length();
+
+        while ((start < length) && (count < tokens.length)) {
+            int end = line.indexOf(DELIMITER, start);
+            if (end < 0) {
+                end = length;
+            }
+            if (end > start) {
+                tokens[count++] = line.substring(start, end);
+            }
+            start = end + 1;
+        }
+
+        return count;
+    }
+
     /**
      * Validates, processes and imports a list of meter readings to HBASE.
      *
      * @param status statistics about the process execution.
      * @param rows the data to import.
+     * @param tail the last reading of every meter imported by the previous
+     *            chunk. The map is updated with the readings of this chunk.
+     * @param stagingDir the directory for staging HBase files. If not set, the
+     *            data is stored directly.
      */
-    private void importMeterDataToHBase(FileProcessingStatus status, List<MeterDataRow> rows) {
+    private void importMeterDataToHBase(FileProcessingStatus status,
+                                        List<MeterDataRow> rows,
+                                        Map<String, MeterDataRow> tail,
+                                        String stagingDir) {
         if(rows.isEmpty()) {
             return;
         }
@@ -363,6 +688,24 @@ public class WaterMeterDataLoaderService extends BaseService implements IWaterMe
         for (int i = 0, count = rows.size(); i < count; i++) {
             // Set difference for the first row for every unique serial number
             if ((i == 0) || (!rows.get(i).serial.equals(rows.get(i - 1).serial))) {
+                MeterDataRow previous = tail.get(rows.get(i).serial);
+
+                if ((previous != null) && (previous.timestamp < rows.get(i).timestamp)) {
+                    rows.get(i).difference = rows.get(i).volume - previous.volume;
+
+                    if (rows.get(i).difference < 0) {
+                        status.increaseNegativeDifference();
+                    }
+                    continue;
+                }
+
+                // Readings stored directly are synchronized with the preceding
+                // stored reading by the repository, which already looks it up
+                if (stagingDir == null) {
+                    rows.get(i).difference = null;
+                    continue;
+                }
+
                 WaterMeterStatusQueryResult meterStatus = waterMeterMeasurementRepository.getStatusBefore(new String[] { rows.get(i).serial },
                                                                                                           rows.get(i).timestamp - 1);
 
@@ -393,9 +736,121 @@ public class WaterMeterDataLoaderService extends BaseService implements IWaterMe
         }
 
         // Import rows to HBASE
+        if (stagingDir != null) {
+            stage(status, rows, stagingDir);
+        } else if (bulkEnabled) {
+            bulkInsert(status, rows);
+        } else {
+            for (MeterDataRow row : rows) {
+                insert(status, row);
+            }
+        }
+
+        // Keep the last reading of every meter for the next chunk. Staged
+        // readings are not visible in HBASE, hence the readings of all the
+        // previous chunks are kept.
+        if (stagingDir == null) {
+            tail.clear();
+        }
+        for (int i = 0, count = rows.size(); i < count; i++) {
+            if ((i == count - 1) || (!rows.get(i).serial.equals(rows.get(i + 1).serial))) {
+                MeterDataRow previous = tail.get(rows.get(i).serial);
+
+                if ((previous == null) || (previous.timestamp < rows.get(i).timestamp)) {
+                    tail.put(rows.get(i).serial, rows.get(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a list of meter readings sorted by serial number to HBase files
+     * in a staging directory.
+     *
+     * @param status statistics about the process execution.
+     * @param rows the data to import.
+     * @param stagingDir the directory for staging HBase files.
+     */
+    private void stage(FileProcessingStatus status, List<MeterDataRow> rows, String stagingDir) {
+        Map<String, WaterMeterMeasurementCollection> batch = new LinkedHashMap<String, WaterMeterMeasurementCollection>();
+
         for (MeterDataRow row : rows) {
-            insert(status, row);
+            WaterMeterMeasurementCollection data = batch.get(row.serial);
+            if (data == null) {
+                data = new WaterMeterMeasurementCollection();
+                batch.put(row.serial, data);
+            }
+            data.add(row.timestamp, row.volume, row.difference);
         }
+
+        waterMeterMeasurementRepository.createBulkLoadFiles(batch, stagingDir);
+
+        status.setProcessedRows(status.getProcessedRows() + rows.size());
+    }
+
+    /**
+     * Imports a list of meter readings sorted by serial number to HBASE in
+     * batches. The readings of a single meter are never split across batches,
+     * hence the boundary readings of every meter are fetched only once.
+     *
+     * @param status statistics about the process execution.
+     * @param rows the data to import.
+     */
+    private void bulkInsert(FileProcessingStatus status, List<MeterDataRow> rows) {
+        Map<String, WaterMeterMeasurementCollection> batch = new LinkedHashMap<String, WaterMeterMeasurementCollection>();
+        WaterMeterMeasurementCollection data = null;
+        int batchRows = 0;
+
+        for (int i = 0, count = rows.size(); i < count; i++) {
+            MeterDataRow row = rows.get(i);
+
+            if ((i == 0) || (!row.serial.equals(rows.get(i - 1).serial))) {
+                if (batchRows >= bulkBatchSize) {
+                    store(status, batch, batchRows);
+                    batchRows = 0;
+                }
+                data = new WaterMeterMeasurementCollection();
+                batch.put(row.serial, data);
+            }
+
+            data.add(row.timestamp, row.volume, row.difference);
+            batchRows++;
+        }
+
+        store(status, batch, batchRows);
+    }
+
+    /**
+     * Stores a batch of meter readings to HBASE and clears the batch.
+     *
+     * @param status statistics about the process execution.
+     * @param batch the readings to store indexed by serial number.
+     * @param rows the number of file rows in the batch.
+     */
+    private void store(FileProcessingStatus status, Map<String, WaterMeterMeasurementCollection> batch, int rows) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        // Differences left unset are computed by the repository
+        List<WaterMeterMeasurementCollection> unset = new ArrayList<WaterMeterMeasurementCollection>();
+        for (WaterMeterMeasurementCollection data : batch.values()) {
+            if (data.getMeasurements().get(0).getDifference() == null) {
+                unset.add(data);
+            }
+        }
+
+        waterMeterMeasurementRepository.store(batch);
+
+        for (WaterMeterMeasurementCollection data : unset) {
+            if (data.getMeasurements().get(0).getDifference() < 0) {
+                status.increaseNegativeDifference();
+            }
+        }
+
+        status.setProcessedRows(status.getProcessedRows() + rows);
+
+        batch.clear();
     }
 
     /**
@@ -411,6 +866,11 @@ public class WaterMeterDataLoaderService extends BaseService implements IWaterMe
 
         waterMeterMeasurementRepository.store(row.serial, data);
 
+        // Differences left unset are computed by the repository
+        if ((row.difference == null) && (data.getMeasurements().get(0).getDifference() < 0)) {
+            status.increaseNegativeDifference();
+        }
+
         status.processRow();
     }
 
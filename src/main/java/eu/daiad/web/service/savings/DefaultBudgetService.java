@@ -13,6 +13,7 @@ import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
@@ -28,6 +29,7 @@ import eu.daiad.web.job.builder.BudgetProcessingJobBuilder;
 import eu.daiad.web.job.task.BudgetProcessingTask;
 import eu.daiad.web.model.EnumTimeAggregation;
 import eu.daiad.web.model.error.SavingsPotentialErrorCode;
+import eu.daiad.web.model.meter.MeterUserAggregateMatrix;
 import eu.daiad.web.model.error.SharedErrorCode;
 import eu.daiad.web.model.query.DataQuery;
 import eu.daiad.web.model.query.DataQueryBuilder;
@@ -35,6 +37,7 @@ import eu.daiad.web.model.query.DataQueryResponse;
 import eu.daiad.web.model.query.EnumMetric;
 import eu.daiad.web.model.query.GroupDataSeries;
 import eu.daiad.web.model.query.MeterDataPoint;
+import eu.daiad.web.model.query.PopulationMember;
 import eu.daiad.web.model.query.savings.Budget;
 import eu.daiad.web.model.query.savings.BudgetExploreClusterResult;
 import eu.daiad.web.model.query.savings.BudgetExploreConsumerResult;
@@ -47,7 +50,9 @@ import eu.daiad.web.model.security.AuthenticatedUser;
 import eu.daiad.web.model.utility.UtilityInfo;
 import eu.daiad.web.repository.application.IBudgetRepository;
 import eu.daiad.web.repository.application.IGroupRepository;
+import eu.daiad.web.repository.application.IMeterDataRepository;
 import eu.daiad.web.repository.application.ISavingsPotentialRepository;
+import eu.daiad.web.repository.application.IUserRepository;
 import eu.daiad.web.repository.application.IUtilityRepository;
 import eu.daiad.web.service.BaseService;
 import eu.daiad.web.service.IDataService;
@@ -101,6 +106,25 @@ public class DefaultBudgetService extends BaseService implements IBudgetService,
     @Autowired
     private IDataService dataService;
 
+    /**
+     * Repository for resolving the smart water meters of budget members.
+     */
+    @Autowired
+    private IUserRepository userRepository;
+
+    /**
+     * Repository for computing the consumption of all budget members at once.
+     */
+    @Autowired
+    private IMeterDataRepository meterDataRepository;
+
+    /**
+     * If true, snapshots are computed with a single smart water meter data
+     * scan per period for all budget members.
+     */
+    @Value("${daiad.budget.snapshot.population-scan:true}")
+    private boolean populationScan;
+
     /**
      * A builder used to create {@link ObjectMapper} instances for serializing scenario parameters.
      */
@@ -214,15 +238,30 @@ public class DefaultBudgetService extends BaseService implements IBudgetService,
             double consumptionTotalBefore = 0D;
             double consumptionTotalAfter = 0D;
 
-            for (UUID userKey : budgetRepository.getBudgetMembers(key)) {
-                double consumptionBefore = getConusmption(userKey, timezone, lastPeriodStart, lastPeriodEnd);
-                double consumptionAfter = getConusmption(userKey, timezone, currentPeriodStart, currentPeriodEnd);
+            List<UUID> members = budgetRepository.getBudgetMembers(key);
+
+            if (populationScan) {
+                String[] serials = getMeterSerials(members);
 
-                consumptionTotalBefore += consumptionBefore;
-                consumptionTotalAfter += consumptionAfter;
+                double[] consumptionBefore = getConsumption(serials, timezone, lastPeriodStart, lastPeriodEnd);
+                double[] consumptionAfter = getConsumption(serials, timezone, currentPeriodStart, currentPeriodEnd);
 
-                budgetRepository.updateConsumer(key, snapshotId, userKey, consumptionBefore, consumptionAfter, DateTime.now());
+                for (int i = 0; i < members.size(); i++) {
+                    consumptionTotalBefore += consumptionBefore[i];
+                    consumptionTotalAfter += consumptionAfter[i];
+                }
 
+                budgetRepository.createConsumers(key, snapshotId, members, consumptionBefore, consumptionAfter, DateTime.now());
+            } else {
+                for (UUID userKey : members) {
+                    double consumptionBefore = getConusmption(userKey, timezone, lastPeriodStart, lastPeriodEnd);
+                    double consumptionAfter = getConusmption(userKey, timezone, currentPeriodStart, currentPeriodEnd);
+
+                    consumptionTotalBefore += consumptionBefore;
+                    consumptionTotalAfter += consumptionAfter;
+
+                    budgetRepository.updateConsumer(key, snapshotId, userKey, consumptionBefore, consumptionAfter, DateTime.now());
+                }
             }
             budgetRepository.updateSnapshot(key, snapshotId, consumptionTotalBefore, consumptionTotalAfter, DateTime.now());
         } catch (Exception ex) {
@@ -233,6 +272,55 @@ public class DefaultBudgetService extends BaseService implements IBudgetService,
         }
     }
 
+    /**
+     * Resolves the smart water meter serial numbers of a list of users.
+     *
+     * @param userKeys the user keys.
+     * @return the serial number of every user in the same order as the keys or
+     *         null if a user has no meter.
+     */
+    private String[] getMeterSerials(List<UUID> userKeys) {
+        Map<UUID, PopulationMember> population = userRepository.getPopulationMembers(userKeys, true);
+
+        String[] serials = new String[userKeys.size()];
+        for (int i = 0; i < serials.length; i++) {
+            PopulationMember member = population.get(userKeys.get(i));
+            if (member != null) {
+                serials[i] = member.getSerial();
+            }
+        }
+
+        return serials;
+    }
+
+    /**
+     * Computes the monthly consumption of a list of smart water meters with a
+     * single data scan.
+     *
+     * @param serials the meter serial numbers.
+     * @param timezone the utility time zone.
+     * @param from the interval start.
+     * @param to the interval end.
+     * @return the consumption of every meter in the same order as the serial
+     *         numbers. If a meter is missing or has no readings, the
+     *         consumption is 0.
+     */
+    private double[] getConsumption(String[] serials, DateTimeZone timezone, DateTime from, DateTime to) {
+        MeterUserAggregateMatrix matrix = meterDataRepository.aggregatePerUser(serials,
+                                                                               timezone,
+                                                                               from.getMillis(),
+                                                                               to.getMillis(),
+                                                                               EnumTimeAggregation.MONTH);
+
+        double[] result = new double[serials.length];
+        for (int i = 0; i < serials.length; i++) {
+            double total = matrix.getTotal(i);
+            result[i] = (Double.isNaN(total) ? 0D : total);
+        }
+
+        return result;
+    }
+
     private double getConusmption(UUID userKey, DateTimeZone timezone, DateTime from, DateTime to) {
         DataQuery monthlyConsumptionQuery = DataQueryBuilder.create()
                         .timezone(timezone)
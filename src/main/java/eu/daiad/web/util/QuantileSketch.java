@@ -0,0 +1,192 @@
+package eu.daiad.web.util;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A mergeable sketch for estimating quantiles of a stream of values in bounded memory.
+ *
+ * <p>This follows the compactor hierarchy of the KLL sketch (Karnin, Lang, Liberty):
+ * level {@code h} holds values of weight {@code 2^h}. When a level is full, it is sorted
+ * and every other value (starting at a random offset) is promoted to the level above,
+ * halving the number of retained values. The capacity of a level decreases geometrically
+ * from the top level (which holds {@code k} values) to the bottom one.
+ *
+ * <p>The rank error is roughly proportional to {@code 1/k}, independent of the number
+ * of values added. Sketches with the same {@code k} can be merged.
+ */
+public class QuantileSketch
+{
+    private static final int MIN_CAPACITY = 8;
+
+    private static final double CAPACITY_DECAY = 2.0 / 3.0;
+
+    private final int k;
+
+    private final Random random;
+
+    /**
+     * The retained values per level; only the first {@code sizes[h]} of {@code levels[h]} are valid
+     */
+    private double[][] levels;
+
+    private int[] sizes;
+
+    /**
+     * The number of values added to this sketch (including merged ones)
+     */
+    private long count = 0;
+
+    public QuantileSketch(int k)
+    {
+        this(k, new Random());
+    }
+
+    public QuantileSketch(int k, Random random)
+    {
+        if (k < MIN_CAPACITY)
+            throw new IllegalArgumentException("Expected a size of at least " + MIN_CAPACITY);
+
+        this.k = k;
+        this.random = random;
+        this.levels = new double[][] { new double[k] };
+        this.sizes = new int[] { 0 };
+    }
+
+    public int getK()
+    {
+        return k;
+    }
+
+    public long getCount()
+    {
+        return count;
+    }
+
+    public boolean isEmpty()
+    {
+        return count == 0;
+    }
+
+    public void add(double value)
+    {
+        if (Double.isNaN(value))
+            return;
+
+        append(0, value);
+        count++;
+
+        if (sizes[0] >= capacity(0))
+            compress();
+    }
+
+    /**
+     * Add all values summarized by another sketch. The other sketch is not modified.
+     */
+    public void merge(QuantileSketch other)
+    {
+        if (other.k != k)
+            throw new IllegalArgumentException("Cannot merge sketches of different sizes");
+
+        for (int h = 0; h < other.levels.length; h++) {
+            for (int i = 0; i < other.sizes[h]; i++)
+                append(h, other.levels[h][i]);
+        }
+        count += other.count;
+
+        compress();
+    }
+
+    /**
+     * Estimate the value at the given ratio, i.e. the k-th smallest value where
+     * {@code k = floor(ratio * count)}.
+     *
+     * @param ratio a ratio in [0, 1)
+     * @return the estimated value, or NaN if the sketch is empty
+     */
+    public double quantile(double ratio)
+    {
+        if (count == 0)
+            return Double.NaN;
+
+        // Merge the sorted levels, accumulating weights until the target rank is exceeded
+
+        int numLevels = levels.length;
+        double[][] sorted = new double[numLevels][];
+        int[] positions = new int[numLevels];
+        long weightSum = 0;
+        for (int h = 0; h < numLevels; h++) {
+            sorted[h] = Arrays.copyOf(levels[h], sizes[h]);
+            Arrays.sort(sorted[h]);
+            weightSum += ((long) sizes[h]) << h;
+        }
+
+        long target = Math.min((long) (ratio * weightSum), weightSum - 1);
+        long cumulative = 0;
+        double value = Double.NaN;
+        while (cumulative <= target) {
+            int next = -1;
+            for (int h = 0; h < numLevels; h++) {
+                if (positions[h] < sorted[h].length &&
+                        (next < 0 || sorted[h][positions[h]] < sorted[next][positions[next]]))
+                    next = h;
+            }
+            if (next < 0)
+                break;
+            value = sorted[next][positions[next]++];
+            cumulative += 1L << next;
+        }
+
+        return value;
+    }
+
+    private int capacity(int h)
+    {
+        int depth = levels.length - 1 - h;
+        return Math.max(MIN_CAPACITY, (int) Math.ceil(k * Math.pow(CAPACITY_DECAY, depth)));
+    }
+
+    private void append(int h, double value)
+    {
+        while (h >= levels.length) {
+            levels = Arrays.copyOf(levels, levels.length + 1);
+            levels[levels.length - 1] = new double[MIN_CAPACITY];
+            sizes = Arrays.copyOf(sizes, sizes.length + 1);
+        }
+
+        if (sizes[h] == levels[h].length)
+            levels[h] = Arrays.copyOf(levels[h], Math.max(MIN_CAPACITY, levels[h].length * 2));
+
+        levels[h][sizes[h]++] = value;
+    }
+
+    private void compress()
+    {
+        // Note that the number of levels may grow while compacting
+
+        for (int h = 0; h < levels.length; h++) {
+            if (sizes[h] >= capacity(h))
+                compact(h);
+        }
+    }
+
+    private void compact(int h)
+    {
+        double[] level = levels[h];
+        int n = sizes[h];
+
+        Arrays.sort(level, 0, n);
+
+        // If odd, keep the largest value at this level
+
+        int m = n - (n % 2);
+        int offset = random.nextBoolean() ? 1 : 0;
+        for (int i = offset; i < m; i += 2)
+            append(h + 1, level[i]);
+
+        level = levels[h]; // (not reallocated by appending to h + 1)
+        if (m < n)
+            level[0] = level[n - 1];
+        sizes[h] = n - m;
+    }
+}
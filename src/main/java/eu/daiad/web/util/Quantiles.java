@@ -0,0 +1,98 @@
+package eu.daiad.web.util;
+
+/**
+ * Selection of order statistics on primitive arrays without sorting or boxing.
+ */
+public class Quantiles
+{
+    private Quantiles() {}
+
+    /**
+     * Find the value at the given ratio of the first {@code length} values, i.e. the
+     * k-th smallest value where {@code k = floor(ratio * length)}.
+     *
+     * <p>The array is partially reordered in place.
+     *
+     * @param values the values
+     * @param length the number of values to consider
+     * @param ratio a ratio in [0, 1)
+     * @return the selected value
+     */
+    public static double percentile(double[] values, int length, double ratio)
+    {
+        if (length < 1)
+            throw new IllegalArgumentException("Expected at least one value");
+
+        int k = Math.min((int) (ratio * length), length - 1);
+        return select(values, length, Math.max(k, 0));
+    }
+
+    /**
+     * Find the k-th smallest (zero-based) of the first {@code length} values
+     * using quickselect with a median-of-three pivot.
+     *
+     * <p>The array is partially reordered in place; on return, the value at
+     * position {@code k} is the one that would be there if the range was sorted.
+     *
+     * @param values the values
+     * @param length the number of values to consider
+     * @param k the zero-based rank
+     * @return the selected value
+     */
+    public static double select(double[] values, int length, int k)
+    {
+        if (k < 0 || k >= length)
+            throw new IllegalArgumentException("Rank " + k + " is out of range");
+
+        int lo = 0;
+        int hi = length - 1;
+
+        while (hi > lo) {
+            // Order values[lo], values[mid], values[hi] and use the median as pivot
+
+            int mid = (lo + hi) >>> 1;
+            if (values[mid] < values[lo])
+                swap(values, lo, mid);
+            if (values[hi] < values[lo])
+                swap(values, lo, hi);
+            if (values[hi] < values[mid])
+                swap(values, mid, hi);
+
+            double pivot = values[mid];
+
+            // Partition (Hoare scheme)
+
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (values[i] < pivot)
+                    i++;
+                while (values[j] > pivot)
+                    j--;
+                if (i <= j) {
+                    swap(values, i, j);
+                    i++;
+                    j--;
+                }
+            }
+
+            // Continue on the side that contains k
+
+            if (k <= j)
+                hi = j;
+            else if (k >= i)
+                lo = i;
+            else
+                break; // values[j+1..i-1] all equal to pivot
+        }
+
+        return values[k];
+    }
+
+    private static void swap(double[] values, int i, int j)
+    {
+        double t = values[i];
+        values[i] = values[j];
+        values[j] = t;
+    }
+}
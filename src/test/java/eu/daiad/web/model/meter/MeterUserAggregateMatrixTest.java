@@ -0,0 +1,128 @@
+package eu.daiad.web.model.meter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class MeterUserAggregateMatrixTest {
+
+    private static final long[] TIMESTAMPS = { 1000L, 2000L, 3000L, 4000L };
+
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void testIndexOfBucket() {
+        MeterUserAggregateMatrix matrix = new MeterUserAggregateMatrix(1, TIMESTAMPS);
+
+        assertEquals(-1, matrix.indexOfBucket(Long.MIN_VALUE));
+        assertEquals(-1, matrix.indexOfBucket(999L));
+        assertEquals(0, matrix.indexOfBucket(1000L));
+        assertEquals(0, matrix.indexOfBucket(1999L));
+        assertEquals(1, matrix.indexOfBucket(2000L));
+        assertEquals(2, matrix.indexOfBucket(3500L));
+        assertEquals(3, matrix.indexOfBucket(4000L));
+        // The last bucket is open ended
+        assertEquals(3, matrix.indexOfBucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testEmptyMatrix() {
+        MeterUserAggregateMatrix matrix = new MeterUserAggregateMatrix(2, TIMESTAMPS);
+
+        assertEquals(2, matrix.getUserCount());
+        assertEquals(TIMESTAMPS.length, matrix.getBucketCount());
+        for (int user = 0; user < 2; user++) {
+            for (int bucket = 0; bucket < TIMESTAMPS.length; bucket++) {
+                assertFalse(matrix.hasValue(user, bucket));
+                assertTrue(Double.isNaN(matrix.getValue(user, bucket)));
+            }
+            assertTrue(Double.isNaN(matrix.getTotal(user)));
+        }
+    }
+
+    @Test
+    public void testAddAndTotal() {
+        MeterUserAggregateMatrix matrix = new MeterUserAggregateMatrix(2, TIMESTAMPS);
+
+        matrix.add(0, 1, 2.5);
+        matrix.add(0, 1, 1.0);
+        matrix.add(0, 3, 0.0);
+        matrix.add(1, 0, -1.0);
+
+        assertTrue(matrix.hasValue(0, 1));
+        assertEquals(3.5, matrix.getValue(0, 1), DELTA);
+        // A zero value is a reading
+        assertTrue(matrix.hasValue(0, 3));
+        assertFalse(matrix.hasValue(0, 0));
+        assertEquals(3.5, matrix.getTotal(0), DELTA);
+        assertEquals(-1.0, matrix.getTotal(1), DELTA);
+
+        // Values are stored in user major order
+        assertEquals(3.5, matrix.getValues()[1], DELTA);
+        assertEquals(-1.0, matrix.getValues()[TIMESTAMPS.length], DELTA);
+    }
+
+    @Test
+    public void testAggregate() {
+        MeterUserAggregateMatrix matrix = createMatrix();
+
+        int[] users = { 2, -1, 0, 2 };
+        MeterUserAggregateMatrix group = matrix.aggregate(users);
+
+        assertEquals(1, group.getUserCount());
+        assertEquals(TIMESTAMPS.length, group.getBucketCount());
+
+        // Duplicate and negative indexes are ignored
+        assertEquals(1.0 + 100.0, group.getValue(0, 0), DELTA);
+        assertEquals(2.0, group.getValue(0, 1), DELTA);
+        assertFalse(group.hasValue(0, 2));
+        assertEquals(300.0, group.getValue(0, 3), DELTA);
+
+        // The user indexes of the caller are not reordered
+        assertArrayEquals(new int[] { 2, -1, 0, 2 }, users);
+    }
+
+    @Test
+    public void testAggregateEmptyGroup() {
+        MeterUserAggregateMatrix group = createMatrix().aggregate();
+
+        assertEquals(1, group.getUserCount());
+        for (int bucket = 0; bucket < TIMESTAMPS.length; bucket++) {
+            assertFalse(group.hasValue(0, bucket));
+        }
+    }
+
+    @Test
+    public void testMerge() {
+        MeterUserAggregateMatrix matrix = createMatrix();
+
+        MeterUserAggregateMatrix partial = new MeterUserAggregateMatrix(3, TIMESTAMPS);
+        partial.add(0, 0, 1.0);
+        partial.add(1, 2, 5.0);
+
+        matrix.merge(partial);
+
+        assertEquals(2.0, matrix.getValue(0, 0), DELTA);
+        assertEquals(5.0, matrix.getValue(1, 2), DELTA);
+        assertEquals(2.0, matrix.getValue(0, 1), DELTA);
+        assertFalse(matrix.hasValue(1, 0));
+    }
+
+    /**
+     * Creates a matrix with three users. The second user has no readings.
+     */
+    private static MeterUserAggregateMatrix createMatrix() {
+        MeterUserAggregateMatrix matrix = new MeterUserAggregateMatrix(3, TIMESTAMPS);
+
+        matrix.add(0, 0, 1.0);
+        matrix.add(0, 1, 2.0);
+        matrix.add(2, 0, 100.0);
+        matrix.add(2, 3, 300.0);
+
+        return matrix;
+    }
+
+}
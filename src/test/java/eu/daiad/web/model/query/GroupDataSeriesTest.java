@@ -0,0 +1,383 @@
+package eu.daiad.web.model.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeConstants;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import eu.daiad.web.model.EnumTimeAggregation;
+
+public class GroupDataSeriesTest {
+
+    private static final DateTimeZone TIMEZONE = DateTimeZone.forID("Europe/Athens");
+
+    private static final List<EnumMetric> METER_METRICS = Arrays.asList(EnumMetric.COUNT,
+                                                                        EnumMetric.SUM,
+                                                                        EnumMetric.MIN,
+                                                                        EnumMetric.MAX);
+
+    private static final List<EnumMetric> AMPHIRO_METRICS = Arrays.asList(EnumMetric.COUNT,
+                                                                          EnumMetric.SUM,
+                                                                          EnumMetric.MIN,
+                                                                          EnumMetric.MAX,
+                                                                          EnumMetric.AVERAGE);
+
+    private static final double DELTA = 1e-9;
+
+    /**
+     * Meter readings split into consecutive time partitions and merged must
+     * produce the same ranking data points as a sequential scan.
+     */
+    @Test
+    public void testMergeMeterRankingEqualsSequentialScan() {
+        List<UUID> users = createUsers(5);
+        List<Object[]> rows = createRows(users, 2000, 1L);
+
+        GroupDataSeries expected = new GroupDataSeries("group", users.size(), null);
+        for (Object[] row : rows) {
+            addMeterRow(expected, row);
+        }
+
+        GroupDataSeries actual = new GroupDataSeries("group", users.size(), null);
+        for (List<Object[]> partition : partition(rows, 4)) {
+            GroupDataSeries partial = new GroupDataSeries("group", users.size(), null);
+            for (Object[] row : partition) {
+                addMeterRow(partial, row);
+            }
+            actual.merge(partial);
+        }
+
+        assertEquals(expected.getPoints().size(), actual.getPoints().size());
+        assertRankingEquals(expected, actual);
+    }
+
+    /**
+     * Partial series that contain the same users and time buckets must be
+     * merged by time bucket and user key.
+     */
+    @Test
+    public void testMergeMeterRankingWithOverlappingBuckets() {
+        List<UUID> users = createUsers(3);
+        List<Object[]> rows = createRows(users, 500, 2L);
+
+        GroupDataSeries expected = new GroupDataSeries("group", users.size(), null);
+        for (Object[] row : rows) {
+            addMeterRow(expected, row);
+        }
+
+        // Interleave rows so that every partial series covers all time buckets
+        List<List<Object[]>> partitions = new ArrayList<List<Object[]>>();
+        for (int i = 0; i < 3; i++) {
+            partitions.add(new ArrayList<Object[]>());
+        }
+        for (int i = 0; i < rows.size(); i++) {
+            partitions.get(i % 3).add(rows.get(i));
+        }
+
+        GroupDataSeries actual = new GroupDataSeries("group", users.size(), null);
+        for (List<Object[]> partition : partitions) {
+            GroupDataSeries partial = new GroupDataSeries("group", users.size(), null);
+            for (Object[] row : partition) {
+                addMeterRow(partial, row);
+            }
+            actual.merge(partial);
+        }
+
+        assertEquals(expected.getPoints().size(), actual.getPoints().size());
+        assertRankingEquals(expected, actual);
+    }
+
+    /**
+     * Amphiro data points must be merged with the average recomputed from the
+     * merged sum and count.
+     */
+    @Test
+    public void testMergeAmphiroEqualsSequentialScan() {
+        List<UUID> users = createUsers(1);
+        List<Object[]> rows = createRows(users, 1000, 3L);
+
+        GroupDataSeries expected = new GroupDataSeries("group", 1, null);
+        for (Object[] row : rows) {
+            addAmphiroRow(expected, row);
+        }
+
+        List<List<Object[]>> partitions = new ArrayList<List<Object[]>>();
+        partitions.add(new ArrayList<Object[]>());
+        partitions.add(new ArrayList<Object[]>());
+        for (int i = 0; i < rows.size(); i++) {
+            partitions.get(i % 2).add(rows.get(i));
+        }
+
+        GroupDataSeries actual = new GroupDataSeries("group", 1, null);
+        for (List<Object[]> partition : partitions) {
+            GroupDataSeries partial = new GroupDataSeries("group", 1, null);
+            for (Object[] row : partition) {
+                addAmphiroRow(partial, row);
+            }
+            actual.merge(partial);
+        }
+
+        Map<Long, AmphiroDataPoint> expectedPoints = new HashMap<Long, AmphiroDataPoint>();
+        for (DataPoint point : expected.getPoints()) {
+            expectedPoints.put(point.getTimestamp(), (AmphiroDataPoint) point);
+        }
+
+        assertEquals(expectedPoints.size(), actual.getPoints().size());
+        for (DataPoint point : actual.getPoints()) {
+            AmphiroDataPoint expectedPoint = expectedPoints.get(point.getTimestamp());
+            assertNotNull(expectedPoint);
+
+            AmphiroDataPoint actualPoint = (AmphiroDataPoint) point;
+            assertMetricsEquals(expectedPoint.getVolume(), actualPoint.getVolume());
+            assertMetricsEquals(expectedPoint.getEnergy(), actualPoint.getEnergy());
+            assertMetricsEquals(expectedPoint.getDuration(), actualPoint.getDuration());
+            assertMetricsEquals(expectedPoint.getTemperature(), actualPoint.getTemperature());
+            assertMetricsEquals(expectedPoint.getFlow(), actualPoint.getFlow());
+        }
+    }
+
+    /**
+     * Readings must be counted in the data point of their time bucket for
+     * every granularity, including time zones with offsets that are not whole
+     * hours and days with daylight saving time changes.
+     */
+    @Test
+    public void testTimeBucketsMatchTruncation() {
+        String[] zones = { "Europe/Athens", "Asia/Kathmandu", "America/St_Johns", "UTC" };
+
+        for (String zone : zones) {
+            DateTimeZone timezone = DateTimeZone.forID(zone);
+
+            for (EnumTimeAggregation granularity : EnumTimeAggregation.values()) {
+                Random random = new Random(zone.hashCode() + granularity.ordinal());
+
+                GroupDataSeries series = new GroupDataSeries("group", 1, null);
+                Map<Long, Integer> expected = new HashMap<Long, Integer>();
+
+                long timestamp = new DateTime(2016, 3, 1, 0, 0, 0, timezone).getMillis();
+                long end = new DateTime(2016, 11, 30, 0, 0, 0, timezone).getMillis();
+                while (timestamp < end) {
+                    addCount(series, granularity, timestamp, timezone);
+
+                    long bucket = getBucket(granularity, timestamp, timezone);
+                    Integer count = expected.get(bucket);
+                    expected.put(bucket, (count == null ? 1 : count + 1));
+
+                    timestamp += random.nextInt(granularity == EnumTimeAggregation.HOUR ? 20 * 60 * 1000 : 6 * 60 * 60 * 1000);
+                }
+
+                assertEquals(zone + " " + granularity, expected.size(), series.getPoints().size());
+                for (DataPoint point : series.getPoints()) {
+                    Integer count = expected.get(point.getTimestamp());
+
+                    assertNotNull(zone + " " + granularity, count);
+                    assertEquals(zone + " " + granularity,
+                                 count.doubleValue(),
+                                 ((AmphiroDataPoint) point).getVolume().getValue(EnumMetric.COUNT),
+                                 DELTA);
+                }
+            }
+        }
+    }
+
+    /**
+     * Changing the time zone or the granularity of the readings added to the
+     * same series must not reuse cached time buckets.
+     */
+    @Test
+    public void testTimeBucketCacheIsResetOnTimeZoneChange() {
+        DateTimeZone athens = DateTimeZone.forID("Europe/Athens");
+        DateTimeZone kathmandu = DateTimeZone.forID("Asia/Kathmandu");
+
+        long timestamp = new DateTime(2016, 6, 15, 1, 10, 0, DateTimeZone.UTC).getMillis();
+
+        GroupDataSeries series = new GroupDataSeries("group", 1, null);
+
+        addCount(series, EnumTimeAggregation.DAY, timestamp, athens);
+        addCount(series, EnumTimeAggregation.DAY, timestamp, kathmandu);
+        addCount(series, EnumTimeAggregation.HOUR, timestamp, kathmandu);
+
+        assertEquals(3, series.getPoints().size());
+        assertEquals(getBucket(EnumTimeAggregation.DAY, timestamp, athens), (long) series.getPoints().get(0).getTimestamp());
+        assertEquals(getBucket(EnumTimeAggregation.DAY, timestamp, kathmandu), (long) series.getPoints().get(1).getTimestamp());
+        assertEquals(getBucket(EnumTimeAggregation.HOUR, timestamp, kathmandu), (long) series.getPoints().get(2).getTimestamp());
+    }
+
+    /**
+     * The timestamp index must be rebuilt when the points are replaced or
+     * modified outside of the series.
+     */
+    @Test
+    public void testPointIndexFollowsExternalChanges() {
+        long timestamp = new DateTime(2016, 6, 15, 12, 0, 0, TIMEZONE).getMillis();
+        long bucket = getBucket(EnumTimeAggregation.DAY, timestamp, TIMEZONE);
+
+        GroupDataSeries series = new GroupDataSeries("group", 1, null);
+
+        addCount(series, EnumTimeAggregation.DAY, timestamp, TIMEZONE);
+        addCount(series, EnumTimeAggregation.DAY, timestamp + 1000, TIMEZONE);
+        assertEquals(1, series.getPoints().size());
+        assertEquals(2, ((AmphiroDataPoint) series.getPoints().get(0)).getVolume().getValue(EnumMetric.COUNT), DELTA);
+
+        // Remove the point from the list
+        series.getPoints().clear();
+        addCount(series, EnumTimeAggregation.DAY, timestamp, TIMEZONE);
+        assertEquals(1, series.getPoints().size());
+        assertEquals(1, ((AmphiroDataPoint) series.getPoints().get(0)).getVolume().getValue(EnumMetric.COUNT), DELTA);
+
+        // Replace the list with a point of an earlier time bucket and the point of the same time bucket
+        AmphiroDataPoint other = new AmphiroDataPoint(bucket - 24 * 60 * 60 * 1000L);
+        other.getVolume().setValue(EnumMetric.COUNT, 0);
+
+        AmphiroDataPoint existing = new AmphiroDataPoint(bucket);
+        existing.getVolume().setValue(EnumMetric.COUNT, 5);
+
+        ArrayList<DataPoint> points = new ArrayList<DataPoint>();
+        points.add(other);
+        points.add(existing);
+        series.setPoints(points);
+
+        addCount(series, EnumTimeAggregation.DAY, timestamp, TIMEZONE);
+        assertEquals(2, series.getPoints().size());
+        assertEquals(0, other.getVolume().getValue(EnumMetric.COUNT), DELTA);
+        assertEquals(6, existing.getVolume().getValue(EnumMetric.COUNT), DELTA);
+    }
+
+    private static List<UUID> createUsers(int count) {
+        List<UUID> users = new ArrayList<UUID>();
+        for (int i = 0; i < count; i++) {
+            users.add(new UUID(0, i));
+        }
+        return users;
+    }
+
+    /**
+     * Creates rows of user, timestamp and two values in ascending timestamp
+     * order. Timestamps span several days, including a daylight saving time
+     * change.
+     */
+    private static List<Object[]> createRows(List<UUID> users, int count, long seed) {
+        Random random = new Random(seed);
+
+        long timestamp = new DateTime(2016, 3, 20, 0, 0, 0, TIMEZONE).getMillis();
+
+        List<Object[]> rows = new ArrayList<Object[]>();
+        for (int i = 0; i < count; i++) {
+            timestamp += random.nextInt(30 * 60 * 1000);
+
+            rows.add(new Object[] { users.get(random.nextInt(users.size())),
+                                    timestamp,
+                                    random.nextDouble() * 10,
+                                    random.nextDouble() * 1000 });
+        }
+        return rows;
+    }
+
+    private static List<List<Object[]>> partition(List<Object[]> rows, int count) {
+        List<List<Object[]>> partitions = new ArrayList<List<Object[]>>();
+
+        int size = (rows.size() + count - 1) / count;
+        for (int i = 0; i < rows.size(); i += size) {
+            partitions.add(rows.subList(i, Math.min(i + size, rows.size())));
+        }
+        return partitions;
+    }
+
+    private static void addMeterRow(GroupDataSeries series, Object[] row) {
+        series.addMeterRankingDataPoint(EnumTimeAggregation.DAY,
+                                        (UUID) row[0],
+                                        row[0].toString(),
+                                        (Long) row[1],
+                                        (Double) row[2],
+                                        (Double) row[3],
+                                        METER_METRICS,
+                                        TIMEZONE);
+    }
+
+    private static void addAmphiroRow(GroupDataSeries series, Object[] row) {
+        double value = (Double) row[2];
+
+        series.addAmhiroDataPoint(EnumTimeAggregation.DAY,
+                                  (Long) row[1],
+                                  value,
+                                  value * 2,
+                                  value * 3,
+                                  value * 4,
+                                  value * 5,
+                                  AMPHIRO_METRICS,
+                                  TIMEZONE);
+    }
+
+    private static void addCount(GroupDataSeries series, EnumTimeAggregation granularity, long timestamp, DateTimeZone timezone) {
+        series.addAmhiroDataPoint(granularity, timestamp, 1, 1, 1, 1, 1, Arrays.asList(EnumMetric.COUNT), timezone);
+    }
+
+    /**
+     * Computes the time bucket of a timestamp. Weeks end on Sunday. Local
+     * times that occur twice when daylight saving time ends belong to the
+     * bucket of the earlier offset.
+     */
+    private static long getBucket(EnumTimeAggregation granularity, long timestamp, DateTimeZone timezone) {
+        DateTime date = new DateTime(timestamp, timezone);
+
+        switch (granularity) {
+            case HOUR:
+                return new DateTime(date.getYear(), date.getMonthOfYear(), date.getDayOfMonth(), date.getHourOfDay(), 0, 0, timezone).getMillis();
+            case DAY:
+                return date.withTimeAtStartOfDay().getMillis();
+            case WEEK:
+                return date.withDayOfWeek(DateTimeConstants.SUNDAY).withTimeAtStartOfDay().getMillis();
+            case MONTH:
+                return date.withDayOfMonth(1).withTimeAtStartOfDay().getMillis();
+            case YEAR:
+                return date.withDayOfYear(1).withTimeAtStartOfDay().getMillis();
+            default:
+                throw new IllegalArgumentException("Granularity level not supported.");
+        }
+    }
+
+    private static void assertRankingEquals(GroupDataSeries expected, GroupDataSeries actual) {
+        Map<Long, Map<UUID, MetricValues>> expectedUsers = new HashMap<Long, Map<UUID, MetricValues>>();
+        for (DataPoint point : expected.getPoints()) {
+            Map<UUID, MetricValues> users = new HashMap<UUID, MetricValues>();
+            for (UserDataPoint user : ((RankingDataPoint) point).getUsers()) {
+                users.put(user.getKey(), ((MeterUserDataPoint) user).getVolume());
+            }
+            expectedUsers.put(point.getTimestamp(), users);
+        }
+
+        for (DataPoint point : actual.getPoints()) {
+            Map<UUID, MetricValues> users = expectedUsers.get(point.getTimestamp());
+            assertNotNull(users);
+
+            List<UserDataPoint> actualUsers = ((RankingDataPoint) point).getUsers();
+            assertEquals(users.size(), actualUsers.size());
+
+            for (UserDataPoint user : actualUsers) {
+                assertTrue(users.containsKey(user.getKey()));
+                assertMetricsEquals(users.get(user.getKey()), ((MeterUserDataPoint) user).getVolume());
+            }
+        }
+    }
+
+    private static void assertMetricsEquals(MetricValues expected, MetricValues actual) {
+        assertEquals(expected.size(), actual.size());
+        for (EnumMetric metric : EnumMetric.values()) {
+            assertEquals(expected.has(metric), actual.has(metric));
+            assertEquals(expected.getValue(metric), actual.getValue(metric), DELTA);
+        }
+    }
+
+}
@@ -0,0 +1,158 @@
+package eu.daiad.web.model.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class MetricValuesTest {
+
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void testEmpty() {
+        MetricValues values = new MetricValues();
+
+        assertTrue(values.isEmpty());
+        assertEquals(0, values.size());
+        for (EnumMetric metric : EnumMetric.values()) {
+            assertFalse(values.has(metric));
+            assertFalse(values.containsKey(metric));
+            assertNull(values.get(metric));
+            assertEquals(0, values.getValue(metric), DELTA);
+        }
+        assertFalse(values.entrySet().iterator().hasNext());
+    }
+
+    @Test
+    public void testPrimitiveAndMapAccessorsAgree() {
+        MetricValues values = new MetricValues();
+
+        values.setValue(EnumMetric.SUM, 12.5);
+        assertNull(values.put(EnumMetric.MAX, 3.0));
+        assertEquals(3.0, values.put(EnumMetric.MAX, 4.0), DELTA);
+
+        assertEquals(2, values.size());
+        assertTrue(values.has(EnumMetric.SUM));
+        assertTrue(values.containsKey(EnumMetric.MAX));
+        assertEquals(12.5, values.get(EnumMetric.SUM), DELTA);
+        assertEquals(4.0, values.getValue(EnumMetric.MAX), DELTA);
+
+        // A zero value is present
+        values.setValue(EnumMetric.COUNT, 0);
+        assertTrue(values.containsKey(EnumMetric.COUNT));
+        assertEquals(0.0, values.get(EnumMetric.COUNT), DELTA);
+
+        assertFalse(values.containsKey("SUM"));
+        assertNull(values.get("SUM"));
+        assertNull(values.get(null));
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testPutNullValue() {
+        new MetricValues().put(EnumMetric.SUM, null);
+    }
+
+    @Test
+    public void testRemoveAndClear() {
+        MetricValues values = new MetricValues();
+        values.setValue(EnumMetric.MIN, 1.0);
+        values.setValue(EnumMetric.MAX, 2.0);
+
+        assertEquals(1.0, values.remove(EnumMetric.MIN), DELTA);
+        assertNull(values.remove(EnumMetric.MIN));
+        assertNull(values.remove("MAX"));
+        assertFalse(values.has(EnumMetric.MIN));
+        assertEquals(0, values.getValue(EnumMetric.MIN), DELTA);
+        assertEquals(1, values.size());
+
+        values.clear();
+        assertTrue(values.isEmpty());
+        assertFalse(values.has(EnumMetric.MAX));
+    }
+
+    @Test
+    public void testEqualsHashCodeAndEntries() {
+        MetricValues values = new MetricValues();
+        Map<EnumMetric, Double> expected = new EnumMap<EnumMetric, Double>(EnumMetric.class);
+
+        double value = 1.0;
+        for (EnumMetric metric : EnumMetric.values()) {
+            values.put(metric, value);
+            expected.put(metric, value);
+            value *= 2;
+        }
+
+        assertEquals(expected, values);
+        assertEquals(values, expected);
+        assertEquals(expected.hashCode(), values.hashCode());
+        assertEquals(expected.entrySet(), values.entrySet());
+
+        // Entries are iterated in metric order and write through
+        int ordinal = 0;
+        for (Map.Entry<EnumMetric, Double> entry : values.entrySet()) {
+            assertEquals(EnumMetric.values()[ordinal++], entry.getKey());
+            entry.setValue(entry.getValue() + 1);
+        }
+        for (EnumMetric metric : EnumMetric.values()) {
+            assertEquals(expected.get(metric) + 1, values.getValue(metric), DELTA);
+        }
+    }
+
+    @Test
+    public void testIteratorRemove() {
+        MetricValues values = new MetricValues();
+        values.setValue(EnumMetric.COUNT, 1.0);
+        values.setValue(EnumMetric.SUM, 2.0);
+        values.setValue(EnumMetric.MAX, 3.0);
+
+        Iterator<Map.Entry<EnumMetric, Double>> iterator = values.entrySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().getKey() == EnumMetric.SUM) {
+                iterator.remove();
+            }
+        }
+
+        assertEquals(2, values.size());
+        assertFalse(values.has(EnumMetric.SUM));
+        assertTrue(values.has(EnumMetric.COUNT));
+        assertTrue(values.has(EnumMetric.MAX));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testIteratorRemoveBeforeNext() {
+        MetricValues values = new MetricValues();
+        values.setValue(EnumMetric.COUNT, 1.0);
+
+        values.entrySet().iterator().remove();
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testIteratorNextAfterEnd() {
+        new MetricValues().entrySet().iterator().next();
+    }
+
+    @Test
+    public void testSerializedAsMap() throws Exception {
+        MetricValues values = new MetricValues();
+        values.setValue(EnumMetric.SUM, 2.5);
+        values.setValue(EnumMetric.COUNT, 1.0);
+
+        Map<EnumMetric, Double> expected = new EnumMap<EnumMetric, Double>(EnumMetric.class);
+        expected.put(EnumMetric.COUNT, 1.0);
+        expected.put(EnumMetric.SUM, 2.5);
+
+        ObjectMapper mapper = new ObjectMapper();
+        assertEquals(mapper.writeValueAsString(expected), mapper.writeValueAsString(values));
+    }
+
+}
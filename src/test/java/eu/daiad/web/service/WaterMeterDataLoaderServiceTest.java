@@ -0,0 +1,215 @@
+package eu.daiad.web.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import eu.daiad.web.model.loader.FileProcessingStatus;
+import eu.daiad.web.model.meter.WaterMeterMeasurement;
+import eu.daiad.web.model.meter.WaterMeterMeasurementCollection;
+import eu.daiad.web.model.meter.WaterMeterStatusCacheStatistics;
+import eu.daiad.web.repository.application.IMeterDataRepository;
+
+public class WaterMeterDataLoaderServiceTest {
+
+    private static final DateTimeFormatter formatter = DateTimeFormat.forPattern("dd/MM/yyyy HH:mm:ss").withZone(DateTimeZone.UTC);
+
+    private WaterMeterDataLoaderService service;
+
+    /**
+     * Readings stored by the service indexed by serial number. Differences
+     * are recorded before the repository computes them.
+     */
+    private Map<String, List<WaterMeterMeasurement>> stored;
+
+    private int storeCalls;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        stored = new HashMap<String, List<WaterMeterMeasurement>>();
+        storeCalls = 0;
+
+        service = new WaterMeterDataLoaderService();
+        service.waterMeterMeasurementRepository = createRepository();
+        ReflectionTestUtils.setField(service, "bulkEnabled", true);
+        ReflectionTestUtils.setField(service, "bulkBatchSize", 10000);
+
+        file = File.createTempFile("meter-data", ".csv");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    /**
+     * Lines are tokenized by a single delimiter character. Adjacent and
+     * trailing delimiters do not create empty tokens and lines with an
+     * unsupported number of tokens are skipped.
+     */
+    @Test
+    public void testTokenizer() throws IOException {
+        write(new String[] {
+            "S1;01/01/2016 00:00:00;10",
+            "S1;;01/01/2016 01:00:00;;11;",
+            "",
+            "a;b;S2;01/01/2016 00:00:00;5;1",
+            "a;b;S2;01/01/2016 01:00:00;7.5;x",
+            "S3;01/01/2016 00:00:00",
+            "a;b;S4;01/01/2016 00:00:00;1;2;3",
+            "S5;01-01-2016;1",
+            "S6;01/01/2016 00:00:00;abc"
+        });
+
+        FileProcessingStatus status = service.parse(file.getAbsolutePath(), "UTC");
+
+        assertEquals(9, status.getTotalRows());
+        assertEquals(5, status.getSkippedRows());
+        assertEquals(4, status.getProcessedRows());
+        assertEquals(2, stored.size());
+
+        List<WaterMeterMeasurement> s1 = stored.get("S1");
+        assertEquals(2, s1.size());
+        assertEquals(10f, s1.get(0).getVolume(), 0f);
+        assertEquals(11f, s1.get(1).getVolume(), 0f);
+        assertEquals(1f, s1.get(1).getDifference(), 0f);
+        assertEquals(formatter.parseMillis("01/01/2016 01:00:00"), s1.get(1).getTimestamp());
+
+        List<WaterMeterMeasurement> s2 = stored.get("S2");
+        assertEquals(2, s2.size());
+        assertEquals(7.5f, s2.get(1).getVolume(), 0f);
+        assertEquals(2.5f, s2.get(1).getDifference(), 0f);
+
+        // The first reading of every meter is synchronized by the repository
+        assertNull(s1.get(0).getDifference());
+        assertNull(s2.get(0).getDifference());
+
+        assertEquals(formatter.parseMillis("01/01/2016 00:00:00"), (long) status.getMinTimestamp());
+        assertEquals(formatter.parseMillis("01/01/2016 01:00:00"), (long) status.getMaxTimestamp());
+    }
+
+    /**
+     * Files with more rows than a chunk are imported in several chunks. The
+     * first reading of every meter in a chunk gets its difference from the
+     * last reading of the meter in the previous chunk.
+     */
+    @Test
+    public void testChunkTail() throws IOException {
+        int chunkSize = (Integer) ReflectionTestUtils.getField(WaterMeterDataLoaderService.class, "CHUNK_SIZE");
+        int count = chunkSize + 10;
+
+        long start = new DateTime(2016, 1, 1, 0, 0, 0, DateTimeZone.UTC).getMillis();
+
+        // Interleave two meters; every meter reading increases the volume by 2
+        String[] lines = new String[count];
+        for (int i = 0; i < count; i++) {
+            lines[i] = String.format("%s;%s;%d", (i % 2 == 0 ? "M1" : "M2"), formatter.print(start + i * 60000L), i);
+        }
+        write(lines);
+
+        FileProcessingStatus status = service.parse(file.getAbsolutePath(), "UTC");
+
+        assertEquals(count, status.getTotalRows());
+        assertEquals(count, status.getProcessedRows());
+        assertEquals(0, status.getSkippedRows());
+        assertEquals(0, status.getNegativeDifference());
+        assertTrue(storeCalls > 1);
+
+        for (String serial : new String[] { "M1", "M2" }) {
+            List<WaterMeterMeasurement> measurements = stored.get(serial);
+            assertNotNull(measurements);
+            assertEquals(count / 2, measurements.size());
+
+            assertNull(measurements.get(0).getDifference());
+            for (int i = 1; i < measurements.size(); i++) {
+                assertTrue(measurements.get(i - 1).getTimestamp() < measurements.get(i).getTimestamp());
+                assertNotNull(serial + " " + i, measurements.get(i).getDifference());
+                assertEquals(serial + " " + i, 2f, measurements.get(i).getDifference(), 0f);
+            }
+        }
+    }
+
+    private void write(String[] lines) throws IOException {
+        BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8);
+        try {
+            for (String line : lines) {
+                writer.write(line);
+                writer.newLine();
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Creates a repository that records stored readings and sets every
+     * difference left unset to zero.
+     */
+    private IMeterDataRepository createRepository() {
+        InvocationHandler handler = new InvocationHandler() {
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if ((method.getName().equals("store")) && (args.length == 1)) {
+                    storeCalls++;
+
+                    Map<String, WaterMeterMeasurementCollection> data = (Map<String, WaterMeterMeasurementCollection>) args[0];
+                    for (Map.Entry<String, WaterMeterMeasurementCollection> entry : data.entrySet()) {
+                        List<WaterMeterMeasurement> measurements = stored.get(entry.getKey());
+                        if (measurements == null) {
+                            measurements = new ArrayList<WaterMeterMeasurement>();
+                            stored.put(entry.getKey(), measurements);
+                        }
+                        for (WaterMeterMeasurement m : entry.getValue().getMeasurements()) {
+                            WaterMeterMeasurement copy = new WaterMeterMeasurement();
+                            copy.setTimestamp(m.getTimestamp());
+                            copy.setVolume(m.getVolume());
+                            copy.setDifference(m.getDifference());
+                            measurements.add(copy);
+
+                            if (m.getDifference() == null) {
+                                m.setDifference(0f);
+                            }
+                        }
+                    }
+                    return null;
+                }
+                if (method.getName().equals("getStatusCacheStatistics")) {
+                    return new WaterMeterStatusCacheStatistics(0, 0, 0, 0, 0);
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        };
+
+        return (IMeterDataRepository) Proxy.newProxyInstance(IMeterDataRepository.class.getClassLoader(),
+                                                             new Class<?>[] { IMeterDataRepository.class },
+                                                             handler);
+    }
+
+}
@@ -0,0 +1,153 @@
+package eu.daiad.web.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class QuantilesTest {
+
+    @Test
+    public void testSelectMatchesSortedOrder() {
+        Random random = new Random(1L);
+
+        for (int length = 1; length <= 64; length++) {
+            double[] values = new double[length];
+            for (int i = 0; i < length; i++) {
+                // Few distinct values for many duplicates
+                values[i] = random.nextInt(5);
+            }
+
+            double[] sorted = values.clone();
+            Arrays.sort(sorted);
+
+            for (int k = 0; k < length; k++) {
+                double[] copy = values.clone();
+
+                assertEquals("length " + length + " rank " + k, sorted[k], Quantiles.select(copy, length, k), 0);
+
+                // Values are only reordered
+                Arrays.sort(copy);
+                assertTrue(Arrays.equals(sorted, copy));
+            }
+        }
+    }
+
+    @Test
+    public void testSelectFirstAndLast() {
+        double[] values = { 5, -1, 3, 3, 9, 0, 9, -1 };
+
+        assertEquals(-1, Quantiles.select(values.clone(), values.length, 0), 0);
+        assertEquals(9, Quantiles.select(values.clone(), values.length, values.length - 1), 0);
+    }
+
+    @Test
+    public void testSelectAllEqual() {
+        double[] values = new double[100];
+        Arrays.fill(values, 7);
+
+        assertEquals(7, Quantiles.select(values, values.length, 0), 0);
+        assertEquals(7, Quantiles.select(values, values.length, 50), 0);
+        assertEquals(7, Quantiles.select(values, values.length, 99), 0);
+    }
+
+    @Test
+    public void testSelectIgnoresValuesAfterLength() {
+        double[] values = { 4, 2, 3, -100, -200 };
+
+        assertEquals(2, Quantiles.select(values, 3, 0), 0);
+        assertEquals(4, Quantiles.select(values, 3, 2), 0);
+        assertEquals(-100, values[3], 0);
+        assertEquals(-200, values[4], 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSelectNegativeRank() {
+        Quantiles.select(new double[] { 1, 2 }, 2, -1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSelectRankOutOfRange() {
+        Quantiles.select(new double[] { 1, 2, 3 }, 2, 2);
+    }
+
+    @Test
+    public void testPercentile() {
+        double[] values = { 10, 20, 30, 40, 50 };
+
+        assertEquals(10, Quantiles.percentile(values.clone(), 5, 0), 0);
+        assertEquals(30, Quantiles.percentile(values.clone(), 5, 0.5), 0);
+        assertEquals(50, Quantiles.percentile(values.clone(), 5, 0.99), 0);
+        // Ratios outside [0, 1) are clamped
+        assertEquals(50, Quantiles.percentile(values.clone(), 5, 1), 0);
+        assertEquals(10, Quantiles.percentile(values.clone(), 5, -0.5), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPercentileWithoutValues() {
+        Quantiles.percentile(new double[0], 0, 0.5);
+    }
+
+    @Test
+    public void testSketchIsExactForFewValues() {
+        QuantileSketch sketch = new QuantileSketch(200, new Random(1L));
+        assertTrue(Double.isNaN(sketch.quantile(0.5)));
+
+        double[] values = new double[100];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = values.length - i;
+            sketch.add(values[i]);
+        }
+        sketch.add(Double.NaN);
+
+        assertEquals(values.length, sketch.getCount());
+        for (double ratio : new double[] { 0, 0.1, 0.5, 0.9, 0.99 }) {
+            assertEquals(Quantiles.percentile(values.clone(), values.length, ratio), sketch.quantile(ratio), 0);
+        }
+    }
+
+    @Test
+    public void testSketchRankError() {
+        Random random = new Random(2L);
+
+        int count = 100000;
+        double[] values = new double[count];
+
+        QuantileSketch sketch = new QuantileSketch(200, new Random(3L));
+        QuantileSketch left = new QuantileSketch(200, new Random(4L));
+        QuantileSketch right = new QuantileSketch(200, new Random(5L));
+        for (int i = 0; i < count; i++) {
+            values[i] = random.nextGaussian();
+            sketch.add(values[i]);
+            if (i % 2 == 0) {
+                left.add(values[i]);
+            } else {
+                right.add(values[i]);
+            }
+        }
+        left.merge(right);
+
+        assertEquals(count, sketch.getCount());
+        assertEquals(count, left.getCount());
+
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+
+        for (double ratio : new double[] { 0.05, 0.25, 0.5, 0.75, 0.95 }) {
+            assertRankError(sorted, ratio, sketch.quantile(ratio), 0.02);
+            assertRankError(sorted, ratio, left.quantile(ratio), 0.02);
+        }
+    }
+
+    private static void assertRankError(double[] sorted, double ratio, double estimate, double epsilon) {
+        int rank = Arrays.binarySearch(sorted, estimate);
+        assertTrue(rank >= 0);
+
+        double error = Math.abs(((double) rank / sorted.length) - ratio);
+        assertTrue("ratio " + ratio + " error " + error, error <= epsilon);
+    }
+
+}